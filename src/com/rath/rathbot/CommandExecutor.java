@@ -0,0 +1,457 @@
+package com.rath.rathbot;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rath.rathbot.cmd.RBCommand;
+
+import sx.blah.discord.handle.obj.IMessage;
+
+/**
+ * This class runs dispatched commands. In the default inline mode, a command runs on the thread that parsed it. In
+ * async mode, each command runs on a worker from an elastic pool of small-stack threads, so a command blocked on a
+ * Discord REST call doesn't hold up the command stage of the pipeline:
+ * 
+ * <ul>
+ * <li>Commands from the same member are serialized, so they still run in the order they were issued.</li>
+ * <li>Each command class can have at most a configured number of executions in flight at once. A member whose next
+ * command is over its class's cap waits in that class's queue without holding a worker thread, and is put back on the
+ * pool when an execution of the class finishes.</li>
+ * </ul>
+ * 
+ * In inline mode, the caps aren't applied; the command stage's lanes already bound how many commands run at once.
+ * 
+ * The mode is set with the optional config value "commandExecMode" ("inline" or "async"). A command's concurrency
+ * cap is set with "maxConcurrent.&lt;commandName&gt;".
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class CommandExecutor {
+  
+  /** The ways a command can be executed. */
+  public enum ExecutionMode {
+    
+    /** Run the command on the thread that parsed it. */
+    INLINE,
+    
+    /** Run the command on a pooled worker, serialized per member. */
+    ASYNC
+  }
+  
+  /** The most worker threads the pool will grow to. Tasks past this many wait in the pool's queue. */
+  private static final int MAX_WORKER_THREADS = 512;
+  
+  /** The stack size for worker threads, in bytes. Commands don't recurse deeply, so these can be kept small. */
+  private static final long WORKER_STACK_SIZE = 256L * 1024L;
+  
+  /** How long an idle worker thread lives before it exits, in seconds. */
+  private static final long WORKER_KEEP_ALIVE_SECS = 30L;
+  
+  /** The concurrency cap used when a command doesn't have one configured. */
+  private static final int DEFAULT_MAX_CONCURRENT = 32;
+  
+  /** How long to wait for running commands during shutdown, in milliseconds. */
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
+  
+  /** The current execution mode. */
+  private static volatile ExecutionMode mode = ExecutionMode.INLINE;
+  
+  /** The worker pool for async mode. */
+  private static volatile ThreadPoolExecutor pool = null;
+  
+  /** Maps a member's ID to the lane that serializes their commands. Idle lanes are removed. */
+  private static final ConcurrentHashMap<Long, MemberLane> memberLanes = new ConcurrentHashMap<Long, MemberLane>();
+  
+  /** Maps a command class to the gate that caps its concurrent executions. */
+  private static final ConcurrentHashMap<Class<?>, CommandGate> commandGates =
+      new ConcurrentHashMap<Class<?>, CommandGate>();
+  
+  /**
+   * Reads the execution mode from the config and starts the worker pool if needed.
+   */
+  public static final synchronized void init() {
+    
+    final String modeName = RBConfig.getOptionalValue("commandExecMode", "inline");
+    if ("async".equalsIgnoreCase(modeName)) {
+      setExecutionMode(ExecutionMode.ASYNC);
+    } else {
+      setExecutionMode(ExecutionMode.INLINE);
+    }
+  }
+  
+  /**
+   * Sets the execution mode.
+   * 
+   * @param newMode the new ExecutionMode.
+   */
+  public static final synchronized void setExecutionMode(final ExecutionMode newMode) {
+    
+    if (newMode == ExecutionMode.ASYNC && pool == null) {
+      pool = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS, WORKER_KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+      pool.allowCoreThreadTimeOut(true);
+    }
+    
+    mode = newMode;
+    System.out.println("Command execution mode set to " + newMode + ".");
+  }
+  
+  /**
+   * Gets the execution mode.
+   * 
+   * @return the current ExecutionMode.
+   */
+  public static final ExecutionMode getExecutionMode() {
+    return mode;
+  }
+  
+  /**
+   * Executes a command that has already passed its permission checks.
+   * 
+   * @param cmd the command to execute.
+   * @param msg the IMessage the command came from.
+   * @param tokens the message's tokens.
+   * @param tokenDepth the index of the token the command was matched at.
+   */
+  public static final void execute(final RBCommand cmd, final IMessage msg, final String[] tokens,
+      final int tokenDepth) {
+    
+    if (mode != ExecutionMode.ASYNC) {
+      runCommand(cmd, msg, tokens, tokenDepth);
+      return;
+    }
+    
+    final QueuedCommand task = new QueuedCommand(getGate(cmd)) {
+      
+      @Override
+      public void run() {
+        runCommand(cmd, msg, tokens, tokenDepth);
+      }
+    };
+    
+    // Queue the command behind the member's other commands. A lane that went idle and retired gets replaced.
+    final long userID = msg.getAuthor().getLongID();
+    while (true) {
+      
+      MemberLane lane = memberLanes.get(userID);
+      if (lane == null) {
+        final MemberLane created = new MemberLane(userID);
+        lane = memberLanes.putIfAbsent(userID, created);
+        if (lane == null) {
+          lane = created;
+        }
+      }
+      
+      if (lane.offer(task)) {
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Gets the number of members whose commands are queued or running on the pool in async mode. Members waiting for
+   * their next command's class to have room aren't counted.
+   * 
+   * @return a non-negative int.
+   */
+  public static final synchronized int getPendingCount() {
+    
+    if (pool == null) {
+      return 0;
+    }
+    return pool.getQueue().size() + pool.getActiveCount();
+  }
+  
+  /**
+   * Gets the number of members whose next command is waiting for its class to have room.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getWaitingCount() {
+    
+    int total = 0;
+    for (final CommandGate gate : commandGates.values()) {
+      total += gate.getWaitingCount();
+    }
+    return total;
+  }
+  
+  /**
+   * Waits for running and queued commands to finish, then stops the worker pool.
+   */
+  public static final synchronized void shutdown() {
+    
+    mode = ExecutionMode.INLINE;
+    if (pool == null) {
+      return;
+    }
+    
+    System.out.print("Waiting for running commands... ");
+    pool.shutdown();
+    boolean finished = false;
+    try {
+      finished = pool.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (@SuppressWarnings("unused") InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    pool = null;
+    System.out.println(finished ? "DONE" : "TIMED OUT");
+  }
+  
+  /**
+   * Runs a command, reporting anything it throws.
+   * 
+   * @param cmd the command to execute.
+   * @param msg the IMessage the command came from.
+   * @param tokens the message's tokens.
+   * @param tokenDepth the index of the token the command was matched at.
+   */
+  private static final void runCommand(final RBCommand cmd, final IMessage msg, final String[] tokens,
+      final int tokenDepth) {
+    
+    try {
+      cmd.executeCommand(msg, tokens, tokenDepth);
+    } catch (RuntimeException re) {
+      System.err.println("Error executing command " + cmd.getCommandName() + "!");
+      re.printStackTrace();
+    }
+  }
+  
+  /**
+   * Gets the gate for a command's class, creating it from the config the first time.
+   * 
+   * @param cmd the command.
+   * @return the CommandGate capping the command's concurrent executions.
+   */
+  private static final CommandGate getGate(final RBCommand cmd) {
+    
+    final Class<?> cmdClass = cmd.getClass();
+    CommandGate result = commandGates.get(cmdClass);
+    if (result == null) {
+      final int cap = Math.max(1,
+          RBConfig.getOptionalInt("maxConcurrent." + cmd.getCommandName(), DEFAULT_MAX_CONCURRENT));
+      final CommandGate created = new CommandGate(cap);
+      result = commandGates.putIfAbsent(cmdClass, created);
+      if (result == null) {
+        result = created;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Puts a lane on the worker pool, or runs it on this thread if the pool is shutting down, so its commands aren't
+   * lost.
+   * 
+   * @param lane the lane.
+   */
+  private static final void schedule(final MemberLane lane) {
+    
+    final ThreadPoolExecutor p = pool;
+    try {
+      if (p == null) {
+        throw new RejectedExecutionException();
+      }
+      p.execute(lane);
+    } catch (@SuppressWarnings("unused") RejectedExecutionException ree) {
+      lane.run();
+    }
+  }
+  
+  /**
+   * A command waiting in a member's lane, along with the gate of its class.
+   */
+  private static abstract class QueuedCommand implements Runnable {
+    
+    /** The gate of the command's class. */
+    final CommandGate gate;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param gate the gate of the command's class.
+     */
+    QueuedCommand(final CommandGate gate) {
+      this.gate = gate;
+    }
+  }
+  
+  /**
+   * Caps how many executions of one command class run at once. Lanes that find the class full wait here, in order,
+   * instead of blocking a thread; each finishing execution hands its slot straight to the next waiting lane.
+   */
+  private static final class CommandGate {
+    
+    /** The most executions that may run at once. */
+    private final int cap;
+    
+    /** The number of executions running, counting slots handed to lanes not yet back on the pool. */
+    private int running = 0;
+    
+    /** Lanes waiting for a slot, oldest first. */
+    private final ArrayDeque<MemberLane> waiting = new ArrayDeque<MemberLane>();
+    
+    /**
+     * Default constructor.
+     * 
+     * @param cap the most executions that may run at once.
+     */
+    CommandGate(final int cap) {
+      this.cap = cap;
+    }
+    
+    /**
+     * Takes a slot if there's one free, or queues the lane to be rescheduled once there is.
+     * 
+     * @param lane the lane whose next command is of this class.
+     * @return true if the lane got a slot; false if it was queued and must give up its thread.
+     */
+    synchronized boolean enter(final MemberLane lane) {
+      
+      if (this.running < this.cap) {
+        this.running++;
+        return true;
+      }
+      this.waiting.add(lane);
+      return false;
+    }
+    
+    /**
+     * Frees a slot, handing it to the next waiting lane and rescheduling that lane if there is one.
+     */
+    void leave() {
+      
+      final MemberLane next;
+      synchronized (this) {
+        next = this.waiting.poll();
+        if (next == null) {
+          this.running--;
+          return;
+        }
+      }
+      next.admitted = true;
+      schedule(next);
+    }
+    
+    /**
+     * Gets the number of lanes waiting for a slot.
+     * 
+     * @return a non-negative int.
+     */
+    synchronized int getWaitingCount() {
+      return this.waiting.size();
+    }
+  }
+  
+  /**
+   * Queues the pending commands for one member and runs them one at a time on the worker pool.
+   */
+  private static final class MemberLane implements Runnable {
+    
+    /** The member's ID. */
+    private final long userID;
+    
+    /** The member's pending commands. */
+    private final ArrayDeque<QueuedCommand> tasks = new ArrayDeque<QueuedCommand>();
+    
+    /** Whether this lane is queued, running, or waiting at a gate. */
+    private boolean scheduled = false;
+    
+    /**
+     * Whether the lane's next command was handed a slot by its gate while the lane waited. Only touched by whichever
+     * thread is running the lane.
+     */
+    private boolean admitted = false;
+    
+    /** Whether this lane went idle and was removed from the lane map. A retired lane accepts no more tasks. */
+    private boolean retired = false;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param userID the member's ID.
+     */
+    MemberLane(final long userID) {
+      this.userID = userID;
+    }
+    
+    /**
+     * Adds a command to this lane, scheduling the lane if it's idle.
+     * 
+     * @param task the command to run.
+     * @return true if the command was added; false if this lane is retired.
+     */
+    boolean offer(final QueuedCommand task) {
+      
+      synchronized (this) {
+        if (this.retired) {
+          return false;
+        }
+        this.tasks.add(task);
+        if (this.scheduled) {
+          return true;
+        }
+        this.scheduled = true;
+      }
+      
+      // Outside the lock, since a pool that's shutting down runs the lane right here
+      schedule(this);
+      return true;
+    }
+    
+    @Override
+    public void run() {
+      
+      while (true) {
+        
+        final QueuedCommand next;
+        synchronized (this) {
+          next = this.tasks.peek();
+          if (next == null) {
+            this.scheduled = false;
+            this.retired = true;
+            memberLanes.remove(this.userID, this);
+            return;
+          }
+        }
+        
+        // If the command's class is full, give the thread back; the gate reschedules this lane when there's room
+        if (!this.admitted && !next.gate.enter(this)) {
+          return;
+        }
+        this.admitted = false;
+        synchronized (this) {
+          this.tasks.poll();
+        }
+        
+        try {
+          next.run();
+        } finally {
+          next.gate.leave();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Creates small-stack daemon threads for the worker pool.
+   */
+  private static final class WorkerThreadFactory implements ThreadFactory {
+    
+    /** The number of threads created so far, used for naming. */
+    private final AtomicInteger threadCount = new AtomicInteger();
+    
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread t = new Thread(null, r, "rb-cmd-worker-" + this.threadCount.incrementAndGet(), WORKER_STACK_SIZE);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -1,8 +1,10 @@
 
 package com.rath.rathbot;
 
+import com.rath.rathbot.cmd.CommandTrie;
 import com.rath.rathbot.cmd.PermissionsTable;
 import com.rath.rathbot.cmd.RBCommand;
+import com.rath.rathbot.util.CommandTokenizer;
 
 import sx.blah.discord.handle.obj.IChannel;
 import sx.blah.discord.handle.obj.IMessage;
@@ -32,7 +34,7 @@ public class CommandParser {
     System.out.println("Received command: \"" + msgString + "\".");
     
     // Split into tokens separated by spaces, ignoring spaces between quotes
-    final String[] tokens = msgString.split("\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?");
+    final String[] tokens = CommandTokenizer.tokenize(msgString);
     
     // Ensure the message isn't just the prefix
     if (tokens.length <= 1) {
@@ -40,30 +42,37 @@ public class CommandParser {
       return;
     }
     
-    // Extract the command name and command reference
+    // Resolve the command and any subcommands named by the tokens
     DBG.pl("Extracting command.");
-    final String cmdName = tokens[1].trim().toLowerCase();
-    final RBCommand cmd = RathBot.getCommandMap().get(cmdName);
+    final CommandTrie trie = RathBot.getCommandTrie();
+    final CommandTrie.Node node = (trie == null) ? null : trie.resolve(tokens);
     
     // If no command exists
-    if (cmd == null) {
+    if (node == null) {
       RathBot.sendMessage(channel, "Invalid command. Type \"rb! help\" for a list of commands.");
       return;
     }
     
-    // If the user doesn't have an entry on the permissions table, initialize them and save
+    // Members without an entry on the permissions table have the default level
     DBG.pl("Checking permissions.");
     final long userID = author.getLongID();
-    if (!PermissionsTable.hasUser(userID)) {
-      PermissionsTable.initUser(userID);
-      System.out.println("Initialized " + author.getName() + " in perm table.");
-    }
     
-    // Check permissions for this command.
-    if (PermissionsTable.getLevel(userID) >= cmd.permissionLevelRequired()) {
+    // Check permissions for the command and each subcommand on the way to the one being executed
+    final int userLevel = PermissionsTable.getLevel(userID);
+    for (int depth = CommandTrie.ROOT_TOKEN_INDEX; depth <= node.getDepth(); depth++) {
+      
+      final RBCommand cmd = node.getAncestor(depth).getCommand();
+      if (userLevel < cmd.permissionLevelRequired()) {
+        
+        // Log and notify the author that they don't have the required permissions level
+        System.out.println("User " + author.getName() + " tried to execute " + cmd.getCommandName()
+            + " with permission level " + userLevel + " (" + cmd.permissionLevelRequired() + " required).");
+        RathBot.sendMessage(channel, "You do not have the required permissions for that command.");
+        return;
+      }
       
       // If a PM-only command was issued in a public channel
-      if (cmd.requiresDirectMessage() && !channel.isPrivate()) {
+      if (depth == CommandTrie.ROOT_TOKEN_INDEX && cmd.requiresDirectMessage() && !channel.isPrivate()) {
         
         // Delete the message and post a notification.
         try {
@@ -78,18 +87,10 @@ public class CommandParser {
         RathBot.sendMessage(channel, "This command can only be issued in a direct message to RathBot.");
         return;
       }
-      
-      // Execute the command that matches
-      cmd.executeCommand(message, tokens, 1);
-      
-    } else {
-      
-      // Log and notify the author that they don't have the required permissions level
-      System.out.println(
-          "User " + author.getName() + " tried to execute " + cmd.getCommandName() + " with permission level "
-              + PermissionsTable.getLevel(userID) + " (" + cmd.permissionLevelRequired() + " required).");
-      RathBot.sendMessage(channel, "You do not have the required permissions for that command.");
     }
     
+    // Execute the deepest command that matches
+    CommandExecutor.execute(node.getCommand(), message, tokens, node.getDepth());
+    
   }
 }
@@ -1,12 +1,22 @@
 
 package com.rath.rathbot;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Scanner;
 import java.util.TreeMap;
 
 import com.rath.rathbot.cmd.PermissionsTable;
 import com.rath.rathbot.disc.Infractions;
+import com.rath.rathbot.disc.JoinGuard;
+import com.rath.rathbot.log.LoggedMessage;
+import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.msg.AntiSpam;
+import com.rath.rathbot.msg.GibberishModel;
+import com.rath.rathbot.msg.GibberishTrainer;
+import com.rath.rathbot.msg.WordFilter;
+import com.rath.rathbot.util.CommandTokenizer;
 
 import sx.blah.discord.handle.obj.IUser;
 
@@ -26,7 +36,7 @@ public class ConsoleHandler {
       
       // Split command into tokens
       final String line = cin.nextLine();
-      final String[] tokens = line.split("\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?");
+      final String[] tokens = CommandTokenizer.tokenize(line);
       if (tokens.length < 1) continue;
       switch (tokens[0]) {
         
@@ -105,9 +115,6 @@ public class ConsoleHandler {
         case "mute":
           if (tokens.length == 2) {
             final long uid = Long.parseLong(tokens[1]);
-            if (!Infractions.hasMember(uid)) {
-              Infractions.initMember(uid);
-            }
             Infractions.setMuted(uid, true);
           }
         break;
@@ -116,9 +123,6 @@ public class ConsoleHandler {
         case "unmute":
           if (tokens.length == 2) {
             final long uid = Long.parseLong(tokens[1]);
-            if (!Infractions.hasMember(uid)) {
-              Infractions.initMember(uid);
-            }
             Infractions.setMuted(uid, false);
           }
         break;
@@ -133,6 +137,101 @@ public class ConsoleHandler {
           }
         break;
       
+        // Anti-spam tracker metrics
+        case "spamstats":
+          System.out.println(AntiSpam.getTrackerStats());
+        break;
+        
+        // Raid detection metrics, or end a guild's raid mode early with "raid off <guildID>"
+        case "raid":
+          if (tokens.length == 1) {
+            System.out.println(AntiSpam.getRaidStats());
+          } else if (tokens.length == 3 && tokens[1].equals("off")) {
+            try {
+              final long gid = Long.parseLong(tokens[2]);
+              System.out.println(AntiSpam.endRaidMode(gid) ? "Raid mode ended." : "That guild isn't in raid mode.");
+            } catch (NumberFormatException nfe) {
+              nfe.printStackTrace();
+            }
+          }
+        break;
+        
+        // Join raid shield metrics, or start or end a lockdown with "lockdown on" or "lockdown off"
+        case "lockdown":
+          if (tokens.length == 1) {
+            System.out.println(JoinGuard.getStats());
+          } else if (tokens.length == 2 && (tokens[1].equals("on") || tokens[1].equals("off"))) {
+            JoinGuard.setLockdown(tokens[1].equals("on"));
+            System.out.println(JoinGuard.getStats());
+          }
+        break;
+        
+        // Word filter metrics
+        case "filter":
+          System.out.println(WordFilter.getStats());
+        break;
+        
+        // Rebuild the word filter from its list in the background
+        case "filterreload":
+          WordFilter.reload();
+        break;
+        
+        // Train the gibberish model from the channel logs and put it in force, with "gibtrain [gibberishSamplesFile]"
+        case "gibtrain":
+          if (tokens.length <= 2) {
+            final GibberishModel model = GibberishTrainer.train(MessageLogger.listLogFiles(),
+                (tokens.length == 2) ? new File(tokens[1]) : null);
+            if (model != null) {
+              try {
+                model.save(new File(RBConfig.getOptionalValue("gibberishModelFile",
+                    GibberishTrainer.DEFAULT_MODEL_PATH)));
+                AntiSpam.loadGibberishModel();
+              } catch (IOException ioe) {
+                System.err.println("Error writing gibberish model!");
+                ioe.printStackTrace();
+              }
+            }
+          }
+        break;
+        
+        // Reload the gibberish model
+        case "gibreload":
+          AntiSpam.loadGibberishModel();
+        break;
+        
+        // Reload the anti-spam rate rules
+        case "spamreload":
+          AntiSpam.loadRules();
+        break;
+        
+        // Reload the anti-spam escalation rules
+        case "escalationreload":
+          AntiSpam.loadEscalationPolicy();
+        break;
+        
+        // Print what a member said in the last few hours from the binary log, with "logsearch <uid> [hours]"
+        case "logsearch":
+          if (tokens.length == 2 || tokens.length == 3) {
+            try {
+              final long uid = Long.parseLong(tokens[1]);
+              final long hours = (tokens.length == 3) ? Long.parseLong(tokens[2]) : 24L;
+              final long maxHours = Long.MAX_VALUE / 3600000L;
+              if (hours <= 0L || hours > maxHours) {
+                System.out.println("Hours must be from 1 to " + maxHours + ".");
+                break;
+              }
+              final long now = System.currentTimeMillis();
+              final List<LoggedMessage> found = MessageLogger.searchMessages(now - hours * 3600000L, now, 0L, uid);
+              for (final LoggedMessage m : found) {
+                System.out.println(m);
+              }
+              System.out.println(found.size() + " messages found.");
+            } catch (NumberFormatException nfe) {
+              nfe.printStackTrace();
+            }
+          }
+        break;
+        
         default:
           System.out.println("Command not recognized.");
           
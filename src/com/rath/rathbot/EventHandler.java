@@ -1,7 +1,8 @@
 
 package com.rath.rathbot;
 
-import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.msg.AntiSpam;
+import com.rath.rathbot.util.TextNormalizer;
 
 import sx.blah.discord.api.events.IListener;
 import sx.blah.discord.handle.impl.events.guild.channel.message.MessageReceivedEvent;
@@ -35,18 +36,24 @@ public class EventHandler implements IListener<MessageReceivedEvent> {
       return;
     }
     
-    // Parse commands if it starts with the command prefix
+    // Normalize the content once; every content filter compares against this view
     final IMessage message = event.getMessage();
     final String messageString = message.getContent();
-    if (messageString.startsWith(COMMAND_PREFIX)) {
-      
-      // TODO: Spin up a new thread here so we can accept new commands while we process, unless that's already handled
-      // by this method.
-      CommandParser.parseCommand(message);
+    final String normalized = TextNormalizer.normalize(messageString);
+    
+    // Raids are caught here, before anything is queued, so every message is counted in the order it arrived
+    if (AntiSpam.checkRaid(message, normalized)) {
+      MessagePipeline.submitRaidMessage(message);
+      MessagePipeline.submitMessage(message);
+      return;
     }
     
-    // Log the message after performing the action
-    MessageLogger.logMessage(message);
+    // Filter the message, then parse it if it's a command and it passed. Both happen on the pipeline's worker threads
+    // so the dispatcher is never held up.
+    MessagePipeline.submitFilter(message, normalized, messageString.startsWith(COMMAND_PREFIX));
+    
+    // Log the message
+    MessagePipeline.submitMessage(message);
   }
   
   /**
@@ -0,0 +1,44 @@
+
+package com.rath.rathbot;
+
+import com.rath.rathbot.disc.JoinGuard;
+
+import sx.blah.discord.api.events.IListener;
+import sx.blah.discord.handle.impl.events.guild.member.UserJoinEvent;
+import sx.blah.discord.handle.obj.IUser;
+
+/**
+ * This class handles members joining the guild, passing each join to the raid shield.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ *
+ */
+public class JoinHandler implements IListener<UserJoinEvent> {
+  
+  /**
+   * Member join handler.
+   * 
+   * @param event contains event details.
+   */
+  @Override
+  public void handle(UserJoinEvent event) {
+    
+    // Bots are only added by admins, so they're never raiders
+    final IUser user = event.getUser();
+    if (user.isBot()) {
+      return;
+    }
+    
+    // Only the bot's own guild is shielded
+    if (event.getGuild().getLongID() != RathBot.getGuild().getLongID()) {
+      return;
+    }
+    
+    try {
+      JoinGuard.onJoin(user, event.getGuild().getLongID(), System.currentTimeMillis());
+    } catch (RuntimeException re) {
+      System.err.println("Error checking member join!");
+      re.printStackTrace();
+    }
+  }
+}
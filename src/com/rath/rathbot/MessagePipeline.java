@@ -0,0 +1,257 @@
+package com.rath.rathbot;
+
+import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.msg.AntiSpam;
+import com.rath.rathbot.util.KeyedExecutor;
+import com.rath.rathbot.util.TextNormalizer;
+
+import sx.blah.discord.handle.obj.IMessage;
+
+/**
+ * This class moves message handling off of Discord's dispatcher thread. The event handler only queues work here and
+ * returns; the work itself runs in three stages, each on its own set of lanes with bounded queues:
+ * 
+ * <ul>
+ * <li>The filter stage runs every message through AntiSpam. Lanes are keyed by author ID, so each member's spam
+ * tracking is only ever touched by one thread. Commands that pass the filter are handed on to the command stage.</li>
+ * <li>The channel stage logs every message. Lanes are keyed by channel ID, so messages in a channel are handled in the
+ * order they arrived.</li>
+ * <li>The command stage parses and dispatches commands. Lanes are keyed by author ID, so a member's commands run in the
+ * order they were issued, and one slow command only holds up the members sharing its lane.</li>
+ * </ul>
+ * 
+ * Throughput target: sustained thousands of messages per second on a mid-size guild. Queuing a message costs one hash
+ * and one array-backed queue insert on the dispatcher thread; the channel stage holds up to
+ * {@code CHANNEL_LANE_CAPACITY} messages per lane to absorb bursts. If a lane does fill up, the message is dropped and
+ * counted rather than stalling the dispatcher.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class MessagePipeline {
+  
+  /** The number of lanes in the filter stage. */
+  private static final int FILTER_LANE_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+  
+  /** The maximum number of queued messages per filter lane. */
+  private static final int FILTER_LANE_CAPACITY = 4096;
+  
+  /** The number of lanes in the channel stage. */
+  private static final int CHANNEL_LANE_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+  
+  /** The maximum number of queued messages per channel lane. */
+  private static final int CHANNEL_LANE_CAPACITY = 8192;
+  
+  /** The number of lanes in the command stage. Commands mostly wait on Discord, so there are more of these. */
+  private static final int COMMAND_LANE_COUNT = 16;
+  
+  /** The maximum number of queued commands per command lane. */
+  private static final int COMMAND_LANE_CAPACITY = 1024;
+  
+  /** How long to wait for queued work to finish during shutdown, in milliseconds. */
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
+  
+  /** The filter stage. */
+  private static volatile KeyedExecutor filterStage = null;
+  
+  /** The channel stage. */
+  private static volatile KeyedExecutor channelStage = null;
+  
+  /** The command stage. */
+  private static volatile KeyedExecutor commandStage = null;
+  
+  /**
+   * Starts the pipeline's worker threads. Must be called before the event handler is registered.
+   */
+  public static final synchronized void start() {
+    
+    if (channelStage != null) {
+      return;
+    }
+    
+    filterStage = new KeyedExecutor("rb-filter", FILTER_LANE_COUNT, FILTER_LANE_CAPACITY);
+    channelStage = new KeyedExecutor("rb-channel", CHANNEL_LANE_COUNT, CHANNEL_LANE_CAPACITY);
+    commandStage = new KeyedExecutor("rb-command", COMMAND_LANE_COUNT, COMMAND_LANE_CAPACITY);
+    System.out.println("Message pipeline started with " + FILTER_LANE_COUNT + " filter lanes, " + CHANNEL_LANE_COUNT
+        + " channel lanes, and " + COMMAND_LANE_COUNT + " command lanes.");
+  }
+  
+  /**
+   * Queues a message for spam filtering. If it passes and is a command, it's then queued for command parsing. If the
+   * pipeline isn't running, it's filtered on the calling thread.
+   * 
+   * @param message the IMessage the event handler received.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
+   * @param isCommand true if the message starts with the command prefix.
+   */
+  public static final void submitFilter(final IMessage message, final String normalized, final boolean isCommand) {
+    
+    final Runnable filter = new Runnable() {
+      
+      @Override
+      public void run() {
+        
+        boolean flagged = false;
+        try {
+          flagged = AntiSpam.filterMessage(message, normalized);
+        } catch (RuntimeException re) {
+          System.err.println("Error filtering message!");
+          re.printStackTrace();
+        }
+        
+        // Flagged members and muted members don't get to run commands
+        if (isCommand && !flagged) {
+          submitCommand(message);
+        }
+      }
+    };
+    
+    final KeyedExecutor stage = filterStage;
+    if (stage == null) {
+      filter.run();
+      return;
+    }
+    
+    if (!stage.execute(message.getAuthor().getLongID(), filter)) {
+      System.err.println("Filter stage is full; message from " + message.getAuthor().getName() + " was not checked.");
+    }
+  }
+  
+  /**
+   * Queues a message for logging. If the pipeline isn't running, the message is logged on the calling thread.
+   * 
+   * @param message the IMessage the event handler received.
+   */
+  public static final void submitMessage(final IMessage message) {
+    
+    final KeyedExecutor stage = channelStage;
+    if (stage == null) {
+      MessageLogger.logMessage(message);
+      return;
+    }
+    
+    if (!stage.execute(message.getChannel().getLongID(), new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          MessageLogger.logMessage(message);
+        } catch (RuntimeException re) {
+          System.err.println("Error logging message!");
+          re.printStackTrace();
+        }
+      }
+    })) {
+      System.err.println("Channel stage is full; message was not logged.");
+    }
+  }
+  
+  /**
+   * Queues a message for command parsing. If the pipeline isn't running, the command is parsed on the calling thread.
+   * 
+   * @param message the IMessage containing the command.
+   */
+  public static final void submitCommand(final IMessage message) {
+    
+    final KeyedExecutor stage = commandStage;
+    if (stage == null) {
+      CommandParser.parseCommand(message);
+      return;
+    }
+    
+    if (!stage.execute(message.getAuthor().getLongID(), new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          CommandParser.parseCommand(message);
+        } catch (RuntimeException re) {
+          System.err.println("Error executing command!");
+          re.printStackTrace();
+        }
+      }
+    })) {
+      System.err.println("Command stage is full; command from " + message.getAuthor().getName() + " was dropped.");
+    }
+  }
+  
+  /**
+   * Queues a message flagged as part of a raid for removal. Removal waits on Discord, so it runs on the command stage,
+   * keyed by author like the author's commands. If the pipeline isn't running, it's removed on the calling thread.
+   * 
+   * @param message the IMessage to remove.
+   */
+  public static final void submitRaidMessage(final IMessage message) {
+    
+    final Runnable removal = new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          message.delete();
+        } catch (RuntimeException re) {
+          System.err.println("Error removing raid message!");
+          re.printStackTrace();
+        }
+      }
+    };
+    
+    final KeyedExecutor stage = commandStage;
+    if (stage == null) {
+      removal.run();
+      return;
+    }
+    
+    if (!stage.execute(message.getAuthor().getLongID(), removal)) {
+      System.err.println("Command stage is full; raid message from " + message.getAuthor().getName()
+          + " was not removed.");
+    }
+  }
+  
+  /**
+   * Gets the number of messages and commands waiting to be handled.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getQueuedCount() {
+    
+    final KeyedExecutor flt = filterStage;
+    final KeyedExecutor ch = channelStage;
+    final KeyedExecutor cmd = commandStage;
+    return ((flt == null) ? 0 : flt.getQueuedCount()) + ((ch == null) ? 0 : ch.getQueuedCount())
+        + ((cmd == null) ? 0 : cmd.getQueuedCount());
+  }
+  
+  /**
+   * Gets the number of messages and commands dropped because their lane was full.
+   * 
+   * @return a non-negative long.
+   */
+  public static final long getDroppedCount() {
+    
+    final KeyedExecutor flt = filterStage;
+    final KeyedExecutor ch = channelStage;
+    final KeyedExecutor cmd = commandStage;
+    return ((flt == null) ? 0 : flt.getRejectedCount()) + ((ch == null) ? 0 : ch.getRejectedCount())
+        + ((cmd == null) ? 0 : cmd.getRejectedCount());
+  }
+  
+  /**
+   * Stops accepting new work and waits for queued work to finish. The filter stage is drained first since it hands
+   * commands on, then commands since they may still log or send messages. Safe to call more than once.
+   */
+  public static final synchronized void shutdown() {
+    
+    if (channelStage == null) {
+      return;
+    }
+    
+    System.out.print("Draining message pipeline... ");
+    final boolean fltDrained = filterStage.shutdown(SHUTDOWN_TIMEOUT_MS);
+    filterStage = null;
+    final boolean cmdDrained = commandStage.shutdown(SHUTDOWN_TIMEOUT_MS);
+    final boolean chDrained = channelStage.shutdown(SHUTDOWN_TIMEOUT_MS);
+    commandStage = null;
+    channelStage = null;
+    System.out.println((fltDrained && cmdDrained && chDrained) ? "DONE" : "TIMED OUT");
+  }
+}
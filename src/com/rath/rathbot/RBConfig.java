@@ -19,7 +19,7 @@ public class RBConfig {
   /** The map of config names to their values as Strings. */
   private static TreeMap<String, String> configMap = null;
   
-  /** The order of the expected config name-value pairs. */
+  /** The order of the expected config name-value pairs. Optional name-value pairs may follow these in any order. */
   private static final String[] CONFIG_NAMES = { "authKey", "guildID", "reportChannelID", "reportChannelName" };
   
   /**
@@ -142,6 +142,46 @@ public class RBConfig {
     
   }
   
+  /**
+   * Gets an optional config value. Optional values are listed in the config file after the required ones.
+   * 
+   * @param name the config name.
+   * @param defaultValue the value to use if the config file doesn't set it.
+   * @return the value as a String.
+   */
+  public static final String getOptionalValue(final String name, final String defaultValue) {
+    
+    // Optional values fall back silently; the required getters already complain about a missing file
+    if (!hasLoaded || configMap == null) {
+      return defaultValue;
+    }
+    
+    final String value = configMap.get(name);
+    return (value == null) ? defaultValue : value.trim();
+  }
+  
+  /**
+   * Gets an optional config value as an int.
+   * 
+   * @param name the config name.
+   * @param defaultValue the value to use if the config file doesn't set it or it isn't a number.
+   * @return the value as an int.
+   */
+  public static final int getOptionalInt(final String name, final int defaultValue) {
+    
+    final String value = getOptionalValue(name, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    
+    try {
+      return Integer.parseInt(value);
+    } catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+      System.err.println("Could not parse config value \"" + name + "\"; using " + defaultValue + ".");
+      return defaultValue;
+    }
+  }
+  
   /**
    * Ensures that everything was initialized before fetching a config value.
    * 
@@ -198,8 +238,8 @@ public class RBConfig {
         return false;
       }
       
-      // Ensure that we're parsing the expected key
-      if (!tokens[0].equals(CONFIG_NAMES[curLine])) {
+      // Ensure that we're parsing the expected key. Anything after the required keys is an optional setting.
+      if (curLine < CONFIG_NAMES.length && !tokens[0].equals(CONFIG_NAMES[curLine])) {
         System.err.println("Expected key \"" + CONFIG_NAMES[curLine] + "\", but parsed \"" + tokens[0] + "\"!");
         return false;
       }
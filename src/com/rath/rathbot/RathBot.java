@@ -4,9 +4,11 @@ package com.rath.rathbot;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.rath.rathbot.action.ActionBan;
 import com.rath.rathbot.action.ActionKick;
@@ -14,6 +16,7 @@ import com.rath.rathbot.action.ActionMute;
 import com.rath.rathbot.action.ActionUnban;
 import com.rath.rathbot.action.ActionUnmute;
 import com.rath.rathbot.action.ActionWarn;
+import com.rath.rathbot.cmd.CommandTrie;
 import com.rath.rathbot.cmd.PermissionsTable;
 import com.rath.rathbot.cmd.RBCommand;
 import com.rath.rathbot.cmd.admin.UIDCmd;
@@ -29,9 +32,14 @@ import com.rath.rathbot.cmd.msg.PingCmd;
 import com.rath.rathbot.cmd.msg.faq.FAQCmd;
 import com.rath.rathbot.cmd.msg.react.ReactCmd;
 import com.rath.rathbot.disc.Infractions;
+import com.rath.rathbot.disc.JoinGuard;
+import com.rath.rathbot.disc.ModerationQueue;
+import com.rath.rathbot.disc.PunishmentExpiry;
 import com.rath.rathbot.disc.PunishmentType;
 import com.rath.rathbot.log.ActionLogger;
 import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.msg.AntiSpam;
+import com.rath.rathbot.msg.WordFilter;
 import com.rath.rathbot.util.MessageHelper;
 
 import sx.blah.discord.api.ClientBuilder;
@@ -41,6 +49,9 @@ import sx.blah.discord.handle.obj.IChannel;
 import sx.blah.discord.handle.obj.IGuild;
 import sx.blah.discord.handle.obj.IUser;
 import sx.blah.discord.handle.obj.StatusType;
+import sx.blah.discord.util.DiscordException;
+import sx.blah.discord.util.RateLimitException;
+import sx.blah.discord.util.RequestBuffer;
 
 /**
  * Main class for RathBot.
@@ -79,11 +90,20 @@ public class RathBot {
   /** The set of commands this bot responds to. */
   private static final TreeMap<String, RBCommand> commandMap = new TreeMap<String, RBCommand>();
   
+  /** The dispatch tree built from the command map. Null until the commands are built. */
+  private static volatile CommandTrie commandTrie = null;
+  
   /** Reference to the client. */
   private static IDiscordClient discClient = null;
   
-  /** A map from channel name to ID. */
-  private static TreeMap<String, IChannel> channelMap;
+  /** True once the bot has been shut down. */
+  private static boolean isShutDown = false;
+  
+  /** A map from channel name to ID. Channels may be added from the pipeline's worker threads. */
+  private static ConcurrentSkipListMap<String, IChannel> channelMap;
+  
+  /** How long the list of names in a batch kick or ban report can grow before the rest are only counted. */
+  private static final int BATCH_REPORT_MAX_LENGTH = 1800;
   
   /** The IGuild object used by the Discord API. */
   private static IGuild guild;
@@ -146,8 +166,8 @@ public class RathBot {
    * 
    * @param issuer the issuer of the command. This will be the bot if this parameter is null.
    * @param muteUser the IUser reference of the user to be muted.
-   * @param muteTime the time the mute was issued, in milliseconds.
-   * @param muteDuration the amount of time the user will be unable to chat, in seconds.
+   * @param muteTime the time the mute was issued, in epoch seconds.
+   * @param muteDuration the amount of time the user will be unable to chat, in seconds, or 0 until they're unmuted.
    * @param reason the reason a mute was issued as a String.
    */
   public static final void muteUser(final IUser issuer, final IUser muteUser, final long muteTime,
@@ -178,18 +198,34 @@ public class RathBot {
    * 
    * @param issuer the issuer of the command. This will be the bot if this parameter is null.
    * @param kickUser the IUser reference of the user to be kicked.
-   * @param kickTime the time the kick was issued, in milliseconds.
+   * @param kickTime the time the kick was issued, in epoch seconds.
    * @param reason the reason a kick was issued as a String.
    */
   public static final void kickUser(final IUser issuer, final IUser kickUser, final long kickTime,
       final String reason) {
-    sendDirectMessage(kickUser, MessageHelper.buildDiscNotificationMessage(PunishmentType.KICK, -1, reason));
-    Infractions.kickUser(kickUser.getLongID(), kickTime, reason);
-    guild.kickUser(kickUser, reason);
-    sendMessage(getChannelMap().get(RBConfig.getReportChannelName()),
-        kickUser.getName() + " has been kicked for reason: \"" + reason + "\".");
+    kickUsers(issuer, Collections.singletonList(kickUser), kickTime, reason);
+  }
+  
+  /**
+   * Kicks a batch of users for the same reason. The Discord requests are queued through the request buffer, which
+   * retries them when rate limited instead of failing, and the report channel gets one message for the whole batch.
+   * 
+   * @param issuer the issuer of the command. This will be the bot if this parameter is null.
+   * @param kickUsers the users to be kicked.
+   * @param kickTime the time the kicks were issued, in epoch seconds.
+   * @param reason the reason the kicks were issued as a String.
+   */
+  public static final void kickUsers(final IUser issuer, final List<IUser> kickUsers, final long kickTime,
+      final String reason) {
+    
     final IUser isr = (issuer == null) ? discClient.getOurUser() : issuer;
-    ActionLogger.logAction(new ActionKick(Instant.now(), isr, kickUser));
+    final String notification = MessageHelper.buildDiscNotificationMessage(PunishmentType.KICK, -1, reason);
+    for (final IUser kickUser : kickUsers) {
+      Infractions.kickUser(kickUser.getLongID(), kickTime, reason);
+      bufferRemoval(kickUser, PunishmentType.KICK, notification, reason);
+      ActionLogger.logAction(new ActionKick(Instant.now(), isr, kickUser));
+    }
+    bufferReport(buildBatchReport(kickUsers, PunishmentType.KICK, reason));
   }
   
   /**
@@ -197,17 +233,149 @@ public class RathBot {
    * 
    * @param issuer the issuer of the command. This will be the bot if this parameter is null.
    * @param banUser the IUser reference of the user to be banned.
-   * @param banTime the time the ban was issued, in milliseconds.
+   * @param banTime the time the ban was issued, in epoch seconds.
    * @param reason the reason a ban was issued as a String.
    */
   public static final void banUser(final IUser issuer, final IUser banUser, final long banTime, final String reason) {
-    sendDirectMessage(banUser, MessageHelper.buildDiscNotificationMessage(PunishmentType.BAN, -1, reason));
-    Infractions.banUser(banUser.getLongID(), banTime, reason);
-    guild.banUser(banUser, reason);
-    sendMessage(getChannelMap().get(RBConfig.getReportChannelName()),
-        banUser.getName() + " has been banned for reason: \"" + reason + "\".");
+    banUsers(issuer, Collections.singletonList(banUser), banTime, 0, reason);
+  }
+  
+  /**
+   * Bans the user of the given message for a while.
+   * 
+   * @param issuer the issuer of the command. This will be the bot if this parameter is null.
+   * @param banUser the IUser reference of the user to be banned.
+   * @param banTime the time the ban was issued, in epoch seconds.
+   * @param banDuration how long the user is banned for in seconds, or 0 if the ban is permanent.
+   * @param reason the reason a ban was issued as a String.
+   */
+  public static final void banUser(final IUser issuer, final IUser banUser, final long banTime, final int banDuration,
+      final String reason) {
+    banUsers(issuer, Collections.singletonList(banUser), banTime, banDuration, reason);
+  }
+  
+  /**
+   * Permanently bans a batch of users for the same reason.
+   * 
+   * @param issuer the issuer of the command. This will be the bot if this parameter is null.
+   * @param banUsers the users to be banned.
+   * @param banTime the time the bans were issued, in epoch seconds.
+   * @param reason the reason the bans were issued as a String.
+   */
+  public static final void banUsers(final IUser issuer, final List<IUser> banUsers, final long banTime,
+      final String reason) {
+    banUsers(issuer, banUsers, banTime, 0, reason);
+  }
+  
+  /**
+   * Bans a batch of users for the same reason. The Discord requests are queued through the request buffer, which
+   * retries them when rate limited instead of failing, and the report channel gets one message for the whole batch.
+   * Timed bans are lifted by {@link PunishmentExpiry} when they run out.
+   * 
+   * @param issuer the issuer of the command. This will be the bot if this parameter is null.
+   * @param banUsers the users to be banned.
+   * @param banTime the time the bans were issued, in epoch seconds.
+   * @param banDuration how long the users are banned for in seconds, or 0 if the bans are permanent.
+   * @param reason the reason the bans were issued as a String.
+   */
+  public static final void banUsers(final IUser issuer, final List<IUser> banUsers, final long banTime,
+      final int banDuration, final String reason) {
+    
     final IUser isr = (issuer == null) ? discClient.getOurUser() : issuer;
-    ActionLogger.logAction(new ActionBan(Instant.now(), isr, banUser));
+    final String notification = MessageHelper.buildDiscNotificationMessage(PunishmentType.BAN, banDuration, reason);
+    for (final IUser banUser : banUsers) {
+      Infractions.banUser(banUser.getLongID(), banTime, banDuration, reason);
+      bufferRemoval(banUser, PunishmentType.BAN, notification, reason);
+      ActionLogger.logAction(new ActionBan(Instant.now(), isr, banUser));
+    }
+    bufferReport(buildBatchReport(banUsers, PunishmentType.BAN, reason));
+  }
+  
+  /**
+   * Queues a kick or ban through the request buffer. The user is sent their notification first, since the bot can't
+   * message them once they no longer share a guild. A notification that can't be delivered doesn't stop the removal,
+   * and one that was delivered isn't sent again if the removal is retried.
+   * 
+   * @param user the user to remove.
+   * @param type {@link PunishmentType#KICK} or {@link PunishmentType#BAN}.
+   * @param notification the private message to send them.
+   * @param reason the reason the removal was issued.
+   */
+  private static final void bufferRemoval(final IUser user, final PunishmentType type, final String notification,
+      final String reason) {
+    RequestBuffer.request(new RequestBuffer.IVoidRequest() {
+      
+      /** Whether the notification has been dealt with, so retries skip it. */
+      private boolean notified = false;
+      
+      @Override
+      public void doRequest() {
+        
+        if (!this.notified) {
+          try {
+            sendDirectMessage(user, notification);
+          } catch (RateLimitException rle) {
+            
+            // Let the request buffer retry it
+            throw rle;
+          } catch (DiscordException de) {
+            System.err.println("Could not notify " + user.getName() + " before removing them.");
+            de.printStackTrace();
+          }
+          this.notified = true;
+        }
+        
+        if (type == PunishmentType.BAN) {
+          guild.banUser(user, reason);
+        } else {
+          guild.kickUser(user, reason);
+        }
+      }
+    });
+  }
+  
+  /**
+   * Queues a message to the report channel through the request buffer.
+   * 
+   * @param msg the message contents.
+   */
+  private static final void bufferReport(final String msg) {
+    final IChannel channel = getChannelMap().get(RBConfig.getReportChannelName());
+    RequestBuffer.request(new RequestBuffer.IVoidRequest() {
+      
+      @Override
+      public void doRequest() {
+        sendMessage(channel, msg);
+      }
+    });
+  }
+  
+  /**
+   * Builds the report channel message for a batch of kicks or bans.
+   * 
+   * @param users the users punished.
+   * @param type the punishment.
+   * @param reason the reason it was issued.
+   * @return the message, kept under Discord's length limit.
+   */
+  private static final String buildBatchReport(final List<IUser> users, final PunishmentType type,
+      final String reason) {
+    
+    if (users.size() == 1) {
+      return users.get(0).getName() + " has been " + type.getVerb() + " for reason: \"" + reason + "\".";
+    }
+    
+    final StringBuilder sb = new StringBuilder();
+    sb.append(users.size()).append(" users have been ").append(type.getVerb()).append(" for reason: \"")
+        .append(reason).append("\":");
+    for (int i = 0; i < users.size(); i++) {
+      if (sb.length() > BATCH_REPORT_MAX_LENGTH) {
+        sb.append(" and ").append(users.size() - i).append(" more");
+        break;
+      }
+      sb.append((i == 0) ? " " : ", ").append(users.get(i).getName());
+    }
+    return sb.append('.').toString();
   }
   
   /**
@@ -222,6 +390,80 @@ public class RathBot {
     ActionLogger.logAction(new ActionUnban(Instant.now(), isr, user));
   }
   
+  /**
+   * Lifts a batch of mutes that have already been cleared from the infractions table. The report channel gets one
+   * message for the whole batch, queued through the request buffer.
+   * 
+   * @param issuer the issuer of the unmutes. This will be the bot if this parameter is null.
+   * @param users the Discord unique long IDs of the users to unmute.
+   */
+  public static final void unmuteUsers(final IUser issuer, final long[] users) {
+    
+    final IUser isr = (issuer == null) ? discClient.getOurUser() : issuer;
+    final IUser[] cached = new IUser[users.length];
+    for (int i = 0; i < users.length; i++) {
+      cached[i] = discClient.getUserByID(users[i]);
+      if (cached[i] != null) {
+        ActionLogger.logAction(new ActionUnmute(Instant.now(), isr, cached[i]));
+      }
+    }
+    bufferReport(buildExpiryReport(users, cached, PunishmentType.MUTE));
+  }
+  
+  /**
+   * Lifts a batch of bans that have already been cleared from the infractions table. The pardons are queued through the
+   * request buffer, and the report channel gets one message for the whole batch. Banned users are usually no longer
+   * cached, so only those who are get an action log entry, and the rest are reported by mention.
+   * 
+   * @param issuer the issuer of the unbans. This will be the bot if this parameter is null.
+   * @param users the Discord unique long IDs of the users to unban.
+   */
+  public static final void unbanUsers(final IUser issuer, final long[] users) {
+    
+    final IUser isr = (issuer == null) ? discClient.getOurUser() : issuer;
+    final IUser[] cached = new IUser[users.length];
+    for (int i = 0; i < users.length; i++) {
+      final long uid = users[i];
+      RequestBuffer.request(new RequestBuffer.IVoidRequest() {
+        
+        @Override
+        public void doRequest() {
+          guild.pardonUser(uid);
+        }
+      });
+      
+      cached[i] = discClient.getUserByID(uid);
+      if (cached[i] != null) {
+        ActionLogger.logAction(new ActionUnban(Instant.now(), isr, cached[i]));
+      }
+    }
+    bufferReport(buildExpiryReport(users, cached, PunishmentType.BAN));
+  }
+  
+  /**
+   * Builds the report channel message for a batch of mutes or bans that ran out. Users who aren't cached are named by
+   * mention.
+   * 
+   * @param users the Discord unique long IDs of the users.
+   * @param cached the users, by the same index, or null where a user isn't cached.
+   * @param type {@link PunishmentType#MUTE} or {@link PunishmentType#BAN}.
+   * @return the message, kept under Discord's length limit.
+   */
+  private static final String buildExpiryReport(final long[] users, final IUser[] cached, final PunishmentType type) {
+    
+    final String noun = type.name().toLowerCase();
+    final StringBuilder sb = new StringBuilder();
+    sb.append((users.length == 1) ? "1 " + noun + " has" : users.length + " " + noun + "s have").append(" run out:");
+    for (int i = 0; i < users.length; i++) {
+      if (sb.length() > BATCH_REPORT_MAX_LENGTH) {
+        sb.append(" and ").append(users.length - i).append(" more");
+        break;
+      }
+      sb.append((i == 0) ? " " : ", ").append((cached[i] == null) ? "<@" + users[i] + ">" : cached[i].getName());
+    }
+    return sb.append('.').toString();
+  }
+  
   /**
    * Sets the bot's Now Playing message.
    * 
@@ -243,6 +485,16 @@ public class RathBot {
     return commandMap;
   }
   
+  /**
+   * Gets the dispatch tree for the registered commands.
+   * 
+   * @return the CommandTrie, or null if the commands haven't been built yet.
+   */
+  public static final CommandTrie getCommandTrie() {
+    
+    return commandTrie;
+  }
+  
   /**
    * Has the bot log in to the server.
    */
@@ -251,13 +503,41 @@ public class RathBot {
   }
   
   /**
-   * Has the bot log out from the server.
+   * Has the bot log out from the server, after shutting everything down.
    */
   public static final void logout() {
+    shutdown();
+  }
+  
+  /**
+   * Shuts the bot down. Queued messages, commands, and moderation batches are finished first, while the client can
+   * still reach Discord, then the client logs out, and the logs and tables are closed last so the work drained on the
+   * way out is still recorded. Safe to call more than once.
+   */
+  public static final synchronized void shutdown() {
     
-    System.out.println("Logging out...");
-    discClient.logout();
+    if (isShutDown) {
+      return;
+    }
+    isShutDown = true;
+    
+    // The pipeline hands commands to the executor, and commands can queue moderation, so drain in that order
+    MessagePipeline.shutdown();
+    CommandExecutor.shutdown();
+    ModerationQueue.shutdown();
+    PunishmentExpiry.shutdown();
+    AntiSpam.shutdown();
+    WordFilter.shutdown();
+    
+    if (discClient.isLoggedIn()) {
+      System.out.println("Logging out...");
+      discClient.logout();
+    }
+    
+    Infractions.closeJournal();
+    PermissionsTable.shutdown();
     MessageLogger.closeStreams();
+    ActionLogger.closePrintStream();
   }
   
   /**
@@ -269,12 +549,21 @@ public class RathBot {
     return discClient;
   }
   
+  /**
+   * Gets the guild the bot moderates.
+   * 
+   * @return the IGuild, or null if the bot hasn't logged in yet.
+   */
+  public static final IGuild getGuild() {
+    return guild;
+  }
+  
   /**
    * Gets the reference to the channel map.
    * 
-   * @return a TreeMap from String to IChannel.
+   * @return a ConcurrentSkipListMap from String to IChannel.
    */
-  public static final TreeMap<String, IChannel> getChannelMap() {
+  public static final ConcurrentSkipListMap<String, IChannel> getChannelMap() {
     return channelMap;
   }
   
@@ -316,10 +605,18 @@ public class RathBot {
     discClient.changePresence(StatusType.ONLINE, ActivityType.PLAYING, DEFAULT_PLAYING_TEXT);
     
     // Load and initialize everything
-    MessageLogger.initPrintStreamMap(channelMap);
+    MessageLogger.start();
     ActionLogger.initActionLogger();
     PermissionsTable.loadPerms();
     Infractions.loadFromFile();
+    PunishmentExpiry.start();
+    AntiSpam.loadRules();
+    AntiSpam.loadEscalationPolicy();
+    AntiSpam.loadGibberishModel();
+    AntiSpam.startSweeper();
+    WordFilter.start();
+    JoinGuard.init();
+    ModerationQueue.start();
     // TODO: Initialize more tables here when/if needed
   }
   
@@ -328,7 +625,7 @@ public class RathBot {
    * 
    * @return a HashMap of type String to Long.
    */
-  private static final TreeMap<String, IChannel> buildChannelMap() {
+  private static final ConcurrentSkipListMap<String, IChannel> buildChannelMap() {
     
     // Log in and wait until ready to receive commands
     System.out.println("Logging in... ");
@@ -343,7 +640,7 @@ public class RathBot {
     
     // Initialize channel structures
     System.out.println("Building channel map...");
-    final TreeMap<String, IChannel> result = new TreeMap<String, IChannel>();
+    final ConcurrentSkipListMap<String, IChannel> result = new ConcurrentSkipListMap<String, IChannel>();
     
     // For each channel, add a mapping from its name to its ID
     final List<IChannel> channels = guild.getChannels();
@@ -369,6 +666,9 @@ public class RathBot {
     
     // Build the help command (other commands must have been built first!)
     addAndInitializeCommand(buildHelpCommand());
+    
+    // Build the dispatch tree from every registered command and its subcommands
+    commandTrie = CommandTrie.build(commandMap.values());
   }
   
   /**
@@ -416,7 +716,10 @@ public class RathBot {
     }
     buildAndLoadDataStructures();
     buildCommands();
+    CommandExecutor.init();
+    MessagePipeline.start();
     discClient.getDispatcher().registerListener(new EventHandler());
+    discClient.getDispatcher().registerListener(new JoinHandler());
     
     System.out.println("Startup complete!");
     
@@ -426,11 +729,7 @@ public class RathBot {
     
     // Clean everything up
     cin.close();
-    MessageLogger.closeStreams();
-    ActionLogger.closePrintStream();
-    if (discClient.isLoggedIn()) {
-      logout();
-    }
+    shutdown();
   }
   
 }
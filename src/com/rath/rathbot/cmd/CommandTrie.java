@@ -0,0 +1,271 @@
+
+package com.rath.rathbot.cmd;
+
+import java.util.Collection;
+
+/**
+ * This class is the dispatch tree for commands. It is built once at startup from the top-level commands and their
+ * subcommand sets, and never changes afterward, so it can be read from any thread without locking.
+ * 
+ * Each level of the tree is an open-addressed hash table keyed by case-folded command name. Resolving a command walks
+ * the message's tokens once, doing one table probe per level, and allocates nothing.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class CommandTrie {
+  
+  /** The token index top-level command names are found at (index 0 is the bot's prefix). */
+  public static final int ROOT_TOKEN_INDEX = 1;
+  
+  /** The tree's root. It has no command of its own; its children are the top-level commands. */
+  private final Node root;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param root the tree's root.
+   */
+  private CommandTrie(final Node root) {
+    this.root = root;
+  }
+  
+  /**
+   * Builds the dispatch tree. Each command's subcommands are fetched once and kept, and each command is linked to its
+   * node so it can find its subcommands without rebuilding them.
+   * 
+   * @param commands the top-level commands.
+   * @return the built CommandTrie.
+   */
+  public static final CommandTrie build(final Collection<RBCommand> commands) {
+    return new CommandTrie(new Node(null, null, commands));
+  }
+  
+  /**
+   * Resolves the full command path named by a message's tokens. The top-level command name is matched at
+   * {@link #ROOT_TOKEN_INDEX}, ignoring surrounding whitespace; each following token is matched against the previous
+   * command's subcommands until one doesn't match. Names are matched case-insensitively.
+   * 
+   * @param tokens the tokens in the author's message.
+   * @return the Node of the deepest command matched; null if the top-level command doesn't exist.
+   */
+  public final Node resolve(final String[] tokens) {
+    
+    if (tokens.length <= ROOT_TOKEN_INDEX) {
+      return null;
+    }
+    
+    // Emulate trim() on the top-level command name
+    final String name = tokens[ROOT_TOKEN_INDEX];
+    int start = 0;
+    int end = name.length();
+    while (start < end && name.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && name.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    
+    Node node = this.root.getChild(name, start, end);
+    if (node == null) {
+      return null;
+    }
+    
+    // Follow subcommands as far as the tokens go
+    for (int i = ROOT_TOKEN_INDEX + 1; i < tokens.length; i++) {
+      final Node child = node.getChild(tokens[i], 0, tokens[i].length());
+      if (child == null) {
+        break;
+      }
+      node = child;
+    }
+    return node;
+  }
+  
+  /**
+   * Folds a character's case the same way String.equalsIgnoreCase() compares characters.
+   * 
+   * @param c the character.
+   * @return the case-folded character.
+   */
+  static final char fold(final char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+  
+  /**
+   * Hashes a case-folded region of a String.
+   * 
+   * @param s the String.
+   * @param start the start of the region (inclusive).
+   * @param end the end of the region (exclusive).
+   * @return the hash.
+   */
+  static final int hash(final CharSequence s, final int start, final int end) {
+    
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + fold(s.charAt(i));
+    }
+    return h ^ (h >>> 16);
+  }
+  
+  /**
+   * A command in the dispatch tree, along with its subcommands.
+   */
+  public static final class Node {
+    
+    /** The command at this node. Null only for the root. */
+    private final RBCommand command;
+    
+    /** The parent node. Null only for the root. */
+    private final Node parent;
+    
+    /** The token index this node's command is matched at. */
+    private final int depth;
+    
+    /** The nodes from the top-level command down to this one, indexed by depth. */
+    private final Node[] path;
+    
+    /** The case-folded names of the subcommands, laid out as an open-addressed hash table. */
+    private final String[] childNames;
+    
+    /** The subcommand nodes, at the same slots as their names. */
+    private final Node[] children;
+    
+    /**
+     * Default constructor. Builds this node and all of the nodes under it.
+     * 
+     * @param command the command at this node.
+     * @param parent the parent node.
+     * @param subcommands the command's subcommands. May be null.
+     */
+    Node(final RBCommand command, final Node parent, final Collection<RBCommand> subcommands) {
+      
+      this.command = command;
+      this.parent = parent;
+      this.depth = (parent == null) ? ROOT_TOKEN_INDEX - 1 : parent.depth + 1;
+      
+      this.path = new Node[this.depth + 1];
+      if (parent != null) {
+        System.arraycopy(parent.path, 0, this.path, 0, parent.path.length);
+      }
+      this.path[this.depth] = this;
+      
+      if (command != null) {
+        command.setTrieNode(this);
+      }
+      
+      // Size the table to at most half full so probe chains stay short
+      final int count = (subcommands == null) ? 0 : subcommands.size();
+      int capacity = 2;
+      while (capacity < count * 2) {
+        capacity <<= 1;
+      }
+      this.childNames = new String[capacity];
+      this.children = new Node[capacity];
+      
+      if (subcommands == null) {
+        return;
+      }
+      
+      final int mask = capacity - 1;
+      for (final RBCommand sub : subcommands) {
+        
+        final String name = sub.getCommandName();
+        if (getChild(name, 0, name.length()) != null) {
+          System.err.println("Duplicate command name \"" + name + "\" ignored.");
+          continue;
+        }
+        
+        final StringBuilder folded = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+          folded.append(fold(name.charAt(i)));
+        }
+        
+        int slot = hash(name, 0, name.length()) & mask;
+        while (this.childNames[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        this.childNames[slot] = folded.toString();
+        this.children[slot] = new Node(sub, this, sub.getSubcommands());
+      }
+    }
+    
+    /**
+     * Gets the command at this node.
+     * 
+     * @return the RBCommand.
+     */
+    public final RBCommand getCommand() {
+      return this.command;
+    }
+    
+    /**
+     * Gets the parent node.
+     * 
+     * @return the parent Node, or the root for top-level commands.
+     */
+    public final Node getParent() {
+      return this.parent;
+    }
+    
+    /**
+     * Gets the token index this node's command is matched at.
+     * 
+     * @return the depth as an int. Top-level commands are at {@link CommandTrie#ROOT_TOKEN_INDEX}.
+     */
+    public final int getDepth() {
+      return this.depth;
+    }
+    
+    /**
+     * Gets the node on the path to this one at the given depth.
+     * 
+     * @param atDepth the depth, from {@link CommandTrie#ROOT_TOKEN_INDEX} to this node's depth.
+     * @return the Node at that depth.
+     */
+    public final Node getAncestor(final int atDepth) {
+      return this.path[atDepth];
+    }
+    
+    /**
+     * Finds the subcommand whose name matches a region of a token, ignoring case.
+     * 
+     * @param token the token.
+     * @param start the start of the name in the token (inclusive).
+     * @param end the end of the name in the token (exclusive).
+     * @return the matching child Node; null if there isn't one.
+     */
+    public final Node getChild(final CharSequence token, final int start, final int end) {
+      
+      final int mask = this.childNames.length - 1;
+      final int len = end - start;
+      int slot = hash(token, start, end) & mask;
+      String name;
+      while ((name = this.childNames[slot]) != null) {
+        if (name.length() == len && foldedEquals(name, token, start)) {
+          return this.children[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return null;
+    }
+    
+    /**
+     * Compares a case-folded name with a region of a token.
+     * 
+     * @param name the case-folded name.
+     * @param token the token.
+     * @param start the start of the region in the token. The region is as long as the name.
+     * @return true if they match; false if not.
+     */
+    private static final boolean foldedEquals(final String name, final CharSequence token, final int start) {
+      
+      for (int i = 0; i < name.length(); i++) {
+        if (name.charAt(i) != fold(token.charAt(start + i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
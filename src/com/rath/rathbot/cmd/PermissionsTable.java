@@ -1,20 +1,38 @@
 
 package com.rath.rathbot.cmd;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import com.rath.rathbot.RBConfig;
 import com.rath.rathbot.RathBot;
+import com.rath.rathbot.disc.MemberFlags;
+import com.rath.rathbot.util.LongByteHashMap;
 
 /**
  * This class holds each user's permission level. Certain commands require a specific level to execute.
  * 
+ * Members at the default level are never stored; a member with no entry has the default level. Changes only mark the
+ * table dirty, and a background flusher writes it to disk on a timer (config value "permsFlushSeconds", 5 seconds by
+ * default) and once more at shutdown, so many changes in a row cost a single write.
+ * 
  * @author Tim Backus tbackus127@gmail.com
  *
  */
@@ -32,17 +50,36 @@ public class PermissionsTable {
   /** The permissions table file. */
   private static final File PERM_FILE = new File(PERM_DATA_PATH);
   
-  /** The permissions table. */
-  private static TreeMap<Long, Integer> permMap = null;
+  /** Marks the compact file format ("RBPM"). Older files are Java-serialized TreeMaps. */
+  private static final int PERM_FILE_MAGIC = 0x5242504D;
+  
+  /** The version of the compact file format. */
+  private static final byte PERM_FILE_VERSION = 1;
+  
+  /** The permissions table, mapping member IDs to their levels. */
+  private static LongByteHashMap permMap = null;
   
   /** Whether or not to actually save the table to disk (disable for testing purposes). */
   private static boolean saveToDisk = true;
   
+  /** How often the flusher checks for changes to write, in seconds, if the config doesn't say. */
+  private static final int DEFAULT_FLUSH_SECONDS = 5;
+  
+  /** Whether the table has changed since it was last written. Guarded by the class lock. */
+  private static boolean dirty = false;
+  
+  /** Held while the table is being written, so two flushes never write the file at once. */
+  private static final Object FLUSH_LOCK = new Object();
+  
+  /** Runs the periodic flush. Null until the table is loaded with saving enabled. */
+  private static ScheduledExecutorService flusher = null;
+  
   /**
    * Initializes the permissions table. Must be called in the bot's startup routine before commands are received.
    */
-  public static final void initPermsTable() {
-    permMap = new TreeMap<Long, Integer>();
+  public static final synchronized void initPermsTable() {
+    permMap = new LongByteHashMap();
+    publishExempt();
   }
   
   /**
@@ -53,15 +90,19 @@ public class PermissionsTable {
   }
   
   /**
-   * Initializes a user with default permissions.
+   * Initializes a user with default permissions. Members are at the default level unless given another one, so
+   * nothing is stored.
    * 
    * @param userID the ID of the member to initialize.
    * @return false if there was an error.
    */
-  public static final boolean initUser(final long userID) {
-    boolean ret = updateUser(userID, DEFAULT_PERM_LEVEL);
-    savePerms();
-    return ret;
+  public static final synchronized boolean initUser(final long userID) {
+    
+    if (permMap == null) {
+      System.err.println("Perm map is null!");
+      return false;
+    }
+    return true;
   }
   
   /**
@@ -71,35 +112,50 @@ public class PermissionsTable {
    * @param permLevel the new permissions level this user should receive.
    * @return false if there was an error.
    */
-  public static final boolean updateUser(final long userID, final int permLevel) {
+  public static final synchronized boolean updateUser(final long userID, final int permLevel) {
     
     if (permMap == null) {
       System.err.println("Perm map is null!");
       return false;
     }
     
-    permMap.put(userID, permLevel);
+    if (permLevel < Byte.MIN_VALUE || permLevel > Byte.MAX_VALUE) {
+      System.err.println("Permission level " + permLevel + " is out of range!");
+      return false;
+    }
+    
+    // Default-level members aren't stored
+    if (permLevel == DEFAULT_PERM_LEVEL) {
+      permMap.remove(userID);
+    } else {
+      permMap.put(userID, (byte) permLevel);
+    }
+    MemberFlags.set(userID, MemberFlags.FLAG_SPAM_EXEMPT, permLevel >= MemberFlags.SPAM_EXEMPT_LEVEL);
     System.out.println("Updated " + userID + " to " + permLevel + ".");
-    System.out.println(userID + " is now " + permMap.get(userID));
-    savePerms();
+    System.out.println(userID + " is now " + getLevel(userID));
+    dirty = true;
     return true;
   }
   
   /**
-   * Removes the entry for a given user (if they leave, are banned, or purged).
+   * Removes the entry for a given user (if they leave, are banned, or purged). They go back to the default level.
    * 
    * @param userID the ID of the member to remove.
    * @return false if there was an error.
    */
-  public static final boolean removeUser(final long userID) {
+  public static final synchronized boolean removeUser(final long userID) {
     
     if (permMap == null) {
       System.err.println("Perm map is null!");
       return false;
     }
     
-    permMap.remove(userID);
-    savePerms();
+    if (permMap.remove(userID)) {
+      dirty = true;
+    }
+    
+    // The default level is never exempt
+    MemberFlags.set(userID, MemberFlags.FLAG_SPAM_EXEMPT, false);
     return true;
   }
   
@@ -107,9 +163,10 @@ public class PermissionsTable {
    * Gets the permission level for the given user.
    * 
    * @param userID the ID of the member we're getting the permission level for.
-   * @return the permission level as an int, defined in RBCommand. If there is an error, -1 will be returned.
+   * @return the permission level as an int, defined in RBCommand. Members without an entry have the default level. If
+   *         the table hasn't been loaded, -1 will be returned.
    */
-  public static final int getLevel(final long userID) {
+  public static final synchronized int getLevel(final long userID) {
     // System.out.println("Getting perms for id=" + userID);
     
     if (permMap == null) {
@@ -117,20 +174,16 @@ public class PermissionsTable {
       return -1;
     }
     
-    final Integer lvl = permMap.get(userID);
-    if (lvl == null) {
-      return -1;
-    }
-    return lvl;
+    return permMap.get(userID, (byte) DEFAULT_PERM_LEVEL);
   }
   
   /**
-   * Whether or not an entry exists for a user.
+   * Whether or not an entry exists for a user. Only members at a level other than the default have entries.
    * 
    * @param userID the ID of the user to check for.
-   * @return true if the user exists; false if not. If the table is null, false will be returned.
+   * @return true if the user has an entry; false if not. If the table is null, false will be returned.
    */
-  public static final boolean hasUser(final long userID) {
+  public static final synchronized boolean hasUser(final long userID) {
     
     if (permMap == null) {
       return false;
@@ -140,23 +193,37 @@ public class PermissionsTable {
   }
   
   /**
-   * Gets the reference to the permissions table.
+   * Gets a copy of the permissions table. Only members at a level other than the default are included.
    * 
-   * @return the permissions table as a TreeMap.
+   * @return the permissions table as a TreeMap, or null if the table hasn't been loaded.
    */
-  public static final TreeMap<Long, Integer> getPermMap() {
-    return permMap;
+  public static final synchronized TreeMap<Long, Integer> getPermMap() {
+    
+    if (permMap == null) {
+      return null;
+    }
+    
+    final TreeMap<Long, Integer> result = new TreeMap<Long, Integer>();
+    for (final long userID : permMap.keys()) {
+      result.put(userID, (int) permMap.get(userID, (byte) DEFAULT_PERM_LEVEL));
+    }
+    return result;
   }
   
   /**
    * Initializes the permissions table, but does not save it to disk. USE WITH CAUTION.
    */
-  public static final void initTable() {
-    permMap = new TreeMap<Long, Integer>();
+  public static final synchronized void initTable() {
+    permMap = new LongByteHashMap();
+    publishExempt();
   }
   
   /**
-   * Saves the permission table to the hard disk.
+   * Saves the permission table to the hard disk right away. Writes to a temporary file first, then moves it over the
+   * old one, so the file always holds a complete table.
+   * 
+   * The file holds a magic number, a version byte, the entry count, then each member's ID and level: 9 bytes per
+   * member.
    */
   public static final void savePerms() {
     
@@ -164,29 +231,177 @@ public class PermissionsTable {
       return;
     }
     
-    System.out.println("Saving permissions map to file.");
+    synchronized (FLUSH_LOCK) {
+      
+      // Copy the table so it isn't locked while it's written
+      final long[] userIDs;
+      final byte[] levels;
+      synchronized (PermissionsTable.class) {
+        if (permMap == null) {
+          return;
+        }
+        userIDs = permMap.keys();
+        levels = new byte[userIDs.length];
+        for (int i = 0; i < userIDs.length; i++) {
+          levels[i] = permMap.get(userIDs[i], (byte) DEFAULT_PERM_LEVEL);
+        }
+        dirty = false;
+      }
+      
+      System.out.println("Saving permissions map to file.");
+      
+      final File tmpFile = new File(PERM_DATA_PATH + ".tmp");
+      try (FileOutputStream fos = new FileOutputStream(tmpFile);
+          DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+        
+        // Write the header, then each entry
+        dos.writeInt(PERM_FILE_MAGIC);
+        dos.writeByte(PERM_FILE_VERSION);
+        dos.writeInt(userIDs.length);
+        for (int i = 0; i < userIDs.length; i++) {
+          dos.writeLong(userIDs[i]);
+          dos.writeByte(levels[i]);
+        }
+        dos.flush();
+        fos.getFD().sync();
+        
+      } catch (IOException e) {
+        e.printStackTrace();
+        markDirty();
+        return;
+      }
+      
+      try {
+        Files.move(tmpFile.toPath(), PERM_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        e.printStackTrace();
+        markDirty();
+      }
+    }
+  }
+  
+  /**
+   * Saves the permission table if it has changed since it was last saved.
+   */
+  public static final void flush() {
+    
+    synchronized (PermissionsTable.class) {
+      if (!dirty) {
+        return;
+      }
+    }
+    savePerms();
+  }
+  
+  /**
+   * Stops the background flusher and writes any unsaved changes.
+   */
+  public static final void shutdown() {
+    
+    final ScheduledExecutorService f;
+    synchronized (PermissionsTable.class) {
+      f = flusher;
+      flusher = null;
+    }
     
-    try (FileOutputStream fos = new FileOutputStream(PERM_DATA_PATH);
-        ObjectOutputStream oos = new ObjectOutputStream(fos)) {
+    if (f != null) {
+      f.shutdown();
+      try {
+        f.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (@SuppressWarnings("unused") InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+  
+  /**
+   * Marks the table as changed so the next flush writes it.
+   */
+  private static final synchronized void markDirty() {
+    dirty = true;
+  }
+  
+  /**
+   * Starts the background flusher if it isn't running.
+   */
+  private static final synchronized void startFlusher() {
+    
+    if (flusher != null || !saveToDisk) {
+      return;
+    }
+    
+    final int flushSecs = Math.max(1, RBConfig.getOptionalInt("permsFlushSeconds", DEFAULT_FLUSH_SECONDS));
+    flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
       
-      // Write the map and close streams
-      oos.writeObject(permMap);
-      oos.close();
-      fos.close();
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "rb-perms-flusher");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    flusher.scheduleWithFixedDelay(new Runnable() {
       
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (RuntimeException re) {
+          System.err.println("Error saving permissions map!");
+          re.printStackTrace();
+        }
+      }
+    }, flushSecs, flushSecs, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Loads the permission table from the hard disk. Entries at the default level, left over from older versions, are
+   * dropped. If saving is enabled, the background flusher is started.
+   */
+  public static final synchronized void loadPerms() {
+    
+    readPerms();
+    
+    // Members at the default level are implicit
+    int dropped = 0;
+    for (final long userID : permMap.keys()) {
+      if (permMap.get(userID, (byte) DEFAULT_PERM_LEVEL) == DEFAULT_PERM_LEVEL) {
+        permMap.remove(userID);
+        dropped++;
+      }
     }
+    if (dropped > 0) {
+      System.out.println("Dropped " + dropped + " default-level permission entries.");
+      dirty = true;
+    }
+    publishExempt();
+    
+    startFlusher();
+  }
+  
+  /**
+   * Copies every member exempt from anti-spam from the table into {@link MemberFlags}. Must be called while holding the
+   * class lock.
+   */
+  private static final void publishExempt() {
     
+    final long[] users = permMap.keys();
+    int count = 0;
+    for (final long userID : users) {
+      if (permMap.get(userID, (byte) DEFAULT_PERM_LEVEL) >= MemberFlags.SPAM_EXEMPT_LEVEL) {
+        users[count++] = userID;
+      }
+    }
+    MemberFlags.setAll(MemberFlags.FLAG_SPAM_EXEMPT, Arrays.copyOf(users, count));
   }
   
   /**
-   * Loads the permission table from the hard disk.
+   * Reads the permission table from the hard disk. Both the compact format and the older serialized TreeMap are read;
+   * the next save converts an older file.
    */
-  @SuppressWarnings("unchecked")
-  public static final void loadPerms() {
+  private static final synchronized void readPerms() {
     
     System.out.println("Loading permissions map from file.");
     
@@ -200,35 +415,31 @@ public class PermissionsTable {
       }
     }
     
-    Object obj = null;
-    try (FileInputStream fis = new FileInputStream(PERM_DATA_PATH)) {
+    if (PERM_FILE.length() == 0) {
+      System.out.println("Permissions map is empty.");
+      initTable();
+      return;
+    }
+    
+    LongByteHashMap result = null;
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(PERM_FILE)))) {
       
-      if (fis.available() > 0) {
-        
-        ObjectInputStream oin = new ObjectInputStream(fis);
-        
-        // Read the object in and close the streams
-        obj = oin.readObject();
-        oin.close();
-        fis.close();
-        
-      } else {
-        System.out.println("Permissions map is empty.");
-        initTable();
-        return;
+      dis.mark(4);
+      final int magic = dis.readInt();
+      if (magic == PERM_FILE_MAGIC) {
+        result = readCompactPerms(dis);
+      } else if ((magic >>> 16) == 0xACED) {
+        dis.reset();
+        result = readLegacyPerms(dis);
+        dirty = true;
       }
       
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
     } catch (IOException e) {
       e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
     }
     
-    // Cast the read object to a TreeMap
-    if (obj instanceof TreeMap) {
-      permMap = (TreeMap<Long, Integer>) obj;
+    if (result != null) {
+      permMap = result;
     } else {
       System.err.println("Error with loading. Creating new table.");
       initTable();
@@ -236,4 +447,60 @@ public class PermissionsTable {
     
   }
   
+  /**
+   * Reads a table in the compact format. The magic number has already been read.
+   * 
+   * @param dis the file's input stream.
+   * @return the table, or null if the version isn't known.
+   * @throws IOException if the file couldn't be read.
+   */
+  private static final LongByteHashMap readCompactPerms(final DataInputStream dis) throws IOException {
+    
+    final byte version = dis.readByte();
+    if (version != PERM_FILE_VERSION) {
+      System.err.println("Unknown permissions file version " + version + "!");
+      return null;
+    }
+    
+    final int count = dis.readInt();
+    final LongByteHashMap result = new LongByteHashMap(count);
+    for (int i = 0; i < count; i++) {
+      final long userID = dis.readLong();
+      result.put(userID, dis.readByte());
+    }
+    return result;
+  }
+  
+  /**
+   * Reads a table saved as a serialized TreeMap by older versions.
+   * 
+   * @param in the file's input stream, positioned at the start.
+   * @return the table, or null if the file doesn't hold a TreeMap.
+   * @throws IOException if the file couldn't be read.
+   */
+  private static final LongByteHashMap readLegacyPerms(final InputStream in) throws IOException {
+    
+    final Object obj;
+    try {
+      obj = new ObjectInputStream(in).readObject();
+    } catch (ClassNotFoundException e) {
+      e.printStackTrace();
+      return null;
+    }
+    
+    if (!(obj instanceof TreeMap)) {
+      return null;
+    }
+    
+    final TreeMap<?, ?> map = (TreeMap<?, ?>) obj;
+    final LongByteHashMap result = new LongByteHashMap(map.size());
+    for (final Map.Entry<?, ?> entry : map.entrySet()) {
+      if (entry.getKey() instanceof Long && entry.getValue() instanceof Integer) {
+        result.put((Long) entry.getKey(), ((Integer) entry.getValue()).byteValue());
+      }
+    }
+    System.out.println("Converted " + result.size() + " permission entries from the old file format.");
+    return result;
+  }
+  
 }
@@ -50,6 +50,9 @@ public abstract class RBCommand {
   /** Alias to a valid command not being found (false). */
   public static final boolean CONTINUE_CMD_SEARCH = false;
   
+  /** This command's node in the dispatch tree. Null until the tree is built. */
+  private volatile CommandTrie.Node trieNode = null;
+  
   /**
    * Gets the name of this command.
    * 
@@ -96,7 +99,8 @@ public abstract class RBCommand {
   };
   
   /**
-   * Gets the sub-commands this command has. Override this method if your command has sub-commands.
+   * Gets the sub-commands this command has. Override this method if your command has sub-commands. This is called
+   * once when the dispatch tree is built, and the returned commands are kept for the life of the bot.
    * 
    * @return a Set of RBCommand classes. Use a HashSet for these, not a TreeSet.
    */
@@ -119,7 +123,7 @@ public abstract class RBCommand {
     DBG.pl("Searching @ tokDepth=" + tokenDepth);
     
     // Check this command's subcommands for a match, and return the matched command
-    final RBCommand cmd = checkSubcommands(getSubcommands(), tokens, tokenDepth);
+    final RBCommand cmd = findSubcommand(tokens, tokenDepth);
     
     // If a subcommand is not found
     final IChannel channel = msg.getChannel();
@@ -147,6 +151,38 @@ public abstract class RBCommand {
     
   }
   
+  /**
+   * Links this command to its node in the dispatch tree.
+   * 
+   * @param node the command's CommandTrie.Node.
+   */
+  final void setTrieNode(final CommandTrie.Node node) {
+    this.trieNode = node;
+  }
+  
+  /**
+   * Finds the subcommand named by the token after the given depth. Uses the dispatch tree if this command is in it, and
+   * falls back to searching getSubcommands() if not.
+   * 
+   * @param tokens the tokens in the author's message.
+   * @param tokenDepth which token we're checking.
+   * @return the RBCommand that matches the token; null if nothing matches.
+   */
+  private final RBCommand findSubcommand(final String[] tokens, final int tokenDepth) {
+    
+    final CommandTrie.Node node = this.trieNode;
+    if (node == null) {
+      return checkSubcommands(getSubcommands(), tokens, tokenDepth);
+    }
+    
+    if (tokenDepth + 1 >= tokens.length) {
+      return null;
+    }
+    final String token = tokens[tokenDepth + 1];
+    final CommandTrie.Node child = node.getChild(token, 0, token.length());
+    return (child == null) ? null : child.getCommand();
+  }
+  
   /**
    * Checks the command's subcommands against the given tokens for a command name match.
    * 
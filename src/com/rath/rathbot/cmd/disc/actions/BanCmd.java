@@ -15,7 +15,8 @@ import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.handle.obj.IUser;
 
 /**
- * Bans user by UID or @mention for a given reason.
+ * Bans user by UID or @mention for a given reason, either permanently or for a duration such as "1w" given before the
+ * reason.
  * 
  * @author Nathan Lehenbauer lehenbnw@gmail.com
  * @author Tim Backus tbackus127@gmail.com
@@ -30,12 +31,12 @@ public class BanCmd extends RBCommand {
   
   @Override
   public String getCommandDescription() {
-    return "(Mod only) Bans a user defined by their UID or @mention for a given reason.";
+    return "(Mod only) Bans a user defined by their UID or @mention for a given reason, optionally for a given time.";
   }
   
   @Override
   public String getCommandUsage() {
-    return "rb! ban <uid|@mention> <reason..>";
+    return "rb! ban <uid|@mention> [time] <reason..>";
   }
   
   @Override
@@ -74,8 +75,21 @@ public class BanCmd extends RBCommand {
       return RBCommand.STOP_CMD_SEARCH;
     }
     
-    RathBot.banUser(author, infringingUser, msg.getTimestamp().getEpochSecond(),
-        MessageHelper.concatenateTokens(tokens, tokDepth + 2));
+    // A duration such as "1d12h" before the reason makes the ban temporary. A reason can't start with one.
+    int reasonToken = tokDepth + 2;
+    int banDuration = 0;
+    final long banSeconds = MessageHelper.parseTimeString(tokens[reasonToken]);
+    if (banSeconds > 0) {
+      if (banSeconds > Integer.MAX_VALUE || tokens.length <= reasonToken + 1) {
+        RathBot.sendMessage(channel, "Syntax Error! Usage: " + this.getCommandUsage());
+        return RBCommand.STOP_CMD_SEARCH;
+      }
+      banDuration = (int) banSeconds;
+      reasonToken++;
+    }
+    
+    RathBot.banUser(author, infringingUser, msg.getTimestamp().getEpochSecond(), banDuration,
+        MessageHelper.concatenateTokens(tokens, reasonToken));
     
     // Log ban
     ActionLogger.logAction(new ActionBan(Instant.now(), author, infringingUser));
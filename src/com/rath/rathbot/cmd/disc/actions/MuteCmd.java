@@ -81,12 +81,16 @@ public class MuteCmd extends RBCommand {
       return RBCommand.STOP_CMD_SEARCH;
     }
     
-    // Parse the mute duration
-    // TODO: Make method for Y/M/W/d/h/m/s conversion to seconds
-    final int muteDuration = 0;
+    // Parse the mute duration, such as "1d12h"
+    final long muteSeconds = MessageHelper.parseTimeString(tokens[3]);
+    if (muteSeconds <= 0 || muteSeconds > Integer.MAX_VALUE) {
+      RathBot.sendMessage(channel,
+          "Invalid mute duration \"" + tokens[3] + "\". Use the units M, w, d, h, m, and s, as in \"1d12h\".");
+      return RBCommand.STOP_CMD_SEARCH;
+    }
+    final int muteDuration = (int) muteSeconds;
     
-    // TODO: Parse mute duration and reason in tokens
-    final String muteReason = MessageHelper.concatenateTokens(tokens, 4);
+    final String muteReason = (tokens.length > 4) ? MessageHelper.concatenateTokens(tokens, 4) : null;
     final IUser mutedUser = RathBot.getClient().getUserByID(mutedUserUID);
     RathBot.muteUser(author, mutedUser, msg.getTimestamp().getEpochSecond(), muteDuration, muteReason);
     RathBot.sendMessage(channel, mutedUser.getName() + " has been muted.");
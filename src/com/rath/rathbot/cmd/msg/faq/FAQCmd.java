@@ -60,7 +60,7 @@ public class FAQCmd extends RBCommand {
    * 
    * @return a String containing a list of FAQs that are currently registered.
    */
-  public static final String getFaqList() {
+  public static final synchronized String getFaqList() {
     
     DBG.pl("Getting FAQ list.");
     
@@ -90,7 +90,7 @@ public class FAQCmd extends RBCommand {
    * @param faq the FAQ ID.
    * @return true if the map's key set contains the ID; false if not.
    */
-  public static final boolean hasFaq(final String faq) {
+  public static final synchronized boolean hasFaq(final String faq) {
     
     System.out.println("hasFaq");
     
@@ -107,7 +107,7 @@ public class FAQCmd extends RBCommand {
    * @param faq the FAQ ID to fetch the message of.
    * @return the contents of the FAQ specified as a String.
    */
-  public static final String getFaq(final String faq) {
+  public static final synchronized String getFaq(final String faq) {
     
     System.out.println("getFaq");
     
@@ -128,7 +128,7 @@ public class FAQCmd extends RBCommand {
    * @param faqName the FAQ ID.
    * @param message the FAQ's contents.
    */
-  public static final void addFaq(final String faqName, final String message) {
+  public static final synchronized void addFaq(final String faqName, final String message) {
     
     System.out.println("addFaq");
     
@@ -153,7 +153,7 @@ public class FAQCmd extends RBCommand {
    * @param faqName the FAQ ID.
    * @throws FAQNotFoundException if the FAQ entry does not exist.
    */
-  public static final void removeFaq(final String faqName) throws FAQNotFoundException {
+  public static final synchronized void removeFaq(final String faqName) throws FAQNotFoundException {
     
     System.out.println("removeFaq");
     
@@ -177,7 +177,7 @@ public class FAQCmd extends RBCommand {
   /**
    * Removes all mappings from the FAQ map.
    */
-  public static final void clearFAQMap() {
+  public static final synchronized void clearFAQMap() {
     
     System.out.println("clearFaqMap");
     
@@ -220,8 +220,12 @@ public class FAQCmd extends RBCommand {
       }
       
       // Either post the FAQ contents, or that it doesn't exist
-      if (faqMap.containsKey(tokens[2])) {
-        RathBot.sendMessage(channel, faqMap.get(tokens[2]));
+      final String faq;
+      synchronized (FAQCmd.class) {
+        faq = faqMap.get(tokens[2]);
+      }
+      if (faq != null) {
+        RathBot.sendMessage(channel, faq);
       } else {
         RathBot.sendMessage(channel, "FAQ \"" + tokens[2] + "\" doesn't exist.");
       }
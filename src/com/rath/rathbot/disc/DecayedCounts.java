@@ -0,0 +1,123 @@
+package com.rath.rathbot.disc;
+
+import com.rath.rathbot.RBConfig;
+
+/**
+ * This class holds a member's infraction counts weighted by age, so old infractions stop counting toward escalation.
+ * Each infraction weighs 1 when it's issued and loses half its weight every half-life for its type; a count is the sum
+ * of the weights, rounded. Five warnings issued in a row count as five, and count as none a few half-lives later.
+ * 
+ * The weights decay exponentially, so one decay factor applies to their whole sum: a new infraction decays the sum up
+ * to its time and adds 1, and reading a count decays the sum up to the time asked about. Both cost the same however
+ * many infractions the member has, and infractions expire without anything having to be scheduled or swept.
+ * 
+ * The half-lives are read from the config file when the infractions table is loaded. A half-life of 0 days turns
+ * decay off for that type, so its counts are lifetime counts. This class is not thread-safe.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+final class DecayedCounts {
+  
+  /** The half-life of each type, in days, unless the config file sets it: warn, mute, kick, then ban. */
+  private static final int[] DEFAULT_HALF_LIFE_DAYS = { 14, 30, 90, 365 };
+  
+  /** The config names of the half-lives, in the same order. */
+  private static final String[] HALF_LIFE_CONFIG_NAMES = { "warnHalfLifeDays", "muteHalfLifeDays",
+      "kickHalfLifeDays", "banHalfLifeDays" };
+  
+  /** The number of seconds in a day. */
+  private static final double SECONDS_PER_DAY = 86400.0;
+  
+  /** How fast each type's weights decay, per second, by ordinal. 0 if they don't. Replaced as a whole. */
+  private static volatile double[] decayRates = ratesFor(DEFAULT_HALF_LIFE_DAYS);
+  
+  /** The weights of each type, by ordinal, as of {@link #updatedAt}. */
+  private final double[] weights = new double[PunishmentType.values().length];
+  
+  /** The epoch time in seconds the weights were last decayed to, or Long.MIN_VALUE if there are none yet. */
+  private long updatedAt = Long.MIN_VALUE;
+  
+  /**
+   * Reads the half-lives from the config file. Counts already held keep their weights, which decay at the new rates
+   * from then on.
+   */
+  static final void configure() {
+    
+    final int[] days = new int[DEFAULT_HALF_LIFE_DAYS.length];
+    for (int i = 0; i < days.length; i++) {
+      days[i] = Math.max(0, RBConfig.getOptionalInt(HALF_LIFE_CONFIG_NAMES[i], DEFAULT_HALF_LIFE_DAYS[i]));
+    }
+    decayRates = ratesFor(days);
+  }
+  
+  /**
+   * Adds an infraction.
+   * 
+   * @param type the type of punishment.
+   * @param time the epoch time in seconds it was issued.
+   */
+  final void add(final PunishmentType type, final long time) {
+    
+    if (this.updatedAt == Long.MIN_VALUE) {
+      this.updatedAt = time;
+    }
+    
+    // An infraction older than the weights, as when a history is read back, is added already decayed
+    final int t = type.ordinal();
+    if (time < this.updatedAt) {
+      this.weights[t] += decayFactor(t, this.updatedAt - time);
+      return;
+    }
+    
+    if (time > this.updatedAt) {
+      for (int i = 0; i < this.weights.length; i++) {
+        this.weights[i] *= decayFactor(i, time - this.updatedAt);
+      }
+      this.updatedAt = time;
+    }
+    this.weights[t] += 1.0;
+  }
+  
+  /**
+   * Gets how many infractions of a type still count at a given time.
+   * 
+   * @param type the type of punishment.
+   * @param now the epoch time in seconds.
+   * @return the sum of their weights, rounded.
+   */
+  final int get(final PunishmentType type, final long now) {
+    
+    final int t = type.ordinal();
+    if (now <= this.updatedAt) {
+      return (int) Math.round(this.weights[t]);
+    }
+    return (int) Math.round(this.weights[t] * decayFactor(t, now - this.updatedAt));
+  }
+  
+  /**
+   * Gets how much of its weight an infraction keeps after a while.
+   * 
+   * @param ordinal the type's ordinal.
+   * @param seconds how long it's been.
+   * @return a factor between 0 and 1.
+   */
+  private static final double decayFactor(final int ordinal, final long seconds) {
+    final double rate = decayRates[ordinal];
+    return (rate == 0.0) ? 1.0 : Math.exp(-rate * seconds);
+  }
+  
+  /**
+   * Turns half-lives into decay rates.
+   * 
+   * @param halfLifeDays each type's half-life in days, or 0 if it doesn't decay.
+   * @return each type's decay rate per second.
+   */
+  private static final double[] ratesFor(final int[] halfLifeDays) {
+    
+    final double[] rates = new double[halfLifeDays.length];
+    for (int i = 0; i < rates.length; i++) {
+      rates[i] = (halfLifeDays[i] <= 0) ? 0.0 : Math.log(2.0) / (halfLifeDays[i] * SECONDS_PER_DAY);
+    }
+    return rates;
+  }
+}
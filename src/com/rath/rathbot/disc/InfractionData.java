@@ -1,11 +1,17 @@
 
 package com.rath.rathbot.disc;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
- * This class holds a user's entire infraction history.
+ * This class holds a user's entire infraction history. The history itself is kept compactly in an
+ * {@link InfractionHistory}; older tables saved with Java serialization held it as a list of {@link InfractionEntry}'s,
+ * so it's still written and read in that form.
  * 
  * @author Tim Backus tbackus127@gmail.com
  */
@@ -14,6 +20,14 @@ public class InfractionData implements Serializable {
   /** Default serial version UID. */
   private static final long serialVersionUID = 1L;
   
+  /** The fields written with Java serialization, which are the ones older versions declared. */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("warnCount", int.class), new ObjectStreamField("muteCount", int.class),
+      new ObjectStreamField("kickCount", int.class), new ObjectStreamField("banCount", int.class),
+      new ObjectStreamField("muteDuration", int.class), new ObjectStreamField("banDuration", int.class),
+      new ObjectStreamField("isMuted", boolean.class), new ObjectStreamField("isBanned", boolean.class),
+      new ObjectStreamField("history", ArrayList.class) };
+  
   /** How many times the user has been warned. */
   private int warnCount;
   
@@ -29,14 +43,20 @@ public class InfractionData implements Serializable {
   /** How long the user is muted for. */
   private int muteDuration;
   
+  /** How long the user is banned for, in seconds, or 0 if the ban is permanent. */
+  private int banDuration;
+  
   /** If the user is currently muted. */
   private boolean isMuted;
   
   /** If the user is currently banned. */
   private boolean isBanned;
   
-  /** The user's infraction history, with the most recent entry being index 0 of the list. */
-  private final ArrayList<InfractionEntry> history;
+  /** The user's infraction history, oldest first. */
+  private transient InfractionHistory history;
+  
+  /** The user's infraction counts weighted by age. Not saved; rebuilt from the history when it's read back. */
+  private transient DecayedCounts recent;
   
   /**
    * Default constructor.
@@ -47,7 +67,33 @@ public class InfractionData implements Serializable {
     this.kickCount = 0;
     this.banCount = 0;
     this.muteDuration = 0;
-    this.history = new ArrayList<InfractionEntry>();
+    this.banDuration = 0;
+    this.history = new InfractionHistory();
+    this.recent = new DecayedCounts();
+  }
+  
+  /**
+   * Constructor used when reading a saved table.
+   * 
+   * @param counts the warn, mute, kick, and ban counts, in that order.
+   * @param muteDuration how long the user is muted for.
+   * @param banDuration how long the user is banned for, or 0 if the ban is permanent.
+   * @param isMuted if the user is currently muted.
+   * @param isBanned if the user is currently banned.
+   * @param history the user's infraction history.
+   */
+  InfractionData(final int[] counts, final int muteDuration, final int banDuration, final boolean isMuted,
+      final boolean isBanned, final InfractionHistory history) {
+    this.warnCount = counts[0];
+    this.muteCount = counts[1];
+    this.kickCount = counts[2];
+    this.banCount = counts[3];
+    this.muteDuration = muteDuration;
+    this.banDuration = banDuration;
+    this.isMuted = isMuted;
+    this.isBanned = isBanned;
+    this.history = history;
+    this.recent = countsFor(history);
   }
   
   /**
@@ -66,7 +112,8 @@ public class InfractionData implements Serializable {
    * @param reason the reason the user is being warned.
    */
   public final void warn(final long time, final String reason) {
-    this.history.add(new InfractionEntry(PunishmentType.WARN, time, reason));
+    this.history.add(PunishmentType.WARN, time, reason);
+    this.recent.add(PunishmentType.WARN, time);
     this.warnCount++;
   }
   
@@ -98,11 +145,63 @@ public class InfractionData implements Serializable {
   }
   
   /**
-   * Gets the user's infraction history.
+   * Gets the user's infraction history. The entries are built from the compact history on each call, so this is meant
+   * for showing the history rather than for checks made on every message; see {@link #getLatest(PunishmentType)}.
    * 
-   * @return an ArrayList of InfractionEntry's.
+   * @return a new ArrayList of InfractionEntry's, oldest first.
    */
   public final ArrayList<InfractionEntry> getHistory() {
+    return this.history.toList();
+  }
+  
+  /**
+   * Gets the number of entries in the user's infraction history.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getHistorySize() {
+    return this.history.size();
+  }
+  
+  /**
+   * Gets the user's most recent infraction.
+   * 
+   * @return the InfractionEntry, or null if the user has no infractions.
+   */
+  public final InfractionEntry getLast() {
+    final int size = this.history.size();
+    return (size == 0) ? null : this.history.get(size - 1);
+  }
+  
+  /**
+   * Gets the user's most recent infraction of a type, without walking their history.
+   * 
+   * @param type the type of punishment.
+   * @return the InfractionEntry, or null if the user has no infractions of that type.
+   */
+  public final InfractionEntry getLatest(final PunishmentType type) {
+    final int index = this.history.latestIndex(type);
+    return (index < 0) ? null : this.history.get(index);
+  }
+  
+  /**
+   * Gets how many of the user's infractions of a type still count toward escalation, with older ones weighing less. See
+   * {@link DecayedCounts}.
+   * 
+   * @param type the type of punishment.
+   * @param now the current epoch time, in seconds.
+   * @return a non-negative int, no more than the lifetime count.
+   */
+  public final int getRecentCount(final PunishmentType type, final long now) {
+    return this.recent.get(type, now);
+  }
+  
+  /**
+   * Gets the user's compact infraction history, for saving it.
+   * 
+   * @return the InfractionHistory.
+   */
+  final InfractionHistory getEntries() {
     return this.history;
   }
   
@@ -116,12 +215,16 @@ public class InfractionData implements Serializable {
   }
   
   /**
-   * Sets the user's muted status.
+   * Sets the user's muted status. A mute set this way has no duration, so it lasts until it's lifted; unmuting keeps
+   * the last mute's duration for the record.
    * 
    * @param b true if the user shall be muted; false if not.
    */
   public final void setMuted(final boolean b) {
     this.isMuted = b;
+    if (b) {
+      this.muteDuration = 0;
+    }
   }
   
   /**
@@ -132,10 +235,11 @@ public class InfractionData implements Serializable {
    * @param reason the reason the user is being muted.
    */
   public final void mute(final long issueTime, final int muteDuration, final String reason) {
-    this.history.add(new InfractionEntry(PunishmentType.MUTE, issueTime, reason));
+    this.history.add(PunishmentType.MUTE, issueTime, reason);
+    this.recent.add(PunishmentType.MUTE, issueTime);
     this.muteDuration = muteDuration;
     this.muteCount++;
-    setMuted(true);
+    this.isMuted = true;
   }
   
   /**
@@ -145,7 +249,8 @@ public class InfractionData implements Serializable {
    * @param reason the reason the user is being kicked.
    */
   public final void kick(final long time, final String reason) {
-    this.history.add(new InfractionEntry(PunishmentType.KICK, time, reason));
+    this.history.add(PunishmentType.KICK, time, reason);
+    this.recent.add(PunishmentType.KICK, time);
     this.kickCount++;
   }
   
@@ -159,29 +264,145 @@ public class InfractionData implements Serializable {
   }
   
   /**
-   * Sets the user's banned status.
+   * Sets the user's banned status. A ban set this way has no duration, so it lasts until it's lifted; unbanning keeps
+   * the last ban's duration for the record.
    * 
    * @param b true if the user shall be banned; false if not.
    */
   public final void setBanned(final boolean b) {
     this.isBanned = b;
+    if (b) {
+      this.banDuration = 0;
+    }
   }
   
   /**
    * Sets a user's banned status to true and increments the ban count.
    * 
    * @param time the epoch time the user was banned.
+   * @param banDuration the amount of seconds the user is banned for, or 0 if the ban is permanent.
    * @param reason the reason the user is being banned.
    */
-  public final void ban(final long time, final String reason) {
-    this.history.add(new InfractionEntry(PunishmentType.BAN, time, reason));
+  public final void ban(final long time, final int banDuration, final String reason) {
+    this.history.add(PunishmentType.BAN, time, reason);
+    this.recent.add(PunishmentType.BAN, time);
+    this.banDuration = banDuration;
     this.banCount++;
-    setBanned(true);
+    this.isBanned = true;
   }
   
-  // TODO: Javadoc this
+  /**
+   * Gets how long the user's current or last mute lasts.
+   * 
+   * @return the duration in seconds, or 0 if the mute has no duration.
+   */
   public final int getMuteDuration() {
     return this.muteDuration;
   }
   
+  /**
+   * Gets when the user's current mute runs out: the time of their last mute plus its duration.
+   * 
+   * @return the epoch time in seconds, or -1 if the user isn't muted or the mute has no duration.
+   */
+  public final long getMuteExpiry() {
+    
+    final int index = this.history.latestIndex(PunishmentType.MUTE);
+    if (!this.isMuted || this.muteDuration <= 0 || index < 0) {
+      return -1L;
+    }
+    return this.history.getTimestamp(index) + this.muteDuration;
+  }
+  
+  /**
+   * Gets how long the user's current or last ban lasts.
+   * 
+   * @return the duration in seconds, or 0 if the ban is permanent.
+   */
+  public final int getBanDuration() {
+    return this.banDuration;
+  }
+  
+  /**
+   * Gets when the user's current ban runs out: the time of their last ban plus its duration.
+   * 
+   * @return the epoch time in seconds, or -1 if the user isn't banned or the ban is permanent.
+   */
+  public final long getBanExpiry() {
+    
+    final int index = this.history.latestIndex(PunishmentType.BAN);
+    if (!this.isBanned || this.banDuration <= 0 || index < 0) {
+      return -1L;
+    }
+    return this.history.getTimestamp(index) + this.banDuration;
+  }
+  
+  /**
+   * Writes the record with Java serialization, with its history as a list of InfractionEntry's.
+   * 
+   * @param out the stream to write to.
+   * @throws IOException if the record couldn't be written.
+   */
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    
+    final ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("warnCount", this.warnCount);
+    fields.put("muteCount", this.muteCount);
+    fields.put("kickCount", this.kickCount);
+    fields.put("banCount", this.banCount);
+    fields.put("muteDuration", this.muteDuration);
+    fields.put("banDuration", this.banDuration);
+    fields.put("isMuted", this.isMuted);
+    fields.put("isBanned", this.isBanned);
+    fields.put("history", this.history.toList());
+    out.writeFields();
+  }
+  
+  /**
+   * Reads a record written with Java serialization, packing its list of InfractionEntry's into a compact history.
+   * Records from before ban durations were saved read as permanent bans.
+   * 
+   * @param in the stream to read from.
+   * @throws IOException if the record couldn't be read.
+   * @throws ClassNotFoundException if a class in the record couldn't be found.
+   */
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    
+    final ObjectInputStream.GetField fields = in.readFields();
+    this.warnCount = fields.get("warnCount", 0);
+    this.muteCount = fields.get("muteCount", 0);
+    this.kickCount = fields.get("kickCount", 0);
+    this.banCount = fields.get("banCount", 0);
+    this.muteDuration = fields.get("muteDuration", 0);
+    this.banDuration = fields.get("banDuration", 0);
+    this.isMuted = fields.get("isMuted", false);
+    this.isBanned = fields.get("isBanned", false);
+    
+    final Object list = fields.get("history", null);
+    final ArrayList<?> entries = (list instanceof ArrayList) ? (ArrayList<?>) list : new ArrayList<Object>();
+    this.history = new InfractionHistory(entries.size());
+    for (final Object obj : entries) {
+      if (obj instanceof InfractionEntry) {
+        final InfractionEntry entry = (InfractionEntry) obj;
+        this.history.add(entry.getType(), entry.getTimestamp(), entry.getReason());
+      }
+    }
+    this.recent = countsFor(this.history);
+  }
+  
+  /**
+   * Builds a user's age-weighted counts from their history.
+   * 
+   * @param history the user's infraction history.
+   * @return the DecayedCounts.
+   */
+  private static final DecayedCounts countsFor(final InfractionHistory history) {
+    
+    final DecayedCounts counts = new DecayedCounts();
+    for (int i = 0; i < history.size(); i++) {
+      counts.add(history.getType(i), history.getTimestamp(i));
+    }
+    return counts;
+  }
+  
 }
@@ -1,13 +1,18 @@
 
 package com.rath.rathbot.disc;
 
+import java.io.Serializable;
+
 /**
  * This class holds the data for individual infractions a user has made.
  * 
  * @author Tim Backus tbackus127@gmail.com
  *
  */
-public class InfractionEntry {
+public class InfractionEntry implements Serializable {
+  
+  /** Default serial version UID. */
+  private static final long serialVersionUID = 1L;
   
   /** The type of punishment the user received. */
   private final PunishmentType type;
@@ -0,0 +1,273 @@
+package com.rath.rathbot.disc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class holds one member's infraction history in columns instead of as a list of objects. Each entry is one long,
+ * holding the punishment type in its low bits and the timestamp above them, plus the int ID of its reason. Reasons are
+ * kept once each in a dictionary shared by every member, since most are repeated word for word (the anti-spam reasons
+ * especially). An entry costs 12 bytes, against an {@link InfractionEntry} object, its reference, and often its own
+ * copy of the reason.
+ * 
+ * The index of the latest entry of each type is kept as entries are added, so it can be found without walking the
+ * history. Entries are {@link InfractionEntry} objects only when they're asked for. This class is not thread-safe,
+ * except for the reason dictionary, which can be read without locking.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+final class InfractionHistory {
+  
+  /** The number of low bits of an entry that hold its type. */
+  private static final int TYPE_BITS = 3;
+  
+  /** Masks the type out of an entry. */
+  private static final long TYPE_MASK = (1L << TYPE_BITS) - 1L;
+  
+  /** The capacity of a history once its first entry is added. */
+  private static final int INITIAL_CAPACITY = 4;
+  
+  /** The reason given to entries that were given none. Its ID is always 0. */
+  static final String NO_REASON = "No reason given.";
+  
+  /** Every punishment type, by ordinal. */
+  private static final PunishmentType[] TYPES = PunishmentType.values();
+  
+  /** Shared by empty histories until their first entry. */
+  private static final long[] NO_ENTRIES = new long[0];
+  
+  /** Shared by empty histories until their first entry. */
+  private static final int[] NO_REASONS = new int[0];
+  
+  /** The reason dictionary, by ID. Replaced when it grows, so it can be read without locking. */
+  private static volatile String[] reasonsById = { NO_REASON };
+  
+  /** The number of reasons in the dictionary. Guarded by REASON_IDS. */
+  private static int reasonCount = 1;
+  
+  /** The reason dictionary, by reason. Also the lock for adding reasons. */
+  private static final HashMap<String, Integer> REASON_IDS = new HashMap<String, Integer>();
+  
+  static {
+    REASON_IDS.put(NO_REASON, 0);
+  }
+  
+  /** The entries, oldest first: the type in the low bits and the timestamp above them. */
+  private long[] entries = NO_ENTRIES;
+  
+  /** The reason ID of each entry. */
+  private int[] reasons = NO_REASONS;
+  
+  /** The number of entries. */
+  private int size = 0;
+  
+  /** The index of the latest entry of each type, by ordinal, or -1 if there is none. */
+  private final int[] latest;
+  
+  /**
+   * Default constructor.
+   */
+  InfractionHistory() {
+    this.latest = new int[TYPES.length];
+    Arrays.fill(this.latest, -1);
+  }
+  
+  /**
+   * Constructor with an expected size, for reading a saved history.
+   * 
+   * @param expectedSize the number of entries that will be added.
+   */
+  InfractionHistory(final int expectedSize) {
+    this();
+    if (expectedSize > 0) {
+      this.entries = new long[expectedSize];
+      this.reasons = new int[expectedSize];
+    }
+  }
+  
+  /**
+   * Adds an entry.
+   * 
+   * @param type the type of punishment.
+   * @param time the epoch time the punishment was issued.
+   * @param reason the reason given, or null if none was.
+   */
+  final void add(final PunishmentType type, final long time, final String reason) {
+    addPacked(pack(type, time), internReason(reason));
+  }
+  
+  /**
+   * Adds an entry that's already packed.
+   * 
+   * @param packed the entry, from {@link #getPacked(int)}.
+   * @param reasonId the reason's ID in the dictionary.
+   */
+  final void addPacked(final long packed, final int reasonId) {
+    
+    if (this.size == this.entries.length) {
+      final int capacity = Math.max(INITIAL_CAPACITY, this.size + (this.size >> 1));
+      this.entries = Arrays.copyOf(this.entries, capacity);
+      this.reasons = Arrays.copyOf(this.reasons, capacity);
+    }
+    this.entries[this.size] = packed;
+    this.reasons[this.size] = reasonId;
+    this.latest[(int) (packed & TYPE_MASK)] = this.size;
+    this.size++;
+  }
+  
+  /**
+   * Gets the number of entries.
+   * 
+   * @return a non-negative int.
+   */
+  final int size() {
+    return this.size;
+  }
+  
+  /**
+   * Gets an entry as it's stored.
+   * 
+   * @param index the entry's index, oldest first.
+   * @return the type in the low bits and the timestamp above them.
+   */
+  final long getPacked(final int index) {
+    return this.entries[index];
+  }
+  
+  /**
+   * Gets an entry's reason ID.
+   * 
+   * @param index the entry's index, oldest first.
+   * @return the ID in the reason dictionary.
+   */
+  final int getReasonId(final int index) {
+    return this.reasons[index];
+  }
+  
+  /**
+   * Gets an entry's type.
+   * 
+   * @param index the entry's index, oldest first.
+   * @return the type of punishment.
+   */
+  final PunishmentType getType(final int index) {
+    return TYPES[(int) (this.entries[index] & TYPE_MASK)];
+  }
+  
+  /**
+   * Gets an entry's timestamp.
+   * 
+   * @param index the entry's index, oldest first.
+   * @return the epoch time the punishment was issued.
+   */
+  final long getTimestamp(final int index) {
+    return this.entries[index] >> TYPE_BITS;
+  }
+  
+  /**
+   * Gets an entry.
+   * 
+   * @param index the entry's index, oldest first.
+   * @return a new InfractionEntry.
+   */
+  final InfractionEntry get(final int index) {
+    final long packed = this.entries[index];
+    return new InfractionEntry(TYPES[(int) (packed & TYPE_MASK)], packed >> TYPE_BITS, getReason(this.reasons[index]));
+  }
+  
+  /**
+   * Gets the index of the latest entry of a type.
+   * 
+   * @param type the type of punishment.
+   * @return the index, or -1 if there's no entry of that type.
+   */
+  final int latestIndex(final PunishmentType type) {
+    return this.latest[type.ordinal()];
+  }
+  
+  /**
+   * Gets every entry.
+   * 
+   * @return a new list of InfractionEntry's, oldest first.
+   */
+  final ArrayList<InfractionEntry> toList() {
+    
+    final ArrayList<InfractionEntry> list = new ArrayList<InfractionEntry>(this.size);
+    for (int i = 0; i < this.size; i++) {
+      list.add(get(i));
+    }
+    return list;
+  }
+  
+  /**
+   * Packs an entry's type and timestamp into one long.
+   * 
+   * @param type the type of punishment.
+   * @param time the epoch time the punishment was issued.
+   * @return the packed entry.
+   */
+  static final long pack(final PunishmentType type, final long time) {
+    return (time << TYPE_BITS) | type.ordinal();
+  }
+  
+  /**
+   * Checks that a packed entry read from disk holds a known type.
+   * 
+   * @param packed the packed entry.
+   * @return true if the type is known.
+   */
+  static final boolean isValidPacked(final long packed) {
+    return (packed & TYPE_MASK) < TYPES.length;
+  }
+  
+  /**
+   * Gets a reason's ID, adding it to the dictionary if it's new.
+   * 
+   * @param reason the reason, or null for {@link #NO_REASON}.
+   * @return the reason's ID.
+   */
+  static final int internReason(final String reason) {
+    
+    if (reason == null) {
+      return 0;
+    }
+    
+    synchronized (REASON_IDS) {
+      final Integer id = REASON_IDS.get(reason);
+      if (id != null) {
+        return id.intValue();
+      }
+      
+      String[] byId = reasonsById;
+      if (reasonCount == byId.length) {
+        byId = Arrays.copyOf(byId, byId.length * 2);
+      }
+      byId[reasonCount] = reason;
+      reasonsById = byId;
+      REASON_IDS.put(reason, reasonCount);
+      return reasonCount++;
+    }
+  }
+  
+  /**
+   * Gets a reason by its ID. Doesn't lock.
+   * 
+   * @param id the reason's ID.
+   * @return the reason.
+   */
+  static final String getReason(final int id) {
+    return reasonsById[id];
+  }
+  
+  /**
+   * Gets every reason in the dictionary, for saving with a snapshot.
+   * 
+   * @return a new array of reasons, by ID.
+   */
+  static final String[] getReasons() {
+    synchronized (REASON_IDS) {
+      return Arrays.copyOf(reasonsById, reasonCount);
+    }
+  }
+}
@@ -0,0 +1,792 @@
+
+package com.rath.rathbot.disc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.rath.rathbot.util.LongObjectHashMap;
+
+/**
+ * This class persists the infractions table as an append-only journal of infraction events, on top of periodic
+ * snapshots of the whole table.
+ * 
+ * Each event is one record: its payload length, a CRC32 of the payload, then the payload itself (a sequence number,
+ * the operation, and its arguments). Records are written by a single writer thread. Every record queued while the
+ * writer is busy goes out in the next batch, and the whole batch is made durable with one fsync (group commit), so a
+ * burst of infractions costs one fsync rather than one per infraction.
+ * 
+ * A snapshot holds a header, the sequence number of the last record it includes, the reason dictionary, then the table
+ * written field by field in a compact binary form, with each history entry as its packed type and timestamp plus its
+ * reason's ID. On startup, the snapshot is read and every journal record after it is replayed. A record
+ * that was only partly written when the bot stopped fails its length or CRC check; it and anything after it are cut
+ * off. Older snapshots written with Java serialization are still read; ones that hold only the table are read as if
+ * their sequence number were 0.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class InfractionJournal {
+  
+  /** Operation: the member's record was created or cleared. */
+  public static final byte OP_RESET = 0;
+  
+  /** Operation: the member was warned. */
+  public static final byte OP_WARN = 1;
+  
+  /** Operation: the member was muted. The argument is the mute duration in seconds. */
+  public static final byte OP_MUTE = 2;
+  
+  /** Operation: the member was kicked. */
+  public static final byte OP_KICK = 3;
+  
+  /** Operation: the member was banned. The argument is the ban duration in seconds, or 0 if it's permanent. */
+  public static final byte OP_BAN = 4;
+  
+  /** Operation: the member's muted status was set. The argument is 1 if muted, 0 if not. */
+  public static final byte OP_SET_MUTED = 5;
+  
+  /** Operation: the member's banned status was set. The argument is 1 if banned, 0 if not. */
+  public static final byte OP_SET_BANNED = 6;
+  
+  /** The number of records journaled between snapshots by default. */
+  public static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+  
+  /** The size of a record's header (payload length and CRC32), in bytes. */
+  private static final int HEADER_SIZE = 8;
+  
+  /** The largest payload a record can have. A larger length means the record is corrupt. */
+  private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+  
+  /** Marks the compact snapshot format ("RBIF"). */
+  private static final int SNAPSHOT_MAGIC = 0x52424946;
+  
+  /**
+   * The version of the compact snapshot format. Version 2 added the ban duration, and version 3 replaced each history
+   * entry's reason with an ID in a reason dictionary written ahead of the table.
+   */
+  private static final byte SNAPSHOT_VERSION = 3;
+  
+  /** The first two bytes of a Java serialization stream, which older snapshots were written as. */
+  private static final int SERIALIZED_STREAM_MAGIC = 0xACED;
+  
+  /** The journal file. */
+  private final File journalFile;
+  
+  /** The snapshot file. */
+  private final File snapshotFile;
+  
+  /** The number of records journaled between snapshots. */
+  private final int snapshotInterval;
+  
+  /** Writes waiting for the writer thread. Guarded by this. */
+  private final ArrayDeque<PendingWrite> pending = new ArrayDeque<PendingWrite>();
+  
+  /** The sequence number of the last record appended. Guarded by this. */
+  private long lastSeq = 0L;
+  
+  /** The sequence number of the last record known to be on disk. Guarded by this. */
+  private long durableSeq = 0L;
+  
+  /** The number of records appended since the last snapshot. Guarded by this. */
+  private int recordsSinceSnapshot = 0;
+  
+  /** The length of the journal up to the end of its last valid record, found while loading. */
+  private long validLength = 0L;
+  
+  /** Whether the writer thread is running. Guarded by this. */
+  private boolean running = false;
+  
+  /** Whether the journal has been closed. Guarded by this. */
+  private boolean closed = false;
+  
+  /** Whether a write to the journal failed. Once set, records are no longer written. Guarded by this. */
+  private boolean failed = false;
+  
+  /** The writer thread. */
+  private Thread writer = null;
+  
+  /** The journal file's channel. Only used by the writer thread once it's started. */
+  private FileChannel channel = null;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param journalFile the journal file.
+   * @param snapshotFile the snapshot file.
+   */
+  public InfractionJournal(final File journalFile, final File snapshotFile) {
+    this(journalFile, snapshotFile, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+  
+  /**
+   * Constructor with a custom snapshot interval.
+   * 
+   * @param journalFile the journal file.
+   * @param snapshotFile the snapshot file.
+   * @param snapshotInterval the number of records journaled between snapshots. Must be positive.
+   */
+  public InfractionJournal(final File journalFile, final File snapshotFile, final int snapshotInterval) {
+    
+    if (snapshotInterval <= 0) {
+      throw new IllegalArgumentException("Snapshot interval must be positive!");
+    }
+    this.journalFile = journalFile;
+    this.snapshotFile = snapshotFile;
+    this.snapshotInterval = snapshotInterval;
+  }
+  
+  /**
+   * Reads the snapshot and replays the journal records after it. Nothing is written to disk.
+   * 
+   * @return the loaded infractions table. Empty if neither file exists or the snapshot couldn't be read.
+   */
+  public final synchronized LongObjectHashMap<InfractionData> load() {
+    
+    // Read the snapshot, falling back to an empty table
+    final long[] snapshotSeqHolder = { 0L };
+    LongObjectHashMap<InfractionData> map = null;
+    if (this.snapshotFile.exists() && this.snapshotFile.length() > 0) {
+      try (DataInputStream din = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(this.snapshotFile)))) {
+        
+        din.mark(4);
+        final int magic = din.readInt();
+        if (magic == SNAPSHOT_MAGIC) {
+          map = readSnapshot(din, snapshotSeqHolder);
+        } else if ((magic >>> 16) == SERIALIZED_STREAM_MAGIC) {
+          din.reset();
+          map = readLegacySnapshot(din, snapshotSeqHolder);
+        }
+        
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      
+      if (map == null) {
+        System.err.println("Error with loading. Creating new table.");
+        snapshotSeqHolder[0] = 0L;
+      }
+    }
+    if (map == null) {
+      map = new LongObjectHashMap<InfractionData>();
+    }
+    final long snapshotSeq = snapshotSeqHolder[0];
+    
+    // Replay every intact record newer than the snapshot
+    long maxSeq = snapshotSeq;
+    int replayed = 0;
+    this.validLength = 0L;
+    if (this.journalFile.exists()) {
+      try (DataInputStream din = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(this.journalFile)))) {
+        
+        final CRC32 crc = new CRC32();
+        while (true) {
+          
+          final byte[] payload = readRecord(din, crc);
+          if (payload == null) {
+            break;
+          }
+          
+          final DataInputStream rin = new DataInputStream(new ByteArrayInputStream(payload));
+          final long seq = rin.readLong();
+          final byte op = rin.readByte();
+          final long user = rin.readLong();
+          final long time = rin.readLong();
+          final int arg = rin.readInt();
+          final String reason = rin.readBoolean() ? rin.readUTF() : null;
+          
+          if (seq > snapshotSeq) {
+            apply(map, op, user, time, arg, reason);
+            replayed++;
+          }
+          maxSeq = Math.max(maxSeq, seq);
+          this.validLength += HEADER_SIZE + payload.length;
+        }
+        
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      
+      final long fileLength = this.journalFile.length();
+      if (this.validLength < fileLength) {
+        System.err.println("Infractions journal has " + (fileLength - this.validLength)
+            + " bytes of incomplete records at the end; they will be discarded.");
+      }
+    }
+    
+    System.out.println("Replayed " + replayed + " infraction journal records.");
+    this.lastSeq = maxSeq;
+    this.durableSeq = maxSeq;
+    this.recordsSinceSnapshot = replayed;
+    return map;
+  }
+  
+  /**
+   * Opens the journal for appending and starts the writer thread. Any incomplete records found by {@link #load()} are
+   * cut off first.
+   * 
+   * @throws IOException if the journal couldn't be opened.
+   */
+  @SuppressWarnings("resource")
+  public final synchronized void start() throws IOException {
+    
+    if (this.running || this.closed) {
+      return;
+    }
+    
+    this.channel = new RandomAccessFile(this.journalFile, "rw").getChannel();
+    this.channel.truncate(this.validLength);
+    this.channel.position(this.validLength);
+    this.channel.force(true);
+    
+    this.writer = new Thread(new Runnable() {
+      
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, "rb-infraction-journal");
+    this.writer.setDaemon(true);
+    this.running = true;
+    this.writer.start();
+  }
+  
+  /**
+   * Queues a record. Returns right away; use {@link #awaitDurable(long)} to wait for it to reach the disk.
+   * 
+   * @param op the operation, one of the OP_ constants.
+   * @param user the Discord unique long ID.
+   * @param time the epoch time of the event.
+   * @param arg the operation's argument, or 0 if it has none.
+   * @param reason the reason given. May be null.
+   * @return the record's sequence number, or 0 if the journal isn't accepting records.
+   */
+  public final synchronized long append(final byte op, final long user, final long time, final int arg,
+      final String reason) {
+    
+    if (!this.running || this.closed || this.failed) {
+      return 0L;
+    }
+    
+    final long seq = ++this.lastSeq;
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeLong(seq);
+      out.writeByte(op);
+      out.writeLong(user);
+      out.writeLong(time);
+      out.writeInt(arg);
+      out.writeBoolean(reason != null);
+      if (reason != null) {
+        out.writeUTF(reason);
+      }
+      out.flush();
+      
+      // Fill in the header now that the payload is known
+      final byte[] record = bytes.toByteArray();
+      final int payloadLength = record.length - HEADER_SIZE;
+      final CRC32 crc = new CRC32();
+      crc.update(record, HEADER_SIZE, payloadLength);
+      final ByteBuffer header = ByteBuffer.wrap(record, 0, HEADER_SIZE);
+      header.putInt(payloadLength);
+      header.putInt((int) crc.getValue());
+      
+      this.pending.add(new PendingWrite(seq, record, false));
+      this.recordsSinceSnapshot++;
+      notifyAll();
+      
+    } catch (IOException e) {
+      
+      // Writing to a byte array only fails if the reason is too long to encode
+      System.err.println("Error encoding infraction journal record!");
+      e.printStackTrace();
+      this.lastSeq--;
+      return 0L;
+    }
+    return seq;
+  }
+  
+  /**
+   * Waits until a record is on disk.
+   * 
+   * @param seq the record's sequence number.
+   * @return true if the record is durable; false if the journal failed or closed before it was written.
+   */
+  public final synchronized boolean awaitDurable(final long seq) {
+    
+    boolean interrupted = false;
+    while (this.durableSeq < seq && this.running && !this.failed) {
+      try {
+        wait();
+      } catch (@SuppressWarnings("unused") InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return this.durableSeq >= seq;
+  }
+  
+  /**
+   * Checks whether enough records have been appended since the last snapshot that a new one should be taken.
+   * 
+   * @return true if a snapshot is due; false if not.
+   */
+  public final synchronized boolean isSnapshotDue() {
+    return this.recordsSinceSnapshot >= this.snapshotInterval;
+  }
+  
+  /**
+   * Takes a snapshot of the table. The caller must make sure the table includes every record appended so far and that
+   * no records are appended until this returns. The snapshot is written in order with the records around it, and the
+   * journal is emptied once the snapshot is safely on disk.
+   * 
+   * @param map the infractions table.
+   * @return the sequence number the snapshot covers, for {@link #awaitDurable(long)}.
+   */
+  public final synchronized long snapshot(final LongObjectHashMap<InfractionData> map) {
+    
+    final long seq = this.lastSeq;
+    final byte[] data;
+    try {
+      data = serializeSnapshot(seq, map);
+    } catch (IOException e) {
+      System.err.println("Error serializing infractions snapshot!");
+      e.printStackTrace();
+      return seq;
+    }
+    this.recordsSinceSnapshot = 0;
+    
+    // Without a writer, write the snapshot right here and leave the journal alone
+    if (!this.running || this.failed) {
+      try {
+        writeSnapshotFile(data);
+      } catch (IOException e) {
+        System.err.println("Error writing infractions snapshot!");
+        e.printStackTrace();
+      }
+      return seq;
+    }
+    
+    this.pending.add(new PendingWrite(seq, data, true));
+    notifyAll();
+    return seq;
+  }
+  
+  /**
+   * Writes everything queued, then stops the writer thread and closes the journal. Safe to call more than once.
+   */
+  public final void close() {
+    
+    final Thread w;
+    synchronized (this) {
+      this.closed = true;
+      notifyAll();
+      w = this.writer;
+    }
+    
+    if (w != null) {
+      try {
+        w.join();
+      } catch (@SuppressWarnings("unused") InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    synchronized (this) {
+      this.running = false;
+      notifyAll();
+      if (this.channel != null) {
+        try {
+          this.channel.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        this.channel = null;
+      }
+    }
+  }
+  
+  /**
+   * Applies a journaled operation to a table.
+   * 
+   * @param map the infractions table.
+   * @param op the operation, one of the OP_ constants.
+   * @param user the Discord unique long ID.
+   * @param time the epoch time of the event.
+   * @param arg the operation's argument.
+   * @param reason the reason given. May be null.
+   */
+  static final void apply(final LongObjectHashMap<InfractionData> map, final byte op, final long user, final long time,
+      final int arg, final String reason) {
+    
+    if (op == OP_RESET) {
+      map.put(user, new InfractionData());
+      return;
+    }
+    
+    InfractionData data = map.get(user);
+    if (data == null) {
+      data = new InfractionData();
+      map.put(user, data);
+    }
+    
+    switch (op) {
+      case OP_WARN:
+        data.warn(time, reason);
+      break;
+      case OP_MUTE:
+        data.mute(time, arg, reason);
+      break;
+      case OP_KICK:
+        data.kick(time, reason);
+      break;
+      case OP_BAN:
+        data.ban(time, arg, reason);
+      break;
+      case OP_SET_MUTED:
+        data.setMuted(arg != 0);
+      break;
+      case OP_SET_BANNED:
+        data.setBanned(arg != 0);
+      break;
+      default:
+        System.err.println("Unknown infraction journal operation " + op + " for user " + user + ".");
+      break;
+    }
+  }
+  
+  /**
+   * The writer thread's loop. Takes everything queued as one batch, writes it, and forces it to disk once.
+   */
+  private final void writeLoop() {
+    
+    final ArrayList<PendingWrite> batch = new ArrayList<PendingWrite>();
+    while (true) {
+      
+      synchronized (this) {
+        while (this.pending.isEmpty() && !this.closed) {
+          try {
+            wait();
+          } catch (@SuppressWarnings("unused") InterruptedException ie) {
+            // Keep going until closed
+          }
+        }
+        if (this.pending.isEmpty()) {
+          this.running = false;
+          notifyAll();
+          return;
+        }
+        batch.addAll(this.pending);
+        this.pending.clear();
+      }
+      
+      long batchSeq = 0L;
+      boolean ok = true;
+      try {
+        for (final PendingWrite w : batch) {
+          if (w.isSnapshot) {
+            
+            // Everything before the snapshot must be durable before the journal can be emptied
+            this.channel.force(false);
+            writeSnapshotAndTruncate(w.data);
+          } else {
+            final ByteBuffer buf = ByteBuffer.wrap(w.data);
+            while (buf.hasRemaining()) {
+              this.channel.write(buf);
+            }
+          }
+          batchSeq = w.seq;
+        }
+        this.channel.force(false);
+      } catch (IOException e) {
+        System.err.println("Error writing infractions journal! Changes will only be saved at the next snapshot.");
+        e.printStackTrace();
+        ok = false;
+      }
+      batch.clear();
+      
+      synchronized (this) {
+        if (ok) {
+          this.durableSeq = Math.max(this.durableSeq, batchSeq);
+        } else {
+          this.failed = true;
+          this.running = false;
+          this.pending.clear();
+        }
+        notifyAll();
+        if (!ok) {
+          return;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Writes a snapshot and, once it's on disk, empties the journal. If the snapshot can't be written, the journal is
+   * kept so nothing is lost.
+   * 
+   * @param data the serialized snapshot.
+   * @throws IOException if the journal couldn't be emptied.
+   */
+  private final void writeSnapshotAndTruncate(final byte[] data) throws IOException {
+    
+    try {
+      writeSnapshotFile(data);
+    } catch (IOException e) {
+      System.err.println("Error writing infractions snapshot! The journal will be kept.");
+      e.printStackTrace();
+      return;
+    }
+    this.channel.truncate(0L);
+    this.channel.position(0L);
+  }
+  
+  /**
+   * Writes a snapshot to a temporary file, forces it to disk, then moves it over the snapshot file, so the snapshot
+   * file always holds a complete snapshot.
+   * 
+   * @param data the serialized snapshot.
+   * @throws IOException if the snapshot couldn't be written.
+   */
+  private final void writeSnapshotFile(final byte[] data) throws IOException {
+    
+    final File tmp = new File(this.snapshotFile.getPath() + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(tmp)) {
+      fos.write(data);
+      fos.getFD().sync();
+    }
+    Files.move(tmp.toPath(), this.snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+  
+  /**
+   * Serializes a snapshot: the header, the sequence number it covers, the reason dictionary, the member count, then
+   * each member's ID, counts, mute and ban durations, status flags, and history. Members are written in ID order.
+   * 
+   * @param seq the sequence number of the last record the table includes.
+   * @param map the infractions table.
+   * @return the serialized snapshot.
+   * @throws IOException if the table couldn't be serialized.
+   */
+  private static final byte[] serializeSnapshot(final long seq, final LongObjectHashMap<InfractionData> map)
+      throws IOException {
+    
+    final long[] users = map.keys();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + users.length * 64);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeByte(SNAPSHOT_VERSION);
+      out.writeLong(seq);
+      
+      final String[] reasons = InfractionHistory.getReasons();
+      out.writeInt(reasons.length);
+      for (final String reason : reasons) {
+        out.writeUTF(reason);
+      }
+      
+      out.writeInt(users.length);
+      
+      for (final long user : users) {
+        final InfractionData data = map.get(user);
+        out.writeLong(user);
+        out.writeInt(data.getWarnCount());
+        out.writeInt(data.getMuteCount());
+        out.writeInt(data.getKickCount());
+        out.writeInt(data.getBanCount());
+        out.writeInt(data.getMuteDuration());
+        out.writeInt(data.getBanDuration());
+        out.writeByte((data.isMuted() ? 1 : 0) | (data.isBanned() ? 2 : 0));
+        
+        final InfractionHistory history = data.getEntries();
+        out.writeInt(history.size());
+        for (int h = 0; h < history.size(); h++) {
+          out.writeLong(history.getPacked(h));
+          out.writeInt(history.getReasonId(h));
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Reads a snapshot in the compact format. The magic number has already been read. Version 1 snapshots have no ban
+   * durations, so every ban in them is permanent, and versions before 3 write every entry's reason in full.
+   * 
+   * @param din the snapshot's input stream.
+   * @param seqOut receives the sequence number the snapshot covers, at index 0.
+   * @return the table, or null if the version isn't known.
+   * @throws IOException if the snapshot couldn't be read.
+   */
+  private static final LongObjectHashMap<InfractionData> readSnapshot(final DataInputStream din, final long[] seqOut)
+      throws IOException {
+    
+    final byte version = din.readByte();
+    if (version < 1 || version > SNAPSHOT_VERSION) {
+      System.err.println("Unknown infractions snapshot version " + version + "!");
+      return null;
+    }
+    
+    seqOut[0] = din.readLong();
+    
+    // The snapshot's reason IDs may differ from this run's, so map each onto this run's dictionary
+    int[] reasonIds = null;
+    if (version >= 3) {
+      reasonIds = new int[din.readInt()];
+      for (int r = 0; r < reasonIds.length; r++) {
+        reasonIds[r] = InfractionHistory.internReason(din.readUTF());
+      }
+    }
+    
+    final int count = din.readInt();
+    final PunishmentType[] types = PunishmentType.values();
+    final LongObjectHashMap<InfractionData> map = new LongObjectHashMap<InfractionData>(count);
+    for (int i = 0; i < count; i++) {
+      final long user = din.readLong();
+      final int[] counts = { din.readInt(), din.readInt(), din.readInt(), din.readInt() };
+      final int muteDuration = din.readInt();
+      final int banDuration = (version >= 2) ? din.readInt() : 0;
+      final byte flags = din.readByte();
+      
+      final int historySize = din.readInt();
+      final InfractionHistory history = new InfractionHistory(historySize);
+      for (int h = 0; h < historySize; h++) {
+        if (reasonIds == null) {
+          final PunishmentType type = types[din.readByte()];
+          final long time = din.readLong();
+          history.add(type, time, din.readUTF());
+          continue;
+        }
+        
+        final long packed = din.readLong();
+        final int reasonId = din.readInt();
+        if (!InfractionHistory.isValidPacked(packed) || reasonId < 0 || reasonId >= reasonIds.length) {
+          throw new IOException("Corrupt history entry for member " + user + ".");
+        }
+        history.addPacked(packed, reasonIds[reasonId]);
+      }
+      
+      map.put(user, new InfractionData(counts, muteDuration, banDuration, (flags & 1) != 0, (flags & 2) != 0, history));
+    }
+    return map;
+  }
+  
+  /**
+   * Reads a snapshot written with Java serialization by older versions: either a sequence number followed by a TreeMap,
+   * or just the TreeMap.
+   * 
+   * @param in the snapshot's input stream, positioned at the start.
+   * @param seqOut receives the sequence number the snapshot covers, at index 0.
+   * @return the table, or null if the snapshot doesn't hold one.
+   * @throws IOException if the snapshot couldn't be read.
+   */
+  private static final LongObjectHashMap<InfractionData> readLegacySnapshot(final InputStream in, final long[] seqOut)
+      throws IOException {
+    
+    try {
+      final ObjectInputStream oin = new ObjectInputStream(in);
+      Object obj = oin.readObject();
+      if (obj instanceof Long) {
+        seqOut[0] = ((Long) obj).longValue();
+        obj = oin.readObject();
+      }
+      
+      if (!(obj instanceof TreeMap)) {
+        return null;
+      }
+      
+      final TreeMap<?, ?> old = (TreeMap<?, ?>) obj;
+      final LongObjectHashMap<InfractionData> map = new LongObjectHashMap<InfractionData>(old.size());
+      for (final Map.Entry<?, ?> entry : old.entrySet()) {
+        if (entry.getKey() instanceof Long && entry.getValue() instanceof InfractionData) {
+          map.put((Long) entry.getKey(), (InfractionData) entry.getValue());
+        }
+      }
+      return map;
+      
+    } catch (ClassNotFoundException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+  
+  /**
+   * Reads one record's payload, checking its length and CRC32.
+   * 
+   * @param din the journal's input stream.
+   * @param crc a CRC32 to reuse.
+   * @return the payload; null at the end of the journal or at the first incomplete or corrupt record.
+   * @throws IOException if the journal couldn't be read.
+   */
+  private static final byte[] readRecord(final DataInputStream din, final CRC32 crc) throws IOException {
+    
+    try {
+      final int length = din.readInt();
+      final int expectedCrc = din.readInt();
+      if (length <= 0 || length > MAX_PAYLOAD_SIZE) {
+        return null;
+      }
+      
+      final byte[] payload = new byte[length];
+      din.readFully(payload);
+      crc.reset();
+      crc.update(payload, 0, length);
+      return ((int) crc.getValue() == expectedCrc) ? payload : null;
+      
+    } catch (@SuppressWarnings("unused") EOFException eofe) {
+      return null;
+    }
+  }
+  
+  /**
+   * A record or snapshot waiting for the writer thread.
+   */
+  private static final class PendingWrite {
+    
+    /** The sequence number of the record, or the last record the snapshot covers. */
+    final long seq;
+    
+    /** The bytes to write. */
+    final byte[] data;
+    
+    /** Whether this is a snapshot rather than a record. */
+    final boolean isSnapshot;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param seq the sequence number.
+     * @param data the bytes to write.
+     * @param isSnapshot whether this is a snapshot.
+     */
+    PendingWrite(final long seq, final byte[] data, final boolean isSnapshot) {
+      this.seq = seq;
+      this.data = data;
+      this.isSnapshot = isSnapshot;
+    }
+  }
+}
@@ -2,17 +2,22 @@
 package com.rath.rathbot.disc;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import com.rath.rathbot.RathBot;
+import com.rath.rathbot.util.LongObjectHashMap;
 
+/**
+ * This class holds every member's infraction record. A member only gets a record once they receive their first
+ * infraction; until then every count is zero, so the great majority of members who are never punished cost nothing.
+ * Whether a member is muted is also kept in {@link MemberFlags}, so it can be checked without locking, and timed mutes
+ * and bans are handed to {@link PunishmentExpiry} to be lifted when they run out.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
 public class Infractions {
   
   /** The filename for the permission data. */
@@ -22,11 +27,17 @@ public class Infractions {
   private static final String INFRACTIONS_DATA_PATH = RathBot.DIR_DATA + INFRACTIONS_DATA_FILENAME;
   
   /** The infractions table for each user. */
-  private static TreeMap<Long, InfractionData> infractionMap = null;
+  private static LongObjectHashMap<InfractionData> infractionMap = null;
   
-  /** Reference to the infractions map file. */
+  /** Reference to the infractions map file. It holds the latest snapshot of the table. */
   private static final File INFRACTIONS_FILE = new File(INFRACTIONS_DATA_PATH);
   
+  /** Reference to the infractions journal file. It holds the changes made since the snapshot. */
+  private static final File JOURNAL_FILE = new File(INFRACTIONS_DATA_PATH + ".journal");
+  
+  /** The journal changes are recorded in. Null if the table isn't being saved. */
+  private static volatile InfractionJournal journal = null;
+  
   /** Whether or not to actually save the table to disk (for testing). */
   private static boolean saveToDisk = true;
   
@@ -43,7 +54,7 @@ public class Infractions {
    * @param user the Discord unique long ID.
    * @return true if an entry exists; false if the map is null or the member isn't a key.
    */
-  public static final boolean hasMember(final long user) {
+  public static final synchronized boolean hasMember(final long user) {
     
     if (infractionMap == null) {
       return false;
@@ -53,18 +64,28 @@ public class Infractions {
   }
   
   /**
-   * Populates the table with a new entry for the given user.
+   * Populates the table with a new, empty entry for the given user. This isn't needed before recording an infraction;
+   * members get an entry when they receive their first one.
    * 
    * @param user the Discord unique long ID.
    * @return true if there were no errors; false if there were.
    */
   public static final boolean initMember(final long user) {
     
-    if (infractionMap == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      infractionMap.put(user, new InfractionData());
+      MemberFlags.set(user, MemberFlags.FLAG_MUTED, false);
+      PunishmentExpiry.cancelUnmute(user);
+      PunishmentExpiry.cancelUnban(user);
+      seq = journal(InfractionJournal.OP_RESET, user, 0L, 0, null);
     }
     
-    infractionMap.put(user, new InfractionData());
+    awaitDurable(seq);
     return true;
   }
   
@@ -72,10 +93,10 @@ public class Infractions {
    * Gets the user's infraction history.
    * 
    * @param user the Discord unique long ID.
-   * @return an ArrayList of InfractionEntry's. Returns null if either the map itself is null, or the InfractionData
-   *         object is null.
+   * @return a new ArrayList of InfractionEntry's, oldest first. Returns null if either the map itself is null, or the
+   *         InfractionData object is null.
    */
-  public static final ArrayList<InfractionEntry> getInfractionHistory(final long user) {
+  public static final synchronized ArrayList<InfractionEntry> getInfractionHistory(final long user) {
     
     if (infractionMap == null || infractionMap.get(user) == null) {
       return null;
@@ -84,19 +105,71 @@ public class Infractions {
     return infractionMap.get(user).getHistory();
   }
   
+  /**
+   * Gets the user's most recent infraction.
+   * 
+   * @param user the Discord unique long ID.
+   * @return the InfractionEntry, or null if the user has no infractions or the table is null.
+   */
+  public static final synchronized InfractionEntry getLastInfraction(final long user) {
+    
+    final InfractionData data = (infractionMap == null) ? null : infractionMap.get(user);
+    return (data == null) ? null : data.getLast();
+  }
+  
+  /**
+   * Gets the user's most recent infraction of a type.
+   * 
+   * @param user the Discord unique long ID.
+   * @param type the type of punishment.
+   * @return the InfractionEntry, or null if the user has no infractions of that type or the table is null.
+   */
+  public static final synchronized InfractionEntry getLastInfraction(final long user, final PunishmentType type) {
+    
+    final InfractionData data = (infractionMap == null) ? null : infractionMap.get(user);
+    return (data == null) ? null : data.getLatest(type);
+  }
+  
+  /**
+   * Gets how many of the user's infractions of each type still count toward escalation, with older ones weighing less
+   * (see {@link DecayedCounts}). All the types are read under one lock, since escalation needs several.
+   * 
+   * @param user the Discord unique long ID.
+   * @param now the current epoch time, in seconds.
+   * @return the counts, by {@link PunishmentType} ordinal; all 0 for users with no entry. Returns null if the map is
+   *         null.
+   */
+  public static final synchronized int[] getRecentCounts(final long user, final long now) {
+    
+    if (infractionMap == null) {
+      return null;
+    }
+    
+    final PunishmentType[] types = PunishmentType.values();
+    final int[] counts = new int[types.length];
+    final InfractionData data = infractionMap.get(user);
+    if (data != null) {
+      for (int i = 0; i < types.length; i++) {
+        counts[i] = data.getRecentCount(types[i], now);
+      }
+    }
+    return counts;
+  }
+  
   /**
    * Gets the number of times the user has been warned.
    * 
    * @param user the Discord unique long ID.
-   * @return the warn count as an int. Returns -1 if the map is null.
+   * @return the warn count as an int, which is 0 for users with no entry. Returns -1 if the map is null.
    */
-  public static final int getWarnCount(final long user) {
+  public static final synchronized int getWarnCount(final long user) {
     
     if (infractionMap == null) {
       return -1;
     }
     
-    return infractionMap.get(user).getWarnCount();
+    final InfractionData data = infractionMap.get(user);
+    return (data == null) ? 0 : data.getWarnCount();
   }
   
   /**
@@ -105,49 +178,60 @@ public class Infractions {
    * @param user the Discord unique long ID.
    * @param time the epoch time the user was warned.
    * @param reason the reason the user is being warned.
-   * @return true if there were no errors; false if either the map itself is null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself is null. Users with no entry are given one.
    */
   public static final boolean warnUser(final long user, final long time, final String reason) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      dataFor(user).warn(time, reason);
+      seq = journal(InfractionJournal.OP_WARN, user, time, 0, reason);
     }
     
-    infractionMap.get(user).warn(time, reason);
-    saveToFile();
-    
+    awaitDurable(seq);
     return true;
   }
   
   /**
-   * Gets the user's muted status.
+   * Gets the user's muted status. Doesn't lock, so it's cheap enough to check on every message.
    * 
    * @param user the Discord unique long ID.
    * @return true if the user is muted; false if not, or if the table is null.
    */
   public static final boolean isMuted(final long user) {
+    return MemberFlags.has(user, MemberFlags.FLAG_MUTED);
+  }
+  
+  /**
+   * Gets when the user's current mute runs out.
+   * 
+   * @param user the Discord unique long ID.
+   * @return the epoch time in seconds, or -1 if the user isn't muted, the mute has no duration, or the table is null.
+   */
+  public static final synchronized long getMuteExpiry(final long user) {
     
-    if (infractionMap == null) {
-      return false;
-    }
-    
-    return infractionMap.get(user).isMuted();
+    final InfractionData data = (infractionMap == null) ? null : infractionMap.get(user);
+    return (data == null) ? -1L : data.getMuteExpiry();
   }
   
   /**
    * Gets how many times the user has been muted.
    * 
    * @param user the Discord unique long ID.
-   * @return an int. Returns -1 if the map is null.
+   * @return an int, which is 0 for users with no entry. Returns -1 if the map is null.
    */
-  public static final int getMuteCount(final long user) {
+  public static final synchronized int getMuteCount(final long user) {
     
     if (infractionMap == null) {
       return -1;
     }
     
-    return infractionMap.get(user).getMuteCount();
+    final InfractionData data = infractionMap.get(user);
+    return (data == null) ? 0 : data.getMuteCount();
   }
   
   /**
@@ -155,17 +239,23 @@ public class Infractions {
    * 
    * @param user the Discord unique long ID.
    * @param b true if muted; false if not.
-   * @return true if there were no errors; false if either the map itself was null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
    */
   public static final boolean setMuted(final long user, final boolean b) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      dataFor(user).setMuted(b);
+      MemberFlags.set(user, MemberFlags.FLAG_MUTED, b);
+      PunishmentExpiry.cancelUnmute(user);
+      seq = journal(InfractionJournal.OP_SET_MUTED, user, 0L, b ? 1 : 0, null);
     }
     
-    infractionMap.get(user).setMuted(b);
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
@@ -174,20 +264,28 @@ public class Infractions {
    * 
    * @param user the Discord unique long ID.
    * @param issueTime the epoch time the user was muted.
-   * @param muteDuration the amount of time in seconds the user should be muted for.
+   * @param muteDuration the amount of time in seconds the user should be muted for, or 0 to mute them until they're
+   *        unmuted.
    * @param reason the reason the user is being muted.
-   * @return true if there were no errors; false if either the map itself was null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
    */
   public static final boolean muteUser(final long user, final long issueTime, final int muteDuration,
       final String reason) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      final InfractionData data = dataFor(user);
+      data.mute(issueTime, muteDuration, reason);
+      MemberFlags.set(user, MemberFlags.FLAG_MUTED, true);
+      scheduleUnmute(user, data);
+      seq = journal(InfractionJournal.OP_MUTE, user, issueTime, muteDuration, reason);
     }
     
-    infractionMap.get(user).mute(issueTime, muteDuration, reason);
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
@@ -195,15 +293,16 @@ public class Infractions {
    * Gets how many times the user has been kicked.
    * 
    * @param user the Discord unique long ID.
-   * @return an int; returns -1 if the map or the user's InfractionData list is null.
+   * @return an int, which is 0 for users with no entry; returns -1 if the map is null.
    */
-  public static final int getKickCount(final long user) {
+  public static final synchronized int getKickCount(final long user) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
+    if (infractionMap == null) {
       return -1;
     }
     
-    return infractionMap.get(user).getKickCount();
+    final InfractionData data = infractionMap.get(user);
+    return (data == null) ? 0 : data.getKickCount();
   }
   
   /**
@@ -212,17 +311,21 @@ public class Infractions {
    * @param user the Discord unique long ID.
    * @param time the epoch time the user was kicked.
    * @param reason the reason the user is being kicked.
-   * @return true if there were no errors; false if either the map itself was null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
    */
   public static final boolean kickUser(final long user, final long time, final String reason) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      dataFor(user).kick(time, reason);
+      seq = journal(InfractionJournal.OP_KICK, user, time, 0, reason);
     }
     
-    infractionMap.get(user).kick(time, reason);
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
@@ -232,7 +335,7 @@ public class Infractions {
    * @param user the Discord unique long ID.
    * @return true if the user is banned; false if not or if something is null.
    */
-  public static final boolean isBanned(final long user) {
+  public static final synchronized boolean isBanned(final long user) {
     
     if (infractionMap == null || infractionMap.get(user) == null) {
       return false;
@@ -245,15 +348,16 @@ public class Infractions {
    * Gets how many times the user has been banned.
    * 
    * @param user the Discord unique long ID.
-   * @return an int; returns -1 if something is null.
+   * @return an int, which is 0 for users with no entry; returns -1 if the map is null.
    */
-  public static final int getBanCount(final long user) {
+  public static final synchronized int getBanCount(final long user) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
+    if (infractionMap == null) {
       return -1;
     }
     
-    return infractionMap.get(user).getBanCount();
+    final InfractionData data = infractionMap.get(user);
+    return (data == null) ? 0 : data.getBanCount();
   }
   
   /**
@@ -261,40 +365,159 @@ public class Infractions {
    * 
    * @param user the Discord unique long ID.
    * @param b true if the user is banned; false if not.
-   * @return true if there were no errors; false if either the map itself was null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
    */
   public static final boolean setBanned(final long user, final boolean b) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      dataFor(user).setBanned(b);
+      PunishmentExpiry.cancelUnban(user);
+      seq = journal(InfractionJournal.OP_SET_BANNED, user, 0L, b ? 1 : 0, null);
     }
     
-    infractionMap.get(user).setBanned(b);
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
   /**
-   * Sets the user's banned status to true and increments their ban count.
+   * Gets when the user's current ban runs out.
+   * 
+   * @param user the Discord unique long ID.
+   * @return the epoch time in seconds, or -1 if the user isn't banned, the ban is permanent, or the table is null.
+   */
+  public static final synchronized long getBanExpiry(final long user) {
+    
+    final InfractionData data = (infractionMap == null) ? null : infractionMap.get(user);
+    return (data == null) ? -1L : data.getBanExpiry();
+  }
+  
+  /**
+   * Sets the user's banned status to true and increments their ban count. The ban is permanent.
    * 
    * @param user the Discord unique long ID.
    * @param time the epoch time the user was banned.
    * @param reason the reason the user is being banned.
-   * @return true if there were no errors; false if either the map itself was null, or if the user's InfractionData list
-   *         is null.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
    */
   public static final boolean banUser(final long user, final long time, final String reason) {
+    return banUser(user, time, 0, reason);
+  }
+  
+  /**
+   * Sets the user's banned status to true and increments their ban count.
+   * 
+   * @param user the Discord unique long ID.
+   * @param time the epoch time the user was banned.
+   * @param banDuration the amount of time in seconds the user should be banned for, or 0 to ban them until they're
+   *        unbanned.
+   * @param reason the reason the user is being banned.
+   * @return true if there were no errors; false if the map itself was null. Users with no entry are given one.
+   */
+  public static final boolean banUser(final long user, final long time, final int banDuration, final String reason) {
     
-    if (infractionMap == null || infractionMap.get(user) == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      final InfractionData data = dataFor(user);
+      data.ban(time, banDuration, reason);
+      scheduleUnban(user, data);
+      seq = journal(InfractionJournal.OP_BAN, user, time, banDuration, reason);
     }
     
-    infractionMap.get(user).ban(time, reason);
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
+  /**
+   * Lifts the bans of every given user whose ban has run out. The whole batch is changed under one lock and waits on
+   * one journal write, so a sweep after downtime costs about the same as lifting a single ban. Users who were unbanned
+   * or banned again since their timer was set are skipped, and those banned again are scheduled for their new expiry.
+   * 
+   * @param users the Discord unique long IDs whose unban timers are due.
+   * @param now the current epoch time, in seconds.
+   * @return the IDs of the users who were unbanned, which may be empty.
+   */
+  public static final long[] liftExpiredBans(final long[] users, final long now) {
+    
+    final long[] lifted = new long[users.length];
+    int count = 0;
+    long seq = 0L;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return new long[0];
+      }
+      
+      for (final long user : users) {
+        final InfractionData data = infractionMap.get(user);
+        final long expiry = (data == null) ? -1L : data.getBanExpiry();
+        if (expiry < 0) {
+          continue;
+        }
+        if (expiry > now) {
+          PunishmentExpiry.scheduleUnban(user, TimeUnit.SECONDS.toMillis(expiry));
+          continue;
+        }
+        
+        data.setBanned(false);
+        seq = journal(InfractionJournal.OP_SET_BANNED, user, 0L, 0, null);
+        lifted[count++] = user;
+      }
+    }
+    
+    // Records are made durable in order, so waiting on the last covers the batch
+    awaitDurable(seq);
+    return Arrays.copyOf(lifted, count);
+  }
+  
+  /**
+   * Lifts the mutes of every given user whose mute has run out, the same way {@link #liftExpiredBans(long[], long)}
+   * lifts bans: one lock and one journal write for the whole batch. Users who were unmuted or muted again since their
+   * timer was set are skipped, and those muted again are scheduled for their new expiry.
+   * 
+   * @param users the Discord unique long IDs whose unmute timers are due.
+   * @param now the current epoch time, in seconds.
+   * @return the IDs of the users who were unmuted, which may be empty.
+   */
+  public static final long[] liftExpiredMutes(final long[] users, final long now) {
+    
+    final long[] lifted = new long[users.length];
+    int count = 0;
+    long seq = 0L;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return new long[0];
+      }
+      
+      for (final long user : users) {
+        final InfractionData data = infractionMap.get(user);
+        final long expiry = (data == null) ? -1L : data.getMuteExpiry();
+        if (expiry < 0) {
+          continue;
+        }
+        if (expiry > now) {
+          PunishmentExpiry.scheduleUnmute(user, TimeUnit.SECONDS.toMillis(expiry));
+          continue;
+        }
+        
+        data.setMuted(false);
+        MemberFlags.set(user, MemberFlags.FLAG_MUTED, false);
+        seq = journal(InfractionJournal.OP_SET_MUTED, user, 0L, 0, null);
+        lifted[count++] = user;
+      }
+    }
+    
+    awaitDurable(seq);
+    return Arrays.copyOf(lifted, count);
+  }
+  
   /**
    * Clears the infractions records for the specified user.
    * 
@@ -303,24 +526,34 @@ public class Infractions {
    */
   public static final boolean clearInfractions(final long user) {
     
-    if (infractionMap == null) {
-      return false;
+    final long seq;
+    synchronized (Infractions.class) {
+      if (infractionMap == null) {
+        return false;
+      }
+      
+      infractionMap.put(user, new InfractionData());
+      MemberFlags.set(user, MemberFlags.FLAG_MUTED, false);
+      PunishmentExpiry.cancelUnmute(user);
+      PunishmentExpiry.cancelUnban(user);
+      seq = journal(InfractionJournal.OP_RESET, user, 0L, 0, null);
     }
     
-    infractionMap.put(user, new InfractionData());
-    saveToFile();
+    awaitDurable(seq);
     return true;
   }
   
   /**
    * Clears the infractions table, but does not save it to disk. USE WITH CAUTION.
    */
-  public static final void initTable() {
-    infractionMap = new TreeMap<Long, InfractionData>();
+  public static final synchronized void initTable() {
+    infractionMap = new LongObjectHashMap<InfractionData>();
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, new long[0]);
   }
   
   /**
-   * Saves the infractions table to disk.
+   * Takes a snapshot of the infractions table and empties the journal. Individual changes are journaled as they happen,
+   * so this is only needed to speed up the next load.
    */
   public static final void saveToFile() {
     
@@ -329,83 +562,176 @@ public class Infractions {
       return;
     }
     
+    final InfractionJournal j = journal;
+    if (j == null) {
+      return;
+    }
+    
     System.out.println("Saving infractions map to file.");
+    final long seq;
+    synchronized (Infractions.class) {
+      seq = j.snapshot(infractionMap);
+    }
+    j.awaitDurable(seq);
+  }
+  
+  /**
+   * Loads the infractions table from disk: the last snapshot, plus every journaled change made after it. If saving is
+   * enabled, the journal is then opened so new changes are recorded.
+   */
+  public static final synchronized void loadFromFile() {
     
-    try (FileOutputStream fos = new FileOutputStream(INFRACTIONS_DATA_PATH);
-        ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-      
-      // Write the map and close streams
-      oos.writeObject(infractionMap);
-      oos.close();
-      fos.close();
-      
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
+    System.out.println("Loading Infractions map from file.");
+    
+    // Counts are weighted as the history is read, so the half-lives have to be known first
+    DecayedCounts.configure();
+    final InfractionJournal j = new InfractionJournal(JOURNAL_FILE, INFRACTIONS_FILE);
+    infractionMap = j.load();
+    publishMuted();
+    
+    // Don't actually save if we're just testing
+    if (!saveToDisk) {
+      return;
+    }
+    
+    try {
+      j.start();
+      journal = j;
     } catch (IOException e) {
+      System.err.println("Error opening the infractions journal! Changes will not be saved.");
       e.printStackTrace();
     }
+  }
+  
+  /**
+   * Takes a final snapshot and closes the journal. Changes made after this are not saved.
+   */
+  public static final void closeJournal() {
     
+    final InfractionJournal j = journal;
+    if (j == null) {
+      return;
+    }
+    
+    saveToFile();
+    journal = null;
+    j.close();
   }
   
   /**
-   * Loads the infractions table from disk.
+   * Gets a user's entry, giving them one if they have none. Must be called while holding the class lock, with the table
+   * loaded. New entries aren't journaled by themselves; replaying the change that needed one creates it again.
+   * 
+   * @param user the Discord unique long ID.
+   * @return the user's InfractionData.
    */
-  @SuppressWarnings("unchecked")
-  public static final void loadFromFile() {
+  private static final InfractionData dataFor(final long user) {
     
-    System.out.println("Loading Infractions map from file.");
+    InfractionData data = infractionMap.get(user);
+    if (data == null) {
+      data = new InfractionData();
+      infractionMap.put(user, data);
+    }
+    return data;
+  }
+  
+  /**
+   * Schedules a user's unmute if their mute has a duration, or cancels any scheduled if it doesn't. Must be called
+   * while holding the class lock.
+   * 
+   * @param user the Discord unique long ID.
+   * @param data the user's InfractionData.
+   */
+  private static final void scheduleUnmute(final long user, final InfractionData data) {
     
-    // Create the file if it doesn't exist.
-    if (!INFRACTIONS_FILE.exists()) {
-      try {
-        System.out.println("Infractions file doesn't exist. Creating new.");
-        INFRACTIONS_FILE.createNewFile();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    final long expiry = data.getMuteExpiry();
+    if (expiry < 0) {
+      PunishmentExpiry.cancelUnmute(user);
+    } else {
+      PunishmentExpiry.scheduleUnmute(user, TimeUnit.SECONDS.toMillis(expiry));
     }
+  }
+  
+  /**
+   * Schedules a user's unban if their ban has a duration, or cancels any scheduled if it doesn't. Must be called while
+   * holding the class lock.
+   * 
+   * @param user the Discord unique long ID.
+   * @param data the user's InfractionData.
+   */
+  private static final void scheduleUnban(final long user, final InfractionData data) {
     
-    Object obj = null;
-    try (FileInputStream fis = new FileInputStream(INFRACTIONS_DATA_PATH);) {
-      
-      // Build an input stream for deserialization
-      if (fis.available() > 0) {
-        
-        ObjectInputStream oin = new ObjectInputStream(fis);
-        
-        // Read the object in and close the streams
-        obj = oin.readObject();
-        oin.close();
-        fis.close();
-        
-        // If something went wrong, return null
-        if (obj == null) {
-          System.err.println("Infractions map load error.");
-          initTable();
-          saveToFile();
-          return;
-        }
-        
-      } else {
-        System.out.println("Infractions map is empty.");
-        initTable();
-        return;
+    final long expiry = data.getBanExpiry();
+    if (expiry < 0) {
+      PunishmentExpiry.cancelUnban(user);
+    } else {
+      PunishmentExpiry.scheduleUnban(user, TimeUnit.SECONDS.toMillis(expiry));
+    }
+  }
+  
+  /**
+   * Copies every muted member from the table into {@link MemberFlags}, and schedules their unmutes and every timed
+   * ban's unban. Bans that ran out while the bot was down are all due at once, and are lifted together on the first
+   * tick of {@link PunishmentExpiry}. Must be called while holding the class lock.
+   */
+  private static final void publishMuted() {
+    
+    final long[] users = infractionMap.keys();
+    int count = 0;
+    for (final long user : users) {
+      final InfractionData data = infractionMap.get(user);
+      if (data.isBanned()) {
+        scheduleUnban(user, data);
       }
-      
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
+      if (data.isMuted()) {
+        users[count++] = user;
+        scheduleUnmute(user, data);
+      }
+    }
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, Arrays.copyOf(users, count));
+  }
+  
+  /**
+   * Journals a change to the table. Must be called while holding the class lock, right after the change is made, so
+   * journal order matches the order changes were made in. Also takes a snapshot if one is due.
+   * 
+   * @param op the operation, one of the InfractionJournal.OP_ constants.
+   * @param user the Discord unique long ID.
+   * @param time the epoch time of the change.
+   * @param arg the operation's argument, or 0 if it has none.
+   * @param reason the reason given. May be null.
+   * @return the record's sequence number, or 0 if nothing was journaled.
+   */
+  private static final long journal(final byte op, final long user, final long time, final int arg,
+      final String reason) {
+    
+    final InfractionJournal j = journal;
+    if (!saveToDisk || j == null) {
+      return 0L;
     }
     
-    // Cast the read object to a TreeMap
-    if (obj instanceof TreeMap) {
-      infractionMap = (TreeMap<Long, InfractionData>) obj;
-    } else {
-      System.err.println("Error with loading. Creating new table.");
-      initTable();
+    long seq = j.append(op, user, time, arg, reason);
+    if (j.isSnapshotDue()) {
+      seq = j.snapshot(infractionMap);
+    }
+    return seq;
+  }
+  
+  /**
+   * Waits for a journaled change to reach the disk. Must be called without holding the class lock, so other changes
+   * can be queued and written in the same batch.
+   * 
+   * @param seq the record's sequence number, from journal().
+   */
+  private static final void awaitDurable(final long seq) {
+    
+    final InfractionJournal j = journal;
+    if (seq <= 0L || j == null) {
+      return;
+    }
+    
+    if (!j.awaitDurable(seq)) {
+      System.err.println("Infraction change #" + seq + " could not be written to the journal.");
     }
   }
 }
@@ -0,0 +1,209 @@
+
+package com.rath.rathbot.disc;
+
+import java.util.concurrent.TimeUnit;
+
+import com.rath.rathbot.RBConfig;
+import com.rath.rathbot.msg.AntiSpam;
+
+import sx.blah.discord.handle.obj.IUser;
+
+/**
+ * This class shields the guild from join raids. Every join is counted by a {@link JoinMonitor}; when too many members,
+ * or too many brand new accounts, join within the window, or AntiSpam has put the guild in raid mode, the guild goes
+ * into lockdown. During a lockdown, every member joining with an account younger than the minimum age is queued to be
+ * kicked (or banned) through the {@link ModerationQueue}, along with the young accounts that joined just before it
+ * started.
+ * 
+ * The thresholds are set with the optional config values "lockdownJoinCount", "lockdownNewAccountCount",
+ * "lockdownWindowSeconds", "lockdownMinutes", "lockdownMinAccountDays", and "lockdownAction" ("kick" or "ban").
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class JoinGuard {
+  
+  /** The reason that will be entered in infraction entries for members removed during a lockdown. */
+  public static final String REASON_LOCKDOWN = "RB raid lockdown";
+  
+  /** How many joins within the window start a lockdown, unless the config file says otherwise. */
+  private static final int DEFAULT_JOIN_COUNT = 15;
+  
+  /** How many joins from accounts under a day old within the window start a lockdown, unless configured. */
+  private static final int DEFAULT_NEW_ACCOUNT_COUNT = 6;
+  
+  /** How far back joins are counted, in seconds, unless configured. */
+  private static final int DEFAULT_WINDOW_SECS = 60;
+  
+  /** The number of time buckets the window is split into. */
+  private static final int WINDOW_BUCKETS = 6;
+  
+  /** How long a lockdown lasts after it was last triggered, in minutes, unless configured. */
+  private static final int DEFAULT_LOCKDOWN_MINUTES = 15;
+  
+  /** How old an account must be to join during a lockdown, in days, unless configured. */
+  private static final int DEFAULT_MIN_ACCOUNT_DAYS = 7;
+  
+  /** The age bracket of accounts under a day old, which are counted as new. */
+  private static final int NEW_ACCOUNT_BRACKET = JoinMonitor.bracketOf(TimeUnit.DAYS.toMillis(1) - 1);
+  
+  /** The number of recent joiners kept, so the ones that joined just before a lockdown can be caught too. */
+  private static final int RECENT_JOINER_COUNT = 512;
+  
+  /** How many joins start a lockdown. */
+  private static int joinCount = DEFAULT_JOIN_COUNT;
+  
+  /** How many joins from accounts under a day old start a lockdown. */
+  private static int newAccountCount = DEFAULT_NEW_ACCOUNT_COUNT;
+  
+  /** How far back joins are counted, in milliseconds. */
+  private static long windowMillis = TimeUnit.SECONDS.toMillis(DEFAULT_WINDOW_SECS);
+  
+  /** How long a lockdown lasts, in milliseconds. */
+  private static long lockdownMillis = TimeUnit.MINUTES.toMillis(DEFAULT_LOCKDOWN_MINUTES);
+  
+  /** How old an account must be to join during a lockdown, in milliseconds. */
+  private static long minAccountMillis = TimeUnit.DAYS.toMillis(DEFAULT_MIN_ACCOUNT_DAYS);
+  
+  /** What to do with young accounts during a lockdown. */
+  private static PunishmentType lockdownAction = PunishmentType.KICK;
+  
+  /** Counts joins over the window. */
+  private static JoinMonitor monitor = new JoinMonitor(windowMillis, WINDOW_BUCKETS);
+  
+  /** The time the lockdown ends, in epoch milliseconds. In the past if there isn't one. */
+  private static volatile long lockdownUntil = 0L;
+  
+  /** The most recent joiners, oldest overwritten first. Guarded by the class. */
+  private static final IUser[] recentJoiners = new IUser[RECENT_JOINER_COUNT];
+  
+  /** When each recent joiner joined, in epoch milliseconds. Guarded by the class. */
+  private static final long[] recentJoinTimes = new long[RECENT_JOINER_COUNT];
+  
+  /** The slot the next joiner goes in. Guarded by the class. */
+  private static int recentHead = 0;
+  
+  /** The number of members queued for removal since startup. Guarded by the class. */
+  private static long flaggedCount = 0;
+  
+  /**
+   * Reads the thresholds from the config file.
+   */
+  public static final synchronized void init() {
+    
+    joinCount = Math.max(2, RBConfig.getOptionalInt("lockdownJoinCount", DEFAULT_JOIN_COUNT));
+    newAccountCount = Math.max(2, RBConfig.getOptionalInt("lockdownNewAccountCount", DEFAULT_NEW_ACCOUNT_COUNT));
+    windowMillis = TimeUnit.SECONDS.toMillis(
+        Math.max(WINDOW_BUCKETS, RBConfig.getOptionalInt("lockdownWindowSeconds", DEFAULT_WINDOW_SECS)));
+    lockdownMillis = TimeUnit.MINUTES.toMillis(
+        Math.max(1, RBConfig.getOptionalInt("lockdownMinutes", DEFAULT_LOCKDOWN_MINUTES)));
+    minAccountMillis = TimeUnit.DAYS.toMillis(
+        Math.max(0, RBConfig.getOptionalInt("lockdownMinAccountDays", DEFAULT_MIN_ACCOUNT_DAYS)));
+    lockdownAction = "ban".equalsIgnoreCase(RBConfig.getOptionalValue("lockdownAction", "kick")) ? PunishmentType.BAN
+        : PunishmentType.KICK;
+    monitor = new JoinMonitor(windowMillis, WINDOW_BUCKETS);
+  }
+  
+  /**
+   * Counts a member joining the guild, starting a lockdown if a threshold is crossed, and queues the member for removal
+   * if a lockdown is on and their account is too young.
+   * 
+   * @param user the member who joined.
+   * @param guildID the ID of the guild they joined.
+   * @param nowMillis the time they joined, in epoch milliseconds.
+   */
+  public static final synchronized void onJoin(final IUser user, final long guildID, final long nowMillis) {
+    
+    final long accountAge = nowMillis - user.getCreationDate().toEpochMilli();
+    monitor.record(nowMillis, accountAge);
+    recentJoiners[recentHead] = user;
+    recentJoinTimes[recentHead] = nowMillis;
+    recentHead = (recentHead + 1 == RECENT_JOINER_COUNT) ? 0 : recentHead + 1;
+    
+    // Check the thresholds
+    final int joins = monitor.getJoinCount(nowMillis);
+    final int newAccounts = monitor.countYoungerThan(nowMillis, NEW_ACCOUNT_BRACKET);
+    if (joins >= joinCount || newAccounts >= newAccountCount || AntiSpam.isRaidMode(guildID)) {
+      if (lockdownUntil <= nowMillis) {
+        System.out.println("Lockdown started: " + joins + " joins, " + newAccounts + " from new accounts. Ages: "
+            + monitor.formatHistogram(nowMillis));
+        flagRecentJoiners(nowMillis);
+      }
+      lockdownUntil = nowMillis + lockdownMillis;
+    }
+    
+    // Young accounts can't join during a lockdown
+    if (lockdownUntil > nowMillis && accountAge < minAccountMillis) {
+      flag(user);
+    }
+  }
+  
+  /**
+   * Checks whether the guild is in lockdown.
+   * 
+   * @return true if so; false if not.
+   */
+  public static final boolean isLockdown() {
+    return isLockdown(System.currentTimeMillis());
+  }
+  
+  /**
+   * Checks whether the guild is in lockdown at a given time.
+   * 
+   * @param nowMillis the time, in epoch milliseconds.
+   * @return true if so; false if not.
+   */
+  public static final boolean isLockdown(final long nowMillis) {
+    return lockdownUntil > nowMillis;
+  }
+  
+  /**
+   * Starts or ends a lockdown by hand. Starting one doesn't remove anyone who already joined.
+   * 
+   * @param on true to start a lockdown; false to end it.
+   */
+  public static final synchronized void setLockdown(final boolean on) {
+    lockdownUntil = on ? System.currentTimeMillis() + lockdownMillis : 0L;
+  }
+  
+  /**
+   * Builds a one-line summary of the join guard for the console.
+   * 
+   * @return a String.
+   */
+  public static final synchronized String getStats() {
+    
+    final long now = System.currentTimeMillis();
+    final String state = (lockdownUntil > now) ? "ON (" + ((lockdownUntil - now) / 1000L) + "s left)" : "off";
+    return "Lockdown " + state + "; joins in window: " + monitor.getJoinCount(now) + " [" + monitor.formatHistogram(now)
+        + "]; flagged " + flaggedCount + ", " + ModerationQueue.getPendingCount() + " waiting, "
+        + ModerationQueue.getDroppedCount() + " dropped.";
+  }
+  
+  /**
+   * Queues the young accounts that joined within the window for removal.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   */
+  private static final void flagRecentJoiners(final long nowMillis) {
+    
+    for (int i = 0; i < RECENT_JOINER_COUNT; i++) {
+      final IUser user = recentJoiners[i];
+      if (user != null && nowMillis - recentJoinTimes[i] < windowMillis
+          && recentJoinTimes[i] - user.getCreationDate().toEpochMilli() < minAccountMillis) {
+        flag(user);
+        recentJoiners[i] = null;
+      }
+    }
+  }
+  
+  /**
+   * Queues a member for removal.
+   * 
+   * @param user the member.
+   */
+  private static final void flag(final IUser user) {
+    if (ModerationQueue.submit(user, lockdownAction, REASON_LOCKDOWN)) {
+      flaggedCount++;
+    }
+  }
+}
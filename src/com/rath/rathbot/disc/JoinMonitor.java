@@ -0,0 +1,181 @@
+
+package com.rath.rathbot.disc;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class counts members joining a guild over a sliding window, along with a histogram of how old their accounts
+ * were when they joined. A raid shows up as a burst of joins, usually from accounts made minutes or hours earlier.
+ * 
+ * The window is split into a ring of time buckets, each holding one histogram; the oldest bucket is cleared as the
+ * window slides past it. Memory is fixed and recording a join is constant time.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class JoinMonitor {
+  
+  /** The upper bounds of the account age brackets, in milliseconds. Accounts older than the last are in one more. */
+  private static final long[] AGE_BOUNDS_MILLIS = { TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1),
+      TimeUnit.DAYS.toMillis(7), TimeUnit.DAYS.toMillis(30), TimeUnit.DAYS.toMillis(365) };
+  
+  /** The labels of the account age brackets, for the console. */
+  private static final String[] AGE_LABELS = { "<1h", "<1d", "<7d", "<30d", "<1y", "older" };
+  
+  /** The number of account age brackets. */
+  public static final int AGE_BRACKET_COUNT = AGE_BOUNDS_MILLIS.length + 1;
+  
+  /** The number of buckets in the window. */
+  private final int bucketCount;
+  
+  /** The length of each bucket, in milliseconds. */
+  private final long bucketMillis;
+  
+  /** Each bucket's join counts, by account age bracket. */
+  private final int[][] histograms;
+  
+  /** The bucket joins are being counted in. */
+  private int current = 0;
+  
+  /** The time the current bucket started, in epoch milliseconds. */
+  private long currentStart = Long.MIN_VALUE;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param windowMillis how far back to count joins, in milliseconds. Must be at least the bucket count.
+   * @param bucketCount the number of buckets the window is split into. Must be positive.
+   */
+  public JoinMonitor(final long windowMillis, final int bucketCount) {
+    
+    if (bucketCount <= 0 || windowMillis < bucketCount) {
+      throw new IllegalArgumentException("Window and bucket count must be positive!");
+    }
+    
+    this.bucketCount = bucketCount;
+    this.bucketMillis = windowMillis / bucketCount;
+    this.histograms = new int[bucketCount][AGE_BRACKET_COUNT];
+  }
+  
+  /**
+   * Counts a join.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @param accountAgeMillis how old the member's account was when they joined, in milliseconds.
+   */
+  public final synchronized void record(final long nowMillis, final long accountAgeMillis) {
+    advance(nowMillis);
+    this.histograms[this.current][bracketOf(accountAgeMillis)]++;
+  }
+  
+  /**
+   * Counts the joins within the window.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return a non-negative int.
+   */
+  public final synchronized int getJoinCount(final long nowMillis) {
+    return countYoungerThan(nowMillis, AGE_BRACKET_COUNT - 1);
+  }
+  
+  /**
+   * Counts the joins within the window from accounts in an age bracket or any younger one.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @param bracket the oldest bracket to count, from {@link #bracketOf(long)}.
+   * @return a non-negative int.
+   */
+  public final synchronized int countYoungerThan(final long nowMillis, final int bracket) {
+    
+    advance(nowMillis);
+    int total = 0;
+    for (int i = 0; i < this.bucketCount; i++) {
+      for (int b = 0; b <= bracket; b++) {
+        total += this.histograms[i][b];
+      }
+    }
+    return total;
+  }
+  
+  /**
+   * Gets the joins within the window, by account age bracket.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return a new array of {@link #AGE_BRACKET_COUNT} counts, youngest first.
+   */
+  public final synchronized int[] getHistogram(final long nowMillis) {
+    
+    advance(nowMillis);
+    final int[] result = new int[AGE_BRACKET_COUNT];
+    for (int i = 0; i < this.bucketCount; i++) {
+      for (int b = 0; b < AGE_BRACKET_COUNT; b++) {
+        result[b] += this.histograms[i][b];
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Builds a one-line histogram of the joins within the window for the console.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return a String.
+   */
+  public final String formatHistogram(final long nowMillis) {
+    
+    final int[] counts = getHistogram(nowMillis);
+    final StringBuilder sb = new StringBuilder();
+    for (int b = 0; b < AGE_BRACKET_COUNT; b++) {
+      if (b > 0) {
+        sb.append(", ");
+      }
+      sb.append(AGE_LABELS[b]).append(": ").append(counts[b]);
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Finds the age bracket an account belongs in.
+   * 
+   * @param accountAgeMillis how old the account is, in milliseconds.
+   * @return the bracket, from 0 (youngest) to {@link #AGE_BRACKET_COUNT} - 1.
+   */
+  public static final int bracketOf(final long accountAgeMillis) {
+    
+    for (int b = 0; b < AGE_BOUNDS_MILLIS.length; b++) {
+      if (accountAgeMillis < AGE_BOUNDS_MILLIS[b]) {
+        return b;
+      }
+    }
+    return AGE_BOUNDS_MILLIS.length;
+  }
+  
+  /**
+   * Moves to the bucket for the current time, clearing every bucket that has aged out of the window.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   */
+  private final void advance(final long nowMillis) {
+    
+    if (this.currentStart == Long.MIN_VALUE) {
+      this.currentStart = nowMillis;
+      return;
+    }
+    
+    // Clock went backwards, or nothing's happened for a whole window: start over
+    final long elapsed = nowMillis - this.currentStart;
+    if (elapsed < 0 || elapsed >= this.bucketMillis * (this.bucketCount + 1L)) {
+      for (int i = 0; i < this.bucketCount; i++) {
+        Arrays.fill(this.histograms[i], 0);
+      }
+      this.currentStart = nowMillis;
+      return;
+    }
+    
+    while (nowMillis - this.currentStart >= this.bucketMillis) {
+      this.current = (this.current + 1 == this.bucketCount) ? 0 : this.current + 1;
+      Arrays.fill(this.histograms[this.current], 0);
+      this.currentStart += this.bucketMillis;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+
+package com.rath.rathbot.disc;
+
+import java.util.Arrays;
+
+import com.rath.rathbot.cmd.RBCommand;
+
+/**
+ * This class keeps the few members that anti-spam treats specially, muted members and members exempt from it, in one
+ * compact table every message can check without locking. Nearly every author is in neither group, so the usual check is
+ * a single binary search that comes up empty.
+ * 
+ * The table is a sorted array of member IDs with a parallel array of flag bits, published as one immutable snapshot.
+ * Changes copy the arrays and swap in a new snapshot; they're rare (a mute, a permission change), and the table only
+ * ever holds a handful of members, so copying costs far less than locking every read would.
+ * 
+ * {@link Infractions} keeps the muted flag up to date and {@link com.rath.rathbot.cmd.PermissionsTable} keeps the
+ * exempt flag up to date.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class MemberFlags {
+  
+  /** Set if the member is muted. */
+  public static final byte FLAG_MUTED = 1;
+  
+  /** Set if the member's permission level exempts them from anti-spam. */
+  public static final byte FLAG_SPAM_EXEMPT = 2;
+  
+  /** The lowest permission level exempt from anti-spam. */
+  public static final int SPAM_EXEMPT_LEVEL = RBCommand.PERM_SUDO;
+  
+  /**
+   * An immutable view of the table.
+   */
+  private static final class Snapshot {
+    
+    /** The member IDs, sorted. */
+    final long[] ids;
+    
+    /** Each member's flags. Never zero; members with no flags aren't kept. */
+    final byte[] flags;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param ids the member IDs, sorted.
+     * @param flags each member's flags.
+     */
+    Snapshot(final long[] ids, final byte[] flags) {
+      this.ids = ids;
+      this.flags = flags;
+    }
+  }
+  
+  /** The table in force. Replaced as a whole on every change. */
+  private static volatile Snapshot table = new Snapshot(new long[0], new byte[0]);
+  
+  /**
+   * Gets a member's flags.
+   * 
+   * @param user the Discord unique long ID.
+   * @return the member's flags, or 0 if they have none.
+   */
+  public static final byte get(final long user) {
+    
+    final Snapshot t = table;
+    final int idx = Arrays.binarySearch(t.ids, user);
+    return (idx < 0) ? 0 : t.flags[idx];
+  }
+  
+  /**
+   * Checks if a member has a flag.
+   * 
+   * @param user the Discord unique long ID.
+   * @param flag one of the FLAG_ constants.
+   * @return true if the flag is set; false if not.
+   */
+  public static final boolean has(final long user, final byte flag) {
+    return (get(user) & flag) != 0;
+  }
+  
+  /**
+   * Sets or clears a flag for a member.
+   * 
+   * @param user the Discord unique long ID.
+   * @param flag one of the FLAG_ constants.
+   * @param b true to set the flag; false to clear it.
+   */
+  public static final synchronized void set(final long user, final byte flag, final boolean b) {
+    
+    final Snapshot t = table;
+    final int idx = Arrays.binarySearch(t.ids, user);
+    final byte old = (idx < 0) ? 0 : t.flags[idx];
+    final byte updated = (byte) (b ? (old | flag) : (old & ~flag));
+    if (updated == old) {
+      return;
+    }
+    
+    final int len = t.ids.length;
+    if (idx >= 0 && updated != 0) {
+      
+      // Same members, new flags
+      final byte[] flags = t.flags.clone();
+      flags[idx] = updated;
+      table = new Snapshot(t.ids, flags);
+      
+    } else if (idx >= 0) {
+      
+      // The member's last flag was cleared, so they leave the table
+      final long[] ids = new long[len - 1];
+      final byte[] flags = new byte[len - 1];
+      System.arraycopy(t.ids, 0, ids, 0, idx);
+      System.arraycopy(t.flags, 0, flags, 0, idx);
+      System.arraycopy(t.ids, idx + 1, ids, idx, len - idx - 1);
+      System.arraycopy(t.flags, idx + 1, flags, idx, len - idx - 1);
+      table = new Snapshot(ids, flags);
+      
+    } else {
+      
+      // A new member goes in at their sorted position
+      final int ins = -idx - 1;
+      final long[] ids = new long[len + 1];
+      final byte[] flags = new byte[len + 1];
+      System.arraycopy(t.ids, 0, ids, 0, ins);
+      System.arraycopy(t.flags, 0, flags, 0, ins);
+      ids[ins] = user;
+      flags[ins] = updated;
+      System.arraycopy(t.ids, ins, ids, ins + 1, len - ins);
+      System.arraycopy(t.flags, ins, flags, ins + 1, len - ins);
+      table = new Snapshot(ids, flags);
+    }
+  }
+  
+  /**
+   * Replaces everyone's setting of one flag at once, as when a table is loaded from disk. Other flags are kept.
+   * 
+   * @param flag one of the FLAG_ constants.
+   * @param users the members who should have the flag, in any order. Every other member loses it.
+   */
+  public static final synchronized void setAll(final byte flag, final long[] users) {
+    
+    final Snapshot t = table;
+    final long[] sortedUsers = users.clone();
+    Arrays.sort(sortedUsers);
+    
+    // Merge the two sorted lists, dropping members left with no flags
+    final long[] ids = new long[t.ids.length + sortedUsers.length];
+    final byte[] flags = new byte[ids.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < t.ids.length || j < sortedUsers.length) {
+      
+      final long id;
+      byte f;
+      if (j >= sortedUsers.length || (i < t.ids.length && t.ids[i] < sortedUsers[j])) {
+        id = t.ids[i];
+        f = (byte) (t.flags[i++] & ~flag);
+      } else {
+        id = sortedUsers[j++];
+        f = flag;
+        if (i < t.ids.length && t.ids[i] == id) {
+          f |= t.flags[i++];
+        }
+        
+        // Skip repeats
+        while (j < sortedUsers.length && sortedUsers[j] == id) {
+          j++;
+        }
+      }
+      
+      if (f != 0) {
+        ids[count] = id;
+        flags[count] = f;
+        count++;
+      }
+    }
+    table = new Snapshot(Arrays.copyOf(ids, count), Arrays.copyOf(flags, count));
+  }
+  
+  /**
+   * Gets the number of members with any flag.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int size() {
+    return table.ids.length;
+  }
+}
@@ -0,0 +1,286 @@
+
+package com.rath.rathbot.disc;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.rath.rathbot.RathBot;
+import com.rath.rathbot.util.LongByteHashMap;
+
+import sx.blah.discord.handle.obj.IUser;
+
+/**
+ * This class queues kicks and bans the bot issues on its own, such as during a lockdown, and hands them to
+ * {@link RathBot#kickUsers(IUser, java.util.List, long, String)} and
+ * {@link RathBot#banUsers(IUser, java.util.List, long, String)} in batches. A raid can flag hundreds of members at
+ * once; batching keeps the report channel to one message per batch, and the pause between batches leaves room under
+ * Discord's rate limits for everything else the bot is doing.
+ * 
+ * Each member is only queued once at a time, and the queue is bounded; members flagged past the bound are dropped and
+ * counted.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class ModerationQueue {
+  
+  /** The most kicks and bans handed off per batch. */
+  private static final int BATCH_SIZE = 25;
+  
+  /** How long to wait between batches, in milliseconds. */
+  private static final long BATCH_INTERVAL_MS = 2000L;
+  
+  /** How long shutting down waits for a batch being handed off to finish, in milliseconds. */
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
+  
+  /** The most members that can be waiting at once. */
+  private static final int MAX_PENDING = 5000;
+  
+  /** Flagged members waiting for their batch. Guarded by itself. */
+  private static final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+  
+  /** The IDs of the members waiting, to their punishment's ordinal. Guarded by {@link #pending}. */
+  private static final LongByteHashMap pendingIDs = new LongByteHashMap();
+  
+  /** The number of members dropped because the queue was full. Guarded by {@link #pending}. */
+  private static long droppedCount = 0;
+  
+  /** Hands off batches. Null until started. */
+  private static ScheduledExecutorService worker = null;
+  
+  /** Issues each batch through the bot. */
+  private static final Issuer RATHBOT_ISSUER = new Issuer() {
+    
+    @Override
+    public void issue(final PunishmentType type, final List<IUser> users, final long time, final String reason) {
+      if (type == PunishmentType.BAN) {
+        RathBot.banUsers(null, users, time, reason);
+      } else {
+        RathBot.kickUsers(null, users, time, reason);
+      }
+    }
+  };
+  
+  /** What batches are handed to. */
+  private static volatile Issuer issuer = RATHBOT_ISSUER;
+  
+  /**
+   * Takes the kicks and bans off of the queue once they're batched.
+   */
+  public static interface Issuer {
+    
+    /**
+     * Kicks or bans a group of members for the same reason.
+     * 
+     * @param type {@link PunishmentType#KICK} or {@link PunishmentType#BAN}.
+     * @param users the members.
+     * @param time the time the batch was issued, in epoch seconds.
+     * @param reason the reason to give.
+     */
+    void issue(PunishmentType type, List<IUser> users, long time, String reason);
+  }
+  
+  /**
+   * A member waiting to be kicked or banned.
+   */
+  private static final class Pending {
+    
+    /** The member. */
+    final IUser user;
+    
+    /** Whether to kick or ban them. */
+    final PunishmentType type;
+    
+    /** The reason to give. */
+    final String reason;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param user the member.
+     * @param type whether to kick or ban them.
+     * @param reason the reason to give.
+     */
+    Pending(final IUser user, final PunishmentType type, final String reason) {
+      this.user = user;
+      this.type = type;
+      this.reason = reason;
+    }
+  }
+  
+  /**
+   * Starts handing off batches. Does nothing if it's already running.
+   */
+  public static final synchronized void start() {
+    
+    if (worker != null) {
+      return;
+    }
+    
+    worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "rb-moderation");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    worker.scheduleWithFixedDelay(new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          issueBatch();
+        } catch (RuntimeException re) {
+          System.err.println("Error issuing queued moderation actions!");
+          re.printStackTrace();
+        }
+      }
+    }, BATCH_INTERVAL_MS, BATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Stops handing off batches, letting one being handed off finish first. Members still waiting are left unpunished.
+   */
+  public static final synchronized void shutdown() {
+    
+    if (worker == null) {
+      return;
+    }
+    
+    worker.shutdown();
+    try {
+      if (!worker.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        worker.shutdownNow();
+      }
+    } catch (@SuppressWarnings("unused") InterruptedException ie) {
+      worker.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    worker = null;
+    final int left = getPendingCount();
+    if (left > 0) {
+      System.out.println("Moderation queue stopped with " + left + " members still waiting.");
+    }
+  }
+  
+  /**
+   * Queues a member to be kicked or banned. A member already waiting isn't queued again, though a ban replaces a
+   * waiting kick.
+   * 
+   * @param user the member.
+   * @param type {@link PunishmentType#KICK} or {@link PunishmentType#BAN}.
+   * @param reason the reason to give.
+   * @return true if the member was queued; false if they were already waiting or the queue is full.
+   */
+  public static final boolean submit(final IUser user, final PunishmentType type, final String reason) {
+    
+    if (type != PunishmentType.KICK && type != PunishmentType.BAN) {
+      throw new IllegalArgumentException("Only kicks and bans can be queued!");
+    }
+    
+    final long uid = user.getLongID();
+    synchronized (pending) {
+      
+      if (pendingIDs.containsKey(uid)) {
+        if (type != PunishmentType.BAN || pendingIDs.get(uid, (byte) 0) == PunishmentType.BAN.ordinal()) {
+          return false;
+        }
+        
+        // Upgrade a waiting kick to a ban
+        for (final Iterator<Pending> it = pending.iterator(); it.hasNext();) {
+          if (it.next().user.getLongID() == uid) {
+            it.remove();
+            break;
+          }
+        }
+      } else if (pending.size() >= MAX_PENDING) {
+        droppedCount++;
+        return false;
+      }
+      
+      pending.addLast(new Pending(user, type, reason));
+      pendingIDs.put(uid, (byte) type.ordinal());
+      return true;
+    }
+  }
+  
+  /**
+   * Gets the number of members waiting.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getPendingCount() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+  
+  /**
+   * Gets the number of members dropped because the queue was full.
+   * 
+   * @return a non-negative long.
+   */
+  public static final long getDroppedCount() {
+    synchronized (pending) {
+      return droppedCount;
+    }
+  }
+  
+  /**
+   * Replaces what batches are handed to (for testing).
+   * 
+   * @param i the issuer, or null to issue them through the bot again.
+   */
+  public static final void setIssuer(final Issuer i) {
+    issuer = (i == null) ? RATHBOT_ISSUER : i;
+  }
+  
+  /**
+   * Takes the next batch off of the queue and issues it, one call per punishment and reason. The worker calls this
+   * every {@link #BATCH_INTERVAL_MS}.
+   * 
+   * @return the number of members issued.
+   */
+  public static final int issueBatch() {
+    
+    final ArrayList<Pending> batch = new ArrayList<Pending>(BATCH_SIZE);
+    synchronized (pending) {
+      while (batch.size() < BATCH_SIZE && !pending.isEmpty()) {
+        final Pending p = pending.pollFirst();
+        pendingIDs.remove(p.user.getLongID());
+        batch.add(p);
+      }
+    }
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    
+    // Group the batch so each punishment and reason is reported once
+    final int count = batch.size();
+    final long now = Instant.now().getEpochSecond();
+    final Issuer iss = issuer;
+    while (!batch.isEmpty()) {
+      
+      final PunishmentType type = batch.get(0).type;
+      final String reason = batch.get(0).reason;
+      final ArrayList<IUser> users = new ArrayList<IUser>();
+      for (final Iterator<Pending> it = batch.iterator(); it.hasNext();) {
+        final Pending p = it.next();
+        if (p.type == type && p.reason.equals(reason)) {
+          users.add(p.user);
+          it.remove();
+        }
+      }
+      iss.issue(type, users, now, reason);
+    }
+    return count;
+  }
+}
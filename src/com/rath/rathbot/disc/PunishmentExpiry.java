@@ -0,0 +1,170 @@
+
+package com.rath.rathbot.disc;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.rath.rathbot.RathBot;
+import com.rath.rathbot.util.TimingWheel;
+
+/**
+ * This class lifts timed mutes and bans when they run out. Every timed punishment gets a timer in a
+ * {@link TimingWheel}, one wheel for mutes and one for bans, keyed by the member's ID, so scheduling, replacing, and
+ * cancelling one costs the same with ten pending or a hundred thousand. One background thread moves both wheels forward
+ * every tick and lifts whatever is due, through {@link RathBot} so the report channel and action log hear about it.
+ * 
+ * {@link Infractions} schedules and cancels the timers as punishments change, and schedules every pending one again
+ * when the table is loaded, so they still run out on time across restarts. Punishments that ran out while the bot was
+ * down are all due on the same tick, so the first tick after startup lifts every one of them as a single batch: mutes
+ * and bans are each cleared from the table under one lock, journaled with one fsync, and reported in one message.
+ * Punishments without a duration never run out.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class PunishmentExpiry {
+  
+  /** The length of a tick, in milliseconds. Punishment durations are whole seconds. */
+  private static final long TICK_MILLIS = 1000L;
+  
+  /** The number of levels in each wheel. With one-second ticks, four levels reach about 194 days ahead. */
+  private static final int WHEEL_LEVELS = 4;
+  
+  /** The pending mutes, by member ID. */
+  private static final TimingWheel mutes = new TimingWheel(TICK_MILLIS, WHEEL_LEVELS, System.currentTimeMillis());
+  
+  /** The pending bans, by member ID. */
+  private static final TimingWheel bans = new TimingWheel(TICK_MILLIS, WHEEL_LEVELS, System.currentTimeMillis());
+  
+  /** Moves the wheels forward. Null until started. */
+  private static ScheduledExecutorService ticker = null;
+  
+  /**
+   * Starts lifting punishments as they run out. Punishments that ran out while the bot was down are lifted on the first
+   * tick. Does nothing if it's already running.
+   */
+  public static final synchronized void start() {
+    
+    if (ticker != null) {
+      return;
+    }
+    
+    ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "rb-punishment-expiry");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    ticker.scheduleAtFixedRate(new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          expire(System.currentTimeMillis());
+        } catch (RuntimeException re) {
+          System.err.println("Error lifting expired punishments!");
+          re.printStackTrace();
+        }
+      }
+    }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    System.out.println("Punishment expiry started with " + mutes.size() + " timed mutes and " + bans.size()
+        + " timed bans pending.");
+  }
+  
+  /**
+   * Stops lifting punishments. Pending ones are kept with the infractions table and scheduled again at the next start.
+   */
+  public static final synchronized void shutdown() {
+    
+    if (ticker != null) {
+      ticker.shutdownNow();
+      ticker = null;
+    }
+  }
+  
+  /**
+   * Schedules a member's unmute, replacing any already scheduled.
+   * 
+   * @param user the Discord unique long ID.
+   * @param expiryMillis when the mute runs out, in epoch milliseconds.
+   */
+  static final void scheduleUnmute(final long user, final long expiryMillis) {
+    mutes.schedule(user, expiryMillis);
+  }
+  
+  /**
+   * Cancels a member's scheduled unmute, if they have one.
+   * 
+   * @param user the Discord unique long ID.
+   */
+  static final void cancelUnmute(final long user) {
+    mutes.cancel(user);
+  }
+  
+  /**
+   * Schedules a member's unban, replacing any already scheduled.
+   * 
+   * @param user the Discord unique long ID.
+   * @param expiryMillis when the ban runs out, in epoch milliseconds.
+   */
+  static final void scheduleUnban(final long user, final long expiryMillis) {
+    bans.schedule(user, expiryMillis);
+  }
+  
+  /**
+   * Cancels a member's scheduled unban, if they have one.
+   * 
+   * @param user the Discord unique long ID.
+   */
+  static final void cancelUnban(final long user) {
+    bans.cancel(user);
+  }
+  
+  /**
+   * Gets the number of timed mutes pending.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getPendingMuteCount() {
+    return mutes.size();
+  }
+  
+  /**
+   * Gets the number of timed bans pending.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getPendingBanCount() {
+    return bans.size();
+  }
+  
+  /**
+   * Lifts every mute and ban that has run out.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   */
+  private static final void expire(final long nowMillis) {
+    
+    // Mutes and bans are each lifted as one batch, since a restart can leave many due at once. Reports go through the
+    // request buffer, so a rate limit can't drop the rest of the batch.
+    final long[] dueMutes = mutes.advance(nowMillis);
+    if (dueMutes.length > 0) {
+      final long[] lifted = Infractions.liftExpiredMutes(dueMutes, TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+      if (lifted.length > 0) {
+        RathBot.unmuteUsers(null, lifted);
+      }
+    }
+    
+    final long[] dueBans = bans.advance(nowMillis);
+    if (dueBans.length > 0) {
+      final long[] lifted = Infractions.liftExpiredBans(dueBans, TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+      if (lifted.length > 0) {
+        RathBot.unbanUsers(null, lifted);
+      }
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package com.rath.rathbot.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class reads a segment of the binary message log by mapping it into memory. A segment starts with a short header,
+ * followed by one length-prefixed record per message:
+ * 
+ * <pre>
+ * int payload length, int CRC32 of the payload,
+ * long channel ID, long author ID, long message ID, long epoch milliseconds, UTF-8 content
+ * </pre>
+ * 
+ * Every {@link #INDEX_INTERVAL} bytes or so, the writer notes a record's offset along with the latest timestamp of
+ * every record before it. Those notes are the segment's sparse time index: since that timestamp only goes up, a binary
+ * search finds the last offset before which every record is too early, and a time-range read starts there instead of at
+ * the top of the segment. Records are in the order they were logged, which can be slightly out of timestamp order, so a
+ * read stops once it passes a record {@link #MAX_CLOCK_SKEW_MS} past the end of the range.
+ * 
+ * When a segment is rolled, its index is written after its last record, followed by a trailer. A segment without a
+ * trailer (the one still being written to, or one cut short by a crash) has its records checked against their CRCs and
+ * its index rebuilt when it's opened, and ends at the last whole record. Readers are safe to share between threads.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class BinaryLogReader {
+  
+  /** Marks the start of a segment: "RBML". */
+  static final int FILE_MAGIC = 0x52424D4C;
+  
+  /** Marks the end of a rolled segment's trailer: "RBMI". */
+  static final int FOOTER_MAGIC = 0x52424D49;
+  
+  /** The format version written after the magic number. */
+  static final byte VERSION = 1;
+  
+  /** The size of the segment header: magic number and version. */
+  static final int HEADER_SIZE = 5;
+  
+  /** The size of a record's header: payload length and CRC. */
+  static final int RECORD_HEADER_SIZE = 8;
+  
+  /** The size of a record's payload before its content: three IDs and a timestamp. */
+  static final int PAYLOAD_FIXED_SIZE = 32;
+  
+  /** The largest payload a record may have. Discord messages are far smaller. */
+  static final int MAX_PAYLOAD_SIZE = 1 << 20;
+  
+  /** The size of an index entry in the footer: a timestamp and an offset. */
+  static final int INDEX_ENTRY_SIZE = 16;
+  
+  /** The size of the trailer: entry count, index offset, and magic number. */
+  static final int TRAILER_SIZE = 16;
+  
+  /** About how many bytes of records there are between index entries. */
+  static final int INDEX_INTERVAL = 64 * 1024;
+  
+  /** How far out of timestamp order records may be logged, in milliseconds. */
+  public static final long MAX_CLOCK_SKEW_MS = 60000L;
+  
+  /** The segment file. */
+  private final File file;
+  
+  /** The mapped segment. Only ever read through duplicates, so it can be shared. */
+  private final ByteBuffer buf;
+  
+  /** The offset just past the last record. */
+  private final int dataEnd;
+  
+  /** The latest timestamp before each index entry's offset. Never goes down. */
+  private final long[] indexTimes;
+  
+  /** The offset of each index entry's record. */
+  private final int[] indexOffsets;
+  
+  /** The latest timestamp in the segment, or Long.MIN_VALUE if it has no records. */
+  private final long maxTimestamp;
+  
+  /** True if the segment was rolled and its index read from its footer. */
+  private final boolean sealed;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param file the segment file.
+   * @param buf the mapped segment.
+   * @param dataEnd the offset just past the last record.
+   * @param indexTimes the latest timestamp before each index entry.
+   * @param indexOffsets the offset of each index entry.
+   * @param maxTimestamp the latest timestamp in the segment.
+   * @param sealed true if the index was read from a footer.
+   */
+  private BinaryLogReader(final File file, final ByteBuffer buf, final int dataEnd, final long[] indexTimes,
+      final int[] indexOffsets, final long maxTimestamp, final boolean sealed) {
+    this.file = file;
+    this.buf = buf;
+    this.dataEnd = dataEnd;
+    this.indexTimes = indexTimes;
+    this.indexOffsets = indexOffsets;
+    this.maxTimestamp = maxTimestamp;
+    this.sealed = sealed;
+  }
+  
+  /**
+   * Maps a segment and reads its index, rebuilding it if the segment wasn't rolled.
+   * 
+   * @param file the segment file.
+   * @return the reader.
+   * @throws IOException if the file couldn't be mapped or isn't a binary log segment.
+   */
+  public static final BinaryLogReader open(final File file) throws IOException {
+    
+    final ByteBuffer buf;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+      final long length = ch.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Binary log segment " + file.getName() + " is too large to map!");
+      }
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, 0L, length);
+    }
+    
+    if (buf.limit() < HEADER_SIZE || buf.getInt(0) != FILE_MAGIC) {
+      throw new IOException(file.getName() + " is not a binary log segment!");
+    }
+    if (buf.get(4) != VERSION) {
+      throw new IOException("Unknown binary log version " + buf.get(4) + " in " + file.getName() + "!");
+    }
+    
+    final BinaryLogReader sealedReader = readFooter(file, buf);
+    return (sealedReader != null) ? sealedReader : scan(file, buf);
+  }
+  
+  /**
+   * Reads the messages sent in a range of time.
+   * 
+   * @param fromMillis the start of the range, in epoch milliseconds, inclusive.
+   * @param toMillis the end of the range, in epoch milliseconds, inclusive.
+   * @return a new list of the messages, in the order they were logged.
+   */
+  public final List<LoggedMessage> read(final long fromMillis, final long toMillis) {
+    return read(fromMillis, toMillis, 0L, 0L);
+  }
+  
+  /**
+   * Reads the messages sent in a range of time, optionally only in one channel or by one author. Content is only
+   * decoded for the messages returned.
+   * 
+   * @param fromMillis the start of the range, in epoch milliseconds, inclusive.
+   * @param toMillis the end of the range, in epoch milliseconds, inclusive.
+   * @param channelID the channel's ID, or 0 for every channel.
+   * @param authorID the author's ID, or 0 for every author.
+   * @return a new list of the messages, in the order they were logged.
+   */
+  public final List<LoggedMessage> read(final long fromMillis, final long toMillis, final long channelID,
+      final long authorID) {
+    
+    final ArrayList<LoggedMessage> result = new ArrayList<LoggedMessage>();
+    if (fromMillis > toMillis || fromMillis > this.maxTimestamp) {
+      return result;
+    }
+    
+    final ByteBuffer b = this.buf.duplicate();
+    final long stopAfter = (toMillis > Long.MAX_VALUE - MAX_CLOCK_SKEW_MS) ? Long.MAX_VALUE
+        : toMillis + MAX_CLOCK_SKEW_MS;
+    int pos = startOffset(fromMillis);
+    while (pos + RECORD_HEADER_SIZE <= this.dataEnd) {
+      
+      final int length = b.getInt(pos);
+      final int payload = pos + RECORD_HEADER_SIZE;
+      if (length < PAYLOAD_FIXED_SIZE || length > this.dataEnd - payload) {
+        break;
+      }
+      
+      final long time = b.getLong(payload + 24);
+      if (time > stopAfter) {
+        break;
+      }
+      
+      if (time >= fromMillis && time <= toMillis) {
+        final long channel = b.getLong(payload);
+        final long author = b.getLong(payload + 8);
+        if ((channelID == 0L || channel == channelID) && (authorID == 0L || author == authorID)) {
+          final byte[] content = new byte[length - PAYLOAD_FIXED_SIZE];
+          b.position(payload + PAYLOAD_FIXED_SIZE);
+          b.get(content);
+          result.add(new LoggedMessage(channel, author, b.getLong(payload + 16), time,
+              new String(content, StandardCharsets.UTF_8)));
+        }
+      }
+      pos = payload + length;
+    }
+    return result;
+  }
+  
+  /**
+   * Reads the messages sent in a range of time across several segments. Segments last written to before the range
+   * started are skipped without being opened.
+   * 
+   * @param segments the segments, oldest first, as from {@link MessageLogger#listBinarySegments()}.
+   * @param fromMillis the start of the range, in epoch milliseconds, inclusive.
+   * @param toMillis the end of the range, in epoch milliseconds, inclusive.
+   * @param channelID the channel's ID, or 0 for every channel.
+   * @param authorID the author's ID, or 0 for every author.
+   * @return a new list of the messages, in the order they were logged.
+   */
+  public static final List<LoggedMessage> search(final File[] segments, final long fromMillis, final long toMillis,
+      final long channelID, final long authorID) {
+    
+    final ArrayList<LoggedMessage> result = new ArrayList<LoggedMessage>();
+    for (final File segment : segments) {
+      if (segment.lastModified() < fromMillis - MAX_CLOCK_SKEW_MS) {
+        continue;
+      }
+      
+      try {
+        result.addAll(open(segment).read(fromMillis, toMillis, channelID, authorID));
+      } catch (IOException e) {
+        System.err.println("Error reading binary log segment " + segment.getName() + "!");
+        e.printStackTrace();
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Gets the segment file.
+   * 
+   * @return the File.
+   */
+  public final File getFile() {
+    return this.file;
+  }
+  
+  /**
+   * Gets the latest timestamp in the segment.
+   * 
+   * @return the epoch time in milliseconds, or Long.MIN_VALUE if the segment has no records.
+   */
+  public final long getMaxTimestamp() {
+    return this.maxTimestamp;
+  }
+  
+  /**
+   * Gets the number of entries in the segment's time index.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getIndexSize() {
+    return this.indexOffsets.length;
+  }
+  
+  /**
+   * Checks if the segment was rolled, so its index came from its footer.
+   * 
+   * @return true if it was rolled.
+   */
+  public final boolean isSealed() {
+    return this.sealed;
+  }
+  
+  /**
+   * Gets the offset just past the last whole record. The writer resumes a segment from here.
+   * 
+   * @return the offset in bytes.
+   */
+  final int getDataEnd() {
+    return this.dataEnd;
+  }
+  
+  /**
+   * Gets the latest timestamp before each index entry, for the writer to resume a segment with.
+   * 
+   * @return a new array.
+   */
+  final long[] getIndexTimes() {
+    return Arrays.copyOf(this.indexTimes, this.indexTimes.length);
+  }
+  
+  /**
+   * Gets the offset of each index entry, for the writer to resume a segment with.
+   * 
+   * @return a new array.
+   */
+  final int[] getIndexOffsets() {
+    return Arrays.copyOf(this.indexOffsets, this.indexOffsets.length);
+  }
+  
+  /**
+   * Finds where a time-range read should start.
+   * 
+   * @param fromMillis the start of the range.
+   * @return the offset of the last index entry before which every record is earlier than the range, or the first
+   *         record's offset if there's none.
+   */
+  private final int startOffset(final long fromMillis) {
+    
+    int lo = 0;
+    int hi = this.indexTimes.length - 1;
+    int found = -1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (this.indexTimes[mid] < fromMillis) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return (found < 0) ? HEADER_SIZE : this.indexOffsets[found];
+  }
+  
+  /**
+   * Reads a rolled segment's index from its footer.
+   * 
+   * @param file the segment file.
+   * @param buf the mapped segment.
+   * @return the reader, or null if the segment has no valid footer.
+   */
+  private static final BinaryLogReader readFooter(final File file, final ByteBuffer buf) {
+    
+    final int length = buf.limit();
+    if (length < HEADER_SIZE + TRAILER_SIZE || buf.getInt(length - 4) != FOOTER_MAGIC) {
+      return null;
+    }
+    
+    final int count = buf.getInt(length - TRAILER_SIZE);
+    final long indexStart = buf.getLong(length - TRAILER_SIZE + 4);
+    if (count < 0 || indexStart < HEADER_SIZE
+        || indexStart + (long) count * INDEX_ENTRY_SIZE + TRAILER_SIZE != length) {
+      return null;
+    }
+    
+    final long[] times = new long[count];
+    final int[] offsets = new int[count];
+    int pos = (int) indexStart;
+    for (int i = 0; i < count; i++) {
+      times[i] = buf.getLong(pos);
+      offsets[i] = (int) buf.getLong(pos + 8);
+      pos += INDEX_ENTRY_SIZE;
+    }
+    
+    // The latest timestamp is after the last index entry, so find it from there
+    long maxTimestamp = (count > 0) ? times[count - 1] : Long.MIN_VALUE;
+    int rec = (count > 0) ? offsets[count - 1] : HEADER_SIZE;
+    while (rec + RECORD_HEADER_SIZE <= indexStart) {
+      final int recLength = buf.getInt(rec);
+      if (recLength < PAYLOAD_FIXED_SIZE || recLength > indexStart - rec - RECORD_HEADER_SIZE) {
+        break;
+      }
+      maxTimestamp = Math.max(maxTimestamp, buf.getLong(rec + RECORD_HEADER_SIZE + 24));
+      rec += RECORD_HEADER_SIZE + recLength;
+    }
+    return new BinaryLogReader(file, buf, (int) indexStart, times, offsets, maxTimestamp, true);
+  }
+  
+  /**
+   * Checks every record of a segment without a footer and rebuilds its index, the same way the writer builds it.
+   * 
+   * @param file the segment file.
+   * @param buf the mapped segment.
+   * @return the reader, ending at the last whole record.
+   */
+  private static final BinaryLogReader scan(final File file, final ByteBuffer buf) {
+    
+    final int length = buf.limit();
+    final CRC32 crc = new CRC32();
+    final ByteBuffer b = buf.duplicate();
+    long[] times = new long[16];
+    int[] offsets = new int[16];
+    int count = 0;
+    long maxTimestamp = Long.MIN_VALUE;
+    int nextIndexAt = HEADER_SIZE + INDEX_INTERVAL;
+    
+    int pos = HEADER_SIZE;
+    while (pos + RECORD_HEADER_SIZE <= length) {
+      
+      final int recLength = b.getInt(pos);
+      final int payload = pos + RECORD_HEADER_SIZE;
+      if (recLength < PAYLOAD_FIXED_SIZE || recLength > MAX_PAYLOAD_SIZE || recLength > length - payload) {
+        break;
+      }
+      
+      crc.reset();
+      b.limit(payload + recLength).position(payload);
+      crc.update(b);
+      b.limit(length);
+      if ((int) crc.getValue() != b.getInt(pos + 4)) {
+        break;
+      }
+      
+      if (pos >= nextIndexAt) {
+        if (count == times.length) {
+          times = Arrays.copyOf(times, count * 2);
+          offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        times[count] = maxTimestamp;
+        offsets[count] = pos;
+        count++;
+        nextIndexAt = pos + INDEX_INTERVAL;
+      }
+      
+      maxTimestamp = Math.max(maxTimestamp, b.getLong(payload + 24));
+      pos = payload + recLength;
+    }
+    return new BinaryLogReader(file, buf, pos, Arrays.copyOf(times, count), Arrays.copyOf(offsets, count),
+        maxTimestamp, false);
+  }
+}
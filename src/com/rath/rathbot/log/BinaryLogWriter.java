@@ -0,0 +1,307 @@
+package com.rath.rathbot.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * This class appends messages to the binary message log, in the format {@link BinaryLogReader} describes, and keeps
+ * the segment's sparse time index as it goes. The index is written as the segment's footer when the segment is rolled.
+ * When the bot starts, the segment left from the last run is checked, cut back to its last whole record, and its index
+ * rebuilt, so writing picks up where it left off. This class is not thread-safe; in the bot, only the message logger's
+ * writer thread touches it.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class BinaryLogWriter {
+  
+  /** The largest a segment may grow, in bytes, so it can always be mapped in one piece. */
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+  
+  /** The size of the write buffer, in bytes. */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  
+  /** The number of milliseconds in a day. */
+  private static final long MILLIS_PER_DAY = 86400000L;
+  
+  /** The segment file. Stays the same across rolls; the old contents are renamed away. */
+  private final File file;
+  
+  /** Encodes each record before it's written, so its header can be filled in. Grown as needed. */
+  private ByteBuffer record = ByteBuffer.allocate(256);
+  
+  /** Checksums each record. */
+  private final CRC32 crc = new CRC32();
+  
+  /** The file's stream, for forcing it to the disk. Replaced when the file is rolled. */
+  private FileOutputStream out;
+  
+  /** The buffer in front of the file. Replaced when the file is rolled. */
+  private BufferedOutputStream buffered;
+  
+  /** The number of bytes in the segment, counting what's still buffered. */
+  private long size;
+  
+  /** The UTC day, counted from the epoch, the segment was started on. */
+  private long day;
+  
+  /** The latest timestamp before each index entry's offset. */
+  private long[] indexTimes = new long[16];
+  
+  /** The offset of each index entry's record. */
+  private int[] indexOffsets = new int[16];
+  
+  /** The number of index entries. */
+  private int indexCount = 0;
+  
+  /** The latest timestamp written to the segment. */
+  private long maxTimestamp = Long.MIN_VALUE;
+  
+  /** The offset past which the next index entry is taken. */
+  private long nextIndexAt = BinaryLogReader.HEADER_SIZE + BinaryLogReader.INDEX_INTERVAL;
+  
+  /** True if records were written since the last flush. */
+  private boolean dirty = false;
+  
+  /** True if the segment couldn't be rolled today. It's only tried again when the day changes. */
+  private boolean rollFailed = false;
+  
+  /**
+   * Default constructor. Opens the segment, picking up a segment left from the last run if there is one.
+   * 
+   * @param file the segment file.
+   * @throws IOException if the segment couldn't be opened.
+   */
+  public BinaryLogWriter(final File file) throws IOException {
+    
+    this.file = file;
+    if (file.length() > 0L) {
+      resume();
+    } else {
+      startSegment(System.currentTimeMillis());
+    }
+  }
+  
+  /**
+   * Appends a message.
+   * 
+   * @param channelID the channel's ID.
+   * @param authorID the author's ID.
+   * @param messageID the message's ID.
+   * @param timestamp when the message was sent, in epoch milliseconds.
+   * @param content the message's content.
+   * @throws IOException if the message couldn't be written.
+   */
+  public final void append(final long channelID, final long authorID, final long messageID, final long timestamp,
+      final String content) throws IOException {
+    
+    // Encode the payload after room for the header, then fill the header in
+    final byte[] text = content.getBytes(StandardCharsets.UTF_8);
+    final int payloadLength = Math.min(BinaryLogReader.PAYLOAD_FIXED_SIZE + text.length,
+        BinaryLogReader.MAX_PAYLOAD_SIZE);
+    final int recordLength = BinaryLogReader.RECORD_HEADER_SIZE + payloadLength;
+    if (this.record.capacity() < recordLength) {
+      this.record = ByteBuffer.allocate(Math.max(recordLength, this.record.capacity() * 2));
+    }
+    final ByteBuffer r = this.record;
+    r.clear();
+    r.position(BinaryLogReader.RECORD_HEADER_SIZE);
+    r.putLong(channelID).putLong(authorID).putLong(messageID).putLong(timestamp);
+    r.put(text, 0, payloadLength - BinaryLogReader.PAYLOAD_FIXED_SIZE);
+    this.crc.reset();
+    this.crc.update(r.array(), BinaryLogReader.RECORD_HEADER_SIZE, payloadLength);
+    r.putInt(0, payloadLength);
+    r.putInt(4, (int) this.crc.getValue());
+    
+    if (this.size >= this.nextIndexAt) {
+      addIndexEntry(this.maxTimestamp, (int) this.size);
+      this.nextIndexAt = this.size + BinaryLogReader.INDEX_INTERVAL;
+    }
+    
+    this.buffered.write(r.array(), 0, recordLength);
+    this.size += recordLength;
+    this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+    this.dirty = true;
+  }
+  
+  /**
+   * Flushes the buffer to the file if anything was written since the last flush.
+   * 
+   * @param sync true to also force the file to the disk.
+   * @throws IOException if the file couldn't be flushed.
+   */
+  public final void flush(final boolean sync) throws IOException {
+    
+    if (!this.dirty) {
+      return;
+    }
+    this.buffered.flush();
+    if (sync) {
+      this.out.getFD().sync();
+    }
+    this.dirty = false;
+  }
+  
+  /**
+   * Closes the segment without a footer, so the next run picks it up. Anything still buffered is flushed first.
+   * 
+   * @throws IOException if the segment couldn't be flushed.
+   */
+  public final void close() throws IOException {
+    this.buffered.close();
+  }
+  
+  /**
+   * Rolls the segment if it's full or from an earlier day: writes its footer, hands it to the archiver, and starts a
+   * new segment in its place.
+   * 
+   * @param nowMillis the current epoch time in milliseconds.
+   * @param maxSegmentBytes how large a segment may grow, in bytes, or 0 for no limit.
+   * @param archiver takes the rolled segment.
+   * @param sync true to force the segment to the disk before it's rolled.
+   * @throws IOException if the footer couldn't be written or the new segment couldn't be opened.
+   */
+  final void rollIfNeeded(final long nowMillis, final long maxSegmentBytes, final LogArchiver archiver,
+      final boolean sync) throws IOException {
+    
+    final long maxBytes = (maxSegmentBytes > 0L) ? Math.min(maxSegmentBytes, MAX_SEGMENT_BYTES) : MAX_SEGMENT_BYTES;
+    final long today = Math.floorDiv(nowMillis, MILLIS_PER_DAY);
+    if (this.size <= BinaryLogReader.HEADER_SIZE
+        || (today == this.day && (this.size < maxBytes || this.rollFailed))) {
+      return;
+    }
+    
+    // If the rename fails, the footer is cut off again and the segment keeps growing until the next day
+    final long indexStart = this.size;
+    seal(sync);
+    final File rolled = archiver.roll(this.file, nowMillis);
+    if (rolled == null) {
+      try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+        raf.setLength(indexStart);
+      }
+      openForAppend();
+      this.day = today;
+      this.rollFailed = true;
+      return;
+    }
+    startSegment(nowMillis);
+    archiver.archive(rolled);
+  }
+  
+  /**
+   * Writes the segment's footer and closes it. Nothing more can be appended to it afterward.
+   * 
+   * @param sync true to force the segment to the disk.
+   * @throws IOException if the footer couldn't be written.
+   */
+  public final void seal(final boolean sync) throws IOException {
+    
+    final DataOutputStream dout = new DataOutputStream(this.buffered);
+    final long indexStart = this.size;
+    for (int i = 0; i < this.indexCount; i++) {
+      dout.writeLong(this.indexTimes[i]);
+      dout.writeLong(this.indexOffsets[i]);
+    }
+    dout.writeInt(this.indexCount);
+    dout.writeLong(indexStart);
+    dout.writeInt(BinaryLogReader.FOOTER_MAGIC);
+    dout.flush();
+    if (sync) {
+      this.out.getFD().sync();
+    }
+    this.buffered.close();
+  }
+  
+  /**
+   * Starts a new, empty segment.
+   * 
+   * @param nowMillis the current epoch time in milliseconds.
+   * @throws IOException if the segment couldn't be opened.
+   */
+  private final void startSegment(final long nowMillis) throws IOException {
+    
+    this.out = new FileOutputStream(this.file, false);
+    this.buffered = new BufferedOutputStream(this.out, WRITE_BUFFER_SIZE);
+    this.buffered.write(ByteBuffer.allocate(BinaryLogReader.HEADER_SIZE).putInt(BinaryLogReader.FILE_MAGIC)
+        .put(BinaryLogReader.VERSION).array());
+    this.dirty = true;
+    this.size = BinaryLogReader.HEADER_SIZE;
+    this.day = Math.floorDiv(nowMillis, MILLIS_PER_DAY);
+    this.indexCount = 0;
+    this.maxTimestamp = Long.MIN_VALUE;
+    this.nextIndexAt = BinaryLogReader.HEADER_SIZE + BinaryLogReader.INDEX_INTERVAL;
+    this.rollFailed = false;
+  }
+  
+  /**
+   * Picks up a segment left from the last run: reads its index back, cuts off anything past its last whole record
+   * (including a footer, if it was rolled but never renamed), and opens it for appending.
+   * 
+   * @throws IOException if the segment couldn't be read or opened.
+   */
+  private final void resume() throws IOException {
+    
+    final BinaryLogReader reader;
+    try {
+      reader = BinaryLogReader.open(this.file);
+    } catch (IOException e) {
+      System.err.println("Binary log segment " + this.file.getName() + " is unreadable; starting it over.");
+      e.printStackTrace();
+      startSegment(System.currentTimeMillis());
+      return;
+    }
+    
+    final int dataEnd = reader.getDataEnd();
+    if (dataEnd != this.file.length()) {
+      System.out.println("Cutting binary log segment " + this.file.getName() + " back to " + dataEnd + " bytes.");
+      try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+        raf.setLength(dataEnd);
+      }
+    }
+    
+    this.indexTimes = reader.getIndexTimes();
+    this.indexOffsets = reader.getIndexOffsets();
+    this.indexCount = this.indexOffsets.length;
+    this.maxTimestamp = reader.getMaxTimestamp();
+    this.nextIndexAt = ((this.indexCount > 0) ? this.indexOffsets[this.indexCount - 1]
+        : BinaryLogReader.HEADER_SIZE) + BinaryLogReader.INDEX_INTERVAL;
+    this.size = dataEnd;
+    this.day = Math.floorDiv(this.file.lastModified(), MILLIS_PER_DAY);
+    openForAppend();
+  }
+  
+  /**
+   * Opens the segment for appending.
+   * 
+   * @throws IOException if the segment couldn't be opened.
+   */
+  private final void openForAppend() throws IOException {
+    this.out = new FileOutputStream(this.file, true);
+    this.buffered = new BufferedOutputStream(this.out, WRITE_BUFFER_SIZE);
+  }
+  
+  /**
+   * Adds an entry to the index.
+   * 
+   * @param time the latest timestamp before the entry's offset.
+   * @param offset the offset of the entry's record.
+   */
+  private final void addIndexEntry(final long time, final int offset) {
+    
+    if (this.indexCount == this.indexTimes.length) {
+      final int capacity = Math.max(16, this.indexCount * 2);
+      this.indexTimes = Arrays.copyOf(this.indexTimes, capacity);
+      this.indexOffsets = Arrays.copyOf(this.indexOffsets, capacity);
+    }
+    this.indexTimes[this.indexCount] = time;
+    this.indexOffsets[this.indexCount] = offset;
+    this.indexCount++;
+  }
+}
@@ -0,0 +1,359 @@
+package com.rath.rathbot.log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.rath.rathbot.RBConfig;
+
+/**
+ * This class looks after the message log segments that have been rolled. A log file is rolled by renaming it with the
+ * time it was rolled, then a new file is started under the old name. Rolled segments are handed here, and one
+ * background thread gzips them and then enforces retention, so neither holds up the message logger's writer.
+ * 
+ * The message logger's retention is set with the optional config values "messageLogRetentionDays" and
+ * "messageLogMaxTotalMB". Rolled
+ * segments older than the retention are deleted, then the oldest rolled segments are deleted until all the logs
+ * together fit the size cap. Files still being written to are never deleted. A value of 0 turns either limit off.
+ * 
+ * Segments are named "&lt;log name&gt;.&lt;yyyyMMdd-HHmmss&gt;&lt;suffix&gt;", with ".gz" added once they're
+ * compressed. Only segments with the suffix the archiver was built with are compressed; the binary log's segments are
+ * kept as they are so they can be mapped into memory. Segments left uncompressed by a crash are found and compressed
+ * when the archiver starts.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public final class LogArchiver {
+  
+  /** The ending added to compressed segments. */
+  static final String GZIP_SUFFIX = ".gz";
+  
+  /** The ending of a segment while it's being compressed. */
+  private static final String TEMP_SUFFIX = ".tmp";
+  
+  /** How long rolled segments are kept, in days, unless the config file sets it. */
+  private static final int DEFAULT_RETENTION_DAYS = 180;
+  
+  /** How much disk all the logs together may use, in megabytes, unless the config file sets it. */
+  private static final int DEFAULT_MAX_TOTAL_MB = 4096;
+  
+  /** How long to wait for queued compressions during shutdown, in milliseconds. */
+  private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+  
+  /** The size of the copy buffer, in bytes. */
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  
+  /** Formats the roll time put in a segment's name. */
+  private static final DateTimeFormatter STAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+      .withZone(ZoneOffset.UTC);
+  
+  /** Matches the names of rolled segments, compressed or not, with an optional counter after the roll time. */
+  private static final Pattern SEGMENT_PATTERN = Pattern.compile(".+\\.\\d{8}-\\d{6}(-\\d+)?\\.[^.]+(\\.gz)?");
+  
+  /** Puts the oldest files first. */
+  private static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+    
+    @Override
+    public int compare(final File a, final File b) {
+      return Long.compare(a.lastModified(), b.lastModified());
+    }
+  };
+  
+  /** The folder the logs are kept in. */
+  private final File dir;
+  
+  /** The suffix of the segments that are compressed. */
+  private final String compressSuffix;
+  
+  /** How long rolled segments are kept, in milliseconds, or 0 to keep them forever. */
+  private final long retentionMillis;
+  
+  /** How much disk all the logs together may use, in bytes, or 0 for no cap. */
+  private final long maxTotalBytes;
+  
+  /** The background thread. */
+  private final ExecutorService worker;
+  
+  /**
+   * Default constructor. Reads retention from the config file and queues any segments left uncompressed.
+   * 
+   * @param dir the folder the logs are kept in.
+   * @param compressSuffix the suffix of the segments to compress, such as ".txt".
+   */
+  LogArchiver(final File dir, final String compressSuffix) {
+    this(dir, compressSuffix,
+        TimeUnit.DAYS.toMillis(
+            Math.max(0, RBConfig.getOptionalInt("messageLogRetentionDays", DEFAULT_RETENTION_DAYS))),
+        Math.max(0, RBConfig.getOptionalInt("messageLogMaxTotalMB", DEFAULT_MAX_TOTAL_MB)) * 1024L * 1024L);
+  }
+  
+  /**
+   * Constructor. Takes retention as given instead of from the config file, and queues any segments left uncompressed.
+   * 
+   * @param dir the folder the logs are kept in.
+   * @param compressSuffix the suffix of the segments to compress, such as ".txt".
+   * @param retentionMillis how long rolled segments are kept, in milliseconds, or 0 to keep them forever.
+   * @param maxTotalBytes how much disk all the logs together may use, in bytes, or 0 for no cap.
+   */
+  public LogArchiver(final File dir, final String compressSuffix, final long retentionMillis,
+      final long maxTotalBytes) {
+    
+    this.dir = dir;
+    this.compressSuffix = compressSuffix;
+    this.retentionMillis = retentionMillis;
+    this.maxTotalBytes = maxTotalBytes;
+    this.worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          
+          @Override
+          public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "rb-log-archiver");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+          }
+        });
+    
+    for (final File f : listSegments()) {
+      if (f.getName().endsWith(compressSuffix)) {
+        archive(f);
+      }
+    }
+    enforceRetention();
+  }
+  
+  /**
+   * Renames a log file to a new segment name, so a new file can be started under its old name.
+   * 
+   * @param file the log file, already closed.
+   * @param nowMillis the current epoch time in milliseconds.
+   * @return the renamed segment, or null if the file couldn't be renamed.
+   */
+  public final File roll(final File file, final long nowMillis) {
+    
+    final String name = file.getName();
+    final int dot = name.lastIndexOf('.');
+    final String base = (dot < 0) ? name : name.substring(0, dot);
+    final String suffix = (dot < 0) ? "" : name.substring(dot);
+    final String stamp = STAMP_FORMAT.format(Instant.ofEpochMilli(nowMillis));
+    
+    // Several rolls in one second get a counter, so none overwrites another
+    File rolled = new File(this.dir, base + "." + stamp + suffix);
+    for (int n = 1; rolled.exists() || new File(this.dir, rolled.getName() + GZIP_SUFFIX).exists(); n++) {
+      rolled = new File(this.dir, base + "." + stamp + "-" + n + suffix);
+    }
+    
+    if (!file.renameTo(rolled)) {
+      System.err.println("Error rolling log file " + name + "! It will keep growing.");
+      return null;
+    }
+    return rolled;
+  }
+  
+  /**
+   * Queues a rolled segment to be compressed if it has the suffix to compress, then enforces retention. Returns right
+   * away.
+   * 
+   * @param segment the rolled segment.
+   */
+  public final void archive(final File segment) {
+    
+    try {
+      this.worker.execute(new Runnable() {
+        
+        @Override
+        public void run() {
+          if (segment.getName().endsWith(LogArchiver.this.compressSuffix)) {
+            compress(segment);
+          }
+          deleteExpired(System.currentTimeMillis());
+        }
+      });
+    } catch (@SuppressWarnings("unused") RuntimeException re) {
+      System.err.println("Log archiver is shut down; " + segment.getName() + " was left uncompressed.");
+    }
+  }
+  
+  /**
+   * Queues a pass that enforces retention. Returns right away.
+   */
+  public final void enforceRetention() {
+    
+    try {
+      this.worker.execute(new Runnable() {
+        
+        @Override
+        public void run() {
+          deleteExpired(System.currentTimeMillis());
+        }
+      });
+    } catch (@SuppressWarnings("unused") RuntimeException re) {
+      // Shut down; the next start enforces it
+    }
+  }
+  
+  /**
+   * Finishes queued compressions, then stops the background thread.
+   */
+  public final void shutdown() {
+    
+    this.worker.shutdown();
+    try {
+      if (!this.worker.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        System.err.println("Log archiver did not finish in time; some segments were left uncompressed.");
+      }
+    } catch (@SuppressWarnings("unused") InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Lists the rolled segments in the logs folder, compressed or not.
+   * 
+   * @return the segments, or an empty array if there are none.
+   */
+  public final File[] listSegments() {
+    
+    final File[] files = this.dir.listFiles(new FilenameFilter() {
+      
+      @Override
+      public boolean accept(final File d, final String name) {
+        return SEGMENT_PATTERN.matcher(name).matches();
+      }
+    });
+    return (files == null) ? new File[0] : files;
+  }
+  
+  /**
+   * Opens a log file or segment for reading, decompressing it if it's compressed.
+   * 
+   * @param file the file.
+   * @return a buffered stream of the file's contents.
+   * @throws IOException if the file couldn't be opened.
+   */
+  @SuppressWarnings("resource")
+  static final InputStream openForReading(final File file) throws IOException {
+    
+    final InputStream in = new FileInputStream(file);
+    try {
+      return file.getName().endsWith(GZIP_SUFFIX) ? new GZIPInputStream(in, COPY_BUFFER_SIZE)
+          : new BufferedInputStream(in, COPY_BUFFER_SIZE);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+  
+  /**
+   * Compresses a segment. The compressed copy is written under a temporary name and only takes the segment's place once
+   * it's complete, so a crash never leaves a partial segment behind.
+   * 
+   * @param segment the rolled segment.
+   */
+  private final void compress(final File segment) {
+    
+    if (!segment.exists()) {
+      return;
+    }
+    
+    final File gz = new File(this.dir, segment.getName() + GZIP_SUFFIX);
+    final File tmp = new File(this.dir, gz.getName() + TEMP_SUFFIX);
+    try (InputStream in = new FileInputStream(segment);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), COPY_BUFFER_SIZE)) {
+      final byte[] buf = new byte[COPY_BUFFER_SIZE];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+    } catch (IOException e) {
+      System.err.println("Error compressing log segment " + segment.getName() + "!");
+      e.printStackTrace();
+      tmp.delete();
+      return;
+    }
+    
+    // Keep the segment's age, since retention goes by it
+    tmp.setLastModified(segment.lastModified());
+    if (!tmp.renameTo(gz)) {
+      System.err.println("Error renaming compressed log segment " + gz.getName() + "!");
+      tmp.delete();
+      return;
+    }
+    if (!segment.delete()) {
+      System.err.println("Error deleting log segment " + segment.getName() + " after compressing it!");
+    }
+  }
+  
+  /**
+   * Deletes rolled segments past the retention, then the oldest ones until the logs fit the size cap.
+   * 
+   * @param nowMillis the current epoch time in milliseconds.
+   */
+  private final void deleteExpired(final long nowMillis) {
+    
+    final File[] segments = listSegments();
+    Arrays.sort(segments, OLDEST_FIRST);
+    
+    int first = 0;
+    if (this.retentionMillis > 0L) {
+      while (first < segments.length && nowMillis - segments[first].lastModified() > this.retentionMillis) {
+        delete(segments[first++]);
+      }
+    }
+    
+    if (this.maxTotalBytes <= 0L) {
+      return;
+    }
+    
+    // The cap counts every log, including the ones still being written to
+    long total = 0L;
+    final File[] all = this.dir.listFiles();
+    if (all != null) {
+      for (final File f : all) {
+        if (f.isFile()) {
+          total += f.length();
+        }
+      }
+    }
+    while (first < segments.length && total > this.maxTotalBytes) {
+      final long length = segments[first].length();
+      if (delete(segments[first++])) {
+        total -= length;
+      }
+    }
+  }
+  
+  /**
+   * Deletes a segment.
+   * 
+   * @param segment the segment.
+   * @return true if it was deleted.
+   */
+  private static final boolean delete(final File segment) {
+    
+    if (!segment.delete()) {
+      System.err.println("Error deleting old log segment " + segment.getName() + "!");
+      return false;
+    }
+    System.out.println("Deleted old log segment " + segment.getName() + ".");
+    return true;
+  }
+}
@@ -0,0 +1,96 @@
+package com.rath.rathbot.log;
+
+import java.time.Instant;
+
+/**
+ * This class holds one message read back from the binary message log. The IDs are Discord's unique long IDs, so they
+ * can be looked up with the client if the names are wanted.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class LoggedMessage {
+  
+  /** The channel's ID. */
+  private final long channelID;
+  
+  /** The author's ID. */
+  private final long authorID;
+  
+  /** The message's ID. */
+  private final long messageID;
+  
+  /** When the message was sent, in epoch milliseconds. */
+  private final long timestamp;
+  
+  /** The message's content. */
+  private final String content;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param channelID the channel's ID.
+   * @param authorID the author's ID.
+   * @param messageID the message's ID.
+   * @param timestamp when the message was sent, in epoch milliseconds.
+   * @param content the message's content.
+   */
+  public LoggedMessage(final long channelID, final long authorID, final long messageID, final long timestamp,
+      final String content) {
+    this.channelID = channelID;
+    this.authorID = authorID;
+    this.messageID = messageID;
+    this.timestamp = timestamp;
+    this.content = content;
+  }
+  
+  /**
+   * Gets the channel's ID.
+   * 
+   * @return the Discord unique long ID.
+   */
+  public final long getChannelID() {
+    return this.channelID;
+  }
+  
+  /**
+   * Gets the author's ID.
+   * 
+   * @return the Discord unique long ID.
+   */
+  public final long getAuthorID() {
+    return this.authorID;
+  }
+  
+  /**
+   * Gets the message's ID.
+   * 
+   * @return the Discord unique long ID.
+   */
+  public final long getMessageID() {
+    return this.messageID;
+  }
+  
+  /**
+   * Gets when the message was sent.
+   * 
+   * @return the epoch time in milliseconds.
+   */
+  public final long getTimestamp() {
+    return this.timestamp;
+  }
+  
+  /**
+   * Gets the message's content.
+   * 
+   * @return the content as a String.
+   */
+  public final String getContent() {
+    return this.content;
+  }
+  
+  @Override
+  public final String toString() {
+    return Instant.ofEpochMilli(this.timestamp) + " <#" + this.channelID + "> <@" + this.authorID + ">: "
+        + this.content;
+  }
+}
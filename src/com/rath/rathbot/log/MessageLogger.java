@@ -1,28 +1,73 @@
-
 package com.rath.rathbot.log;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.rath.rathbot.DBG;
+import com.rath.rathbot.RBConfig;
 import com.rath.rathbot.RathBot;
+import com.rath.rathbot.util.LongObjectHashMap;
+import com.rath.rathbot.util.MpscRingBuffer;
 
 import sx.blah.discord.handle.obj.IChannel;
 import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.handle.obj.IUser;
 
 /**
- * This class handles logging message history.
+ * This class handles logging message history. Logging a message only copies out the fields that get written and adds
+ * them to a lock-free ring buffer, so it never touches the disk or builds the log line on the calling thread. One
+ * writer thread takes whatever has piled up as a batch, formats it, and writes it through a large buffer per channel
+ * file, so a busy channel costs one write to disk per batch instead of one per message.
+ * 
+ * How soon written messages are pushed to disk is set with the optional config value "messageLogDurability":
+ * "buffered" (the default) flushes every "messageLogFlushMs" milliseconds, "flush" flushes after every batch, and
+ * "sync" also forces every batch to the disk before taking the next. If the ring buffer fills up, messages are dropped
+ * and counted rather than holding up the pipeline. {@link #closeStreams()} writes everything still queued before
+ * closing the files.
+ * 
+ * Each log file is rolled once it reaches "messageLogSegmentMB" megabytes (64 by default, 0 for no limit) or a new UTC
+ * day starts, whichever comes first. Rolled segments are compressed and eventually deleted by a {@link LogArchiver}.
+ * 
+ * Unless the optional config value "messageLogBinary" is "false", every message is also written to a binary log with
+ * its channel, author, and message IDs, which rolls the same way. Its segments have a sparse time index, so
+ * {@link #searchMessages(long, long, long, long)} and {@link BinaryLogReader} can read a range of time without
+ * scanning whole files. Binary segments aren't compressed, so they can be mapped into memory.
  * 
  * @author Tim Backus tbackus127@gmail.com
- *
+ * 
  */
 public class MessageLogger {
   
+  /** How hard the logger tries to get messages onto the disk. */
+  public enum Durability {
+    
+    /** Flush the files every flush interval. A crash can lose up to one interval of messages. */
+    BUFFERED,
+    
+    /** Flush the files after every batch. A crash of the bot loses nothing the OS was handed. */
+    FLUSH,
+    
+    /** Flush the files and force them to the disk after every batch. */
+    SYNC
+  }
+  
   /** The prefix for all log files. Channel names will be between these. */
   private static final String LOG_PREFIX = "log_";
   
@@ -35,75 +80,116 @@ public class MessageLogger {
    */
   private static final String PM_LOG_FILEPATH = RathBot.DIR_LOGS + "_PM History" + LOG_SUFFIX;
   
-  /** Maps a channel to its PrintStream. */
-  private static HashMap<IChannel, PrintStream> printStreamMap = null;
+  /** The name of the binary log, before the suffix. */
+  private static final String BINARY_LOG_NAME = "messages";
+  
+  /** The suffix of the binary log and its segments. */
+  private static final String BINARY_LOG_SUFFIX = ".rbl";
+  
+  /** The key the private message log is kept under. Discord never gives out an ID of 0. */
+  private static final long PM_LOG_KEY = 0L;
+  
+  /** The most messages that can be waiting for the writer. */
+  private static final int QUEUE_CAPACITY = 16384;
+  
+  /** The most messages the writer takes at once. */
+  private static final int BATCH_SIZE = 1024;
+  
+  /** The size of each log file's write buffer, in chars. */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  
+  /** How often buffered messages are flushed, in milliseconds, unless the config file sets it. */
+  private static final int DEFAULT_FLUSH_INTERVAL_MS = 1000;
   
-  /** The direct message PrintStream. */
-  private static PrintStream pmStream = null;
+  /** How large a log file may grow before it's rolled, in megabytes, unless the config file sets it. */
+  private static final int DEFAULT_SEGMENT_MB = 64;
+  
+  /** The number of milliseconds in a day. */
+  private static final long MILLIS_PER_DAY = 86400000L;
+  
+  /** The line separator written after each message. */
+  private static final String NEWLINE = System.lineSeparator();
+  
+  /** The messages waiting for the writer. */
+  private static final MpscRingBuffer<LogRecord> queue = new MpscRingBuffer<LogRecord>(QUEUE_CAPACITY);
+  
+  /** How many messages were dropped because the queue was full. */
+  private static final AtomicLong droppedCount = new AtomicLong();
+  
+  /** The writer thread, or null if the logger isn't running. */
+  private static volatile Thread writer = null;
+  
+  /** True while the writer is parked waiting for messages, so producers know to wake it. */
+  private static volatile boolean writerIdle = false;
+  
+  /** True once the logger has been told to close. The writer drains the queue, then exits. */
+  private static volatile boolean closing = false;
+  
+  /** How hard the writer tries to get messages onto the disk. */
+  private static volatile Durability durability = Durability.BUFFERED;
+  
+  /** How often buffered messages are flushed, in nanoseconds. */
+  private static volatile long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FLUSH_INTERVAL_MS);
+  
+  /** How large a log file may grow before it's rolled, in bytes, or 0 for no limit. */
+  private static volatile long maxSegmentBytes = DEFAULT_SEGMENT_MB * 1024L * 1024L;
+  
+  /** Compresses and deletes rolled segments, or null if the logger isn't running. */
+  private static volatile LogArchiver archiver = null;
+  
+  /** True if messages are also written to the binary log. */
+  private static volatile boolean binaryEnabled = true;
+  
+  /** The binary log. Only the writer thread touches this. Null if it's off or failed. */
+  private static BinaryLogWriter binaryLog = null;
   
   /** If the logger is initialized yet. */
-  private static boolean isLoggerReady = false;
+  private static volatile boolean isLoggerReady = false;
   
   /**
-   * Populates the PrintStream map.
-   * 
-   * @param channelMap a HashMap from IChannels to their respective PrintStreams.
+   * Reads the durability and rolling settings from the config file and starts the writer thread. Log files are opened
+   * the first time a message is written to them.
    */
-  public static final void initPrintStreamMap(final TreeMap<String, IChannel> channelMap) {
+  public static final synchronized void start() {
     
-    final HashMap<IChannel, PrintStream> result = new HashMap<IChannel, PrintStream>();
-    
-    // For every entry in the channel map
-    for (final String s : channelMap.keySet()) {
-      
-      // Build log file path
-      final String filePath = RathBot.DIR_LOGS + LOG_PREFIX + s + LOG_SUFFIX;
-      try {
-        
-        // Create a new PrintStream with its correct channel name and map it from its IChannel
-        final File file = new File(filePath);
-        if (!file.exists()) {
-          System.out.println("Creating new file " + filePath);
-          file.createNewFile();
-        }
-        
-        // Check if the log file is unwritable
-        if (!file.canWrite()) {
-          System.err.println("Cannot write to file!");
-          return;
-        }
-        
-        @SuppressWarnings("resource")
-        final PrintStream ps = new PrintStream(new FileOutputStream(file, true));
-        result.put(channelMap.get(s), ps);
-        
-      } catch (FileNotFoundException e) {
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    if (writer != null) {
+      return;
     }
-    printStreamMap = result;
     
-    // Set up the PM logging PrintStream
-    final File pmLog = new File(PM_LOG_FILEPATH);
-    try {
-      pmLog.createNewFile();
-      pmStream = new PrintStream(pmLog);
-    } catch (@SuppressWarnings("unused") IOException e) {
-      System.err.println("Error initializing PM log file! Disabling logging.");
-      return;
+    final String durabilityName = RBConfig.getOptionalValue("messageLogDurability", "buffered");
+    if ("sync".equalsIgnoreCase(durabilityName)) {
+      durability = Durability.SYNC;
+    } else if ("flush".equalsIgnoreCase(durabilityName)) {
+      durability = Durability.FLUSH;
+    } else {
+      durability = Durability.BUFFERED;
     }
+    final int flushMs = Math.max(1, RBConfig.getOptionalInt("messageLogFlushMs", DEFAULT_FLUSH_INTERVAL_MS));
+    flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushMs);
+    maxSegmentBytes = Math.max(0, RBConfig.getOptionalInt("messageLogSegmentMB", DEFAULT_SEGMENT_MB)) * 1024L * 1024L;
+    binaryEnabled = !"false".equalsIgnoreCase(RBConfig.getOptionalValue("messageLogBinary", "true"));
+    archiver = new LogArchiver(new File(RathBot.DIR_LOGS), LOG_SUFFIX);
     
+    closing = false;
+    final Thread t = new Thread(new Runnable() {
+      
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, "rb-message-logger");
+    t.setDaemon(true);
+    writer = t;
     isLoggerReady = true;
+    t.start();
+    System.out.println("Message logger started (" + durability + ", flushing every " + flushMs + "ms).");
   }
   
   /**
-   * Logs a message to the correct log file.
+   * Queues a message to be logged to the correct log file. Never blocks.
    * 
    * @param msg the IMessage event caught by the EventHandler.
    */
-  @SuppressWarnings("resource")
   public static final void logMessage(final IMessage msg) {
     
     DBG.pl("Logging message.");
@@ -113,66 +199,624 @@ public class MessageLogger {
       return;
     }
     
-    // Unpack IMessage object
+    // Unpack IMessage object; the log line itself is built on the writer thread
     final IChannel channel = msg.getChannel();
-    final String author = msg.getAuthor().getName();
-    final String messageString = msg.getContent();
-    final String timestamp = msg.getTimestamp().toString();
+    final IUser author = msg.getAuthor();
+    final String chName;
+    if (channel.isPrivate()) {
+      chName = null;
+    } else {
+      
+      // If the channel map doesn't have this channel yet, add it
+      final ConcurrentSkipListMap<String, IChannel> chMap = RathBot.getChannelMap();
+      chName = channel.getName();
+      if (chMap != null && !chMap.containsKey(chName)) {
+        addChannel(chMap, chName, channel);
+      }
+    }
+    final LogRecord record = new LogRecord(channel.getLongID(), chName, author.getLongID(), author.getName(),
+        msg.getLongID(), msg.getTimestamp(), msg.getContent());
+    
+    if (!queue.offer(record)) {
+      if (droppedCount.getAndIncrement() == 0L) {
+        System.err.println("Message log queue is full; messages are being dropped.");
+      }
+      return;
+    }
+    
+    if (writerIdle) {
+      final Thread w = writer;
+      if (w != null) {
+        LockSupport.unpark(w);
+      }
+    }
+  }
+  
+  /**
+   * Adds a channel that was created after startup to the channel map.
+   * 
+   * @param chMap the bot's channel map.
+   * @param chName the name of the new channel.
+   * @param channel the new channel.
+   */
+  private static final synchronized void addChannel(final ConcurrentSkipListMap<String, IChannel> chMap,
+      final String chName, final IChannel channel) {
     
-    // If the channel map isn't built, add this channel and add its PrintStream to the PrintStream map
-    final TreeMap<String, IChannel> chMap = RathBot.getChannelMap();
-    final String chName = channel.getName();
-    if (!chMap.containsKey(chName)) {
+    // Another thread may have added it while we waited
+    if (chMap.containsKey(chName)) {
+      return;
+    }
+    
+    chMap.put(chName, channel);
+    System.out.println("Added channel mapping: " + chName + " -> " + channel.getLongID() + ".");
+  }
+  
+  /**
+   * Lists the channel log files in the logs folder, including rolled segments. The private message log isn't included.
+   * Use {@link #openLogReader(File)} to read them, since rolled segments are compressed.
+   * 
+   * @return the log files, or an empty array if there are none.
+   */
+  public static final File[] listLogFiles() {
+    
+    final File[] files = new File(RathBot.DIR_LOGS).listFiles(new FilenameFilter() {
       
-      DBG.pl("Adding channel to channel map.");
+      @Override
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith(LOG_PREFIX)
+            && (name.endsWith(LOG_SUFFIX) || name.endsWith(LOG_SUFFIX + LogArchiver.GZIP_SUFFIX));
+      }
+    });
+    return (files == null) ? new File[0] : files;
+  }
+  
+  /**
+   * Opens a log file or rolled segment for reading line by line, decompressing it if needed.
+   * 
+   * @param file a file from {@link #listLogFiles()}.
+   * @return a BufferedReader over the file's lines.
+   * @throws IOException if the file couldn't be opened.
+   */
+  public static final BufferedReader openLogReader(final File file) throws IOException {
+    return new BufferedReader(new InputStreamReader(LogArchiver.openForReading(file)));
+  }
+  
+  /**
+   * Lists the binary log's segments, oldest first. The segment still being written to is last, and only holds what has
+   * been flushed.
+   * 
+   * @return the segments, or an empty array if there are none.
+   */
+  public static final File[] listBinarySegments() {
+    
+    final File[] files = new File(RathBot.DIR_LOGS).listFiles(new FilenameFilter() {
       
-      // Add to Channel map
-      chMap.put(chName, channel);
-      System.out.println("Added channel mapping: " + chName + " -> " + channel.getLongID() + ".");
+      @Override
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith(BINARY_LOG_NAME + ".") && name.endsWith(BINARY_LOG_SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    
+    // Rolled segments are never written to again, so their ages put them in order, and the active one is newest
+    final File active = new File(RathBot.DIR_LOGS + BINARY_LOG_NAME + BINARY_LOG_SUFFIX);
+    Arrays.sort(files, new Comparator<File>() {
       
-      // Add to PrintStream map
-      final String filePath = RathBot.DIR_LOGS + LOG_PREFIX + chName + LOG_SUFFIX;
-      final File file = new File(filePath);
+      @Override
+      public int compare(final File a, final File b) {
+        if (a.equals(b)) {
+          return 0;
+        } else if (a.equals(active)) {
+          return 1;
+        } else if (b.equals(active)) {
+          return -1;
+        }
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    return files;
+  }
+  
+  /**
+   * Searches the binary log for messages sent in a range of time.
+   * 
+   * @param fromMillis the start of the range, in epoch milliseconds, inclusive.
+   * @param toMillis the end of the range, in epoch milliseconds, inclusive.
+   * @param channelID the channel's ID, or 0 for every channel.
+   * @param authorID the author's ID, or 0 for every author.
+   * @return a new list of the messages, in the order they were logged.
+   */
+  public static final List<LoggedMessage> searchMessages(final long fromMillis, final long toMillis,
+      final long channelID, final long authorID) {
+    return BinaryLogReader.search(listBinarySegments(), fromMillis, toMillis, channelID, authorID);
+  }
+  
+  /**
+   * Gets the message content from a line of a log file, as written by {@link #logMessage(IMessage)}.
+   * 
+   * @param logLine the line.
+   * @return the message content, or the whole line if it isn't the start of a message (a multi-line message's later
+   *         lines).
+   */
+  public static final String getLoggedContent(final String logLine) {
+    
+    // Timestamps contain colons, but never a colon followed by a space
+    final int at = logLine.indexOf(" @ ");
+    final int colon = (at < 0) ? -1 : logLine.indexOf(": ", at + 3);
+    return (colon < 0) ? logLine : logLine.substring(colon + 2);
+  }
+  
+  /**
+   * Gets how hard the logger tries to get messages onto the disk.
+   * 
+   * @return the current Durability.
+   */
+  public static final Durability getDurability() {
+    return durability;
+  }
+  
+  /**
+   * Gets the number of messages waiting to be written.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getQueuedCount() {
+    return queue.size();
+  }
+  
+  /**
+   * Gets how many messages were dropped because the writer fell behind.
+   * 
+   * @return a non-negative long.
+   */
+  public static final long getDroppedCount() {
+    return droppedCount.get();
+  }
+  
+  /**
+   * Stops taking messages, writes everything still queued, and closes the log files.
+   */
+  public static final void closeStreams() {
+    
+    final Thread w;
+    synchronized (MessageLogger.class) {
+      w = writer;
+      if (w == null) {
+        System.err.println("Message logger isn't running.");
+        return;
+      }
+      isLoggerReady = false;
+      closing = true;
+    }
+    
+    System.out.print("Closing message logs... ");
+    LockSupport.unpark(w);
+    try {
+      w.join();
+    } catch (@SuppressWarnings("unused") InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    
+    // Let segments rolled on the way out finish compressing
+    final LogArchiver a = archiver;
+    if (a != null) {
+      a.shutdown();
+    }
+    
+    synchronized (MessageLogger.class) {
+      writer = null;
+      archiver = null;
+    }
+    System.out.println("DONE");
+    
+    final long dropped = droppedCount.get();
+    if (dropped > 0L) {
+      System.err.println(dropped + " messages were dropped because the message log queue was full.");
+    }
+  }
+  
+  /**
+   * The writer thread's loop. Takes everything queued as one batch and writes it, then flushes as the durability
+   * setting asks. Exits once closing and the queue is empty.
+   */
+  private static final void writeLoop() {
+    
+    final LongObjectHashMap<ChannelLog> logs = new LongObjectHashMap<ChannelLog>();
+    final HashMap<String, ChannelLog> logsByPath = new HashMap<String, ChannelLog>();
+    final ArrayList<ChannelLog> openLogs = new ArrayList<ChannelLog>();
+    final LogRecord[] batch = new LogRecord[BATCH_SIZE];
+    final StringBuilder line = new StringBuilder(256);
+    long lastFlush = System.nanoTime();
+    
+    if (binaryEnabled) {
       try {
-        printStreamMap.put(channel, new PrintStream(new FileOutputStream(file, true)));
-      } catch (FileNotFoundException e) {
+        binaryLog = new BinaryLogWriter(new File(RathBot.DIR_LOGS + BINARY_LOG_NAME + BINARY_LOG_SUFFIX));
+      } catch (IOException e) {
+        System.err.println("Error opening the binary message log! Only text logs will be written.");
         e.printStackTrace();
       }
+    }
+    
+    while (true) {
+      
+      final int count = queue.drainTo(batch);
+      if (count > 0) {
+        final long nowMillis = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+          final LogRecord r = batch[i];
+          batch[i] = null;
+          
+          writeBinary(r, nowMillis);
+          
+          // Files are named after channels, which can share a name or be renamed, so each file gets one log by path
+          final long key = (r.channelName == null) ? PM_LOG_KEY : r.channelID;
+          ChannelLog log = logs.get(key);
+          if (log == null || !Objects.equals(log.channelName, r.channelName)) {
+            final String path = ChannelLog.pathFor(r.channelName);
+            log = logsByPath.get(path);
+            if (log == null) {
+              log = ChannelLog.open(r.channelName, path);
+              if (log == null) {
+                continue;
+              }
+              logsByPath.put(path, log);
+              openLogs.add(log);
+            }
+            logs.put(key, log);
+          }
+          
+          line.setLength(0);
+          line.append(r.author).append(" @ ").append(r.timestamp).append(": ").append(r.content).append(NEWLINE);
+          log.write(line, nowMillis);
+        }
+        
+        // A steady stream of messages still gets flushed every interval
+        final Durability d = durability;
+        final long now = System.nanoTime();
+        if (d != Durability.BUFFERED || now - lastFlush >= flushIntervalNanos) {
+          flushAll(openLogs, d == Durability.SYNC);
+          lastFlush = now;
+        }
+        continue;
+      }
+      
+      // Nothing queued: flush if it's been long enough, then wait for more
+      final long now = System.nanoTime();
+      if (now - lastFlush >= flushIntervalNanos) {
+        flushAll(openLogs, false);
+        lastFlush = now;
+      }
       
+      if (closing) {
+        if (!queue.isEmpty()) {
+          continue;
+        }
+        flushAll(openLogs, durability == Durability.SYNC);
+        for (final ChannelLog log : openLogs) {
+          log.close();
+        }
+        if (binaryLog != null) {
+          try {
+            binaryLog.close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+          binaryLog = null;
+        }
+        return;
+      }
+      
+      writerIdle = true;
+      if (queue.isEmpty() && !closing) {
+        LockSupport.parkNanos(flushIntervalNanos);
+      }
+      writerIdle = false;
+    }
+  }
+  
+  /**
+   * Flushes every open log file that has unflushed messages.
+   * 
+   * @param logs the open log files.
+   * @param sync true to also force them to the disk.
+   */
+  private static final void flushAll(final ArrayList<ChannelLog> logs, final boolean sync) {
+    
+    for (final ChannelLog log : logs) {
+      log.flush(sync);
     }
     
-    // Build and append the string to the log file
-    PrintStream ps = printStreamMap.get(channel);
-    final String logString = author + " @ " + timestamp + ": " + messageString;
+    if (binaryLog != null) {
+      try {
+        binaryLog.flush(sync);
+      } catch (IOException e) {
+        failBinary(e);
+      }
+    }
+  }
+  
+  /**
+   * Writes a message to the binary log, if it's on.
+   * 
+   * @param r the message.
+   * @param nowMillis the current epoch time in milliseconds.
+   */
+  private static final void writeBinary(final LogRecord r, final long nowMillis) {
     
-    // If it was a direct message, log it with the PM logger
-    if (ps == null) {
-      ps = pmStream;
+    if (binaryLog == null) {
+      return;
     }
     
-    DBG.pl("Writing message.");
+    try {
+      binaryLog.rollIfNeeded(nowMillis, maxSegmentBytes, archiver, durability == Durability.SYNC);
+      binaryLog.append(r.channelID, r.authorID, r.messageID, r.timestamp.toEpochMilli(), r.content);
+    } catch (IOException e) {
+      failBinary(e);
+    }
+  }
+  
+  /**
+   * Stops writing the binary log after an error.
+   * 
+   * @param e the error.
+   */
+  private static final void failBinary(final IOException e) {
+    
+    System.err.println("Error writing the binary message log! Only text logs will be written.");
+    e.printStackTrace();
+    try {
+      binaryLog.close();
+    } catch (@SuppressWarnings("unused") IOException ioe) {
+      // Already failed
+    }
+    binaryLog = null;
+  }
+  
+  /**
+   * A message, as copied out of its IMessage for the writer.
+   */
+  private static final class LogRecord {
+    
+    /** The channel's ID. */
+    final long channelID;
+    
+    /** The channel's name, or null for private messages. */
+    final String channelName;
     
-    ps.println(logString);
+    /** The author's ID. */
+    final long authorID;
     
-    DBG.pl("Message written.");
+    /** The author's name. */
+    final String author;
     
+    /** The message's ID. */
+    final long messageID;
+    
+    /** When the message was sent. */
+    final Instant timestamp;
+    
+    /** The message's content. */
+    final String content;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param channelID the channel's ID.
+     * @param channelName the channel's name, or null for private messages.
+     * @param authorID the author's ID.
+     * @param author the author's name.
+     * @param messageID the message's ID.
+     * @param timestamp when the message was sent.
+     * @param content the message's content.
+     */
+    LogRecord(final long channelID, final String channelName, final long authorID, final String author,
+        final long messageID, final Instant timestamp, final String content) {
+      this.channelID = channelID;
+      this.channelName = channelName;
+      this.authorID = authorID;
+      this.author = author;
+      this.messageID = messageID;
+      this.timestamp = timestamp;
+      this.content = content;
+    }
   }
   
   /**
-   * Closes up the open PrintStreams.
+   * One open log file. Only the writer thread touches these, and there is at most one per file, so rolling it can't
+   * pull the file out from under another writer.
    */
-  public static final void closeStreams() {
+  private static final class ChannelLog {
     
-    // Check if the map is null
-    if (printStreamMap == null) {
-      System.err.println("PrintStream map is null.");
-      return;
+    /** The name of the channel the file is named after, or null for the private message log. */
+    final String channelName;
+    
+    /** The file's path, for error messages. */
+    private final String path;
+    
+    /** The file. Stays the same across rolls; the old contents are renamed away. */
+    private final File file;
+    
+    /** The file's stream, for forcing it to the disk. Replaced when the file is rolled. */
+    private FileOutputStream out;
+    
+    /** The buffer in front of the file. Replaced when the file is rolled. */
+    private BufferedWriter writer;
+    
+    /** About how many bytes the file holds, counting what's still buffered. */
+    private long size;
+    
+    /** The UTC day, counted from the epoch, the file was started on. */
+    private long day;
+    
+    /** True if messages were written since the last flush. */
+    private boolean dirty = false;
+    
+    /** True if the file couldn't be rolled today. It's only tried again when the day changes. */
+    private boolean rollFailed = false;
+    
+    /** True once writing has failed. The file is skipped from then on. */
+    private boolean failed = false;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param channelName the name of the channel the file is named after, or null for the private message log.
+     * @param path the file's path.
+     * @param file the file.
+     * @throws IOException if the file couldn't be opened.
+     */
+    private ChannelLog(final String channelName, final String path, final File file) throws IOException {
+      this.channelName = channelName;
+      this.path = path;
+      this.file = file;
+      this.size = file.length();
+      this.day = Math.floorDiv((this.size > 0L) ? file.lastModified() : System.currentTimeMillis(), MILLIS_PER_DAY);
+      openStream();
     }
     
-    System.out.print("Closing PrintStreams... ");
-    for (final IChannel ch : printStreamMap.keySet()) {
-      printStreamMap.get(ch).close();
+    /**
+     * Gets the path of a channel's log file.
+     * 
+     * @param channelName the channel's name, or null for the private message log.
+     * @return the path.
+     */
+    static final String pathFor(final String channelName) {
+      return (channelName == null) ? PM_LOG_FILEPATH : RathBot.DIR_LOGS + LOG_PREFIX + channelName + LOG_SUFFIX;
+    }
+    
+    /**
+     * Opens a channel's log file for appending, creating it if needed. Only one log may be open per file.
+     * 
+     * @param channelName the channel's name, or null for the private message log.
+     * @param filePath the file's path, from {@link #pathFor(String)}.
+     * @return the open log, or null if it couldn't be opened.
+     */
+    static final ChannelLog open(final String channelName, final String filePath) {
+      
+      final File file = new File(filePath);
+      if (!file.exists()) {
+        System.out.println("Creating new file " + filePath);
+      }
+      
+      try {
+        return new ChannelLog(channelName, filePath, file);
+      } catch (IOException e) {
+        System.err.println("Error opening log file " + filePath + "!");
+        e.printStackTrace();
+        return null;
+      }
+    }
+    
+    /**
+     * Writes a formatted message, rolling the file first if it's full or from an earlier day.
+     * 
+     * @param line the message's log line, with its line separator.
+     * @param nowMillis the current epoch time in milliseconds.
+     */
+    final void write(final CharSequence line, final long nowMillis) {
+      
+      if (this.failed) {
+        return;
+      }
+      
+      try {
+        final long today = Math.floorDiv(nowMillis, MILLIS_PER_DAY);
+        final long maxBytes = maxSegmentBytes;
+        if (this.size > 0L && (today != this.day || (maxBytes > 0L && this.size >= maxBytes && !this.rollFailed))) {
+          roll(nowMillis, today);
+        }
+        
+        // Counts chars, which matches bytes for the mostly-ASCII text of a chat log
+        this.writer.append(line);
+        this.size += line.length();
+        this.dirty = true;
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    /**
+     * Closes the file, renames it to a new segment for the archiver to compress, and starts a new file in its place.
+     * 
+     * @param nowMillis the current epoch time in milliseconds.
+     * @param today the current UTC day, counted from the epoch.
+     * @throws IOException if the new file couldn't be opened.
+     */
+    private final void roll(final long nowMillis, final long today) throws IOException {
+      
+      this.writer.flush();
+      if (durability == Durability.SYNC) {
+        this.out.getFD().sync();
+      }
+      this.writer.close();
+      this.dirty = false;
+      
+      // If the rename fails, the file is reopened and keeps growing until the next day
+      final LogArchiver a = archiver;
+      final File rolled = (a == null) ? null : a.roll(this.file, nowMillis);
+      openStream();
+      this.size = this.file.length();
+      this.day = today;
+      this.rollFailed = (rolled == null);
+      if (rolled != null) {
+        a.archive(rolled);
+      }
+    }
+    
+    /**
+     * Opens the file for appending, creating it if needed.
+     * 
+     * @throws IOException if the file couldn't be opened.
+     */
+    private final void openStream() throws IOException {
+      this.out = new FileOutputStream(this.file, true);
+      this.writer = new BufferedWriter(new OutputStreamWriter(this.out), WRITE_BUFFER_SIZE);
+    }
+    
+    /**
+     * Flushes the buffer to the file if anything was written since the last flush.
+     * 
+     * @param sync true to also force the file to the disk.
+     */
+    final void flush(final boolean sync) {
+      
+      if (!this.dirty || this.failed) {
+        return;
+      }
+      
+      try {
+        this.writer.flush();
+        if (sync) {
+          this.out.getFD().sync();
+        }
+        this.dirty = false;
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    
+    /**
+     * Closes the file. Anything still buffered is flushed first.
+     */
+    final void close() {
+      try {
+        this.writer.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    
+    /**
+     * Stops writing to the file after an error.
+     * 
+     * @param e the error.
+     */
+    private final void fail(final IOException e) {
+      System.err.println("Error writing log file " + this.path + "! Its messages will not be logged.");
+      e.printStackTrace();
+      this.failed = true;
     }
-    System.out.println("DONE");
   }
 }
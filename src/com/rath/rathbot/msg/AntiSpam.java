@@ -1,17 +1,28 @@
 
 package com.rath.rathbot.msg;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.rath.rathbot.RBConfig;
 import com.rath.rathbot.RathBot;
-import com.rath.rathbot.cmd.PermissionsTable;
 import com.rath.rathbot.disc.InfractionEntry;
 import com.rath.rathbot.disc.Infractions;
+import com.rath.rathbot.disc.MemberFlags;
+import com.rath.rathbot.disc.PunishmentType;
+import com.rath.rathbot.util.LongObjectHashMap;
+import com.rath.rathbot.util.SimHash;
+import com.rath.rathbot.util.TextNormalizer;
 
 import sx.blah.discord.handle.obj.IEmbed;
 import sx.blah.discord.handle.obj.IEmbed.IEmbedImage;
+import sx.blah.discord.handle.obj.IGuild;
 import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.handle.obj.IUser;
 
@@ -29,121 +40,466 @@ public class AntiSpam {
   /** The reason that will be entered in infraction entries when repeat messages are abused. */
   public static final String REASON_REPEAT_MSG_ABUSE = "RB repeat abuse";
   
-  /** Permissions level required to bypass spam filtering. */
-  private static final int PERM_LVL_IGNORE = 9;
-  // TODO: Change this back to RBCommand.PERM_LVL_SUDO
+  /** The reason that will be entered in infraction entries when a message trips the word filter. */
+  public static final String REASON_FILTERED_CONTENT = "RB filtered content";
+  
+  /** The reason that will be entered in infraction entries when a message is gibberish. */
+  public static final String REASON_GIBBERISH = "RB gibberish";
   
   /** Whether or not to ignore messages containing only a single image (for dumps). */
   private static final boolean IGNORE_IMAGE_POSTS = true;
   
-  /** Mute durations, in seconds. 1m, 5m, 30m, 1hr, 24hr */
-  private static final int[] MUTE_DURATIONS = { 60, 300, 1800, 3600, 86400 };
-  
   /** How many messages a user needs to send while muted to be kicked. */
   @SuppressWarnings("unused")
   private static final int MUTE_KICK_THRESHOLD = 10;
   // TODO: ^ If they keep posting after being muted, they get kicked.
   // TODO: Have the bot PM them with minutes left every N minutes. N depends on muted time left.
   
-  /** How many warns it takes for the bot to mute a user. */
-  private static final int WARNS_TO_MUTE = 5;
-  
-  /** How many mutes it takes for the bot to kick a user. */
-  private static final int MUTES_TO_KICK = MUTE_DURATIONS.length;
-  
-  /** How many kicks it takes for the bot to ban a user. */
-  private static final int KICKS_TO_BAN = 3;
-  
   /** Cooldown between spam warnings, in seconds. */
   private static final int WARN_COOLDOWN_SEC = 8;
   
   /** If messages begin with these characters, do not count them in repeat message flagging. */
   private static final String[] REPEAT_PREFIX_EXCEPTIONS = { ".", "rb!", "=", ">", "t!", "+", ";;" };
   
+  /** The message rate rules used when the rules file doesn't set any defaults: 5 messages in 3s, or 20 in 8s. */
+  private static final SpamThreshold[] DEFAULT_RATE_RULES = { new SpamThreshold(5, 3), new SpamThreshold(20, 8) };
+  
+  /** The rules file read unless the config file sets "antiSpamRulesFile". */
+  private static final String DEFAULT_RULES_PATH = RathBot.DIR_DATA + "spamrules.txt";
+  
+  /** The escalation rules file read unless the config file sets "escalationRulesFile". */
+  private static final String DEFAULT_ESCALATION_PATH = RathBot.DIR_DATA + "escalation.txt";
+  
+  /** The number of sequential, duplicate messages required to trigger repeat message abuse. */
+  private static final int TRIGGER_DUPLICATE_MSG_COUNT = 7;
+  
   /**
-   * How many messages trigger spam protection for the amount of time indicated by the same index of
-   * TRIGGER_RATE_TIMEOUT_SECS.
+   * How many of 64 SimHash bits two messages can differ in and still count as duplicates, unless the config file sets
+   * "antiSpamNearDupBits". Appending a character or two to a typical message changes about 4-9 bits, while unrelated
+   * messages differ in about 32.
    */
-  private static final int[] TRIGGER_RATE_MSG_COUNTS = { 5, 20 };
+  private static final int DEFAULT_NEAR_DUP_BITS = 8;
+  
+  /** How many SimHash bits two messages can differ in and still count as duplicates. */
+  private static volatile int nearDupBits = DEFAULT_NEAR_DUP_BITS;
+  
+  /** The most users whose history is kept at once, unless the config file sets "antiSpamMaxTracked". */
+  private static final int DEFAULT_MAX_TRACKED = 50000;
+  
+  /** How long a user's history is kept after their last message, unless the config file sets "antiSpamIdleMinutes". */
+  private static final int DEFAULT_IDLE_MINUTES = 30;
+  
+  /** How often idle users are swept out, in seconds. */
+  private static final int SWEEP_INTERVAL_SECS = 60;
+  
+  /** How many different authors must post the same content to start a raid, unless "raidAuthorThreshold" is set. */
+  private static final int DEFAULT_RAID_AUTHORS = 8;
+  
+  /** How far back authors are counted toward a raid, in seconds, unless "raidWindowSeconds" is set. */
+  private static final int DEFAULT_RAID_WINDOW_SECS = 60;
+  
+  /** How long raid mode lasts after the last raid message, in minutes, unless "raidModeMinutes" is set. */
+  private static final int DEFAULT_RAID_MODE_MINUTES = 10;
+  
+  /** Messages shorter than this aren't counted toward raids, so a room full of "gg" isn't one. */
+  private static final int RAID_MIN_LENGTH = 12;
+  
+  /** The number of time buckets the raid window is split into. */
+  private static final int RAID_BUCKETS = 6;
   
   /**
-   * The amount of time that anti-spam can trigger for the counts defined in the same index of TRIGGER_RATE_MSG_COUNTS.
+   * The number of counters in each row of the raid detector's sketches. With the filters below, the detector takes
+   * about 1 MiB and stays accurate up to roughly 100 messages per second in one window.
    */
-  private static final int[] TRIGGER_RATE_TIMEOUT_SECS = { 3, 8 };
+  private static final int RAID_SKETCH_WIDTH = 8192;
   
-  /** The number of sequential, duplicate messages required to trigger repeat message abuse. */
-  private static final int TRIGGER_DUPLICATE_MSG_COUNT = 7;
+  /** The number of rows in the raid detector's sketches. */
+  private static final int RAID_SKETCH_DEPTH = 4;
+  
+  /** The number of bits in the raid detector's author filters. */
+  private static final int RAID_BLOOM_BITS = 1 << 18;
+  
+  /** How many different authors must post the same content to start a raid. */
+  private static volatile int raidAuthors = DEFAULT_RAID_AUTHORS;
+  
+  /** How long raid mode lasts after the last raid message, in milliseconds. */
+  private static volatile long raidModeMillis = TimeUnit.MINUTES.toMillis(DEFAULT_RAID_MODE_MINUTES);
+  
+  /** Counts authors per content across each guild. */
+  private static volatile RaidDetector raidDetector = newRaidDetector(DEFAULT_RAID_WINDOW_SECS);
+  
+  /** The time each guild's raid mode ends, in epoch milliseconds, by guild ID. Guarded by itself. */
+  private static final LongObjectHashMap<Long> raidModeUntil = new LongObjectHashMap<Long>();
+  
+  /** The number of messages flagged as part of a raid since startup. */
+  private static final AtomicLong raidMessageCount = new AtomicLong();
+  
+  /** The gibberish model in force, or null if there's no model file. Replaced as a whole when it's reloaded. */
+  private static volatile GibberishModel gibberishModel = null;
+  
+  /** The message rate rules in force. Replaced as a whole when the rules are reloaded. */
+  private static volatile SpamRuleSet rateRules = new SpamRuleSet(DEFAULT_RATE_RULES);
+  
+  /** The escalation policy in force. Replaced as a whole when it's reloaded, so a raid can be met without a restart. */
+  private static volatile EscalationPolicy escalationPolicy = EscalationPolicy.parse(EscalationPolicy.DEFAULT_RULES);
+  
+  /** The most users whose history is kept at once. */
+  private static int maxTracked = DEFAULT_MAX_TRACKED;
+  
+  /** How long a user's history is kept after their last message, in milliseconds. */
+  private static long idleMillis = TimeUnit.MINUTES.toMillis(DEFAULT_IDLE_MINUTES);
+  
+  /** A table of all tracked users to their chat history. Keeps enough messages per user for the longest rate rule. */
+  private static volatile TrackerTable trackers = new TrackerTable(maxTracked, idleMillis,
+      historyLengthFor(rateRules));
   
   /**
-   * The maximum number of messages to keep in a user's history. This should be the maximum value in
-   * TRIGGER_RATE_MSG_COUNTS.
+   * Loads the message rate rules from the rules file and puts them in force right away. If the file doesn't exist, the
+   * built-in rules are used; if it can't be parsed, the rules in force are kept.
+   * 
+   * @return true if the rules were loaded; false if the file was invalid.
    */
-  private static final int MAX_HISTORY_LENGTH = 18;
+  public static final synchronized boolean loadRules() {
+    
+    final File rulesFile = new File(RBConfig.getOptionalValue("antiSpamRulesFile", DEFAULT_RULES_PATH));
+    final SpamRuleSet rules;
+    if (rulesFile.exists()) {
+      rules = SpamRuleSet.load(rulesFile, DEFAULT_RATE_RULES);
+      if (rules == null) {
+        System.err.println("Spam rules file is invalid; keeping the current rules.");
+        return false;
+      }
+    } else {
+      rules = new SpamRuleSet(DEFAULT_RATE_RULES);
+    }
+    
+    // Longer rules need longer histories; existing histories can't grow, so they start over
+    if (historyLengthFor(rules) > trackers.getHistoryLength()) {
+      trackers = new TrackerTable(maxTracked, idleMillis, historyLengthFor(rules));
+    }
+    rateRules = rules;
+    System.out.println("Loaded spam rules: " + rules.getOverrideCount() + " guild/channel overrides, up to "
+        + rules.getMaxCount() + " messages per window.");
+    return true;
+  }
   
-  /** A table of all tracked users to their chat history. */
-  private static final TreeMap<Long, ArrayList<MessageTrackerEntry>> trackerEntries = new TreeMap<Long, ArrayList<MessageTrackerEntry>>();
+  /**
+   * Loads the escalation rules from their file and puts them in force right away. If the file doesn't exist, the
+   * built-in rules are used; if it can't be parsed, the rules in force are kept.
+   * 
+   * @return true if the rules were loaded; false if the file was invalid.
+   */
+  public static final synchronized boolean loadEscalationPolicy() {
+    
+    final File rulesFile = new File(RBConfig.getOptionalValue("escalationRulesFile", DEFAULT_ESCALATION_PATH));
+    final EscalationPolicy policy = rulesFile.exists() ? EscalationPolicy.load(rulesFile)
+        : EscalationPolicy.parse(EscalationPolicy.DEFAULT_RULES);
+    if (policy == null) {
+      System.err.println("Escalation rules file is invalid; keeping the current rules.");
+      return false;
+    }
+    
+    escalationPolicy = policy;
+    System.out.println("Loaded escalation rules: " + policy.getRuleCount() + " rules, "
+        + policy.getOverrideCount() + " guild/channel overrides.");
+    return true;
+  }
   
   /**
-   * Performs message filtering for spam and muted users.
+   * Loads the gibberish model from its file and puts it in force right away. If the file doesn't exist, gibberish
+   * checks are turned off; if it can't be read, the model in force is kept.
    * 
-   * @param message the IMessage the event handler received.
-   * @return true if the spam filtering was flagged; false if not.
+   * @return true if the model was loaded or there is none; false if the file was invalid.
    */
-  public static final boolean filterMessage(final IMessage message) {
+  public static final synchronized boolean loadGibberishModel() {
     
-    // If the user isn't in the infractions table, initialize them
-    final IUser author = message.getAuthor();
-    final long uid = author.getLongID();
-    if (!Infractions.hasMember(uid)) {
-      Infractions.initMember(uid);
+    final File modelFile = new File(
+        RBConfig.getOptionalValue("gibberishModelFile", GibberishTrainer.DEFAULT_MODEL_PATH));
+    if (!modelFile.exists()) {
+      gibberishModel = null;
+      return true;
     }
     
-    // If the author is an owner, bypass anti-spam measures
-    if (PermissionsTable.getLevel(uid) < AntiSpam.PERM_LVL_IGNORE) {
+    final GibberishModel model;
+    try {
+      model = GibberishModel.load(modelFile);
+    } catch (IOException ioe) {
+      System.err.println("Error reading gibberish model!");
+      ioe.printStackTrace();
       return false;
     }
+    if (model == null) {
+      System.err.println("Gibberish model file is invalid; keeping the current model.");
+      return false;
+    }
+    gibberishModel = model;
+    System.out.println("Loaded gibberish model: threshold " + model.getThreshold() + ", est. "
+        + (model.estimatedBytes() / 1024) + " KiB.");
+    return true;
+  }
+  
+  /**
+   * Gets how many messages to keep per user for a rule set. Enough are always kept to check for repeats.
+   * 
+   * @param rules the rule set.
+   * @return a positive int.
+   */
+  private static final int historyLengthFor(final SpamRuleSet rules) {
+    return Math.max(TRIGGER_DUPLICATE_MSG_COUNT, rules.getMaxCount());
+  }
+  
+  /** Sweeps idle users out of the tracker table. Null until started. */
+  private static ScheduledExecutorService sweeper = null;
+  
+  /**
+   * Sizes the tracker table and raid detector from the config file and starts the background sweeper. Does nothing if
+   * it's already running.
+   */
+  public static final synchronized void startSweeper() {
+    
+    if (sweeper != null) {
+      return;
+    }
+    
+    maxTracked = Math.max(1, RBConfig.getOptionalInt("antiSpamMaxTracked", DEFAULT_MAX_TRACKED));
+    idleMillis = TimeUnit.MINUTES.toMillis(
+        Math.max(1, RBConfig.getOptionalInt("antiSpamIdleMinutes", DEFAULT_IDLE_MINUTES)));
+    nearDupBits = Math.max(0, Math.min(64, RBConfig.getOptionalInt("antiSpamNearDupBits", DEFAULT_NEAR_DUP_BITS)));
+    trackers = new TrackerTable(maxTracked, idleMillis, historyLengthFor(rateRules));
+    raidAuthors = Math.max(2, RBConfig.getOptionalInt("raidAuthorThreshold", DEFAULT_RAID_AUTHORS));
+    raidModeMillis = TimeUnit.MINUTES.toMillis(
+        Math.max(1, RBConfig.getOptionalInt("raidModeMinutes", DEFAULT_RAID_MODE_MINUTES)));
+    raidDetector = newRaidDetector(Math.max(RAID_BUCKETS,
+        RBConfig.getOptionalInt("raidWindowSeconds", DEFAULT_RAID_WINDOW_SECS)));
+    
+    sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "rb-antispam-sweeper");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    sweeper.scheduleWithFixedDelay(new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          trackers.sweep(System.currentTimeMillis());
+        } catch (RuntimeException re) {
+          System.err.println("Error sweeping anti-spam trackers!");
+          re.printStackTrace();
+        }
+      }
+    }, SWEEP_INTERVAL_SECS, SWEEP_INTERVAL_SECS, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Stops the background sweeper.
+   */
+  public static final synchronized void shutdown() {
+    
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+      sweeper = null;
+    }
+  }
+  
+  /**
+   * Gets the number of users whose message history is being kept.
+   * 
+   * @return a non-negative int.
+   */
+  public static final int getTrackedUserCount() {
+    return trackers.size();
+  }
+  
+  /**
+   * Estimates how much heap the tracked message histories use.
+   * 
+   * @return the size in bytes.
+   */
+  public static final long getTrackerBytes() {
+    return trackers.estimatedBytes();
+  }
+  
+  /**
+   * Builds a one-line summary of the tracker table for the console.
+   * 
+   * @return a String.
+   */
+  public static final String getTrackerStats() {
+    final TrackerTable table = trackers;
+    return "Tracked users: " + table.size() + ", est. " + (table.estimatedBytes() / 1024) + " KiB; evicted "
+        + table.getIdleEvictions() + " idle, " + table.getCapacityEvictions() + " over capacity.";
+  }
+  
+  /**
+   * Builds a raid detector.
+   * 
+   * @param windowSecs how far back authors are counted, in seconds.
+   * @return the RaidDetector.
+   */
+  private static final RaidDetector newRaidDetector(final int windowSecs) {
+    return new RaidDetector(TimeUnit.SECONDS.toMillis(windowSecs), RAID_BUCKETS, RAID_SKETCH_WIDTH, RAID_SKETCH_DEPTH,
+        RAID_BLOOM_BITS);
+  }
+  
+  /**
+   * Counts a message toward its guild's raid detection, and puts the guild in raid mode if enough different authors
+   * have posted the same or nearly the same content recently. Cheap enough to call on the dispatcher thread.
+   * 
+   * @param message the IMessage the event handler received.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
+   * @return true if the message is part of a raid and should be removed; false if not.
+   */
+  public static final boolean checkRaid(final IMessage message, final String normalized) {
     
-    // If the author's mute time is up, unmute them
-    // TODO: ^ This. Use MUTE_DURATIONS, MUTE_KICK_THRESHOLD
+    // Private messages, short messages, and bot commands aren't counted
+    final IGuild guild = message.getGuild();
+    final String content = message.getContent();
+    if (guild == null || normalized.length() < RAID_MIN_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < REPEAT_PREFIX_EXCEPTIONS.length; i++) {
+      if (content.startsWith(REPEAT_PREFIX_EXCEPTIONS[i])) {
+        return false;
+      }
+    }
     
-    // If the author is muted, immediately delete muted users' messages
-    if (Infractions.isMuted(uid)) {
-      message.delete();
+    final long now = System.currentTimeMillis();
+    final int authors = raidDetector.observe(guild.getLongID(), message.getAuthor().getLongID(),
+        MessageTracker.fingerprint(normalized), SimHash.of(normalized), now);
+    if (authors < raidAuthors) {
       return false;
     }
     
+    // Start raid mode, or push back its end
+    final long guildID = guild.getLongID();
+    final boolean started;
+    synchronized (raidModeUntil) {
+      final Long until = raidModeUntil.get(guildID);
+      started = (until == null || until.longValue() <= now);
+      raidModeUntil.put(guildID, Long.valueOf(now + raidModeMillis));
+    }
+    if (started) {
+      System.out.println("Raid mode started in " + guild.getName() + " (" + guildID + "): " + authors
+          + " authors posted the same content.");
+    }
+    raidMessageCount.incrementAndGet();
+    return true;
+  }
+  
+  /**
+   * Checks whether a guild is in raid mode.
+   * 
+   * @param guildID the guild's ID.
+   * @return true if a raid was detected there within the raid mode duration; false if not.
+   */
+  public static final boolean isRaidMode(final long guildID) {
+    synchronized (raidModeUntil) {
+      final Long until = raidModeUntil.get(guildID);
+      return until != null && until.longValue() > System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Ends a guild's raid mode early.
+   * 
+   * @param guildID the guild's ID.
+   * @return true if the guild was in raid mode; false if not.
+   */
+  public static final boolean endRaidMode(final long guildID) {
+    
+    synchronized (raidModeUntil) {
+      final Long until = raidModeUntil.remove(guildID);
+      return until != null && until.longValue() > System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Builds a one-line summary of raid detection for the console.
+   * 
+   * @return a String.
+   */
+  public static final String getRaidStats() {
+    
+    final long now = System.currentTimeMillis();
+    final StringBuilder sb = new StringBuilder();
+    synchronized (raidModeUntil) {
+      for (final long guildID : raidModeUntil.keys()) {
+        final long until = raidModeUntil.get(guildID).longValue();
+        if (until > now) {
+          sb.append(' ').append(guildID).append(" (").append((until - now) / 1000L).append("s left)");
+        }
+      }
+    }
+    return "Raid messages flagged: " + raidMessageCount.get() + ", detector est. "
+        + (raidDetector.estimatedBytes() / 1024) + " KiB; raid mode in:" + ((sb.length() == 0) ? " none" : sb);
+  }
+  
+  /**
+   * Performs message filtering for spam and muted users.
+   * 
+   * @param message the IMessage the event handler received.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
+   * @return true if the spam filtering was flagged or the author is muted; false if not.
+   */
+  public static final boolean filterMessage(final IMessage message, final String normalized) {
+    
+    // Almost every author is neither exempt nor muted, which one lock-free lookup settles
+    final IUser author = message.getAuthor();
+    final long uid = author.getLongID();
+    final byte flags = MemberFlags.get(uid);
+    if (flags != 0) {
+      
+      // If the author is an owner, bypass anti-spam measures
+      if ((flags & MemberFlags.FLAG_SPAM_EXEMPT) != 0) {
+        return false;
+      }
+      
+      // If the author is muted, immediately delete muted users' messages. PunishmentExpiry lifts mutes that run out.
+      if ((flags & MemberFlags.FLAG_MUTED) != 0) {
+        message.delete();
+        return true;
+      }
+    }
+    
     // Check for spam and return a type if a flag is raised
-    final SpamTrigger trig = checkSpamType(message);
+    final SpamTrigger trig = checkSpamType(message, normalized);
     
     // If spam filtering flagged this message
     if (trig != null) {
       
-      // Check if the bot needs to ban the user
+      // Filtered content and gibberish don't stay up
+      if (trig == SpamTrigger.FILTERED_CONTENT || trig == SpamTrigger.GIBBERISH) {
+        message.delete();
+      }
+      
+      // Escalate on recent infractions only, so an old record doesn't count against the author forever
+      final long time = message.getTimestamp().getEpochSecond();
+      final int[] counts = Infractions.getRecentCounts(uid, time);
+      final IGuild guild = message.getGuild();
+      final Escalation escalation = escalationPolicy.decide(trig, (guild == null) ? 0L : guild.getLongID(),
+          message.getChannel().getLongID(), (counts == null) ? 0 : counts[PunishmentType.WARN.ordinal()],
+          (counts == null) ? 0 : counts[PunishmentType.MUTE.ordinal()],
+          (counts == null) ? 0 : counts[PunishmentType.KICK.ordinal()]);
+      
+      // Issue whatever the policy decided
       final IUser botUser = RathBot.getClient().getOurUser();
-      final int kickCount = Infractions.getKickCount(uid);
-      final int muteCount = Infractions.getMuteCount(uid);
-      final int warnCount = Infractions.getWarnCount(uid);
-      if (kickCount >= KICKS_TO_BAN) {
-        
-        // Issue the ban
-        RathBot.banUser(botUser, author, message.getTimestamp().getEpochSecond(), trig.getReason());
-        
-      } else if (muteCount >= MUTES_TO_KICK) {
-        
-        // Issue the kick
-        RathBot.kickUser(botUser, author, message.getTimestamp().getEpochSecond(), trig.getReason());
-        
-      } else if (warnCount >= WARNS_TO_MUTE) {
-        
-        // Issue the mute
-        RathBot.muteUser(botUser, author, message.getTimestamp().getEpochSecond(), MUTE_DURATIONS[muteCount],
-            trig.getReason());
-        
-      } else {
-        
-        // Issue the warn
-        RathBot.warnUser(botUser, author, message.getTimestamp().getEpochSecond(), trig.getReason());
-        
+      switch (escalation.getType()) {
+        case BAN:
+          RathBot.banUser(botUser, author, time, escalation.getDuration(), trig.getReason());
+        break;
+        case KICK:
+          RathBot.kickUser(botUser, author, time, trig.getReason());
+        break;
+        case MUTE:
+          RathBot.muteUser(botUser, author, time, escalation.getDuration(), trig.getReason());
+        break;
+        default:
+          RathBot.warnUser(botUser, author, time, trig.getReason());
       }
       
       return true;
@@ -155,41 +511,43 @@ public class AntiSpam {
    * Adds a message and timestamp for the given user.
    * 
    * @param msg the IMessage container to add an entry from.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
    */
-  public static final void addMessageHistoryEntry(final IMessage msg) {
+  public static final void addMessageHistoryEntry(final IMessage msg, final String normalized) {
     
-    // Create a new entry if the author doesn't exist
+    // Get the author's tracker, creating it if needed, and mark them as active
     final long authorID = msg.getAuthor().getLongID();
-    if (!trackerEntries.containsKey(authorID)) {
-      // System.out.println("Creating new entry for " + authorID);
-      trackerEntries.put(authorID, new ArrayList<MessageTrackerEntry>());
-    }
-    
-    // Add the message to the user's list
-    final ArrayList<MessageTrackerEntry> messageHistory = trackerEntries.get(authorID);
-    final int historySize = messageHistory.size();
-    // System.out.println("History size: " + historySize);
-    
-    // Remove the last message in the list if it has too many entries
-    if (historySize >= MAX_HISTORY_LENGTH) {
-      // System.out.println("Purged last entry in history.");
-      messageHistory.remove(historySize - 1);
-    }
+    final MessageTracker tracker = trackers.acquire(authorID, System.currentTimeMillis());
     
-    // Insert the new message at the beginning of the list
-    messageHistory.add(0, new MessageTrackerEntry(msg.getContent(), msg.getTimestamp().getEpochSecond()));
+    // Record the message, overwriting the oldest one if the history is full
+    tracker.add(msg.getTimestamp().toEpochMilli(), MessageTracker.fingerprint(normalized), SimHash.of(normalized));
     
   }
   
+  /**
+   * Gets a user's message tracker. A user's tracker is only used by the thread handling that user's messages, so it
+   * needs no locking of its own.
+   * 
+   * @param uid the Discord unique long ID.
+   * @return the user's MessageTracker, or null if they aren't being tracked.
+   */
+  private static final MessageTracker getTracker(final long uid) {
+    return trackers.get(uid);
+  }
+  
   /**
    * Tests if a message triggers an anti-spam mechanism.
    * 
    * @param msg the IMessage event.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
    * @return true if spam; false if not.
    */
-  public static final SpamTrigger checkSpamType(final IMessage msg) {
+  public static final SpamTrigger checkSpamType(final IMessage msg, final String normalized) {
     
-    addMessageHistoryEntry(msg);
+    addMessageHistoryEntry(msg, normalized);
+    
+    // Check the content against the word filter, even on image posts
+    if (WordFilter.findMatch(normalized) != null) return SpamTrigger.FILTERED_CONTENT;
     
     // Check if the post is just an image, if enabled
     if (IGNORE_IMAGE_POSTS) {
@@ -207,6 +565,7 @@ public class AntiSpam {
     // Check message triggers
     if (AntiSpam.checkMessageRate(msg)) return SpamTrigger.MESSAGE_RATE;
     if (AntiSpam.checkRepeatMessages(msg)) return SpamTrigger.REPEAT_MESSAGES;
+    if (AntiSpam.checkGibberish(msg, normalized)) return SpamTrigger.GIBBERISH;
     
     // If nothing triggered, return null
     return null;
@@ -222,40 +581,25 @@ public class AntiSpam {
     
     // Unpack message data
     final long authorID = msg.getAuthor().getLongID();
-    final ArrayList<InfractionEntry> infrHistory = Infractions.getInfractionHistory(authorID);
+    final InfractionEntry entry = Infractions.getLastInfraction(authorID);
     final long msgTime = msg.getTimestamp().getEpochSecond();
     
-    // If the member has an infraction history
-    if (infrHistory.size() >= 1) {
-      
-      // If the last infraction was for message rate abuse, check if the cooldown has passed
-      final InfractionEntry entry = infrHistory.get(0);
-      if ((entry.getReason().equals(REASON_MSG_RATE_ABUSE) && (msgTime - entry.getTimestamp() < WARN_COOLDOWN_SEC))) {
-        return false;
-      }
-      
+    // If the last infraction was for message rate abuse, check if the cooldown has passed
+    if (entry != null && entry.getReason().equals(REASON_MSG_RATE_ABUSE)
+        && (msgTime - entry.getTimestamp() < WARN_COOLDOWN_SEC)) {
+      return false;
     }
     
-    // Iterate through their history
-    final ArrayList<MessageTrackerEntry> messageHistory = trackerEntries.get(authorID);
-    for (int i = 0; i < TRIGGER_RATE_MSG_COUNTS.length; i++) {
-      
-      // Check if there are enough messages to check the rate thresholds
-      final int historySize = messageHistory.size();
-      if (historySize >= TRIGGER_RATE_MSG_COUNTS[i]) {
-        
-        // Compute number of seconds between message counts for each trigger
-        final long start = messageHistory.get(TRIGGER_RATE_MSG_COUNTS[i] - 1).getTime();
-        final long end = messageHistory.get(0).getTime();
-        
-        // If the delta is greater than the threshold, trigger the spam protection
-        if ((end - start) < TRIGGER_RATE_TIMEOUT_SECS[i]) {
-          
-          // Add an infraction as message rate abuse to the user's infraction data
-          Infractions.warnUser(authorID, msgTime, REASON_MSG_RATE_ABUSE);
-          return true;
-        }
-      }
+    // Check the rules for where the message was sent against their history
+    final MessageTracker tracker = getTracker(authorID);
+    if (tracker == null) {
+      return false;
+    }
+    final IGuild guild = msg.getGuild();
+    final SpamThreshold[] rules = rateRules.rulesFor((guild == null) ? 0L : guild.getLongID(),
+        msg.getChannel().getLongID());
+    if (SpamRuleSet.findTriggered(rules, tracker) != null) {
+      return true;
     }
     
     // Protection did not trigger
@@ -280,51 +624,27 @@ public class AntiSpam {
     
     // Unpack infraction data
     final long uid = msg.getAuthor().getLongID();
-    ArrayList<InfractionEntry> infrHistory = Infractions.getInfractionHistory(uid);
+    final InfractionEntry entry = Infractions.getLastInfraction(uid);
     final long msgTime = msg.getTimestamp().getEpochSecond();
     
-    // If the member has an infraction history
-    if (infrHistory.size() >= 1) {
-      
-      // If the last infraction was for repeat message abuse, check if the cooldown has passed
-      final InfractionEntry entry = infrHistory.get(0);
-      if ((entry.getReason().equals(REASON_REPEAT_MSG_ABUSE) && (msgTime - entry.getTimestamp() < WARN_COOLDOWN_SEC))) {
-        return false;
-      }
-      
+    // If the last infraction was for repeat message abuse, check if the cooldown has passed
+    if (entry != null && entry.getReason().equals(REASON_REPEAT_MSG_ABUSE)
+        && (msgTime - entry.getTimestamp() < WARN_COOLDOWN_SEC)) {
+      return false;
     }
     
-    // Iterate through their history
-    final ArrayList<MessageTrackerEntry> messageHistory = trackerEntries.get(uid);
+    // Count how many of their latest messages in a row are exact or near duplicates of this one
+    final MessageTracker tracker = getTracker(uid);
+    if (tracker == null) {
+      return false;
+    }
+    final int count = Math.max(tracker.getDuplicateRun(),
+        tracker.countNearDuplicates(nearDupBits, TRIGGER_DUPLICATE_MSG_COUNT));
     
-    // Check if there are enough messages to check the rate thresholds
-    final int historySize = messageHistory.size();
-    if (historySize >= TRIGGER_DUPLICATE_MSG_COUNT) {
-      
-      // Count the number of duplicate messages
-      int count = 0;
-      String currMsg = msg.getContent();
-      for (int i = 0; i < TRIGGER_DUPLICATE_MSG_COUNT; i++) {
-        
-        final MessageTrackerEntry entry = messageHistory.get(i);
-        final String entryMsg = entry.getMessage();
-        
-        // If we encounter a message that isn't a duplicate, stop searching and return false
-        if (!entryMsg.equals(currMsg)) {
-          return false;
-        }
-        
-        currMsg = entryMsg;
-        count++;
-        
-      }
-      
-      // Trigger if the count meets the threshold
-      if (count >= TRIGGER_DUPLICATE_MSG_COUNT) {
-        messageHistory.clear();
-        return true;
-      }
-      
+    // Trigger if the count meets the threshold
+    if (count >= TRIGGER_DUPLICATE_MSG_COUNT) {
+      tracker.clear();
+      return true;
     }
     
     // Protection did not trigger
@@ -332,4 +652,38 @@ public class AntiSpam {
     
   }
   
+  /**
+   * Checks if a message is gibberish, if there's a gibberish model.
+   * 
+   * @param msg Discord IMessage object from the EventHandler.
+   * @param normalized the message's content, normalized by {@link TextNormalizer}.
+   * @return true if the anti-spam was triggered.
+   */
+  public static final boolean checkGibberish(final IMessage msg, final String normalized) {
+    
+    final GibberishModel model = gibberishModel;
+    if (model == null) {
+      return false;
+    }
+    
+    // Ignore bot commands, and links, which are scored as words but rarely read like them
+    final String message = msg.getContent();
+    for (int i = 0; i < REPEAT_PREFIX_EXCEPTIONS.length; i++) {
+      if (message.startsWith(REPEAT_PREFIX_EXCEPTIONS[i])) {
+        return false;
+      }
+    }
+    if (normalized.contains("://") || !model.isGibberish(normalized)) {
+      return false;
+    }
+    
+    // If the last infraction was for gibberish, check if the cooldown has passed
+    final InfractionEntry entry = Infractions.getLastInfraction(msg.getAuthor().getLongID());
+    if (entry != null && entry.getReason().equals(REASON_GIBBERISH)
+        && (msg.getTimestamp().getEpochSecond() - entry.getTimestamp() < WARN_COOLDOWN_SEC)) {
+      return false;
+    }
+    return true;
+  }
+  
 }
@@ -0,0 +1,54 @@
+package com.rath.rathbot.msg;
+
+import com.rath.rathbot.disc.PunishmentType;
+
+/**
+ * This class holds what anti-spam does to an author once their message is flagged: the punishment, and for mutes and
+ * bans, how long it lasts. Escalations never change once built, so an {@link EscalationPolicy} can share one between
+ * many of its table cells.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class Escalation {
+  
+  /** The punishment issued. */
+  private final PunishmentType type;
+  
+  /** How long a mute or ban lasts, in seconds, or 0 if it doesn't run out. Always 0 for warns and kicks. */
+  private final int duration;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param type the punishment issued.
+   * @param duration how long a mute or ban lasts in seconds, or 0 if it doesn't run out. Ignored for warns and kicks.
+   */
+  public Escalation(final PunishmentType type, final int duration) {
+    this.type = type;
+    this.duration = (type == PunishmentType.MUTE || type == PunishmentType.BAN) ? Math.max(0, duration) : 0;
+  }
+  
+  /**
+   * Gets the punishment issued.
+   * 
+   * @return the PunishmentType.
+   */
+  public final PunishmentType getType() {
+    return this.type;
+  }
+  
+  /**
+   * Gets how long the punishment lasts.
+   * 
+   * @return the duration in seconds, or 0 if it doesn't run out or isn't a mute or ban.
+   */
+  public final int getDuration() {
+    return this.duration;
+  }
+  
+  @Override
+  public final String toString() {
+    return (this.duration > 0) ? this.type.name().toLowerCase() + " " + this.duration + "s"
+        : this.type.name().toLowerCase();
+  }
+}
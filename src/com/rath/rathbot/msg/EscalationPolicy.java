@@ -0,0 +1,508 @@
+package com.rath.rathbot.msg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+import com.rath.rathbot.disc.PunishmentType;
+import com.rath.rathbot.util.LongObjectHashMap;
+import com.rath.rathbot.util.MessageHelper;
+
+/**
+ * This class decides what anti-spam does to an author whose message was flagged, from what flagged it, where it was
+ * sent, and how many recent warns, mutes, and kicks the author has. The rules are compiled into flat decision tables
+ * when they're loaded, so deciding is a few array lookups however many rules there are. A policy never changes once
+ * built, so AntiSpam can swap in a new one at any time without locking.
+ * 
+ * Rules are read from a text file with one rule per line, in the form "scope trigger conditions action [duration]". The
+ * scope is "default", "guild:ID", or "channel:ID". The trigger is a {@link SpamTrigger} name such as "gibberish", or
+ * "*" for any. The conditions are "-" for none, or a comma-separated list such as "warns>=5,kicks>=1" that must all
+ * hold. The action is "warn", "mute", "kick", or "ban". Mutes and bans can be given a duration such as "30m"; a mute
+ * can instead be given a comma-separated list such as "1m,5m,1h", picked by the author's mute count, with counts past
+ * the end of the list using the last.
+ * 
+ * Within a scope, the first rule that matches wins. A channel's rules are tried first, then its guild's, then the
+ * default rules; if none match, the author is warned. Blank lines and lines starting with '#' are skipped.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class EscalationPolicy {
+  
+  /**
+   * The largest count a condition can test for, which keeps each decision table under about 150,000 cells. Counts past
+   * the largest one tested are all treated alike.
+   */
+  public static final int MAX_THRESHOLD = 32;
+  
+  /** The rules used when there's no escalation rules file: the ladder anti-spam has always used. */
+  public static final List<String> DEFAULT_RULES = Arrays.asList(
+      "default * kicks>=3 ban",
+      "default * mutes>=5 kick",
+      "default * warns>=5 mute 1m,5m,30m,1h,1d",
+      "default * - warn");
+  
+  /** The scope name for the default rules. */
+  private static final String SCOPE_DEFAULT = "default";
+  
+  /** The scope prefix for a guild's rules. */
+  private static final String SCOPE_GUILD = "guild:";
+  
+  /** The scope prefix for a channel's rules. */
+  private static final String SCOPE_CHANNEL = "channel:";
+  
+  /** Matches any trigger. */
+  private static final String ANY_TRIGGER = "*";
+  
+  /** Marks a rule with no conditions. */
+  private static final String NO_CONDITIONS = "-";
+  
+  /** The counts conditions can test, in the order rules keep their minimums. */
+  private static final List<String> COUNTER_NAMES = Arrays.asList("warns", "mutes", "kicks");
+  
+  /** What happens when no rule matches. */
+  private static final Escalation FALLBACK = new Escalation(PunishmentType.WARN, 0);
+  
+  /** Every spam trigger, by ordinal. */
+  private static final SpamTrigger[] TRIGGERS = SpamTrigger.values();
+  
+  /** The decisions used where no guild or channel rules match. Never has an empty cell. */
+  private final DecisionTable defaultTable;
+  
+  /** Decisions for specific guilds, by guild ID. */
+  private final LongObjectHashMap<DecisionTable> guildTables;
+  
+  /** Decisions for specific channels, by channel ID. */
+  private final LongObjectHashMap<DecisionTable> channelTables;
+  
+  /** The number of rules the policy was built from. */
+  private final int ruleCount;
+  
+  /**
+   * Internal constructor.
+   * 
+   * @param defaultTable the decisions used where no guild or channel rules match.
+   * @param guildTables decisions for specific guilds.
+   * @param channelTables decisions for specific channels.
+   * @param ruleCount the number of rules the policy was built from.
+   */
+  private EscalationPolicy(final DecisionTable defaultTable, final LongObjectHashMap<DecisionTable> guildTables,
+      final LongObjectHashMap<DecisionTable> channelTables, final int ruleCount) {
+    this.defaultTable = defaultTable;
+    this.guildTables = guildTables;
+    this.channelTables = channelTables;
+    this.ruleCount = ruleCount;
+  }
+  
+  /**
+   * Decides what to do to the author of a flagged message.
+   * 
+   * @param trigger what flagged the message.
+   * @param guildID the ID of the guild the message was sent in, or 0 for a private message.
+   * @param channelID the ID of the channel the message was sent in.
+   * @param warns the author's recent warn count.
+   * @param mutes the author's recent mute count.
+   * @param kicks the author's recent kick count.
+   * @return the Escalation to issue.
+   */
+  public final Escalation decide(final SpamTrigger trigger, final long guildID, final long channelID, final int warns,
+      final int mutes, final int kicks) {
+    
+    final int t = trigger.ordinal();
+    Escalation result = null;
+    
+    final DecisionTable channelTable = this.channelTables.get(channelID);
+    if (channelTable != null) {
+      result = channelTable.get(t, warns, mutes, kicks);
+    }
+    if (result == null) {
+      final DecisionTable guildTable = this.guildTables.get(guildID);
+      if (guildTable != null) {
+        result = guildTable.get(t, warns, mutes, kicks);
+      }
+    }
+    return (result == null) ? this.defaultTable.get(t, warns, mutes, kicks) : result;
+  }
+  
+  /**
+   * Gets the number of rules the policy was built from.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getRuleCount() {
+    return this.ruleCount;
+  }
+  
+  /**
+   * Gets the number of guilds and channels with their own rules.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getOverrideCount() {
+    return this.guildTables.size() + this.channelTables.size();
+  }
+  
+  /**
+   * Reads a policy from a file. If the file has no default rules, the built-in ones are used.
+   * 
+   * @param file the escalation rules file.
+   * @return the policy, or null if the file couldn't be read or has an invalid line.
+   */
+  public static final EscalationPolicy load(final File file) {
+    
+    final ArrayList<String> lines = new ArrayList<String>();
+    try (Scanner fScan = new Scanner(file)) {
+      while (fScan.hasNextLine()) {
+        lines.add(fScan.nextLine());
+      }
+    } catch (IOException ioe) {
+      System.err.println("Error reading escalation rules file!");
+      ioe.printStackTrace();
+      return null;
+    }
+    return parse(lines);
+  }
+  
+  /**
+   * Parses a policy from the lines of an escalation rules file. If there are no default rules in the lines, the
+   * built-in ones are used.
+   * 
+   * @param lines the lines.
+   * @return the policy, or null if a line is invalid.
+   */
+  public static final EscalationPolicy parse(final Iterable<String> lines) {
+    
+    ArrayList<Rule> defaults = null;
+    final LongObjectHashMap<ArrayList<Rule>> guilds = new LongObjectHashMap<ArrayList<Rule>>();
+    final LongObjectHashMap<ArrayList<Rule>> channels = new LongObjectHashMap<ArrayList<Rule>>();
+    
+    int lineNum = 0;
+    int ruleCount = 0;
+    for (final String rawLine : lines) {
+      
+      lineNum++;
+      final String line = rawLine.trim();
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      
+      final String[] tokens = line.split("\\s+");
+      if (tokens.length != 4 && tokens.length != 5) {
+        System.err.println("Escalation rules line format invalid! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      // Find the list this rule belongs to
+      final String scope = tokens[0];
+      final ArrayList<Rule> target;
+      try {
+        if (scope.equals(SCOPE_DEFAULT)) {
+          if (defaults == null) {
+            defaults = new ArrayList<Rule>();
+          }
+          target = defaults;
+        } else if (scope.startsWith(SCOPE_GUILD)) {
+          target = listFor(guilds, Long.parseLong(scope.substring(SCOPE_GUILD.length())));
+        } else if (scope.startsWith(SCOPE_CHANNEL)) {
+          target = listFor(channels, Long.parseLong(scope.substring(SCOPE_CHANNEL.length())));
+        } else {
+          System.err.println("Unknown escalation rules scope \"" + scope + "\"! (At line " + lineNum + ").");
+          return null;
+        }
+      } catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+        System.err.println("Invalid ID in escalation rules scope \"" + scope + "\"! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      final Rule rule = parseRule(tokens, lineNum);
+      if (rule == null) {
+        return null;
+      }
+      target.add(rule);
+      ruleCount++;
+    }
+    
+    // The default table must decide every case, so the built-in rules stand in if the lines have none
+    if (defaults == null) {
+      defaults = new ArrayList<Rule>();
+      for (int i = 0; i < DEFAULT_RULES.size(); i++) {
+        defaults.add(parseRule(DEFAULT_RULES.get(i).split("\\s+"), i + 1));
+      }
+    }
+    
+    return new EscalationPolicy(DecisionTable.compile(defaults, FALLBACK), compileAll(guilds), compileAll(channels),
+        ruleCount);
+  }
+  
+  /**
+   * Parses one rule's trigger, conditions, action, and duration.
+   * 
+   * @param tokens the line's tokens, starting with the scope.
+   * @param lineNum the line number, for error messages.
+   * @return the rule, or null if it's invalid.
+   */
+  private static final Rule parseRule(final String[] tokens, final int lineNum) {
+    
+    // Trigger
+    int trigger = -1;
+    if (!tokens[1].equals(ANY_TRIGGER)) {
+      try {
+        trigger = SpamTrigger.valueOf(tokens[1].toUpperCase()).ordinal();
+      } catch (@SuppressWarnings("unused") IllegalArgumentException iae) {
+        System.err.println("Unknown spam trigger \"" + tokens[1] + "\"! (At line " + lineNum + ").");
+        return null;
+      }
+    }
+    
+    // Conditions
+    final int[] minimums = new int[COUNTER_NAMES.size()];
+    if (!tokens[2].equals(NO_CONDITIONS)) {
+      for (final String condition : tokens[2].split(",")) {
+        final int split = condition.indexOf(">=");
+        final int counter = (split < 0) ? -1 : COUNTER_NAMES.indexOf(condition.substring(0, split));
+        if (counter < 0) {
+          System.err.println("Invalid escalation condition \"" + condition + "\"! Use warns, mutes, or kicks with"
+              + " \">=\". (At line " + lineNum + ").");
+          return null;
+        }
+        try {
+          minimums[counter] = Integer.parseInt(condition.substring(split + 2));
+        } catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+          minimums[counter] = -1;
+        }
+        if (minimums[counter] < 0 || minimums[counter] > MAX_THRESHOLD) {
+          System.err.println("Escalation condition counts must be 0-" + MAX_THRESHOLD + "! (At line " + lineNum + ").");
+          return null;
+        }
+      }
+    }
+    
+    // Action
+    final PunishmentType type;
+    try {
+      type = PunishmentType.valueOf(tokens[3].toUpperCase());
+    } catch (@SuppressWarnings("unused") IllegalArgumentException iae) {
+      System.err.println("Unknown escalation action \"" + tokens[3] + "\"! (At line " + lineNum + ").");
+      return null;
+    }
+    
+    // Durations, for mutes and bans only
+    if (tokens.length == 4) {
+      return new Rule(trigger, minimums, new Escalation[] { new Escalation(type, 0) });
+    }
+    if (type != PunishmentType.MUTE && type != PunishmentType.BAN) {
+      System.err.println("Only mutes and bans can have a duration! (At line " + lineNum + ").");
+      return null;
+    }
+    
+    final String[] durations = tokens[4].split(",");
+    if (durations.length > MAX_THRESHOLD || (type == PunishmentType.BAN && durations.length > 1)) {
+      System.err.println("A mute can have 1-" + MAX_THRESHOLD + " durations and a ban only one! (At line " + lineNum
+          + ").");
+      return null;
+    }
+    final Escalation[] escalations = new Escalation[durations.length];
+    for (int i = 0; i < durations.length; i++) {
+      final long seconds = MessageHelper.parseTimeString(durations[i]);
+      if (seconds <= 0 || seconds > Integer.MAX_VALUE) {
+        System.err.println("Invalid escalation duration \"" + durations[i] + "\"! Use the units M, w, d, h, m, and s,"
+            + " as in \"1d12h\". (At line " + lineNum + ").");
+        return null;
+      }
+      escalations[i] = new Escalation(type, (int) seconds);
+    }
+    return new Rule(trigger, minimums, escalations);
+  }
+  
+  /**
+   * Gets the rule list for a guild or channel, creating it if needed.
+   * 
+   * @param map the guild or channel lists.
+   * @param id the guild or channel ID.
+   * @return the list.
+   */
+  private static final ArrayList<Rule> listFor(final LongObjectHashMap<ArrayList<Rule>> map, final long id) {
+    
+    ArrayList<Rule> list = map.get(id);
+    if (list == null) {
+      list = new ArrayList<Rule>();
+      map.put(id, list);
+    }
+    return list;
+  }
+  
+  /**
+   * Compiles each guild's or channel's rules into a decision table. Cases none of their rules match are left empty, so
+   * the broader scopes decide them.
+   * 
+   * @param lists the rule lists, by ID.
+   * @return the decision tables, by ID.
+   */
+  private static final LongObjectHashMap<DecisionTable> compileAll(final LongObjectHashMap<ArrayList<Rule>> lists) {
+    
+    final LongObjectHashMap<DecisionTable> result = new LongObjectHashMap<DecisionTable>(lists.size());
+    for (final long id : lists.keys()) {
+      result.put(id, DecisionTable.compile(lists.get(id), null));
+    }
+    return result;
+  }
+  
+  /**
+   * One escalation rule.
+   */
+  private static final class Rule {
+    
+    /** The ordinal of the trigger the rule applies to, or -1 for any. */
+    final int trigger;
+    
+    /** The smallest warn, mute, and kick counts the rule applies to, in that order. */
+    final int[] minimums;
+    
+    /** What the rule issues, by the author's mute count. Holds one entry unless it's a mute with several durations. */
+    final Escalation[] escalations;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param trigger the ordinal of the trigger the rule applies to, or -1 for any.
+     * @param minimums the smallest warn, mute, and kick counts the rule applies to.
+     * @param escalations what the rule issues, by the author's mute count.
+     */
+    Rule(final int trigger, final int[] minimums, final Escalation[] escalations) {
+      this.trigger = trigger;
+      this.minimums = minimums;
+      this.escalations = escalations;
+    }
+    
+    /**
+     * Gets what the rule issues in a case, if it applies.
+     * 
+     * @param t the trigger's ordinal.
+     * @param warns the warn count.
+     * @param mutes the mute count.
+     * @param kicks the kick count.
+     * @return the Escalation, or null if the rule doesn't apply.
+     */
+    final Escalation apply(final int t, final int warns, final int mutes, final int kicks) {
+      
+      if ((this.trigger >= 0 && this.trigger != t) || warns < this.minimums[0] || mutes < this.minimums[1]
+          || kicks < this.minimums[2]) {
+        return null;
+      }
+      return this.escalations[Math.min(mutes, this.escalations.length - 1)];
+    }
+  }
+  
+  /**
+   * Every decision for one scope, laid out flat by trigger, kick count, mute count, then warn count. Each count is
+   * capped at the largest value any of the scope's rules can tell apart from the next, so the table stays small.
+   */
+  private static final class DecisionTable {
+    
+    /** The largest warn count told apart. */
+    final int maxWarns;
+    
+    /** The largest mute count told apart. */
+    final int maxMutes;
+    
+    /** The largest kick count told apart. */
+    final int maxKicks;
+    
+    /** The decisions; null where the scope's rules don't decide. */
+    final Escalation[] cells;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param maxWarns the largest warn count told apart.
+     * @param maxMutes the largest mute count told apart.
+     * @param maxKicks the largest kick count told apart.
+     */
+    DecisionTable(final int maxWarns, final int maxMutes, final int maxKicks) {
+      this.maxWarns = maxWarns;
+      this.maxMutes = maxMutes;
+      this.maxKicks = maxKicks;
+      this.cells = new Escalation[TRIGGERS.length * (maxKicks + 1) * (maxMutes + 1) * (maxWarns + 1)];
+    }
+    
+    /**
+     * Gets a decision.
+     * 
+     * @param t the trigger's ordinal.
+     * @param warns the warn count.
+     * @param mutes the mute count.
+     * @param kicks the kick count.
+     * @return the Escalation, or null if the scope's rules don't decide this case.
+     */
+    final Escalation get(final int t, final int warns, final int mutes, final int kicks) {
+      return this.cells[indexOf(t, clamp(warns, this.maxWarns), clamp(mutes, this.maxMutes),
+          clamp(kicks, this.maxKicks))];
+    }
+    
+    /**
+     * Gets a case's cell.
+     * 
+     * @param t the trigger's ordinal.
+     * @param w the warn count, capped.
+     * @param m the mute count, capped.
+     * @param k the kick count, capped.
+     * @return the index into the cells.
+     */
+    final int indexOf(final int t, final int w, final int m, final int k) {
+      return ((t * (this.maxKicks + 1) + k) * (this.maxMutes + 1) + m) * (this.maxWarns + 1) + w;
+    }
+    
+    /**
+     * Compiles a scope's rules by working out, for every case, the first rule that matches.
+     * 
+     * @param rules the scope's rules, in order.
+     * @param fallback what to issue where no rule matches, or null to leave those cases undecided.
+     * @return the table.
+     */
+    static final DecisionTable compile(final List<Rule> rules, final Escalation fallback) {
+      
+      // Counts past the largest threshold, or the end of a duration list, all decide alike
+      int maxWarns = 0;
+      int maxMutes = 0;
+      int maxKicks = 0;
+      for (final Rule rule : rules) {
+        maxWarns = Math.max(maxWarns, rule.minimums[0]);
+        maxMutes = Math.max(maxMutes, Math.max(rule.minimums[1], rule.escalations.length - 1));
+        maxKicks = Math.max(maxKicks, rule.minimums[2]);
+      }
+      
+      final DecisionTable table = new DecisionTable(maxWarns, maxMutes, maxKicks);
+      for (int t = 0; t < TRIGGERS.length; t++) {
+        for (int k = 0; k <= maxKicks; k++) {
+          for (int m = 0; m <= maxMutes; m++) {
+            for (int w = 0; w <= maxWarns; w++) {
+              Escalation decision = fallback;
+              for (final Rule rule : rules) {
+                final Escalation e = rule.apply(t, w, m, k);
+                if (e != null) {
+                  decision = e;
+                  break;
+                }
+              }
+              table.cells[table.indexOf(t, w, m, k)] = decision;
+            }
+          }
+        }
+      }
+      return table;
+    }
+    
+    /**
+     * Caps a count to the range a table tells apart.
+     * 
+     * @param count the count.
+     * @param max the largest count told apart.
+     * @return the count, between 0 and max.
+     */
+    private static final int clamp(final int count, final int max) {
+      return (count < 0) ? 0 : Math.min(count, max);
+    }
+  }
+}
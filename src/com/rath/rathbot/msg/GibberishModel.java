@@ -0,0 +1,189 @@
+
+package com.rath.rathbot.msg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class scores how much a message reads like real words, using a character trigram Markov model: the chance of
+ * each letter given the two before it, as learned from the server's own chat logs by {@link GibberishTrainer}. Keyboard
+ * mashing like "asdkjhqwe" is full of letter sequences that almost never occur in chat, so its average log probability
+ * per character is far below that of ordinary messages, typos and slang included.
+ * 
+ * Text is read as 27 symbols: the letters a to z, and one word boundary standing for every other character, with runs
+ * of boundaries counted once. The model is one flat array of log probabilities, indexed by the three symbols, so
+ * scoring a message is one array lookup per character and allocates nothing. Text should be normalized by
+ * {@link com.rath.rathbot.util.TextNormalizer} first, both when training and when scoring.
+ * 
+ * A model never changes once built, so it can be shared between threads freely.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class GibberishModel {
+  
+  /** The number of symbols: 26 letters and the word boundary. */
+  public static final int SYMBOLS = 27;
+  
+  /** The number of entries in the table: one per trigram. */
+  public static final int TABLE_SIZE = SYMBOLS * SYMBOLS * SYMBOLS;
+  
+  /** Messages with fewer letters than this aren't scored; short messages don't say enough either way. */
+  public static final int MIN_LETTERS = 16;
+  
+  /** The symbol for a word boundary. */
+  public static final int BOUNDARY = 0;
+  
+  /** Identifies a model file: "RBGM". */
+  private static final int FILE_MAGIC = 0x5242474D;
+  
+  /** The model file format version. */
+  private static final int FILE_VERSION = 1;
+  
+  /** The log probability of each symbol given the two before it, at [(first * SYMBOLS + second) * SYMBOLS + third]. */
+  private final float[] logProb;
+  
+  /** Messages scoring below this are gibberish. */
+  private final float threshold;
+  
+  /**
+   * Wraps a trained table.
+   * 
+   * @param logProb the log probability of each trigram, as described for {@link #TABLE_SIZE}. Not copied.
+   * @param threshold messages scoring below this are gibberish.
+   */
+  public GibberishModel(final float[] logProb, final float threshold) {
+    
+    if (logProb.length != TABLE_SIZE) {
+      throw new IllegalArgumentException("Gibberish model table must have " + TABLE_SIZE + " entries!");
+    }
+    this.logProb = logProb;
+    this.threshold = threshold;
+  }
+  
+  /**
+   * Scores a message.
+   * 
+   * @param text the normalized message text.
+   * @return the average log probability per symbol, or NaN if the text has too few letters to score.
+   */
+  public final float score(final CharSequence text) {
+    
+    final int len = text.length();
+    int prev2 = BOUNDARY;
+    int prev1 = BOUNDARY;
+    int letters = 0;
+    int transitions = 0;
+    double total = 0.0;
+    for (int i = 0; i < len; i++) {
+      
+      final int sym = symbolOf(text.charAt(i));
+      if (sym == BOUNDARY && prev1 == BOUNDARY) {
+        continue;
+      }
+      if (sym != BOUNDARY) {
+        letters++;
+      }
+      total += this.logProb[(prev2 * SYMBOLS + prev1) * SYMBOLS + sym];
+      transitions++;
+      prev2 = prev1;
+      prev1 = sym;
+    }
+    
+    // The end of the message ends a word too
+    if (prev1 != BOUNDARY) {
+      total += this.logProb[(prev2 * SYMBOLS + prev1) * SYMBOLS + BOUNDARY];
+      transitions++;
+    }
+    
+    if (letters < MIN_LETTERS) {
+      return Float.NaN;
+    }
+    return (float) (total / transitions);
+  }
+  
+  /**
+   * Checks if a message is gibberish.
+   * 
+   * @param text the normalized message text.
+   * @return true if the text has enough letters to score and scores below the threshold; false if not.
+   */
+  public final boolean isGibberish(final CharSequence text) {
+    
+    // NaN compares false, so unscored messages pass
+    return score(text) < this.threshold;
+  }
+  
+  /**
+   * Gets the threshold.
+   * 
+   * @return the score below which messages are gibberish.
+   */
+  public final float getThreshold() {
+    return this.threshold;
+  }
+  
+  /**
+   * Estimates how much heap the model's table uses.
+   * 
+   * @return the size in bytes.
+   */
+  public final long estimatedBytes() {
+    return (long) this.logProb.length * 4;
+  }
+  
+  /**
+   * Writes the model to a file, replacing it if it exists.
+   * 
+   * @param file the file to write.
+   * @throws IOException if the file couldn't be written.
+   */
+  public final void save(final File file) throws IOException {
+    
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeFloat(this.threshold);
+      for (int i = 0; i < this.logProb.length; i++) {
+        out.writeFloat(this.logProb[i]);
+      }
+    }
+  }
+  
+  /**
+   * Reads a model from a file written by {@link #save(File)}.
+   * 
+   * @param file the file to read.
+   * @return the model, or null if the file isn't a model file.
+   * @throws IOException if the file couldn't be read.
+   */
+  public static final GibberishModel load(final File file) throws IOException {
+    
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+        return null;
+      }
+      final float threshold = in.readFloat();
+      final float[] table = new float[TABLE_SIZE];
+      for (int i = 0; i < table.length; i++) {
+        table[i] = in.readFloat();
+      }
+      return new GibberishModel(table, threshold);
+    }
+  }
+  
+  /**
+   * Gets the symbol for a character.
+   * 
+   * @param c the character, which should already be normalized.
+   * @return 1 to 26 for the letters a to z, or 0 for anything else.
+   */
+  public static final int symbolOf(final char c) {
+    return (c >= 'a' && c <= 'z') ? (c - 'a' + 1) : BOUNDARY;
+  }
+}
@@ -0,0 +1,316 @@
+
+package com.rath.rathbot.msg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import com.rath.rathbot.RathBot;
+import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.util.TextNormalizer;
+
+/**
+ * This class trains a {@link GibberishModel} from the channel logs. It streams the logs line by line, so they can be
+ * any size, and counts every character trigram in the normalized messages. A second pass scores each message with the
+ * finished model to pick the threshold: messages scoring well below nearly all of the logged chat are gibberish. The
+ * logs alone only say where chat ends, not where gibberish starts, so the threshold is put a margin below the low end
+ * of the logged chat rather than at it; otherwise the oddest of ordinary messages would be deleted and counted as
+ * infractions.
+ * 
+ * If a file of known gibberish is given, one message per line, the threshold is set halfway between the low end of the
+ * logged chat and the high end of the gibberish instead, which keeps borderline chat from being flagged.
+ * 
+ * Training is meant to be run offline, either with {@link #main(String[])} or from the console, and never on the
+ * message path.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class GibberishTrainer {
+  
+  /** Where the model is written unless another path is given. */
+  public static final String DEFAULT_MODEL_PATH = RathBot.DIR_DATA + "gibberish.bin";
+  
+  /** Added to every bigram count, so letter pairs never seen in the logs aren't impossible. */
+  private static final double SMOOTHING = 0.1;
+  
+  /**
+   * How many trigrams' worth of weight the bigram estimate gets in each trigram context. Contexts seen rarely lean on
+   * the bigram estimate, so an unseen context isn't scored as if every letter were equally likely.
+   */
+  private static final double BACKOFF_WEIGHT = 2.0;
+  
+  /** The fraction of logged messages scoring below what's taken as the low end of ordinary chat. */
+  private static final double GOOD_PERCENTILE = 0.005;
+  
+  /**
+   * How far below the low end of the logged chat the threshold goes when there's no known gibberish to place it by, in
+   * log-probability per letter. Each letter of a message at the threshold is, on average, this many powers of e less
+   * likely than in the lowest-scoring chat.
+   */
+  private static final double LOGS_ONLY_MARGIN = 0.5;
+  
+  /** The fraction of known gibberish that should score below the high end used for the threshold. */
+  private static final double BAD_PERCENTILE = 0.9;
+  
+  /** The lowest score kept apart in the score histograms; anything lower is counted with it. */
+  private static final double HISTOGRAM_MIN = -12.0;
+  
+  /** The number of bins in the score histograms, spanning {@link #HISTOGRAM_MIN} to 0. */
+  private static final int HISTOGRAM_BINS = 1200;
+  
+  /** How many times each trigram has been seen, indexed as in the model's table. */
+  private final long[] counts = new long[GibberishModel.TABLE_SIZE];
+  
+  /** The number of messages counted. */
+  private long messageCount = 0;
+  
+  /**
+   * Counts the trigrams in a message, reading it exactly as {@link GibberishModel#score(CharSequence)} does.
+   * 
+   * @param text the normalized message text.
+   */
+  public final void addText(final CharSequence text) {
+    
+    final int len = text.length();
+    final int syms = GibberishModel.SYMBOLS;
+    int prev2 = GibberishModel.BOUNDARY;
+    int prev1 = GibberishModel.BOUNDARY;
+    for (int i = 0; i < len; i++) {
+      final int sym = GibberishModel.symbolOf(text.charAt(i));
+      if (sym == GibberishModel.BOUNDARY && prev1 == GibberishModel.BOUNDARY) {
+        continue;
+      }
+      this.counts[(prev2 * syms + prev1) * syms + sym]++;
+      prev2 = prev1;
+      prev1 = sym;
+    }
+    if (prev1 != GibberishModel.BOUNDARY) {
+      this.counts[(prev2 * syms + prev1) * syms + GibberishModel.BOUNDARY]++;
+    }
+    this.messageCount++;
+  }
+  
+  /**
+   * Gets the number of messages counted so far.
+   * 
+   * @return a non-negative long.
+   */
+  public final long getMessageCount() {
+    return this.messageCount;
+  }
+  
+  /**
+   * Builds a model from the counts so far.
+   * 
+   * @param threshold messages scoring below this are gibberish.
+   * @return the GibberishModel.
+   */
+  public final GibberishModel build(final float threshold) {
+    
+    final int syms = GibberishModel.SYMBOLS;
+    
+    // Bigram counts are the trigram counts summed over the first symbol
+    final long[] bigrams = new long[syms * syms];
+    for (int i = 0; i < this.counts.length; i++) {
+      bigrams[i % (syms * syms)] += this.counts[i];
+    }
+    final double[] bigramProb = new double[syms * syms];
+    for (int prev = 0; prev < syms; prev++) {
+      long total = 0;
+      for (int s = 0; s < syms; s++) {
+        total += bigrams[prev * syms + s];
+      }
+      for (int s = 0; s < syms; s++) {
+        bigramProb[prev * syms + s] = (bigrams[prev * syms + s] + SMOOTHING) / (total + SMOOTHING * syms);
+      }
+    }
+    
+    // Each trigram's probability starts from the bigram estimate and moves toward what was seen in its context
+    final float[] table = new float[GibberishModel.TABLE_SIZE];
+    for (int context = 0; context < syms * syms; context++) {
+      
+      long total = 0;
+      for (int s = 0; s < syms; s++) {
+        total += this.counts[context * syms + s];
+      }
+      final int prev = context % syms;
+      for (int s = 0; s < syms; s++) {
+        final double p = (this.counts[context * syms + s] + BACKOFF_WEIGHT * bigramProb[prev * syms + s])
+            / (total + BACKOFF_WEIGHT);
+        table[context * syms + s] = (float) Math.log(p);
+      }
+    }
+    return new GibberishModel(table, threshold);
+  }
+  
+  /**
+   * Trains a model from log files.
+   * 
+   * @param logs the channel log files, in the format {@link MessageLogger} writes.
+   * @param badSamples a file of known gibberish, one message per line, or null to pick the threshold from the logs
+   *        alone.
+   * @return the model, or null if the files couldn't be read or had nothing to learn from.
+   */
+  public static final GibberishModel train(final File[] logs, final File badSamples) {
+    
+    // Count trigrams
+    final GibberishTrainer trainer = new GibberishTrainer();
+    for (final File log : logs) {
+      try (BufferedReader in = MessageLogger.openLogReader(log)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          trainer.addText(TextNormalizer.normalize(MessageLogger.getLoggedContent(line)));
+        }
+      } catch (IOException ioe) {
+        System.err.println("Error reading log " + log.getName() + "!");
+        ioe.printStackTrace();
+        return null;
+      }
+    }
+    if (trainer.getMessageCount() == 0) {
+      System.err.println("No logged messages to train the gibberish model on!");
+      return null;
+    }
+    
+    // Score the same messages to see where ordinary chat falls
+    final GibberishModel untuned = trainer.build(Float.NEGATIVE_INFINITY);
+    final long[] goodHist = new long[HISTOGRAM_BINS];
+    for (final File log : logs) {
+      if (!scoreLines(untuned, log, false, goodHist)) {
+        return null;
+      }
+    }
+    final double goodLow = percentile(goodHist, GOOD_PERCENTILE);
+    if (Double.isNaN(goodLow)) {
+      System.err.println("No logged messages were long enough to set the gibberish threshold!");
+      return null;
+    }
+    
+    // Split the difference with known gibberish, if there is any; otherwise, leave a margin below ordinary chat
+    double threshold = goodLow - LOGS_ONLY_MARGIN;
+    if (badSamples != null) {
+      final long[] badHist = new long[HISTOGRAM_BINS];
+      if (!scoreLines(untuned, badSamples, true, badHist)) {
+        return null;
+      }
+      final double badHigh = percentile(badHist, BAD_PERCENTILE);
+      if (Double.isNaN(badHigh)) {
+        System.err.println("No gibberish samples were long enough to score; using the logs alone.");
+      } else if (badHigh >= goodLow) {
+        System.err.println("Gibberish samples overlap ordinary chat; using the logs alone.");
+      } else {
+        threshold = (goodLow + badHigh) / 2.0;
+      }
+    }
+    
+    final double flaggedPercent = 100.0 * fractionBelow(goodHist, threshold);
+    System.out.println("Trained gibberish model on " + trainer.getMessageCount() + " lines from " + logs.length
+        + " logs; threshold " + (float) threshold + ", which " + String.format("%.3f", flaggedPercent)
+        + "% of the logged messages score below.");
+    return trainer.build((float) threshold);
+  }
+  
+  /**
+   * Trains a model from the channel logs and writes it to a file.
+   * 
+   * @param args the model file to write, which defaults to {@link #DEFAULT_MODEL_PATH}, and optionally a file of known
+   *        gibberish.
+   */
+  public static final void main(final String[] args) {
+    
+    final File out = new File((args.length >= 1) ? args[0] : DEFAULT_MODEL_PATH);
+    final File bad = (args.length >= 2) ? new File(args[1]) : null;
+    final GibberishModel model = train(MessageLogger.listLogFiles(), bad);
+    if (model == null) {
+      System.exit(1);
+      return;
+    }
+    
+    try {
+      model.save(out);
+      System.out.println("Wrote gibberish model to " + out.getPath() + ".");
+    } catch (IOException ioe) {
+      System.err.println("Error writing gibberish model!");
+      ioe.printStackTrace();
+      System.exit(1);
+    }
+  }
+  
+  /**
+   * Scores every line of a file into a histogram.
+   * 
+   * @param model the model to score with.
+   * @param file the file.
+   * @param plain true if each line is a message by itself; false if the lines are from a channel log.
+   * @param hist the histogram to add to.
+   * @return true if the file was read; false if not.
+   */
+  private static final boolean scoreLines(final GibberishModel model, final File file, final boolean plain,
+      final long[] hist) {
+    
+    try (BufferedReader in = plain ? new BufferedReader(new FileReader(file)) : MessageLogger.openLogReader(file)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        final float score = model.score(TextNormalizer.normalize(plain ? line : MessageLogger.getLoggedContent(line)));
+        if (!Float.isNaN(score)) {
+          final int bin = (int) ((score - HISTOGRAM_MIN) / -HISTOGRAM_MIN * HISTOGRAM_BINS);
+          hist[Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin))]++;
+        }
+      }
+      return true;
+    } catch (IOException ioe) {
+      System.err.println("Error reading " + file.getName() + "!");
+      ioe.printStackTrace();
+      return false;
+    }
+  }
+  
+  /**
+   * Finds the fraction of a histogram that falls below a score, counting whole bins.
+   * 
+   * @param hist the histogram.
+   * @param score the score.
+   * @return the fraction, from 0 to 1, or 0 if the histogram is empty.
+   */
+  private static final double fractionBelow(final long[] hist, final double score) {
+    
+    long total = 0;
+    long below = 0;
+    for (int i = 0; i < hist.length; i++) {
+      total += hist[i];
+      if (HISTOGRAM_MIN + (i + 1) * (-HISTOGRAM_MIN / HISTOGRAM_BINS) <= score) {
+        below += hist[i];
+      }
+    }
+    return (total == 0) ? 0.0 : (double) below / total;
+  }
+  
+  /**
+   * Finds the score below which a fraction of a histogram falls.
+   * 
+   * @param hist the histogram.
+   * @param fraction the fraction, from 0 to 1.
+   * @return the score at the upper edge of the bin where the fraction is reached, or NaN if the histogram is empty.
+   */
+  private static final double percentile(final long[] hist, final double fraction) {
+    
+    long total = 0;
+    for (final long n : hist) {
+      total += n;
+    }
+    if (total == 0) {
+      return Double.NaN;
+    }
+    
+    final double target = total * fraction;
+    long seen = 0;
+    for (int i = 0; i < hist.length; i++) {
+      seen += hist[i];
+      if (seen >= target) {
+        return HISTOGRAM_MIN + (i + 1) * (-HISTOGRAM_MIN / HISTOGRAM_BINS);
+      }
+    }
+    return 0.0;
+  }
+}
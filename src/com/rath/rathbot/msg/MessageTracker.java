@@ -0,0 +1,234 @@
+
+package com.rath.rathbot.msg;
+
+import com.rath.rathbot.util.SimHash;
+
+/**
+ * This class holds a user's most recent messages in a fixed-size ring buffer. Each message is kept as its timestamp in
+ * milliseconds, a 64-bit fingerprint of its exact content, and a 64-bit SimHash of its content, rather than the content
+ * itself, so a tracker never grows past its capacity however long the messages are, and adding a message doesn't
+ * allocate or shift anything.
+ * 
+ * The tracker also counts how many messages in a row, ending with the newest, share the same fingerprint, so exact
+ * repeats are caught without scanning the history. Near repeats are found by comparing SimHashes.
+ * 
+ * Trackers held by a {@link TrackerTable} are also nodes in its recently-used list; those links are managed by the
+ * table.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class MessageTracker {
+  
+  /** FNV-1a 64-bit offset basis. */
+  private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+  
+  /** FNV-1a 64-bit prime. */
+  private static final long FNV_PRIME = 0x100000001B3L;
+  
+  /** The estimated size of a tracker's object and array headers and its fields, in bytes. */
+  private static final int FIXED_BYTES = 64 + 3 * 16;
+  
+  /** The times messages were sent, in epoch milliseconds. */
+  private final long[] times;
+  
+  /** The messages' content fingerprints, in the same slots as their times. */
+  private final long[] fingerprints;
+  
+  /** The messages' SimHash signatures, in the same slots as their times. */
+  private final long[] simHashes;
+  
+  /** The slot the next message goes in. */
+  private int head = 0;
+  
+  /** The number of messages held, up to the capacity. */
+  private int size = 0;
+  
+  /** The number of messages in a row, ending with the newest, with the newest message's fingerprint. */
+  private int duplicateRun = 0;
+  
+  /** The Discord unique long ID of the user this tracker belongs to. Set by the owning table. */
+  long uid = 0L;
+  
+  /** The last time the owning table handed this tracker out, in epoch milliseconds. */
+  long lastAccess = 0L;
+  
+  /** The more recently used neighbor in the owning table's list. */
+  MessageTracker newer = null;
+  
+  /** The less recently used neighbor in the owning table's list. */
+  MessageTracker older = null;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param capacity the number of messages to keep. Must be positive.
+   */
+  public MessageTracker(final int capacity) {
+    
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive!");
+    }
+    this.times = new long[capacity];
+    this.fingerprints = new long[capacity];
+    this.simHashes = new long[capacity];
+  }
+  
+  /**
+   * Adds a message, replacing the oldest one if the tracker is full.
+   * 
+   * @param timeMillis the time the message was sent, in epoch milliseconds.
+   * @param fingerprint the fingerprint of the message's content, from {@link #fingerprint(CharSequence)}.
+   * @param simHash the SimHash signature of the message's content, from {@link SimHash#of(CharSequence)}.
+   */
+  public final void add(final long timeMillis, final long fingerprint, final long simHash) {
+    
+    if (this.size > 0 && this.fingerprints[slotOf(0)] == fingerprint) {
+      this.duplicateRun++;
+    } else {
+      this.duplicateRun = 1;
+    }
+    
+    this.times[this.head] = timeMillis;
+    this.fingerprints[this.head] = fingerprint;
+    this.simHashes[this.head] = simHash;
+    this.head = (this.head + 1 == this.times.length) ? 0 : this.head + 1;
+    if (this.size < this.times.length) {
+      this.size++;
+    }
+  }
+  
+  /**
+   * Gets the number of messages held.
+   * 
+   * @return an int between 0 and the capacity.
+   */
+  public final int size() {
+    return this.size;
+  }
+  
+  /**
+   * Gets the number of messages the tracker can hold.
+   * 
+   * @return a positive int.
+   */
+  public final int capacity() {
+    return this.times.length;
+  }
+  
+  /**
+   * Gets the time a message was sent.
+   * 
+   * @param age how many messages back to look, with 0 being the newest. Must be less than {@link #size()}.
+   * @return the time in epoch milliseconds.
+   */
+  public final long getTime(final int age) {
+    return this.times[slotOf(age)];
+  }
+  
+  /**
+   * Gets a message's content fingerprint.
+   * 
+   * @param age how many messages back to look, with 0 being the newest. Must be less than {@link #size()}.
+   * @return the fingerprint.
+   */
+  public final long getFingerprint(final int age) {
+    return this.fingerprints[slotOf(age)];
+  }
+  
+  /**
+   * Gets a message's SimHash signature.
+   * 
+   * @param age how many messages back to look, with 0 being the newest. Must be less than {@link #size()}.
+   * @return the signature.
+   */
+  public final long getSimHash(final int age) {
+    return this.simHashes[slotOf(age)];
+  }
+  
+  /**
+   * Counts how many messages in a row, ending with the newest, are near duplicates of the newest: their SimHashes
+   * differ from its SimHash in at most the given number of bits. Each message is compared with the newest rather than
+   * its neighbor, so a run of small edits can't drift into entirely different text.
+   * 
+   * @param maxDistance the most bits that may differ.
+   * @param limit the most messages to look at.
+   * @return 0 if the tracker is empty, otherwise between 1 and the smaller of the limit and the size.
+   */
+  public final int countNearDuplicates(final int maxDistance, final int limit) {
+    
+    final int end = Math.min(limit, this.size);
+    if (end <= 0) {
+      return 0;
+    }
+    
+    final long newest = this.simHashes[slotOf(0)];
+    int count = 1;
+    while (count < end && SimHash.distance(newest, this.simHashes[slotOf(count)]) <= maxDistance) {
+      count++;
+    }
+    return count;
+  }
+  
+  /**
+   * Gets how many messages in a row, ending with the newest, have the same content. The run isn't limited by the
+   * capacity.
+   * 
+   * @return 0 if the tracker is empty, otherwise a positive int.
+   */
+  public final int getDuplicateRun() {
+    return this.duplicateRun;
+  }
+  
+  /**
+   * Forgets every message.
+   */
+  public final void clear() {
+    this.head = 0;
+    this.size = 0;
+    this.duplicateRun = 0;
+  }
+  
+  /**
+   * Computes a 64-bit fingerprint of a message's content (FNV-1a over its UTF-16 code units). Equal content always has
+   * the same fingerprint; different content collides with negligible probability.
+   * 
+   * @param content the message's content.
+   * @return the fingerprint.
+   */
+  public static final long fingerprint(final CharSequence content) {
+    
+    long hash = FNV_OFFSET_BASIS;
+    final int len = content.length();
+    for (int i = 0; i < len; i++) {
+      final char c = content.charAt(i);
+      hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+      hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+    return hash;
+  }
+  
+  /**
+   * Estimates how much heap a tracker uses.
+   * 
+   * @param capacity the number of messages the tracker keeps.
+   * @return the size in bytes.
+   */
+  public static final long estimatedBytes(final int capacity) {
+    return FIXED_BYTES + 24L * capacity;
+  }
+  
+  /**
+   * Gets the slot holding a message.
+   * 
+   * @param age how many messages back to look, with 0 being the newest.
+   * @return the slot index.
+   */
+  private final int slotOf(final int age) {
+    
+    if (age < 0 || age >= this.size) {
+      throw new IndexOutOfBoundsException("Age " + age + " with " + this.size + " messages tracked!");
+    }
+    final int slot = this.head - 1 - age;
+    return (slot < 0) ? slot + this.times.length : slot;
+  }
+}
@@ -0,0 +1,297 @@
+
+package com.rath.rathbot.msg;
+
+import java.util.Arrays;
+
+import com.rath.rathbot.util.HashMixer;
+
+/**
+ * This class watches each guild's messages as a whole for the same or nearly the same content being posted by many
+ * different authors within a short time, which is what a raid looks like even when each account only posts once.
+ * 
+ * The window is split into a ring of time buckets. Each bucket has a count-min sketch of content keys and a Bloom
+ * filter of (author, content key) pairs, so an author is only counted once per content key. A message's content keys
+ * are its exact fingerprint and each pair of its SimHash's four 16-bit bands; two messages whose SimHashes differ in
+ * two bits or fewer always share at least one pair, so near-identical content is counted together. Single bands would
+ * catch more variants, but chat with a small vocabulary collides on 16 bits far too often to count strangers apart.
+ * Memory is fixed when the detector is built, and each message costs a fixed number of array reads and writes.
+ * 
+ * Counts are estimates. Sketch collisions can only raise a count, and Bloom filter collisions can only lower one, so
+ * both should be sized for the busiest expected window: a few counters and a few dozen filter bits per message.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class RaidDetector {
+  
+  /** The number of bands a SimHash is split into. Each pair of bands is a content key. */
+  private static final int BAND_COUNT = 4;
+  
+  /** The number of pairs of bands. */
+  private static final int PAIR_COUNT = BAND_COUNT * (BAND_COUNT - 1) / 2;
+  
+  /** The number of bits in a SimHash band. */
+  private static final int BAND_BITS = 64 / BAND_COUNT;
+  
+  /** The number of bits each Bloom filter entry sets. */
+  private static final int BLOOM_PROBES = 3;
+  
+  /** The number of buckets in the window. */
+  private final int bucketCount;
+  
+  /** The length of each bucket, in milliseconds. */
+  private final long bucketMillis;
+  
+  /** The number of rows in each count-min sketch. */
+  private final int depth;
+  
+  /** The number of counters in each row, minus 1. The width is a power of two. */
+  private final int widthMask;
+  
+  /** The number of bits in each Bloom filter, minus 1. The size is a power of two. */
+  private final int bloomMask;
+  
+  /** Each bucket's count-min sketch, as depth rows of counters laid end to end. */
+  private final int[][] sketches;
+  
+  /** Each bucket's Bloom filter of (author, content key) pairs already counted. */
+  private final long[][] blooms;
+  
+  /** The bucket messages are being counted in. */
+  private int current = 0;
+  
+  /** The time the current bucket started, in epoch milliseconds. */
+  private long currentStart = Long.MIN_VALUE;
+  
+  /** The content keys of the message being observed. Reused between calls. */
+  private final long[] keys = new long[PAIR_COUNT + 1];
+  
+  /**
+   * Default constructor.
+   * 
+   * @param windowMillis how far back to count authors, in milliseconds. Must be at least the bucket count.
+   * @param bucketCount the number of buckets the window is split into. Must be positive.
+   * @param width the number of counters in each sketch row. Rounded up to a power of two.
+   * @param depth the number of rows in each sketch. Must be positive.
+   * @param bloomBits the number of bits in each Bloom filter. Rounded up to a power of two.
+   */
+  public RaidDetector(final long windowMillis, final int bucketCount, final int width, final int depth,
+      final int bloomBits) {
+    
+    if (bucketCount <= 0 || windowMillis < bucketCount || width <= 0 || depth <= 0 || bloomBits <= 0) {
+      throw new IllegalArgumentException("Window, buckets, width, depth, and Bloom filter size must be positive!");
+    }
+    
+    this.bucketCount = bucketCount;
+    this.bucketMillis = windowMillis / bucketCount;
+    this.depth = depth;
+    this.widthMask = powerOfTwoAtLeast(Math.max(width, 2)) - 1;
+    this.bloomMask = powerOfTwoAtLeast(Math.max(bloomBits, 64)) - 1;
+    this.sketches = new int[bucketCount][depth * (this.widthMask + 1)];
+    this.blooms = new long[bucketCount][(this.bloomMask + 1) / 64];
+  }
+  
+  /**
+   * Counts a message and estimates how many different authors have posted the same or nearly the same content within
+   * the window, including this one.
+   * 
+   * @param guildID the ID of the guild the message was sent in. Content is only counted together within a guild.
+   * @param authorID the Discord unique long ID of the message's author.
+   * @param fingerprint the fingerprint of the message's content, from {@link MessageTracker#fingerprint(CharSequence)}.
+   * @param simHash the SimHash signature of the message's content.
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return the estimated number of distinct authors; at least 1.
+   */
+  public final synchronized int observe(final long guildID, final long authorID, final long fingerprint,
+      final long simHash, final long nowMillis) {
+    
+    advance(nowMillis);
+    
+    // Salt every key with the guild so the same content in two guilds is counted apart
+    final long salt = HashMixer.mix(guildID + 0x632BE59BD9B4E019L);
+    this.keys[0] = HashMixer.mix(fingerprint ^ salt);
+    int k = 1;
+    for (int a = 0; a < BAND_COUNT; a++) {
+      for (int b = a + 1; b < BAND_COUNT; b++) {
+        final long bandA = (simHash >>> (a * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        final long bandB = (simHash >>> (b * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        
+        // Tag the key with which bands it came from so different pairs never match each other
+        this.keys[k++] = HashMixer.mix((bandA | (bandB << BAND_BITS) | ((long) (a * BAND_COUNT + b) << 56)) ^ salt);
+      }
+    }
+    
+    int result = 1;
+    for (final long key : this.keys) {
+      
+      // Only count this author once per content key within the window
+      final long pair = HashMixer.mix(key ^ (authorID * 0x9E3779B97F4A7C15L));
+      if (!seen(pair)) {
+        markSeen(pair);
+        increment(key);
+      }
+      result = Math.max(result, estimate(key));
+    }
+    return result;
+  }
+  
+  /**
+   * Forgets everything counted.
+   */
+  public final synchronized void clear() {
+    
+    for (int i = 0; i < this.bucketCount; i++) {
+      Arrays.fill(this.sketches[i], 0);
+      Arrays.fill(this.blooms[i], 0L);
+    }
+    this.currentStart = Long.MIN_VALUE;
+  }
+  
+  /**
+   * Estimates how much heap the detector's sketches and filters use.
+   * 
+   * @return the size in bytes.
+   */
+  public final long estimatedBytes() {
+    return this.bucketCount * ((long) this.sketches[0].length * 4 + (long) this.blooms[0].length * 8);
+  }
+  
+  /**
+   * Moves to the bucket for the current time, clearing every bucket that has aged out of the window.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   */
+  private final void advance(final long nowMillis) {
+    
+    if (this.currentStart == Long.MIN_VALUE) {
+      this.currentStart = nowMillis;
+      return;
+    }
+    
+    // Clock went backwards, or nothing's been seen for a whole window: start over
+    final long elapsed = nowMillis - this.currentStart;
+    if (elapsed < 0 || elapsed >= this.bucketMillis * (this.bucketCount + 1L)) {
+      clear();
+      this.currentStart = nowMillis;
+      return;
+    }
+    
+    while (nowMillis - this.currentStart >= this.bucketMillis) {
+      this.current = (this.current + 1 == this.bucketCount) ? 0 : this.current + 1;
+      Arrays.fill(this.sketches[this.current], 0);
+      Arrays.fill(this.blooms[this.current], 0L);
+      this.currentStart += this.bucketMillis;
+    }
+  }
+  
+  /**
+   * Adds one to a content key's count in the current bucket. Only the counters at the key's current minimum are raised
+   * (conservative update), which keeps collisions from inflating the estimate as much.
+   * 
+   * @param key the content key.
+   */
+  private final void increment(final long key) {
+    
+    final int[] sketch = this.sketches[this.current];
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < this.depth; row++) {
+      min = Math.min(min, sketch[counterIndex(key, row)]);
+    }
+    for (int row = 0; row < this.depth; row++) {
+      final int idx = counterIndex(key, row);
+      if (sketch[idx] == min) {
+        sketch[idx] = min + 1;
+      }
+    }
+  }
+  
+  /**
+   * Estimates a content key's count over the whole window.
+   * 
+   * @param key the content key.
+   * @return the estimated count.
+   */
+  private final int estimate(final long key) {
+    
+    int total = 0;
+    for (int i = 0; i < this.bucketCount; i++) {
+      final int[] sketch = this.sketches[i];
+      int min = Integer.MAX_VALUE;
+      for (int row = 0; row < this.depth; row++) {
+        min = Math.min(min, sketch[counterIndex(key, row)]);
+      }
+      total += min;
+    }
+    return total;
+  }
+  
+  /**
+   * Checks whether an (author, content key) pair has been counted in any bucket in the window.
+   * 
+   * @param pair the pair's hash.
+   * @return true if it probably has; false if it definitely hasn't.
+   */
+  private final boolean seen(final long pair) {
+    
+    for (int i = 0; i < this.bucketCount; i++) {
+      final long[] bloom = this.blooms[i];
+      boolean all = true;
+      for (int p = 0; p < BLOOM_PROBES && all; p++) {
+        final int bit = bloomBit(pair, p);
+        all = (bloom[bit >>> 6] & (1L << bit)) != 0;
+      }
+      if (all) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Records an (author, content key) pair as counted in the current bucket.
+   * 
+   * @param pair the pair's hash.
+   */
+  private final void markSeen(final long pair) {
+    
+    final long[] bloom = this.blooms[this.current];
+    for (int p = 0; p < BLOOM_PROBES; p++) {
+      final int bit = bloomBit(pair, p);
+      bloom[bit >>> 6] |= 1L << bit;
+    }
+  }
+  
+  /**
+   * Gets the index of a key's counter in a sketch row.
+   * 
+   * @param key the content key.
+   * @param row the row.
+   * @return the index into the bucket's sketch array.
+   */
+  private final int counterIndex(final long key, final int row) {
+    
+    // Derive each row's hash from the two halves of the key (double hashing)
+    final int h = (int) key + row * (int) (key >>> 32);
+    return row * (this.widthMask + 1) + (h & this.widthMask);
+  }
+  
+  /**
+   * Gets one of a pair's Bloom filter bits.
+   * 
+   * @param pair the pair's hash.
+   * @param probe which of the pair's bits.
+   * @return the bit index.
+   */
+  private final int bloomBit(final long pair, final int probe) {
+    return ((int) pair + probe * (int) (pair >>> 32)) & this.bloomMask;
+  }
+  
+  /**
+   * Finds the smallest power of two at least as large as a value.
+   * 
+   * @param n the value. Must be positive and at most 2^30.
+   * @return the power of two.
+   */
+  private static final int powerOfTwoAtLeast(final int n) {
+    return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+}
@@ -0,0 +1,283 @@
+
+package com.rath.rathbot.msg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+import com.rath.rathbot.util.LongObjectHashMap;
+
+/**
+ * This class holds the message rate rules AntiSpam enforces. There is a default list of rules, and any guild or
+ * channel can have its own list instead; the most specific list that exists is the one used. A rule set never changes
+ * once built, so AntiSpam can swap in a new one at any time without locking.
+ * 
+ * Rules are read from a text file with one rule per line, in the form "scope count windowMillis". The scope is
+ * "default", "guild:ID", or "channel:ID". A line of "scope off" gives that scope an empty list, which turns rate limits
+ * off there. Blank lines and lines starting with '#' are skipped.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SpamRuleSet {
+  
+  /** The largest message count a rule can have. Every tracked user keeps this many timestamps at most. */
+  public static final int MAX_RULE_COUNT = 256;
+  
+  /** The scope name for the default rules. */
+  private static final String SCOPE_DEFAULT = "default";
+  
+  /** The scope prefix for a guild's rules. */
+  private static final String SCOPE_GUILD = "guild:";
+  
+  /** The scope prefix for a channel's rules. */
+  private static final String SCOPE_CHANNEL = "channel:";
+  
+  /** The rules used where no guild or channel rules apply. */
+  private final SpamThreshold[] defaultRules;
+  
+  /** Rules for specific guilds, by guild ID. */
+  private final LongObjectHashMap<SpamThreshold[]> guildRules;
+  
+  /** Rules for specific channels, by channel ID. */
+  private final LongObjectHashMap<SpamThreshold[]> channelRules;
+  
+  /** The largest message count of any rule. */
+  private final int maxCount;
+  
+  /**
+   * Constructor for a rule set with only default rules.
+   * 
+   * @param defaultRules the rules to use everywhere.
+   */
+  public SpamRuleSet(final SpamThreshold[] defaultRules) {
+    this(defaultRules.clone(), new LongObjectHashMap<SpamThreshold[]>(), new LongObjectHashMap<SpamThreshold[]>());
+  }
+  
+  /**
+   * Internal constructor.
+   * 
+   * @param defaultRules the rules used where no guild or channel rules apply.
+   * @param guildRules rules for specific guilds.
+   * @param channelRules rules for specific channels.
+   */
+  private SpamRuleSet(final SpamThreshold[] defaultRules, final LongObjectHashMap<SpamThreshold[]> guildRules,
+      final LongObjectHashMap<SpamThreshold[]> channelRules) {
+    
+    this.defaultRules = defaultRules;
+    this.guildRules = guildRules;
+    this.channelRules = channelRules;
+    
+    int max = maxCountOf(defaultRules);
+    for (final long id : guildRules.keys()) {
+      max = Math.max(max, maxCountOf(guildRules.get(id)));
+    }
+    for (final long id : channelRules.keys()) {
+      max = Math.max(max, maxCountOf(channelRules.get(id)));
+    }
+    this.maxCount = max;
+  }
+  
+  /**
+   * Gets the rules for a message.
+   * 
+   * @param guildID the ID of the guild the message was sent in, or 0 for a private message.
+   * @param channelID the ID of the channel the message was sent in.
+   * @return the channel's rules if it has any, else the guild's, else the defaults. Must not be modified.
+   */
+  public final SpamThreshold[] rulesFor(final long guildID, final long channelID) {
+    
+    SpamThreshold[] rules = this.channelRules.get(channelID);
+    if (rules == null) {
+      rules = this.guildRules.get(guildID);
+    }
+    return (rules == null) ? this.defaultRules : rules;
+  }
+  
+  /**
+   * Gets the largest message count of any rule, which is how many messages per user must be kept to check every rule.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getMaxCount() {
+    return this.maxCount;
+  }
+  
+  /**
+   * Gets the number of guilds and channels with their own rules.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getOverrideCount() {
+    return this.guildRules.size() + this.channelRules.size();
+  }
+  
+  /**
+   * Checks a user's recent messages against a list of rules.
+   * 
+   * @param rules the rules, from {@link #rulesFor(long, long)}.
+   * @param tracker the user's message history.
+   * @return the first rule broken, or null if none were.
+   */
+  public static final SpamThreshold findTriggered(final SpamThreshold[] rules, final MessageTracker tracker) {
+    
+    for (final SpamThreshold rule : rules) {
+      if (rule.isTriggered(tracker)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Reads a rule set from a file. Scopes the file doesn't mention get no rules of their own; if the file has no default
+   * rules, the given ones are used.
+   * 
+   * @param file the rules file.
+   * @param fallbackDefaults the default rules to use if the file has none.
+   * @return the rule set, or null if the file couldn't be read or has an invalid line.
+   */
+  public static final SpamRuleSet load(final File file, final SpamThreshold[] fallbackDefaults) {
+    
+    final ArrayList<String> lines = new ArrayList<String>();
+    try (Scanner fScan = new Scanner(file)) {
+      while (fScan.hasNextLine()) {
+        lines.add(fScan.nextLine());
+      }
+    } catch (IOException ioe) {
+      System.err.println("Error reading spam rules file!");
+      ioe.printStackTrace();
+      return null;
+    }
+    return parse(lines, fallbackDefaults);
+  }
+  
+  /**
+   * Parses a rule set from the lines of a rules file.
+   * 
+   * @param lines the lines.
+   * @param fallbackDefaults the default rules to use if there are none in the lines.
+   * @return the rule set, or null if a line is invalid.
+   */
+  public static final SpamRuleSet parse(final Iterable<String> lines, final SpamThreshold[] fallbackDefaults) {
+    
+    ArrayList<SpamThreshold> defaults = null;
+    final LongObjectHashMap<ArrayList<SpamThreshold>> guilds = new LongObjectHashMap<ArrayList<SpamThreshold>>();
+    final LongObjectHashMap<ArrayList<SpamThreshold>> channels = new LongObjectHashMap<ArrayList<SpamThreshold>>();
+    
+    int lineNum = 0;
+    for (final String rawLine : lines) {
+      
+      lineNum++;
+      final String line = rawLine.trim();
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      
+      final String[] tokens = line.split("\\s+");
+      if (tokens.length != 2 && tokens.length != 3) {
+        System.err.println("Spam rules line format invalid! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      // Find the list this rule belongs to
+      final String scope = tokens[0];
+      final ArrayList<SpamThreshold> target;
+      try {
+        if (scope.equals(SCOPE_DEFAULT)) {
+          if (defaults == null) {
+            defaults = new ArrayList<SpamThreshold>();
+          }
+          target = defaults;
+        } else if (scope.startsWith(SCOPE_GUILD)) {
+          target = listFor(guilds, Long.parseLong(scope.substring(SCOPE_GUILD.length())));
+        } else if (scope.startsWith(SCOPE_CHANNEL)) {
+          target = listFor(channels, Long.parseLong(scope.substring(SCOPE_CHANNEL.length())));
+        } else {
+          System.err.println("Unknown spam rules scope \"" + scope + "\"! (At line " + lineNum + ").");
+          return null;
+        }
+      } catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+        System.err.println("Invalid ID in spam rules scope \"" + scope + "\"! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      // An "off" line just makes sure the scope has a list, even if it stays empty
+      if (tokens.length == 2) {
+        if (!tokens[1].equals("off")) {
+          System.err.println("Spam rules line format invalid! (At line " + lineNum + ").");
+          return null;
+        }
+        continue;
+      }
+      
+      try {
+        final int count = Integer.parseInt(tokens[1]);
+        final long windowMillis = Long.parseLong(tokens[2]);
+        if (count <= 0 || count > MAX_RULE_COUNT || windowMillis <= 0) {
+          System.err.println("Spam rule counts must be 1-" + MAX_RULE_COUNT + " and windows must be positive! (At line "
+              + lineNum + ").");
+          return null;
+        }
+        target.add(SpamThreshold.ofMillis(count, windowMillis));
+      } catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+        System.err.println("Invalid number in spam rule! (At line " + lineNum + ").");
+        return null;
+      }
+    }
+    
+    final SpamThreshold[] defaultRules = (defaults == null) ? fallbackDefaults.clone()
+        : defaults.toArray(new SpamThreshold[defaults.size()]);
+    return new SpamRuleSet(defaultRules, toArrays(guilds), toArrays(channels));
+  }
+  
+  /**
+   * Gets the rule list for a guild or channel, creating it if needed.
+   * 
+   * @param map the guild or channel lists.
+   * @param id the guild or channel ID.
+   * @return the list.
+   */
+  private static final ArrayList<SpamThreshold> listFor(final LongObjectHashMap<ArrayList<SpamThreshold>> map,
+      final long id) {
+    
+    ArrayList<SpamThreshold> list = map.get(id);
+    if (list == null) {
+      list = new ArrayList<SpamThreshold>();
+      map.put(id, list);
+    }
+    return list;
+  }
+  
+  /**
+   * Converts rule lists to arrays, which are cheaper to walk per message.
+   * 
+   * @param lists the rule lists, by ID.
+   * @return the rule arrays, by ID.
+   */
+  private static final LongObjectHashMap<SpamThreshold[]> toArrays(
+      final LongObjectHashMap<ArrayList<SpamThreshold>> lists) {
+    
+    final LongObjectHashMap<SpamThreshold[]> result = new LongObjectHashMap<SpamThreshold[]>(lists.size());
+    for (final long id : lists.keys()) {
+      final ArrayList<SpamThreshold> list = lists.get(id);
+      result.put(id, list.toArray(new SpamThreshold[list.size()]));
+    }
+    return result;
+  }
+  
+  /**
+   * Finds the largest message count in a list of rules.
+   * 
+   * @param rules the rules.
+   * @return the largest count, or 0 if there are no rules.
+   */
+  private static final int maxCountOf(final SpamThreshold[] rules) {
+    
+    int max = 0;
+    for (final SpamThreshold rule : rules) {
+      max = Math.max(max, rule.getCount());
+    }
+    return max;
+  }
+}
@@ -4,7 +4,8 @@ package com.rath.rathbot.msg;
 import java.util.InputMismatchException;
 
 /**
- * This class acts as a struct for anti-spam triggering metrics.
+ * This class acts as a struct for anti-spam triggering metrics: a rate rule that triggers when a user sends a number
+ * of messages within a window of time.
  * 
  * @author Tim Backus tbackus127@gmail.com
  *
@@ -14,8 +15,8 @@ public class SpamThreshold {
   /** The number of messages to trigger. */
   private final int count;
   
-  /** The amount of time in seconds that must not have passed to trigger. */
-  private final int timeout;
+  /** The amount of time in milliseconds that must not have passed to trigger. */
+  private final long timeoutMillis;
   
   /**
    * Default constructor.
@@ -24,13 +25,35 @@ public class SpamThreshold {
    * @param timeout the amount of time in seconds that must not have passed to trigger. Must be positive.
    */
   public SpamThreshold(final int count, final int timeout) {
+    this(count, timeout * 1000L);
+  }
+  
+  /**
+   * Constructor with a window in milliseconds. Private, so a long window can't be passed where seconds are meant; use
+   * {@link #ofMillis(int, long)}.
+   * 
+   * @param count the number of messages to trigger. Must be positive.
+   * @param timeoutMillis the amount of time in milliseconds that must not have passed to trigger. Must be positive.
+   */
+  private SpamThreshold(final int count, final long timeoutMillis) {
     
-    if (count < 0 || timeout < 0) {
+    if (count <= 0 || timeoutMillis <= 0) {
       throw new InputMismatchException("Count/timeout must be positive!");
     }
     
     this.count = count;
-    this.timeout = timeout;
+    this.timeoutMillis = timeoutMillis;
+  }
+  
+  /**
+   * Creates a threshold with a window in milliseconds.
+   * 
+   * @param count the number of messages to trigger. Must be positive.
+   * @param timeoutMillis the amount of time in milliseconds that must not have passed to trigger. Must be positive.
+   * @return the SpamThreshold.
+   */
+  public static final SpamThreshold ofMillis(final int count, final long timeoutMillis) {
+    return new SpamThreshold(count, timeoutMillis);
   }
   
   /**
@@ -43,11 +66,37 @@ public class SpamThreshold {
   }
   
   /**
-   * Gets the amount of time in seconds that must not have passed to trigger.
+   * Gets the amount of time in seconds that must not have passed to trigger, rounded down.
    * 
-   * @return a positive int.
+   * @return a non-negative int.
    */
   public int getTimeout() {
-    return this.timeout;
+    return (int) (this.timeoutMillis / 1000L);
+  }
+  
+  /**
+   * Gets the amount of time in milliseconds that must not have passed to trigger.
+   * 
+   * @return a positive long.
+   */
+  public long getTimeoutMillis() {
+    return this.timeoutMillis;
+  }
+  
+  /**
+   * Checks whether a user's recent messages break this rule.
+   * 
+   * @param tracker the user's message history.
+   * @return true if the newest {@link #getCount()} messages were all sent within the window; false if not, or if
+   *         there aren't that many messages yet.
+   */
+  public boolean isTriggered(final MessageTracker tracker) {
+    return tracker.size() >= this.count
+        && (tracker.getTime(0) - tracker.getTime(this.count - 1)) < this.timeoutMillis;
+  }
+  
+  @Override
+  public String toString() {
+    return this.count + " msgs/" + this.timeoutMillis + "ms";
   }
 }
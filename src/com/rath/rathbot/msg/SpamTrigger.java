@@ -13,7 +13,13 @@ public enum SpamTrigger {
   MESSAGE_RATE(AntiSpam.REASON_MSG_RATE_ABUSE),
   
   /** If spam protection triggered from repeated messages. */
-  REPEAT_MESSAGES(AntiSpam.REASON_REPEAT_MSG_ABUSE);
+  REPEAT_MESSAGES(AntiSpam.REASON_REPEAT_MSG_ABUSE),
+  
+  /** If the message contained an entry from the word filter. */
+  FILTERED_CONTENT(AntiSpam.REASON_FILTERED_CONTENT),
+  
+  /** If the message was keyboard mashing or other gibberish. */
+  GIBBERISH(AntiSpam.REASON_GIBBERISH);
   
   /** The reason as a String. */
   private final String reason;
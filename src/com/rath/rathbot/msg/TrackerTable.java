@@ -0,0 +1,210 @@
+
+package com.rath.rathbot.msg;
+
+import com.rath.rathbot.util.LongObjectHashMap;
+
+/**
+ * This class holds the message trackers for every user AntiSpam is watching, and bounds how many there are. Trackers
+ * are kept in a list ordered by when they were last used, with the links stored in the trackers themselves, so moving
+ * one to the front or dropping the oldest is a few pointer writes. A user is forgotten once they have been idle for
+ * too long, or when the table is full and they are the least recently active.
+ * 
+ * Every method is synchronized. Forgetting a user only drops their history; their next message starts a new one.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class TrackerTable {
+  
+  /** The estimated cost of a tracker's slot in the lookup table, in bytes. */
+  private static final int TABLE_SLOT_BYTES = 16;
+  
+  /** Every tracker, by user ID. */
+  private final LongObjectHashMap<MessageTracker> trackers = new LongObjectHashMap<MessageTracker>();
+  
+  /** The most recently used tracker. */
+  private MessageTracker newest = null;
+  
+  /** The least recently used tracker. */
+  private MessageTracker oldest = null;
+  
+  /** The most users tracked at once. */
+  private final int maxTracked;
+  
+  /** How long a user can go without a message before they are forgotten, in milliseconds. */
+  private final long idleMillis;
+  
+  /** The number of messages each tracker keeps. */
+  private final int historyLength;
+  
+  /** How many users were forgotten for being idle. */
+  private long idleEvictions = 0L;
+  
+  /** How many users were forgotten because the table was full. */
+  private long capacityEvictions = 0L;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param maxTracked the most users tracked at once. Must be positive.
+   * @param idleMillis how long a user can go without a message before they are forgotten, in milliseconds. Must be
+   *        positive.
+   * @param historyLength the number of messages each tracker keeps. Must be positive.
+   */
+  public TrackerTable(final int maxTracked, final long idleMillis, final int historyLength) {
+    
+    if (maxTracked <= 0 || idleMillis <= 0 || historyLength <= 0) {
+      throw new IllegalArgumentException("Table size, idle time, and history length must be positive!");
+    }
+    this.maxTracked = maxTracked;
+    this.idleMillis = idleMillis;
+    this.historyLength = historyLength;
+  }
+  
+  /**
+   * Gets a user's tracker, creating it if needed, and marks it as just used. If the table is over its limit afterwards,
+   * the least recently used tracker is dropped.
+   * 
+   * @param uid the Discord unique long ID.
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return the user's MessageTracker.
+   */
+  public final synchronized MessageTracker acquire(final long uid, final long nowMillis) {
+    
+    MessageTracker tracker = this.trackers.get(uid);
+    if (tracker == null) {
+      tracker = new MessageTracker(this.historyLength);
+      tracker.uid = uid;
+      this.trackers.put(uid, tracker);
+    } else {
+      unlink(tracker);
+    }
+    tracker.lastAccess = nowMillis;
+    linkNewest(tracker);
+    
+    while (this.trackers.size() > this.maxTracked) {
+      evictOldest();
+      this.capacityEvictions++;
+    }
+    return tracker;
+  }
+  
+  /**
+   * Gets a user's tracker without marking it as used.
+   * 
+   * @param uid the Discord unique long ID.
+   * @return the user's MessageTracker, or null if they aren't tracked.
+   */
+  public final synchronized MessageTracker get(final long uid) {
+    return this.trackers.get(uid);
+  }
+  
+  /**
+   * Forgets every user who hasn't been seen within the idle time. Only the idle end of the list is visited.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return the number of users forgotten.
+   */
+  public final synchronized int sweep(final long nowMillis) {
+    
+    final long cutoff = nowMillis - this.idleMillis;
+    int evicted = 0;
+    while (this.oldest != null && this.oldest.lastAccess <= cutoff) {
+      evictOldest();
+      evicted++;
+    }
+    this.idleEvictions += evicted;
+    return evicted;
+  }
+  
+  /**
+   * Gets the number of users tracked.
+   * 
+   * @return a non-negative int.
+   */
+  public final synchronized int size() {
+    return this.trackers.size();
+  }
+  
+  /**
+   * Estimates how much heap the trackers use, including their slots in the lookup table.
+   * 
+   * @return the size in bytes.
+   */
+  public final synchronized long estimatedBytes() {
+    return this.trackers.size() * (MessageTracker.estimatedBytes(this.historyLength) + TABLE_SLOT_BYTES);
+  }
+  
+  /**
+   * Gets the number of messages each tracker keeps.
+   * 
+   * @return a positive int.
+   */
+  public final int getHistoryLength() {
+    return this.historyLength;
+  }
+  
+  /**
+   * Gets how many users were forgotten for being idle.
+   * 
+   * @return a non-negative long.
+   */
+  public final synchronized long getIdleEvictions() {
+    return this.idleEvictions;
+  }
+  
+  /**
+   * Gets how many users were forgotten because the table was full.
+   * 
+   * @return a non-negative long.
+   */
+  public final synchronized long getCapacityEvictions() {
+    return this.capacityEvictions;
+  }
+  
+  /**
+   * Drops the least recently used tracker.
+   */
+  private final void evictOldest() {
+    final MessageTracker victim = this.oldest;
+    unlink(victim);
+    this.trackers.remove(victim.uid);
+  }
+  
+  /**
+   * Puts a tracker at the most recently used end of the list.
+   * 
+   * @param tracker the tracker, which must not be in the list.
+   */
+  private final void linkNewest(final MessageTracker tracker) {
+    
+    tracker.older = this.newest;
+    tracker.newer = null;
+    if (this.newest != null) {
+      this.newest.newer = tracker;
+    } else {
+      this.oldest = tracker;
+    }
+    this.newest = tracker;
+  }
+  
+  /**
+   * Takes a tracker out of the list.
+   * 
+   * @param tracker the tracker, which must be in the list.
+   */
+  private final void unlink(final MessageTracker tracker) {
+    
+    if (tracker.newer != null) {
+      tracker.newer.older = tracker.older;
+    } else {
+      this.newest = tracker.older;
+    }
+    if (tracker.older != null) {
+      tracker.older.newer = tracker.newer;
+    } else {
+      this.oldest = tracker.newer;
+    }
+    tracker.newer = null;
+    tracker.older = null;
+  }
+}
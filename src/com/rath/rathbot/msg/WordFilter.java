@@ -0,0 +1,247 @@
+
+package com.rath.rathbot.msg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.rath.rathbot.RBConfig;
+import com.rath.rathbot.RathBot;
+import com.rath.rathbot.util.AhoCorasick;
+import com.rath.rathbot.util.TextNormalizer;
+
+/**
+ * This class filters message content against a list of banned words, phrases, and link or invite patterns. The list is
+ * compiled into one {@link AhoCorasick} automaton, so each message is checked in a single pass however long the list
+ * gets.
+ * 
+ * The list is read from a text file with one entry per line, in the form "word text" or "match text". A "word" entry
+ * only matches a whole word or phrase, so "ass" won't flag "class"; a "match" entry matches anywhere, for fragments
+ * such as "discord.gg/". Matching ignores case. Blank lines and lines starting with '#' are skipped.
+ * 
+ * The file is checked for changes in the background, and the automaton is rebuilt there and swapped in whole, so the
+ * message handlers never wait on a rebuild.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class WordFilter {
+  
+  /** The word list read unless the config file sets "wordFilterFile". */
+  private static final String DEFAULT_LIST_PATH = RathBot.DIR_DATA + "wordfilter.txt";
+  
+  /** How often to check the word list for changes, in seconds. */
+  private static final int CHECK_INTERVAL_SECS = 30;
+  
+  /** The entry type for whole-word matches. */
+  private static final String TYPE_WORD = "word";
+  
+  /** The entry type for matches anywhere. */
+  private static final String TYPE_MATCH = "match";
+  
+  /** The automaton in force, or null if there's no word list. Replaced as a whole when the list is rebuilt. */
+  private static volatile AhoCorasick automaton = null;
+  
+  /** When the word list in force was last modified. Only used on the rebuild thread. */
+  private static long loadedModified = Long.MIN_VALUE;
+  
+  /** Checks for changes and rebuilds the automaton. Null until started. */
+  private static ScheduledExecutorService rebuilder = null;
+  
+  /**
+   * Starts checking the word list for changes. The first check runs right away. Does nothing if it's already running.
+   */
+  public static final synchronized void start() {
+    
+    if (rebuilder != null) {
+      return;
+    }
+    
+    rebuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "rb-wordfilter");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    rebuilder.scheduleWithFixedDelay(new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          rebuild(false);
+        } catch (RuntimeException re) {
+          System.err.println("Error rebuilding word filter!");
+          re.printStackTrace();
+        }
+      }
+    }, 0, CHECK_INTERVAL_SECS, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Stops checking the word list for changes. The automaton in force stays in force.
+   */
+  public static final synchronized void shutdown() {
+    
+    if (rebuilder != null) {
+      rebuilder.shutdownNow();
+      rebuilder = null;
+    }
+  }
+  
+  /**
+   * Rebuilds the automaton from the word list in the background, whether or not the list has changed. If the
+   * background thread isn't running, it's rebuilt on the calling thread instead.
+   */
+  public static final synchronized void reload() {
+    
+    if (rebuilder == null) {
+      rebuild(true);
+      return;
+    }
+    
+    rebuilder.execute(new Runnable() {
+      
+      @Override
+      public void run() {
+        try {
+          rebuild(true);
+        } catch (RuntimeException re) {
+          System.err.println("Error rebuilding word filter!");
+          re.printStackTrace();
+        }
+      }
+    });
+  }
+  
+  /**
+   * Finds the first banned entry in a message's content. The content should be normalized by {@link TextNormalizer}
+   * first, so lookalike letters and hidden characters don't slip past the list.
+   * 
+   * @param content the normalized message content.
+   * @return the entry's text, or null if the content is clean.
+   */
+  public static final String findMatch(final String content) {
+    
+    final AhoCorasick ac = automaton;
+    if (ac == null) {
+      return null;
+    }
+    final int idx = ac.find(content);
+    return (idx < 0) ? null : ac.getPattern(idx);
+  }
+  
+  /**
+   * Builds a one-line summary of the word filter for the console.
+   * 
+   * @return a String.
+   */
+  public static final String getStats() {
+    
+    final AhoCorasick ac = automaton;
+    if (ac == null) {
+      return "Word filter: no word list loaded.";
+    }
+    return "Word filter: " + ac.getPatternCount() + " entries, " + ac.getStateCount() + " states, est. "
+        + (ac.estimatedBytes() / 1024) + " KiB.";
+  }
+  
+  /**
+   * Parses a word list and compiles it.
+   * 
+   * @param lines the lines of the word list.
+   * @return the automaton, or null if a line is invalid.
+   */
+  public static final AhoCorasick parse(final Iterable<String> lines) {
+    
+    final ArrayList<String> patterns = new ArrayList<String>();
+    final ArrayList<Boolean> wholeWords = new ArrayList<Boolean>();
+    int lineNum = 0;
+    for (final String rawLine : lines) {
+      
+      lineNum++;
+      final String line = rawLine.trim();
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      
+      final int split = line.indexOf(' ');
+      if (split < 0) {
+        System.err.println("Word filter line format invalid! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      final String type = line.substring(0, split);
+      final String text = line.substring(split + 1).trim();
+      if (text.isEmpty() || !(type.equals(TYPE_WORD) || type.equals(TYPE_MATCH))) {
+        System.err.println("Word filter line format invalid! (At line " + lineNum + ").");
+        return null;
+      }
+      
+      // Messages are matched in their normalized form, so the entries have to be too
+      final String normalized = TextNormalizer.normalize(text);
+      if (normalized.isEmpty()) {
+        System.err.println("Word filter entry is empty once normalized! (At line " + lineNum + ").");
+        return null;
+      }
+      patterns.add(normalized);
+      wholeWords.add(Boolean.valueOf(type.equals(TYPE_WORD)));
+    }
+    
+    final boolean[] flags = new boolean[wholeWords.size()];
+    for (int i = 0; i < flags.length; i++) {
+      flags[i] = wholeWords.get(i).booleanValue();
+    }
+    return new AhoCorasick(patterns.toArray(new String[patterns.size()]), flags);
+  }
+  
+  /**
+   * Reads and compiles the word list if it has changed, and puts it in force. An invalid list leaves the old one in
+   * force; a deleted list turns the filter off.
+   * 
+   * @param force true to rebuild even if the list hasn't changed.
+   */
+  private static final synchronized void rebuild(final boolean force) {
+    
+    final File listFile = new File(RBConfig.getOptionalValue("wordFilterFile", DEFAULT_LIST_PATH));
+    if (!listFile.exists()) {
+      if (automaton != null) {
+        System.out.println("Word list removed; word filter is off.");
+      }
+      automaton = null;
+      loadedModified = Long.MIN_VALUE;
+      return;
+    }
+    
+    final long modified = listFile.lastModified();
+    if (!force && modified == loadedModified) {
+      return;
+    }
+    loadedModified = modified;
+    
+    final ArrayList<String> lines = new ArrayList<String>();
+    try (Scanner fScan = new Scanner(listFile)) {
+      while (fScan.hasNextLine()) {
+        lines.add(fScan.nextLine());
+      }
+    } catch (IOException ioe) {
+      System.err.println("Error reading word list!");
+      ioe.printStackTrace();
+      return;
+    }
+    
+    final AhoCorasick ac = parse(lines);
+    if (ac == null) {
+      System.err.println("Word list is invalid; keeping the current filter.");
+      return;
+    }
+    automaton = ac;
+    System.out.println("Loaded word filter: " + ac.getPatternCount() + " entries, " + ac.getStateCount() + " states.");
+  }
+}
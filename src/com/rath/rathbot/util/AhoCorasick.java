@@ -0,0 +1,218 @@
+
+package com.rath.rathbot.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * This class finds any of a set of patterns in text in a single pass, however many patterns there are. The patterns
+ * are compiled into an Aho-Corasick automaton stored as a flat transition table, so scanning a message costs one table
+ * lookup per character and never backtracks.
+ * 
+ * Matching ignores case and treats every kind of whitespace as a plain space. A pattern can be marked whole-word, in
+ * which case it only matches when it isn't part of a longer word; otherwise it matches anywhere, which is what URL and
+ * invite fragments need. An automaton never changes once built, so it can be shared between threads freely.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class AhoCorasick {
+  
+  /** The start state. */
+  private static final int ROOT = 0;
+  
+  /** The patterns, as given. */
+  private final String[] patterns;
+  
+  /** Whether each pattern must match a whole word. */
+  private final boolean[] wholeWord;
+  
+  /** Maps each folded character to its column in the transition table. Characters in no pattern map to column 0. */
+  private final char[] charClass;
+  
+  /** The number of columns in the transition table. */
+  private final int classCount;
+  
+  /** The transition table: the state after reading a character class from a state is at state * classCount + class. */
+  private final int[] next;
+  
+  /** The pattern that ends at each state, or -1 if none does. */
+  private final int[] output;
+  
+  /** The nearest state down each state's failure chain that has an output, or -1 if there's none. */
+  private final int[] outputLink;
+  
+  /**
+   * Compiles an automaton.
+   * 
+   * @param patterns the patterns to find. Empty patterns are ignored.
+   * @param wholeWord whether each pattern must match a whole word. Must be the same length as the patterns.
+   */
+  public AhoCorasick(final String[] patterns, final boolean[] wholeWord) {
+    
+    if (patterns.length != wholeWord.length) {
+      throw new IllegalArgumentException("Every pattern needs a whole-word flag!");
+    }
+    this.patterns = patterns.clone();
+    this.wholeWord = wholeWord.clone();
+    
+    // Give each character that appears in a pattern its own column
+    this.charClass = new char[Character.MAX_VALUE + 1];
+    int classes = 1;
+    int maxStates = 1;
+    for (final String p : patterns) {
+      for (int i = 0; i < p.length(); i++) {
+        final char c = fold(p.charAt(i));
+        if (this.charClass[c] == 0) {
+          this.charClass[c] = (char) classes++;
+        }
+      }
+      maxStates += p.length();
+    }
+    this.classCount = classes;
+    
+    // Build the trie, with 0 standing for "no edge" since nothing points back to the root
+    int[] table = new int[maxStates * classes];
+    final int[] out = new int[maxStates];
+    Arrays.fill(out, -1);
+    int stateCount = 1;
+    for (int pi = 0; pi < patterns.length; pi++) {
+      
+      final String p = patterns[pi];
+      if (p.isEmpty()) {
+        continue;
+      }
+      
+      int state = ROOT;
+      for (int i = 0; i < p.length(); i++) {
+        final int idx = state * classes + this.charClass[fold(p.charAt(i))];
+        if (table[idx] == 0) {
+          table[idx] = stateCount++;
+        }
+        state = table[idx];
+      }
+      if (out[state] < 0) {
+        out[state] = pi;
+      }
+    }
+    
+    // Fill in the missing edges breadth-first, so every state's failure state is finished before it's needed
+    table = Arrays.copyOf(table, stateCount * classes);
+    final int[] fail = new int[stateCount];
+    final int[] link = new int[stateCount];
+    Arrays.fill(link, -1);
+    final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+    for (int c = 0; c < classes; c++) {
+      final int child = table[c];
+      if (child != 0) {
+        fail[child] = ROOT;
+        queue.addLast(Integer.valueOf(child));
+      }
+    }
+    while (!queue.isEmpty()) {
+      
+      final int state = queue.pollFirst().intValue();
+      final int failState = fail[state];
+      link[state] = (out[failState] >= 0) ? failState : link[failState];
+      
+      for (int c = 0; c < classes; c++) {
+        final int idx = state * classes + c;
+        final int child = table[idx];
+        if (child != 0) {
+          fail[child] = table[failState * classes + c];
+          queue.addLast(Integer.valueOf(child));
+        } else {
+          table[idx] = table[failState * classes + c];
+        }
+      }
+    }
+    
+    this.next = table;
+    this.output = Arrays.copyOf(out, stateCount);
+    this.outputLink = link;
+  }
+  
+  /**
+   * Finds the first pattern in a text, by where it ends.
+   * 
+   * @param text the text to scan.
+   * @return the index of the pattern found, or -1 if there was none.
+   */
+  public final int find(final CharSequence text) {
+    
+    final int len = text.length();
+    int state = ROOT;
+    for (int i = 0; i < len; i++) {
+      
+      state = this.next[state * this.classCount + this.charClass[fold(text.charAt(i))]];
+      
+      // Check every pattern ending here, longest first
+      for (int s = (this.output[state] >= 0) ? state : this.outputLink[state]; s >= 0; s = this.outputLink[s]) {
+        final int pi = this.output[s];
+        if (!this.wholeWord[pi] || isWholeWord(text, i - this.patterns[pi].length() + 1, i + 1)) {
+          return pi;
+        }
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * Gets a pattern.
+   * 
+   * @param index the pattern's index, from {@link #find(CharSequence)}.
+   * @return the pattern as it was given.
+   */
+  public final String getPattern(final int index) {
+    return this.patterns[index];
+  }
+  
+  /**
+   * Gets the number of patterns.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getPatternCount() {
+    return this.patterns.length;
+  }
+  
+  /**
+   * Gets the number of states in the automaton.
+   * 
+   * @return a positive int.
+   */
+  public final int getStateCount() {
+    return this.output.length;
+  }
+  
+  /**
+   * Estimates how much heap the automaton's tables use.
+   * 
+   * @return the size in bytes.
+   */
+  public final long estimatedBytes() {
+    return (long) this.next.length * 4 + (long) this.output.length * 8 + (long) this.charClass.length * 2;
+  }
+  
+  /**
+   * Checks that a span of text isn't part of a longer word.
+   * 
+   * @param text the text.
+   * @param start the index of the span's first character.
+   * @param end the index after the span's last character.
+   * @return true if the characters on either side, if any, aren't letters or digits.
+   */
+  private static final boolean isWholeWord(final CharSequence text, final int start, final int end) {
+    return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+        && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+  }
+  
+  /**
+   * Folds a character for matching: lowercased, with any whitespace as a space.
+   * 
+   * @param c the character.
+   * @return the folded character.
+   */
+  private static final char fold(final char c) {
+    return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+  }
+}
@@ -0,0 +1,192 @@
+
+package com.rath.rathbot.util;
+
+/**
+ * This class splits command lines into tokens without using regular expressions. It produces exactly the same tokens
+ * as the split pattern the bot used before:
+ * 
+ * <pre>
+ * "\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?"
+ * </pre>
+ * 
+ * That is, input is split at spaces that are followed by an even number of quotes, and a quote directly on either
+ * side of a splitting space is dropped. The pattern's lookahead rescans the rest of the input at every space, which is
+ * quadratic on long messages; this class finds the same split points in linear time by counting the quotes once up
+ * front.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class CommandTokenizer {
+  
+  /** An empty token array, returned for input that has no tokens. */
+  private static final String[] NO_TOKENS = new String[0];
+  
+  /**
+   * Splits a command line into tokens.
+   * 
+   * @param input the command line.
+   * @return the tokens as a String array.
+   */
+  public static final String[] tokenize(final String input) {
+    
+    // Size the bounds array from a dry run first, then fill it
+    final int count = tokenBounds(input, null);
+    if (count == 0) {
+      return NO_TOKENS;
+    }
+    final int[] bounds = new int[count * 2];
+    tokenBounds(input, bounds);
+    
+    final String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = input.substring(bounds[i * 2], bounds[i * 2 + 1]);
+    }
+    return result;
+  }
+  
+  /**
+   * Finds where each token starts and ends without creating any substrings. Token i spans from bounds[2i] (inclusive)
+   * to bounds[2i + 1] (exclusive). If the array is null or too small, the bounds that don't fit are skipped, but the
+   * full token count is still returned so the caller can size the array and try again.
+   * 
+   * @param input the command line.
+   * @param bounds the array to fill with token bounds. May be null.
+   * @return the number of tokens in the input.
+   */
+  public static final int tokenBounds(final CharSequence input, final int[] bounds) {
+    
+    final int len = input.length();
+    
+    // Count all of the quotes once so the parity of the quotes after any position is known without rescanning
+    int quotesAfter = 0;
+    for (int i = 0; i < len; i++) {
+      if (input.charAt(i) == '"') {
+        quotesAfter++;
+      }
+    }
+    
+    int count = 0;
+    int tokenStart = 0;
+    
+    // The end of the last non-empty token. Trailing empty tokens are dropped, as String.split() does.
+    int lastNonEmpty = 0;
+    int pos = 0;
+    while (pos <= len) {
+      
+      // Find the next split point at or after pos. quotesAfter is the number of quotes at or after pos.
+      final int matchStart;
+      final int matchEnd;
+      final char c = (pos < len) ? input.charAt(pos) : '\0';
+      if (pos < len && c == '"') {
+        
+        // A quote may be swallowed if a split point directly follows it
+        final int next = pos + 1;
+        if (next < len && input.charAt(next) == ' ' && ((quotesAfter - 1) & 1) == 0) {
+          matchStart = pos;
+          matchEnd = swallowQuote(input, next + 1);
+        } else if (isLineEnd(input, next)) {
+          matchStart = pos;
+          matchEnd = next;
+        } else {
+          quotesAfter--;
+          pos++;
+          continue;
+        }
+        
+      } else if (pos < len && c == ' ' && (quotesAfter & 1) == 0) {
+        matchStart = pos;
+        matchEnd = swallowQuote(input, pos + 1);
+      } else if (isLineEnd(input, pos)) {
+        matchStart = pos;
+        matchEnd = pos;
+      } else {
+        pos++;
+        continue;
+      }
+      
+      // An empty split point at the very start doesn't produce a leading empty token
+      if (!(matchEnd == 0 && tokenStart == 0)) {
+        count = addToken(bounds, count, tokenStart, matchStart);
+        if (matchStart > tokenStart) {
+          lastNonEmpty = count;
+        }
+        tokenStart = matchEnd;
+      }
+      
+      // Skip past the split point, keeping the quote count in step
+      for (int i = pos; i < matchEnd; i++) {
+        if (input.charAt(i) == '"') {
+          quotesAfter--;
+        }
+      }
+      pos = (matchEnd == matchStart) ? matchEnd + 1 : matchEnd;
+    }
+    
+    // No split points means the whole input is the only token
+    if (tokenStart == 0 && count == 0) {
+      return addToken(bounds, 0, 0, len);
+    }
+    
+    // Add whatever follows the last split point, then drop trailing empty tokens
+    count = addToken(bounds, count, tokenStart, len);
+    if (len > tokenStart) {
+      lastNonEmpty = count;
+    }
+    return lastNonEmpty;
+  }
+  
+  /**
+   * Records a token's bounds if there's room for them.
+   * 
+   * @param bounds the bounds array. May be null.
+   * @param count the number of tokens found so far.
+   * @param start the token's start index.
+   * @param end the token's end index.
+   * @return the new token count.
+   */
+  private static final int addToken(final int[] bounds, final int count, final int start, final int end) {
+    
+    if (bounds != null && count * 2 + 1 < bounds.length) {
+      bounds[count * 2] = start;
+      bounds[count * 2 + 1] = end;
+    }
+    return count + 1;
+  }
+  
+  /**
+   * Skips a quote directly after a split point, if there is one.
+   * 
+   * @param input the command line.
+   * @param pos the index after the split point's space.
+   * @return the end of the split point.
+   */
+  private static final int swallowQuote(final CharSequence input, final int pos) {
+    return (pos < input.length() && input.charAt(pos) == '"') ? pos + 1 : pos;
+  }
+  
+  /**
+   * Checks whether the given index is where a regex '$' would match: the end of the input, or just before a single
+   * line terminator that ends the input.
+   * 
+   * @param input the command line.
+   * @param pos the index to check.
+   * @return true if '$' matches at the index; false if not.
+   */
+  private static final boolean isLineEnd(final CharSequence input, final int pos) {
+    
+    final int len = input.length();
+    if (pos == len) {
+      return true;
+    }
+    
+    if (pos == len - 1) {
+      final char c = input.charAt(pos);
+      if (c == '\n') {
+        return pos == 0 || input.charAt(pos - 1) != '\r';
+      }
+      return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+    
+    return pos == len - 2 && input.charAt(pos) == '\r' && input.charAt(pos + 1) == '\n';
+  }
+}
@@ -0,0 +1,28 @@
+package com.rath.rathbot.util;
+
+/**
+ * This class holds the bit mixing shared by the hashing code, so every fingerprint and sketch built from the same
+ * value agrees on its hash.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class HashMixer {
+  
+  /**
+   * Spreads a value's bits over a 64-bit hash (the MurmurHash3 finalizer). Every input bit affects every output bit,
+   * and distinct inputs give distinct outputs.
+   * 
+   * @param x the value.
+   * @return the hash.
+   */
+  public static final long mix(final long x) {
+    
+    long h = x;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB93FE1A85B5BL;
+    h ^= h >>> 33;
+    return h;
+  }
+}
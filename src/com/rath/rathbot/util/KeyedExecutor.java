@@ -0,0 +1,147 @@
+package com.rath.rathbot.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs tasks on a fixed number of single-threaded lanes, each with its own bounded queue. Every task
+ * submitted under the same key lands on the same lane, so tasks for one key run one at a time and in the order they
+ * were submitted, while tasks for different keys run in parallel.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class KeyedExecutor {
+  
+  /** The lanes tasks are run on. Each lane has exactly one worker thread. */
+  private final ThreadPoolExecutor[] lanes;
+  
+  /** How many tasks were turned away because their lane's queue was full. */
+  private final AtomicLong rejectedCount = new AtomicLong();
+  
+  /**
+   * Default constructor.
+   * 
+   * @param name the prefix for the worker threads' names.
+   * @param laneCount the number of lanes (and worker threads). Must be positive.
+   * @param queueCapacity the maximum number of tasks each lane can hold before it rejects new ones. Must be positive.
+   */
+  public KeyedExecutor(final String name, final int laneCount, final int queueCapacity) {
+    
+    if (laneCount <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException("Lane count and queue capacity must be positive!");
+    }
+    
+    this.lanes = new ThreadPoolExecutor[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(queueCapacity), new LaneThreadFactory(name + "-" + i));
+    }
+  }
+  
+  /**
+   * Queues a task on the lane that owns the given key. This never blocks.
+   * 
+   * @param key the ordering key. Tasks with equal keys run in submission order.
+   * @param task the task to run.
+   * @return true if the task was queued; false if the lane is full or the executor has been shut down.
+   */
+  public final boolean execute(final long key, final Runnable task) {
+    
+    try {
+      this.lanes[laneFor(key)].execute(task);
+      return true;
+    } catch (@SuppressWarnings("unused") RejectedExecutionException ree) {
+      this.rejectedCount.incrementAndGet();
+      return false;
+    }
+  }
+  
+  /**
+   * Gets the number of tasks waiting across all lanes.
+   * 
+   * @return a non-negative int.
+   */
+  public final int getQueuedCount() {
+    
+    int result = 0;
+    for (final ThreadPoolExecutor lane : this.lanes) {
+      result += lane.getQueue().size();
+    }
+    return result;
+  }
+  
+  /**
+   * Gets how many tasks were rejected because their lane was full.
+   * 
+   * @return a non-negative long.
+   */
+  public final long getRejectedCount() {
+    return this.rejectedCount.get();
+  }
+  
+  /**
+   * Stops accepting new tasks and waits for the queued ones to finish.
+   * 
+   * @param timeoutMillis the longest time to wait for each lane to drain, in milliseconds.
+   * @return true if every lane drained in time; false if not.
+   */
+  public final boolean shutdown(final long timeoutMillis) {
+    
+    for (final ThreadPoolExecutor lane : this.lanes) {
+      lane.shutdown();
+    }
+    
+    boolean drained = true;
+    for (final ThreadPoolExecutor lane : this.lanes) {
+      try {
+        drained &= lane.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (@SuppressWarnings("unused") InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return drained;
+  }
+  
+  /**
+   * Maps a key to a lane index. The bits are mixed first since Discord IDs are snowflakes whose low bits are not evenly
+   * spread.
+   * 
+   * @param key the ordering key.
+   * @return the lane index.
+   */
+  private final int laneFor(final long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    h ^= (h >>> 32);
+    return (int) ((h & 0x7FFFFFFFL) % this.lanes.length);
+  }
+  
+  /**
+   * Creates the named daemon thread for a lane.
+   */
+  private static final class LaneThreadFactory implements ThreadFactory {
+    
+    /** The name given to the lane's thread. */
+    private final String threadName;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param threadName the name given to the lane's thread.
+     */
+    LaneThreadFactory(final String threadName) {
+      this.threadName = threadName;
+    }
+    
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread t = new Thread(r, this.threadName);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
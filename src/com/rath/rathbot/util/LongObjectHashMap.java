@@ -0,0 +1,320 @@
+
+package com.rath.rathbot.util;
+
+import java.util.Arrays;
+
+/**
+ * This class maps primitive longs to objects. It uses the same open-addressed layout as {@link LongByteHashMap}, so an
+ * entry costs a long and a reference per slot instead of a tree node plus a boxed key. Null values aren't allowed.
+ * 
+ * Key 0 can't mark an empty slot and also be a key, so it is stored on the side. This class is not thread-safe.
+ * 
+ * @param <V> the value type.
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class LongObjectHashMap<V> {
+  
+  /** The capacity of a new map, in slots. Must be a power of two. */
+  private static final int DEFAULT_CAPACITY = 16;
+  
+  /** The table grows once it's more than this full. */
+  private static final float LOAD_FACTOR = 0.75f;
+  
+  /** The keys, with 0 marking an empty slot. */
+  private long[] keys;
+  
+  /** The values, in the same slots as their keys. */
+  private Object[] values;
+  
+  /** The shift that turns a mixed 64-bit hash into a slot index. */
+  private int shift;
+  
+  /** The number of entries with a non-zero key. */
+  private int size = 0;
+  
+  /** Whether key 0 is in the map. */
+  private boolean hasZeroKey = false;
+  
+  /** The value for key 0. */
+  private V zeroValue = null;
+  
+  /**
+   * Default constructor.
+   */
+  public LongObjectHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * Constructor with an expected size.
+   * 
+   * @param expectedSize how many entries the map should hold before it has to grow.
+   */
+  public LongObjectHashMap(final int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+  
+  /**
+   * Gets the value for a key.
+   * 
+   * @param key the key.
+   * @return the key's value, or null if the key isn't in the map.
+   */
+  @SuppressWarnings("unchecked")
+  public final V get(final long key) {
+    
+    if (key == 0L) {
+      return this.zeroValue;
+    }
+    
+    final int mask = this.keys.length - 1;
+    int slot = slotFor(key);
+    long k;
+    while ((k = this.keys[slot]) != 0L) {
+      if (k == key) {
+        return (V) this.values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+  
+  /**
+   * Checks whether a key is in the map.
+   * 
+   * @param key the key.
+   * @return true if it is; false if not.
+   */
+  public final boolean containsKey(final long key) {
+    
+    if (key == 0L) {
+      return this.hasZeroKey;
+    }
+    return findSlot(key) >= 0;
+  }
+  
+  /**
+   * Sets the value for a key.
+   * 
+   * @param key the key.
+   * @param value the value. Must not be null.
+   * @return the key's previous value, or null if it wasn't in the map.
+   */
+  @SuppressWarnings("unchecked")
+  public final V put(final long key, final V value) {
+    
+    if (value == null) {
+      throw new NullPointerException("Null values aren't allowed!");
+    }
+    
+    if (key == 0L) {
+      final V old = this.zeroValue;
+      this.hasZeroKey = true;
+      this.zeroValue = value;
+      return old;
+    }
+    
+    final int mask = this.keys.length - 1;
+    int slot = slotFor(key);
+    long k;
+    while ((k = this.keys[slot]) != 0L) {
+      if (k == key) {
+        final V old = (V) this.values[slot];
+        this.values[slot] = value;
+        return old;
+      }
+      slot = (slot + 1) & mask;
+    }
+    
+    this.keys[slot] = key;
+    this.values[slot] = value;
+    if (++this.size > this.keys.length * LOAD_FACTOR) {
+      rehash(this.keys.length << 1);
+    }
+    return null;
+  }
+  
+  /**
+   * Removes a key from the map.
+   * 
+   * @param key the key.
+   * @return the key's value, or null if it wasn't in the map.
+   */
+  @SuppressWarnings("unchecked")
+  public final V remove(final long key) {
+    
+    if (key == 0L) {
+      final V old = this.zeroValue;
+      this.hasZeroKey = false;
+      this.zeroValue = null;
+      return old;
+    }
+    
+    final int slot = findSlot(key);
+    if (slot < 0) {
+      return null;
+    }
+    final V old = (V) this.values[slot];
+    deleteSlot(slot);
+    this.size--;
+    return old;
+  }
+  
+  /**
+   * Gets the number of entries in the map.
+   * 
+   * @return a non-negative int.
+   */
+  public final int size() {
+    return this.hasZeroKey ? this.size + 1 : this.size;
+  }
+  
+  /**
+   * Checks whether the map is empty.
+   * 
+   * @return true if it has no entries; false if it has some.
+   */
+  public final boolean isEmpty() {
+    return size() == 0;
+  }
+  
+  /**
+   * Removes every entry. The table keeps its current capacity.
+   */
+  public final void clear() {
+    Arrays.fill(this.keys, 0L);
+    Arrays.fill(this.values, null);
+    this.size = 0;
+    this.hasZeroKey = false;
+    this.zeroValue = null;
+  }
+  
+  /**
+   * Gets every key in the map, in ascending order.
+   * 
+   * @return a new array of the keys.
+   */
+  public final long[] keys() {
+    
+    final long[] result = new long[size()];
+    int i = 0;
+    if (this.hasZeroKey) {
+      result[i++] = 0L;
+    }
+    for (final long k : this.keys) {
+      if (k != 0L) {
+        result[i++] = k;
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+  
+  /**
+   * Finds the slot that holds a non-zero key.
+   * 
+   * @param key the key.
+   * @return the slot index, or -1 if the key isn't in the map.
+   */
+  private final int findSlot(final long key) {
+    
+    final int mask = this.keys.length - 1;
+    int slot = slotFor(key);
+    long k;
+    while ((k = this.keys[slot]) != 0L) {
+      if (k == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+  
+  /**
+   * Empties a slot, then shifts later entries in the same probe run back so none of them become unreachable.
+   * 
+   * @param slot the slot to empty.
+   */
+  private final void deleteSlot(final int slot) {
+    
+    final int mask = this.keys.length - 1;
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    long k;
+    while ((k = this.keys[next]) != 0L) {
+      
+      // An entry can fill the gap if its home slot isn't between the gap and where it sits now
+      final int home = slotFor(k);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        this.keys[gap] = k;
+        this.values[gap] = this.values[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    this.keys[gap] = 0L;
+    this.values[gap] = null;
+  }
+  
+  /**
+   * Maps a key to its home slot. Discord IDs are snowflakes whose low bits aren't evenly spread, so the whole key is
+   * mixed and the top bits are used.
+   * 
+   * @param key the key.
+   * @return the slot index.
+   */
+  private final int slotFor(final long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> this.shift);
+  }
+  
+  /**
+   * Moves every entry into a new table.
+   * 
+   * @param newCapacity the new capacity. Must be a power of two.
+   */
+  private final void rehash(final int newCapacity) {
+    
+    final long[] oldKeys = this.keys;
+    final Object[] oldValues = this.values;
+    allocate(newCapacity);
+    
+    final int mask = newCapacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      final long k = oldKeys[i];
+      if (k != 0L) {
+        int slot = slotFor(k);
+        while (this.keys[slot] != 0L) {
+          slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = k;
+        this.values[slot] = oldValues[i];
+      }
+    }
+  }
+  
+  /**
+   * Creates empty arrays for the table.
+   * 
+   * @param capacity the capacity. Must be a power of two.
+   */
+  private final void allocate(final int capacity) {
+    this.keys = new long[capacity];
+    this.values = new Object[capacity];
+    this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+  }
+  
+  /**
+   * Finds the smallest power-of-two capacity that holds the given number of entries without growing.
+   * 
+   * @param expectedSize the number of entries.
+   * @return the capacity.
+   */
+  private static final int capacityFor(final int expectedSize) {
+    
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity * LOAD_FACTOR < expectedSize && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+}
@@ -4,6 +4,8 @@ package com.rath.rathbot.util;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.rath.rathbot.RathBot;
 import com.rath.rathbot.cmd.RBCommand;
@@ -33,6 +35,20 @@ public class MessageHelper {
   public static final String ERROR_CONTACT_MSG = "If you believe this was an error, contact Rath (" + RATH_CONTACT
       + ") or Kami (" + KAMI_CONTACT + ").";
   
+  /** The format of a duration, with one group per unit, largest first. */
+  private static final Pattern TIME_STRING_PATTERN = Pattern
+      .compile("(\\d+M)?(\\d+w)?(\\d+d)?(\\d+h)?(\\d+m)?(\\d+s)?");
+  
+  /** The length of each unit in {@link #TIME_STRING_PATTERN}, in seconds. */
+  private static final long[] TIME_UNIT_SECONDS = { 30L * 86400L, 7L * 86400L, 86400L, 3600L, 60L, 1L };
+  
+  /**
+   * Parses a duration such as "1w2d" or "90m". Units go from largest to smallest, each at most once: M (months of 30
+   * days), w (weeks), d (days), h (hours), m (minutes), and s (seconds).
+   * 
+   * @param timestring the duration.
+   * @return the duration in seconds, or -1 if the String isn't a valid duration.
+   */
   public static final long parseTimeString(final String timestring) {
     
     // Ensure that the String isn't empty
@@ -41,15 +57,23 @@ public class MessageHelper {
     }
     
     // Ensure that the String matches the proper format
-    if (!timestring.matches("(\\d+M)?(\\d+w)?(\\d+d)?(\\d+h)?(\\d+m)?")) {
+    final Matcher m = TIME_STRING_PATTERN.matcher(timestring);
+    if (!m.matches()) {
       return -1;
     }
     
     long result = 0;
-    
-    
-    // TODO: This
-    
+    try {
+      for (int i = 0; i < TIME_UNIT_SECONDS.length; i++) {
+        final String group = m.group(i + 1);
+        if (group != null) {
+          final long count = Long.parseLong(group.substring(0, group.length() - 1));
+          result = Math.addExact(result, Math.multiplyExact(count, TIME_UNIT_SECONDS[i]));
+        }
+      }
+    } catch (@SuppressWarnings("unused") NumberFormatException | ArithmeticException e) {
+      return -1;
+    }
     
     return result;
   }
@@ -159,8 +183,8 @@ public class MessageHelper {
    * Builds a notification message for an infraction, delivered to the user in a direct message.
    * 
    * @param type the type of punishment (warn, ban, etc.).
-   * @param time the amount of time the user stays muted, in seconds. if the user isn't to be muted, this parameter is
-   *        ignored.
+   * @param time the amount of time the user stays muted or banned, in seconds, or 0 if it's permanent. For other
+   *        punishments, this parameter is ignored.
    * @param reason the reason the user was banned, as a String.
    * @return the message that will be sent as a String.
    */
@@ -179,7 +203,7 @@ public class MessageHelper {
     
     // Build the message
     String msg = "You have been " + type.getVerb() + " " + type.getPrep() + " the osu! University server";
-    if (type.equals(PunishmentType.MUTE) && time > 0) {
+    if ((type.equals(PunishmentType.MUTE) || type.equals(PunishmentType.BAN)) && time > 0) {
       msg += " for ";
       
       // Build a time string in the format "WdXhYmZs", where W=days, X=hours, Y=minutes, and Z=seconds
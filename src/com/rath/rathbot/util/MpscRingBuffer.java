@@ -0,0 +1,161 @@
+package com.rath.rathbot.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a bounded queue that any number of threads can add to and exactly one thread takes from, without
+ * locking. Each slot has a sequence number saying whose turn it is: a producer claims the next slot by advancing the
+ * tail with one compare-and-set, stores its item, then publishes the slot by bumping its sequence. The consumer takes
+ * items in the order their slots were claimed, and frees each slot by bumping its sequence a lap ahead.
+ * 
+ * Adding never blocks; when the queue is full it fails, and the caller decides what to drop. Only one thread may call
+ * {@link #poll()} and {@link #drainTo(Object[])}.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ * 
+ * @param <T> the type of item queued.
+ */
+public class MpscRingBuffer<T> {
+  
+  /** The items. A slot's item is only valid once its sequence says it's been published. */
+  private final Object[] items;
+  
+  /** The sequence number of each slot. Equal to the slot's position when free, and one past it when full. */
+  private final AtomicLongArray sequences;
+  
+  /** Masks a position down to a slot index. */
+  private final int mask;
+  
+  /** The position the next item will be added at. */
+  private final AtomicLong tail = new AtomicLong();
+  
+  /** The position the next item will be taken from. Only the consumer writes this. */
+  private volatile long head = 0L;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param capacity the most items the queue holds. Rounded up to a power of two, and to at least two. Must be
+   *        positive.
+   */
+  public MpscRingBuffer(final int capacity) {
+    
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30!");
+    }
+    
+    // With one slot, a full slot's sequence (one past its position) is the same as a free one's a lap later
+    final int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    this.items = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      this.sequences.set(i, i);
+    }
+    this.mask = size - 1;
+  }
+  
+  /**
+   * Adds an item. Never blocks. Safe to call from any thread.
+   * 
+   * @param item the item. Must not be null.
+   * @return true if it was added; false if the queue is full.
+   */
+  public final boolean offer(final T item) {
+    
+    if (item == null) {
+      throw new NullPointerException("Cannot queue a null item!");
+    }
+    
+    long pos = this.tail.get();
+    while (true) {
+      final int slot = (int) pos & this.mask;
+      final long seq = this.sequences.get(slot);
+      if (seq == pos) {
+        
+        // The slot is free for this lap; claim it
+        if (this.tail.compareAndSet(pos, pos + 1)) {
+          this.items[slot] = item;
+          this.sequences.lazySet(slot, pos + 1);
+          return true;
+        }
+        pos = this.tail.get();
+      } else if (seq < pos) {
+        
+        // The consumer hasn't freed the slot from the last lap yet
+        return false;
+      } else {
+        
+        // Another producer claimed it first
+        pos = this.tail.get();
+      }
+    }
+  }
+  
+  /**
+   * Takes the oldest item. Only the consumer thread may call this.
+   * 
+   * @return the item, or null if the queue is empty.
+   */
+  @SuppressWarnings("unchecked")
+  public final T poll() {
+    
+    final long pos = this.head;
+    final int slot = (int) pos & this.mask;
+    if (this.sequences.get(slot) != pos + 1) {
+      return null;
+    }
+    
+    final T item = (T) this.items[slot];
+    this.items[slot] = null;
+    this.sequences.lazySet(slot, pos + this.items.length);
+    this.head = pos + 1;
+    return item;
+  }
+  
+  /**
+   * Takes as many items as are ready, up to the length of an array. Only the consumer thread may call this.
+   * 
+   * @param batch the array to fill, oldest first.
+   * @return the number of items taken.
+   */
+  public final int drainTo(final T[] batch) {
+    
+    int count = 0;
+    while (count < batch.length) {
+      final T item = poll();
+      if (item == null) {
+        break;
+      }
+      batch[count++] = item;
+    }
+    return count;
+  }
+  
+  /**
+   * Gets the number of items queued. Only an estimate while items are being added.
+   * 
+   * @return a non-negative int.
+   */
+  public final int size() {
+    return (int) Math.max(0L, Math.min(this.tail.get() - this.head, this.items.length));
+  }
+  
+  /**
+   * Checks if nothing is queued. Only an estimate while items are being added.
+   * 
+   * @return true if the queue looks empty.
+   */
+  public final boolean isEmpty() {
+    return this.tail.get() == this.head;
+  }
+  
+  /**
+   * Gets the most items the queue holds.
+   * 
+   * @return a power of two.
+   */
+  public final int capacity() {
+    return this.items.length;
+  }
+}
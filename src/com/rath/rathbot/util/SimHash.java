@@ -0,0 +1,98 @@
+
+package com.rath.rathbot.util;
+
+/**
+ * This class computes 64-bit SimHash signatures of text. Similar texts get signatures that differ in only a few bits,
+ * so two messages can be compared for near-duplication by counting the bits that differ, without keeping either text.
+ * 
+ * The features are overlapping three-character shingles of the text after it's lowercased and runs of whitespace are
+ * collapsed, so adding or changing a character only changes the few shingles around it.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class SimHash {
+  
+  /** The number of characters in a shingle. */
+  private static final int SHINGLE_LENGTH = 3;
+  
+  /**
+   * Computes the SimHash signature of a text.
+   * 
+   * @param text the text.
+   * @return the signature. Empty and whitespace-only text has the signature 0.
+   */
+  public static final long of(final CharSequence text) {
+    
+    final int[] weights = new int[64];
+    final int len = text.length();
+    
+    // Slide a window of the last three normalized characters over the text. A run of whitespace becomes one space,
+    // which is only added once a word follows it, so leading and trailing whitespace don't count.
+    long window = 0L;
+    int filled = 0;
+    int features = 0;
+    boolean pendingSpace = false;
+    for (int i = 0; i < len; i++) {
+      
+      final char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        pendingSpace = (filled > 0);
+        continue;
+      }
+      
+      if (pendingSpace) {
+        window = ((window << 16) | ' ') & 0xFFFFFFFFFFFFL;
+        if (++filled >= SHINGLE_LENGTH) {
+          addFeature(weights, HashMixer.mix(window));
+          features++;
+        }
+        pendingSpace = false;
+      }
+      
+      window = ((window << 16) | Character.toLowerCase(c)) & 0xFFFFFFFFFFFFL;
+      if (++filled >= SHINGLE_LENGTH) {
+        addFeature(weights, HashMixer.mix(window));
+        features++;
+      }
+    }
+    
+    // Text shorter than a shingle is one feature on its own
+    if (features == 0) {
+      if (filled == 0) {
+        return 0L;
+      }
+      addFeature(weights, HashMixer.mix(window | ((long) filled << 48)));
+    }
+    
+    long result = 0L;
+    for (int bit = 0; bit < 64; bit++) {
+      if (weights[bit] > 0) {
+        result |= 1L << bit;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Counts the bits that differ between two signatures.
+   * 
+   * @param a a signature.
+   * @param b another signature.
+   * @return the Hamming distance, from 0 (likely the same text) to 64.
+   */
+  public static final int distance(final long a, final long b) {
+    return Long.bitCount(a ^ b);
+  }
+  
+  /**
+   * Adds a feature's hash to the per-bit weights: +1 for each set bit, -1 for each clear bit.
+   * 
+   * @param weights the per-bit weights.
+   * @param hash the feature's hash.
+   */
+  private static final void addFeature(final int[] weights, final long hash) {
+    for (int bit = 0; bit < 64; bit++) {
+      weights[bit] += (int) ((hash >>> bit) & 1L) * 2 - 1;
+    }
+  }
+}
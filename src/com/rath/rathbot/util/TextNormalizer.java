@@ -0,0 +1,264 @@
+
+package com.rath.rathbot.util;
+
+import java.text.Normalizer;
+
+/**
+ * This class builds a normalized view of message text for content filters, so text dressed up to slip past them
+ * compares equal to the plain text it imitates:
+ * 
+ * <ul>
+ * <li>Zero-width characters, direction marks, and other invisible formatting characters are removed.</li>
+ * <li>Compatibility forms (fullwidth, circled, superscript, and mathematical letters, ligatures) are decomposed, and
+ * lookalike Cyrillic, Greek, and small capital letters become the Latin letters they imitate.</li>
+ * <li>Combining marks on letters that fold to ASCII are removed, and any other base character keeps at most
+ * {@link #MAX_COMBINING_MARKS} of them, which flattens "zalgo" text without mangling scripts that need marks.</li>
+ * <li>Everything is lowercased, and runs of whitespace become one space, with none at either end.</li>
+ * </ul>
+ * 
+ * Every character's folding is worked out once, when the class loads, so normalizing a message is one table lookup per
+ * character. The normalized view is only for comparing; the original content is what gets logged.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class TextNormalizer {
+  
+  /** The most combining marks kept on one base character that doesn't fold to ASCII. */
+  public static final int MAX_COMBINING_MARKS = 2;
+  
+  /** Fold table value for characters that are removed. */
+  private static final char STRIP = 0;
+  
+  /** Fold table value for combining marks. */
+  private static final char MARK = '\uFFFE';
+  
+  /** Fold table value for characters that fold to more than one character; see {@link #EXPANSIONS}. */
+  private static final char EXPAND = '\uFFFF';
+  
+  /** Lookalike letters, each followed by the Latin letter it imitates. Applied after compatibility decomposition. */
+  private static final String CONFUSABLES =
+      // Cyrillic lowercase
+      "\u0430a\u0432b\u0435e\u043Ak\u043Cm\u043Dh\u043Eo\u0440p"
+          + "\u0441c\u0442t\u0443y\u0445x\u0455s\u0456i\u0458j"
+          + "\u04CFl\u0501d\u051Bq\u051Dw\u044Cb"
+          // Cyrillic uppercase that looks different from its lowercase
+          + "\u0412b\u041Dh\u041Cm\u0422t\u041Ak"
+          // Greek lowercase
+          + "\u03B1a\u03B2b\u03B5e\u03B7n\u03B9i\u03BAk\u03BDv"
+          + "\u03BFo\u03C1p\u03C4t\u03C5u\u03C7x\u03C9w"
+          // Greek uppercase that looks like a different Latin letter than its lowercase does
+          + "\u0391a\u0392b\u0395e\u0397h\u0399i\u039Ak\u039Cm"
+          + "\u039Dn\u039Fo\u03A1p\u03A4t\u03A5y\u03A7x\u0396z"
+          // Latin small capitals and other lookalikes
+          + "\u1D00a\u0299b\u1D04c\u1D05d\u1D07e\u0262g\u029Ch"
+          + "\u026Ai\u1D0Aj\u1D0Bk\u029Fl\u1D0Dm\u0274n\u1D0Fo"
+          + "\u1D18p\u0280r\uA731s\u1D1Bt\u1D1Cu\u1D20v\u1D21w"
+          + "\u028Fy\u1D22z\uA730f\u0131i\u0261g\u0251a";
+  
+  /** Supplementary code point ranges that are folded, as first and last pairs: math letters and enclosed letters. */
+  private static final int[] SUPPLEMENTARY_RANGES = { 0x1D400, 0x1D7FF, 0x1F100, 0x1F189 };
+  
+  /** How each BMP character folds: to a character, or to {@link #STRIP}, {@link #MARK}, or {@link #EXPAND}. */
+  private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+  
+  /** What characters marked {@link #EXPAND} fold to. */
+  private static final LongObjectHashMap<String> EXPANSIONS = new LongObjectHashMap<String>();
+  
+  /** How each code point in {@link #SUPPLEMENTARY_RANGES} folds, in order, or {@link #STRIP} to keep it as is. */
+  private static final char[] SUPPLEMENTARY_FOLD;
+  
+  static {
+    
+    final char[] confusable = new char[Character.MAX_VALUE + 1];
+    for (int i = 0; i < CONFUSABLES.length(); i += 2) {
+      confusable[CONFUSABLES.charAt(i)] = CONFUSABLES.charAt(i + 1);
+    }
+    
+    for (int c = 0; c <= Character.MAX_VALUE; c++) {
+      final String folded = foldOf(c, confusable);
+      if (folded == null) {
+        FOLD[c] = MARK;
+      } else if (folded.length() == 1 && folded.charAt(0) != MARK && folded.charAt(0) != EXPAND) {
+        FOLD[c] = folded.charAt(0);
+      } else if (folded.length() > 1) {
+        FOLD[c] = EXPAND;
+        EXPANSIONS.put(c, folded);
+      } else {
+        FOLD[c] = STRIP;
+      }
+    }
+    
+    int supplementaryCount = 0;
+    for (int r = 0; r < SUPPLEMENTARY_RANGES.length; r += 2) {
+      supplementaryCount += SUPPLEMENTARY_RANGES[r + 1] - SUPPLEMENTARY_RANGES[r] + 1;
+    }
+    SUPPLEMENTARY_FOLD = new char[supplementaryCount];
+    int idx = 0;
+    for (int r = 0; r < SUPPLEMENTARY_RANGES.length; r += 2) {
+      for (int cp = SUPPLEMENTARY_RANGES[r]; cp <= SUPPLEMENTARY_RANGES[r + 1]; cp++) {
+        final String folded = foldOf(cp, confusable);
+        SUPPLEMENTARY_FOLD[idx++] = (folded != null && folded.length() == 1) ? folded.charAt(0) : STRIP;
+      }
+    }
+  }
+  
+  /**
+   * Builds the normalized view of some text.
+   * 
+   * @param text the text.
+   * @return the normalized text.
+   */
+  public static final String normalize(final CharSequence text) {
+    
+    final int len = text.length();
+    final StringBuilder sb = new StringBuilder(len);
+    boolean pendingSpace = false;
+    boolean lastFoldedAscii = false;
+    int marks = 0;
+    for (int i = 0; i < len; i++) {
+      
+      final char c = text.charAt(i);
+      
+      // Surrogate pairs are only folded if they're math or enclosed letters; anything else, like emoji, is kept
+      if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+        final int cp = Character.toCodePoint(c, text.charAt(i + 1));
+        final char folded = foldSupplementary(cp);
+        pendingSpace = appendSpace(sb, pendingSpace);
+        if (folded == STRIP) {
+          sb.append(c).append(text.charAt(i + 1));
+          lastFoldedAscii = false;
+        } else {
+          sb.append(folded);
+          lastFoldedAscii = folded < 0x80;
+        }
+        marks = 0;
+        i++;
+        continue;
+      }
+      
+      final char f = FOLD[c];
+      switch (f) {
+        case STRIP:
+        break;
+        
+        // Marks on ASCII letters are dropped; other letters keep a few
+        case MARK:
+          if (!lastFoldedAscii && marks < MAX_COMBINING_MARKS && sb.length() > 0) {
+            sb.append(c);
+            marks++;
+          }
+        break;
+        
+        case ' ':
+          pendingSpace = (sb.length() > 0);
+        break;
+        
+        case EXPAND:
+          pendingSpace = appendSpace(sb, pendingSpace);
+          final String expansion = EXPANSIONS.get(c);
+          sb.append(expansion);
+          lastFoldedAscii = expansion.charAt(expansion.length() - 1) < 0x80;
+          marks = 0;
+        break;
+        
+        default:
+          pendingSpace = appendSpace(sb, pendingSpace);
+          sb.append(f);
+          lastFoldedAscii = f < 0x80;
+          marks = 0;
+        break;
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Appends a pending space, if there is one.
+   * 
+   * @param sb the normalized text so far.
+   * @param pendingSpace whether a space is pending.
+   * @return false, since no space is pending afterward.
+   */
+  private static final boolean appendSpace(final StringBuilder sb, final boolean pendingSpace) {
+    if (pendingSpace) {
+      sb.append(' ');
+    }
+    return false;
+  }
+  
+  /**
+   * Looks up how a supplementary code point folds.
+   * 
+   * @param cp the code point.
+   * @return the character it folds to, or {@link #STRIP} to keep it as is.
+   */
+  private static final char foldSupplementary(final int cp) {
+    
+    int base = 0;
+    for (int r = 0; r < SUPPLEMENTARY_RANGES.length; r += 2) {
+      if (cp >= SUPPLEMENTARY_RANGES[r] && cp <= SUPPLEMENTARY_RANGES[r + 1]) {
+        return SUPPLEMENTARY_FOLD[base + cp - SUPPLEMENTARY_RANGES[r]];
+      }
+      base += SUPPLEMENTARY_RANGES[r + 1] - SUPPLEMENTARY_RANGES[r] + 1;
+    }
+    return STRIP;
+  }
+  
+  /**
+   * Works out how a code point folds. Only used to build the tables.
+   * 
+   * @param cp the code point.
+   * @param confusable the lookalike table, from each lookalike to its Latin letter.
+   * @return the folded text, which is empty if the code point is removed, or null if it's a combining mark.
+   */
+  private static final String foldOf(final int cp, final char[] confusable) {
+    
+    if (Character.isWhitespace(cp) || Character.isSpaceChar(cp)) {
+      return " ";
+    }
+    
+    switch (Character.getType(cp)) {
+      case Character.NON_SPACING_MARK:
+      case Character.ENCLOSING_MARK:
+      case Character.COMBINING_SPACING_MARK:
+        return null;
+      
+      case Character.FORMAT:
+      case Character.CONTROL:
+      case Character.UNASSIGNED:
+      case Character.PRIVATE_USE:
+        return "";
+      
+      case Character.SURROGATE:
+        return String.valueOf((char) cp);
+      
+      default:
+      break;
+    }
+    
+    // Hangul fillers are letters, but they're blank
+    if (cp == 0x115F || cp == 0x1160 || cp == 0x3164 || cp == 0xFFA0) {
+      return "";
+    }
+    
+    // Decompose compatibility forms, drop the marks that come out, and fold what's left a character at a time
+    final String decomposed = Normalizer.normalize(new String(Character.toChars(cp)), Normalizer.Form.NFKD);
+    final StringBuilder sb = new StringBuilder(decomposed.length());
+    for (int i = 0; i < decomposed.length(); i++) {
+      
+      final char d = decomposed.charAt(i);
+      final int type = Character.getType(d);
+      if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+          || type == Character.COMBINING_SPACING_MARK || type == Character.FORMAT) {
+        continue;
+      }
+      
+      char folded = (confusable[d] != 0) ? confusable[d] : Character.toLowerCase(d);
+      if (confusable[folded] != 0) {
+        folded = confusable[folded];
+      }
+      sb.append(Character.isWhitespace(folded) ? ' ' : folded);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,246 @@
+
+package com.rath.rathbot.util;
+
+import java.util.Arrays;
+
+/**
+ * This class is a hierarchical timing wheel: a set of timers, each identified by a long key, that can be scheduled,
+ * replaced, and cancelled in constant time however many are pending, and that fire on the tick their deadline falls on.
+ * 
+ * Time is counted in ticks. The first level is a ring of 64 slots, one per tick, covering the next 64 ticks; each level
+ * above has 64 slots each covering a whole turn of the level below. A timer goes in the lowest level whose range
+ * reaches its deadline. Whenever a level completes a turn, the next slot of the level above is emptied and its timers
+ * are placed again, now in a lower level, so every timer reaches the first level by the time it's due. Timers further
+ * out than the top level reaches wait in its farthest slot and are placed again as time catches up.
+ * 
+ * Each slot is a doubly linked list, and each key maps to its timer, so cancelling never searches. The methods are
+ * synchronized; expired keys are returned rather than acted on, so callers can handle them without holding the lock.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class TimingWheel {
+  
+  /** The number of bits of a tick that index one level. */
+  private static final int SLOT_BITS = 6;
+  
+  /** The number of slots in each level. */
+  private static final int SLOTS = 1 << SLOT_BITS;
+  
+  /** Masks a tick down to a slot index. */
+  private static final long SLOT_MASK = SLOTS - 1;
+  
+  /**
+   * A pending timer, linked into one slot's list.
+   */
+  private static final class Timer {
+    
+    /** The timer's key. */
+    final long key;
+    
+    /** The tick the timer is due on. */
+    final long tick;
+    
+    /** The slot the timer is in. */
+    int slot = -1;
+    
+    /** The previous timer in the slot, or null if this is the first. */
+    Timer prev = null;
+    
+    /** The next timer in the slot, or null if this is the last. */
+    Timer next = null;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param key the timer's key.
+     * @param tick the tick the timer is due on.
+     */
+    Timer(final long key, final long tick) {
+      this.key = key;
+      this.tick = tick;
+    }
+  }
+  
+  /** The length of a tick, in milliseconds. */
+  private final long tickMillis;
+  
+  /** The number of levels. */
+  private final int levels;
+  
+  /** The first timer in each slot, level by level, or null if a slot is empty. */
+  private final Timer[] slots;
+  
+  /** Maps each pending key to its timer. */
+  private final LongObjectHashMap<Timer> timers = new LongObjectHashMap<Timer>();
+  
+  /** The last tick that has been processed. */
+  private long currentTick;
+  
+  /**
+   * Default constructor.
+   * 
+   * @param tickMillis the length of a tick, in milliseconds. Timers fire on the first tick at or after their deadline.
+   * @param levels the number of levels. The wheel reaches 64^levels ticks ahead before timers start waiting.
+   * @param startMillis the current time, in epoch milliseconds.
+   */
+  public TimingWheel(final long tickMillis, final int levels, final long startMillis) {
+    
+    if (tickMillis <= 0 || levels <= 0 || levels * SLOT_BITS >= 63) {
+      throw new IllegalArgumentException("Tick length must be positive and levels must be 1-10!");
+    }
+    this.tickMillis = tickMillis;
+    this.levels = levels;
+    this.slots = new Timer[levels * SLOTS];
+    this.currentTick = Math.floorDiv(startMillis, tickMillis);
+  }
+  
+  /**
+   * Schedules a timer, replacing any pending timer with the same key.
+   * 
+   * @param key the timer's key.
+   * @param deadlineMillis when the timer should fire, in epoch milliseconds. A deadline that has passed fires on the
+   *        next tick.
+   */
+  public final synchronized void schedule(final long key, final long deadlineMillis) {
+    
+    cancel(key);
+    final long tick = Math.max(this.currentTick + 1, Math.floorDiv(deadlineMillis + this.tickMillis - 1,
+        this.tickMillis));
+    final Timer t = new Timer(key, tick);
+    this.timers.put(key, t);
+    place(t);
+  }
+  
+  /**
+   * Cancels a pending timer.
+   * 
+   * @param key the timer's key.
+   * @return true if a timer was pending; false if not.
+   */
+  public final synchronized boolean cancel(final long key) {
+    
+    final Timer t = this.timers.remove(key);
+    if (t == null) {
+      return false;
+    }
+    unlink(t);
+    return true;
+  }
+  
+  /**
+   * Moves time forward, firing every timer due by then.
+   * 
+   * @param nowMillis the current time, in epoch milliseconds.
+   * @return the keys of the timers that fired, in the order they were due. Empty if none did.
+   */
+  public final synchronized long[] advance(final long nowMillis) {
+    
+    final long nowTick = Math.floorDiv(nowMillis, this.tickMillis);
+    if (this.timers.isEmpty()) {
+      this.currentTick = Math.max(this.currentTick, nowTick);
+      return new long[0];
+    }
+    
+    long[] fired = new long[0];
+    int firedCount = 0;
+    while (this.currentTick < nowTick && !this.timers.isEmpty()) {
+      
+      this.currentTick++;
+      
+      // Empty the next slot of every level that just finished a turn into the levels below, highest first
+      for (int level = this.levels - 1; level >= 1; level--) {
+        if ((this.currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+          final int slot = level * SLOTS + (int) ((this.currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+          Timer t = this.slots[slot];
+          this.slots[slot] = null;
+          while (t != null) {
+            final Timer next = t.next;
+            t.prev = null;
+            t.next = null;
+            place(t);
+            t = next;
+          }
+        }
+      }
+      
+      // Everything left in this tick's first-level slot is due now
+      final int slot = (int) (this.currentTick & SLOT_MASK);
+      Timer t = this.slots[slot];
+      this.slots[slot] = null;
+      while (t != null) {
+        if (firedCount == fired.length) {
+          fired = Arrays.copyOf(fired, Math.max(8, firedCount * 2));
+        }
+        fired[firedCount++] = t.key;
+        this.timers.remove(t.key);
+        t = t.next;
+      }
+    }
+    this.currentTick = Math.max(this.currentTick, nowTick);
+    return (firedCount == fired.length) ? fired : Arrays.copyOf(fired, firedCount);
+  }
+  
+  /**
+   * Checks if a timer is pending.
+   * 
+   * @param key the timer's key.
+   * @return true if it's pending; false if not.
+   */
+  public final synchronized boolean isPending(final long key) {
+    return this.timers.containsKey(key);
+  }
+  
+  /**
+   * Gets the number of pending timers.
+   * 
+   * @return a non-negative int.
+   */
+  public final synchronized int size() {
+    return this.timers.size();
+  }
+  
+  /**
+   * Puts a timer in the lowest level that reaches its deadline.
+   * 
+   * @param t the timer, which isn't in any slot.
+   */
+  private final void place(final Timer t) {
+    
+    final long delta = t.tick - this.currentTick;
+    int level = 0;
+    while (level < this.levels - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+      level++;
+    }
+    
+    // Timers past the top level's reach wait in its farthest slot
+    final long reach = (1L << (SLOT_BITS * this.levels)) - 1;
+    final long slotTick = (delta > reach) ? this.currentTick + reach : t.tick;
+    
+    final int slot = level * SLOTS + (int) ((slotTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    t.slot = slot;
+    t.next = this.slots[slot];
+    if (t.next != null) {
+      t.next.prev = t;
+    }
+    this.slots[slot] = t;
+  }
+  
+  /**
+   * Takes a timer out of its slot.
+   * 
+   * @param t the timer.
+   */
+  private final void unlink(final Timer t) {
+    
+    if (t.prev != null) {
+      t.prev.next = t.next;
+    } else {
+      this.slots[t.slot] = t.next;
+    }
+    if (t.next != null) {
+      t.next.prev = t.prev;
+    }
+    t.prev = null;
+    t.next = null;
+  }
+}
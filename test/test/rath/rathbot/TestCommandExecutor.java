@@ -0,0 +1,252 @@
+package test.rath.rathbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.rath.rathbot.CommandExecutor;
+import com.rath.rathbot.CommandExecutor.ExecutionMode;
+import com.rath.rathbot.cmd.RBCommand;
+
+import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.handle.obj.IUser;
+
+public class TestCommandExecutor {
+  
+  /** The concurrency cap of a command without one configured. */
+  private static final int DEFAULT_CAP = 32;
+  
+  /**
+   * A command for these tests. What it does is given as a Runnable.
+   */
+  private static class TestCmd extends RBCommand {
+    
+    /** Run each time the command executes. */
+    private final Runnable action;
+    
+    /**
+     * Default constructor.
+     * 
+     * @param action run each time the command executes.
+     */
+    TestCmd(final Runnable action) {
+      this.action = action;
+    }
+    
+    @Override
+    public String getCommandName() {
+      return "test" + getClass().getSimpleName();
+    }
+    
+    @Override
+    public String getCommandDescription() {
+      return "Test command.";
+    }
+    
+    @Override
+    public String getCommandUsage() {
+      return "";
+    }
+    
+    @Override
+    public int permissionLevelRequired() {
+      return 0;
+    }
+    
+    @Override
+    public boolean requiresDirectMessage() {
+      return false;
+    }
+    
+    @Override
+    public boolean executeCommand(final IMessage msg, final String[] tokens, final int tokenDepth) {
+      this.action.run();
+      return true;
+    }
+  }
+  
+  /**
+   * A second command class, with a cap of its own.
+   */
+  private static final class OtherCmd extends TestCmd {
+    
+    /**
+     * Default constructor.
+     * 
+     * @param action run each time the command executes.
+     */
+    OtherCmd(final Runnable action) {
+      super(action);
+    }
+  }
+  
+  /**
+   * Makes a message with only an author.
+   * 
+   * @param uid the author's ID.
+   * @return the message.
+   */
+  private static final IMessage newMessage(final long uid) {
+    
+    final IUser author = (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+        new InvocationHandler() {
+          
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            return "getLongID".equals(method.getName()) ? Long.valueOf(uid) : null;
+          }
+        });
+    return (IMessage) Proxy.newProxyInstance(IMessage.class.getClassLoader(), new Class<?>[] { IMessage.class },
+        new InvocationHandler() {
+          
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            return "getAuthor".equals(method.getName()) ? author : null;
+          }
+        });
+  }
+  
+  /**
+   * Waits until a counter reaches a value, failing if it takes more than ten seconds.
+   * 
+   * @param what what's being counted, for the failure message.
+   * @param actual the counter.
+   * @param expected the value to wait for.
+   * @throws InterruptedException if interrupted.
+   */
+  private static final void awaitValue(final String what, final AtomicInteger actual, final int expected)
+      throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000L;
+    while (actual.get() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5L);
+    }
+    assertEquals(what, expected, actual.get());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testMemberOrder() throws InterruptedException {
+    
+    final int members = 8;
+    final int perMember = 200;
+    final List<List<Integer>> seen = new ArrayList<List<Integer>>();
+    for (int m = 0; m < members; m++) {
+      seen.add(new ArrayList<Integer>());
+    }
+    final CountDownLatch done = new CountDownLatch(members * perMember);
+    
+    CommandExecutor.setExecutionMode(ExecutionMode.ASYNC);
+    try {
+      for (int i = 0; i < perMember; i++) {
+        for (int m = 0; m < members; m++) {
+          final List<Integer> list = seen.get(m);
+          final int seq = i;
+          CommandExecutor.execute(new TestCmd(new Runnable() {
+            
+            @Override
+            public void run() {
+              synchronized (list) {
+                list.add(Integer.valueOf(seq));
+              }
+              done.countDown();
+            }
+          }), newMessage(m), new String[0], 0);
+        }
+      }
+      assertTrue(done.await(30L, TimeUnit.SECONDS));
+    } finally {
+      CommandExecutor.shutdown();
+    }
+    
+    // Each member's commands ran in the order they were issued
+    for (final List<Integer> list : seen) {
+      synchronized (list) {
+        assertEquals(perMember, list.size());
+        for (int i = 0; i < perMember; i++) {
+          assertEquals(i, list.get(i).intValue());
+        }
+      }
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testClassCap() throws InterruptedException {
+    
+    final int members = DEFAULT_CAP + 8;
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AtomicInteger finished = new AtomicInteger();
+    final Runnable block = new Runnable() {
+      
+      @Override
+      public void run() {
+        final int now = running.incrementAndGet();
+        while (true) {
+          final int max = maxRunning.get();
+          if (now <= max || maxRunning.compareAndSet(max, now)) {
+            break;
+          }
+        }
+        try {
+          release.await();
+        } catch (@SuppressWarnings("unused") InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        finished.incrementAndGet();
+      }
+    };
+    final AtomicInteger others = new AtomicInteger();
+    final Runnable other = new Runnable() {
+      
+      @Override
+      public void run() {
+        others.incrementAndGet();
+      }
+    };
+    
+    CommandExecutor.setExecutionMode(ExecutionMode.ASYNC);
+    try {
+      for (int m = 0; m < members; m++) {
+        CommandExecutor.execute(new TestCmd(block), newMessage(1000 + m), new String[0], 0);
+      }
+      
+      // Only the cap's worth run; the rest wait without holding a thread
+      awaitValue("running", running, DEFAULT_CAP);
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (CommandExecutor.getWaitingCount() != members - DEFAULT_CAP && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5L);
+      }
+      assertEquals(members - DEFAULT_CAP, CommandExecutor.getWaitingCount());
+      assertTrue(CommandExecutor.getPendingCount() <= DEFAULT_CAP);
+      
+      // Another class isn't held up by the full one, but a member's later command waits behind their earlier one
+      CommandExecutor.execute(new OtherCmd(other), newMessage(1000 + members - 1), new String[0], 0);
+      CommandExecutor.execute(new OtherCmd(other), newMessage(5000), new String[0], 0);
+      awaitValue("other commands", others, 1);
+      Thread.sleep(50L);
+      assertEquals(1, others.get());
+      
+      release.countDown();
+      awaitValue("finished", finished, members);
+      awaitValue("other commands", others, 2);
+      assertEquals(DEFAULT_CAP, maxRunning.get());
+      assertEquals(0, CommandExecutor.getWaitingCount());
+    } finally {
+      release.countDown();
+      CommandExecutor.shutdown();
+    }
+  }
+}
@@ -16,6 +16,7 @@ import org.junit.runners.MethodSorters;
 
 import com.rath.rathbot.disc.InfractionEntry;
 import com.rath.rathbot.disc.Infractions;
+import com.rath.rathbot.disc.PunishmentType;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class TestInfractionsTable {
@@ -99,6 +100,30 @@ public class TestInfractionsTable {
     assertNotNull(l);
   }
   
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLazyEntries() {
+    
+    final long u = 44017L;
+    
+    // Members with no entry have clean records without being given one
+    assertFalse(Infractions.hasMember(u));
+    assertEquals(0, Infractions.getWarnCount(u));
+    assertFalse(Infractions.isMuted(u));
+    assertNull(Infractions.getLastInfraction(u));
+    assertFalse(Infractions.hasMember(u));
+    
+    // Their first infraction gives them one
+    assertTrue(Infractions.warnUser(u, 1000, "first"));
+    assertTrue(Infractions.hasMember(u));
+    assertTrue(Infractions.muteUser(u, 2000, 60, "second"));
+    assertTrue(Infractions.isMuted(u));
+    assertEquals("second", Infractions.getLastInfraction(u).getReason());
+    
+    assertTrue(Infractions.clearInfractions(u));
+    assertFalse(Infractions.isMuted(u));
+  }
+  
   @Test
   @SuppressWarnings("static-method")
   public void testUpdates() {
@@ -216,4 +241,121 @@ public class TestInfractionsTable {
     assertEquals(i, 0);
   }
   
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTimedBans() {
+    
+    final long u = 4410L;
+    final long v = 4411L;
+    final long w = 4412L;
+    
+    assertTrue(Infractions.banUser(u, 1000, 60, "timed"));
+    assertTrue(Infractions.banUser(v, 1000, 600, "longer"));
+    assertTrue(Infractions.banUser(w, 1000, "permanent"));
+    assertEquals(1060L, Infractions.getBanExpiry(u));
+    assertEquals(1600L, Infractions.getBanExpiry(v));
+    assertEquals(-1L, Infractions.getBanExpiry(w));
+    
+    // Only the bans that have run out are lifted, all in one sweep
+    final long[] lifted = Infractions.liftExpiredBans(new long[] { u, v, w }, 1100);
+    assertEquals(1, lifted.length);
+    assertEquals(u, lifted[0]);
+    assertFalse(Infractions.isBanned(u));
+    assertTrue(Infractions.isBanned(v));
+    assertTrue(Infractions.isBanned(w));
+    assertEquals(1, Infractions.getBanCount(u));
+    
+    // Lifting a ban again does nothing
+    assertEquals(0, Infractions.liftExpiredBans(new long[] { u }, 2000).length);
+    
+    // Unbanning by hand clears the expiry
+    assertTrue(Infractions.setBanned(v, false));
+    assertEquals(-1L, Infractions.getBanExpiry(v));
+    assertEquals(0, Infractions.liftExpiredBans(new long[] { v }, 2000).length);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTimedMutes() {
+    
+    final long u = 4420L;
+    final long v = 4421L;
+    final long w = 4422L;
+    
+    assertTrue(Infractions.muteUser(u, 1000, 60, "timed"));
+    assertTrue(Infractions.muteUser(v, 1000, 600, "longer"));
+    assertTrue(Infractions.muteUser(w, 1000, 0, "until lifted"));
+    assertEquals(1060L, Infractions.getMuteExpiry(u));
+    assertEquals(-1L, Infractions.getMuteExpiry(w));
+    
+    // Only the mutes that have run out are lifted, all in one sweep
+    final long[] lifted = Infractions.liftExpiredMutes(new long[] { u, v, w }, 1100);
+    assertEquals(1, lifted.length);
+    assertEquals(u, lifted[0]);
+    assertFalse(Infractions.isMuted(u));
+    assertTrue(Infractions.isMuted(v));
+    assertTrue(Infractions.isMuted(w));
+    assertEquals(1, Infractions.getMuteCount(u));
+    
+    // Lifting a mute again does nothing, and neither does lifting one taken off by hand
+    assertEquals(0, Infractions.liftExpiredMutes(new long[] { u }, 2000).length);
+    assertTrue(Infractions.setMuted(v, false));
+    assertEquals(0, Infractions.liftExpiredMutes(new long[] { v }, 2000).length);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLatestByType() {
+    
+    final long u = 5120L;
+    assertNull(Infractions.getLastInfraction(u, PunishmentType.WARN));
+    
+    assertTrue(Infractions.warnUser(u, 1000, "RB rate abuse"));
+    assertTrue(Infractions.kickUser(u, 2000, null));
+    assertTrue(Infractions.warnUser(u, 3000, "RB rate abuse"));
+    assertTrue(Infractions.muteUser(u, 4000, 60, "RB repeat message abuse"));
+    
+    assertEquals(3000L, Infractions.getLastInfraction(u, PunishmentType.WARN).getTimestamp());
+    assertEquals("No reason given.", Infractions.getLastInfraction(u, PunishmentType.KICK).getReason());
+    assertNull(Infractions.getLastInfraction(u, PunishmentType.BAN));
+    assertEquals(PunishmentType.MUTE, Infractions.getLastInfraction(u).getType());
+    assertEquals(4060L, Infractions.getMuteExpiry(u));
+    
+    // The history reads back oldest first
+    final ArrayList<InfractionEntry> history = Infractions.getInfractionHistory(u);
+    assertEquals(4, history.size());
+    assertEquals("RB rate abuse", history.get(0).getReason());
+    assertEquals(PunishmentType.KICK, history.get(1).getType());
+    
+    assertTrue(Infractions.clearInfractions(u));
+    assertNull(Infractions.getLastInfraction(u, PunishmentType.WARN));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testRecentCounts() {
+    
+    final long u = 6230L;
+    final long day = 86400L;
+    final int warn = PunishmentType.WARN.ordinal();
+    
+    assertEquals(0, Infractions.getRecentCounts(u, 1000)[warn]);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(Infractions.warnUser(u, 1000 + i, "RB rate abuse"));
+    }
+    
+    // Fresh warnings count in full, and fade as they age while the lifetime count stays
+    assertEquals(5, Infractions.getRecentCounts(u, 1010)[warn]);
+    assertTrue(Infractions.getRecentCounts(u, 1000 + 14 * day)[warn] < 5);
+    assertEquals(0, Infractions.getRecentCounts(u, 1000 + 365 * day)[warn]);
+    assertEquals(5, Infractions.getWarnCount(u));
+    
+    // A new infraction counts in full again
+    assertTrue(Infractions.kickUser(u, 1000 + 365 * day, "test"));
+    assertEquals(1, Infractions.getRecentCounts(u, 1000 + 365 * day)[PunishmentType.KICK.ordinal()]);
+    
+    assertTrue(Infractions.clearInfractions(u));
+    assertEquals(0, Infractions.getRecentCounts(u, 1000)[warn]);
+  }
+  
 }
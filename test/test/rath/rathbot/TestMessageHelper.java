@@ -186,7 +186,7 @@ public class TestMessageHelper {
     assertEquals(exp, res);
     
     res = MessageHelper.buildDiscNotificationMessage(PunishmentType.BAN, 6854, "Test reason.");
-    exp = "You have been banned from the osu! University server.\n" + "Reason: \"Test reason.\".\n"
+    exp = "You have been banned from the osu! University server for 1h54m14s.\n" + "Reason: \"Test reason.\".\n"
         + MessageHelper.ERROR_CONTACT_MSG;
     assertEquals(exp, res);
     
@@ -314,4 +314,22 @@ public class TestMessageHelper {
         + MessageHelper.ERROR_CONTACT_MSG;
     assertEquals(exp, res);
   }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testParseTimeString() {
+    
+    assertEquals(90L * 60L, MessageHelper.parseTimeString("90m"));
+    assertEquals(9L * 86400L, MessageHelper.parseTimeString("1w2d"));
+    assertEquals(30L * 86400L + 3600L + 5L, MessageHelper.parseTimeString("1M1h5s"));
+    assertEquals(0L, MessageHelper.parseTimeString("0m"));
+    
+    // Units out of order, repeated, unknown, or missing a count are invalid
+    assertEquals(-1L, MessageHelper.parseTimeString(""));
+    assertEquals(-1L, MessageHelper.parseTimeString("2d1w"));
+    assertEquals(-1L, MessageHelper.parseTimeString("1h1h"));
+    assertEquals(-1L, MessageHelper.parseTimeString("3y"));
+    assertEquals(-1L, MessageHelper.parseTimeString("h"));
+    assertEquals(-1L, MessageHelper.parseTimeString("99999999999999999999s"));
+  }
 }
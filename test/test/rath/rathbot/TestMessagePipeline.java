@@ -0,0 +1,121 @@
+package test.rath.rathbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rath.rathbot.MessagePipeline;
+
+import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.handle.obj.IUser;
+
+public class TestMessagePipeline {
+  
+  /**
+   * Makes a message that, when deleted, adds its ID to a list and notes the thread that deleted it.
+   * 
+   * @param authorID the author's ID.
+   * @param messageID the message's ID.
+   * @param deleted the list the message adds its ID to.
+   * @param deleters the list the deleting thread is added to.
+   * @return the message.
+   */
+  private static final IMessage newMessage(final long authorID, final long messageID, final List<Long> deleted,
+      final List<Thread> deleters) {
+    
+    final IUser author = (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+        new InvocationHandler() {
+          
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+              case "getLongID":
+                return Long.valueOf(authorID);
+              case "getName":
+                return "user" + authorID;
+              default:
+                return null;
+            }
+          }
+        });
+    return (IMessage) Proxy.newProxyInstance(IMessage.class.getClassLoader(), new Class<?>[] { IMessage.class },
+        new InvocationHandler() {
+          
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+              case "getAuthor":
+                return author;
+              case "getLongID":
+                return Long.valueOf(messageID);
+              case "delete":
+                synchronized (deleted) {
+                  deleted.add(Long.valueOf(messageID));
+                  deleters.add(Thread.currentThread());
+                }
+                return null;
+              default:
+                return null;
+            }
+          }
+        });
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testInlineWhenStopped() {
+    
+    final List<Long> deleted = new ArrayList<Long>();
+    final List<Thread> deleters = new ArrayList<Thread>();
+    MessagePipeline.submitRaidMessage(newMessage(1L, 1L, deleted, deleters));
+    assertEquals(1, deleted.size());
+    assertSame(Thread.currentThread(), deleters.get(0));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testShutdownDrains() {
+    
+    final int authors = 10;
+    final int perAuthor = 100;
+    final List<Long> deleted = new ArrayList<Long>();
+    final List<Thread> deleters = new ArrayList<Thread>();
+    
+    MessagePipeline.start();
+    try {
+      for (int i = 0; i < perAuthor; i++) {
+        for (int a = 0; a < authors; a++) {
+          MessagePipeline.submitRaidMessage(newMessage(a, a * perAuthor + i, deleted, deleters));
+        }
+      }
+      assertEquals(0L, MessagePipeline.getDroppedCount());
+    } finally {
+      MessagePipeline.shutdown();
+    }
+    
+    // Everything queued was handled before the shutdown returned, and each author's messages in order
+    synchronized (deleted) {
+      assertEquals(authors * perAuthor, deleted.size());
+      final long[] last = new long[authors];
+      for (int a = 0; a < authors; a++) {
+        last[a] = a * perAuthor - 1L;
+      }
+      for (final Long id : deleted) {
+        final int a = (int) (id.longValue() / perAuthor);
+        assertEquals(last[a] + 1L, id.longValue());
+        last[a] = id.longValue();
+      }
+      for (final Thread t : deleters) {
+        assertNotSame(Thread.currentThread(), t);
+      }
+    }
+  }
+}
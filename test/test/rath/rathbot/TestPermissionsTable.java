@@ -13,6 +13,7 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import com.rath.rathbot.cmd.PermissionsTable;
+import com.rath.rathbot.cmd.RBCommand;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class TestPermissionsTable {
@@ -59,7 +60,10 @@ public class TestPermissionsTable {
     result = PermissionsTable.initUser(uid);
     assertTrue(result);
     
+    // Default-level members are implicit, so nothing is stored
     result = PermissionsTable.hasUser(uid);
+    assertFalse(result);
+    assertTrue(PermissionsTable.getLevel(uid) == RBCommand.PERM_STANDARD);
   }
   
   @SuppressWarnings("static-method")
@@ -70,7 +74,7 @@ public class TestPermissionsTable {
     
     final long uid = 4856154453L;
     int lvl = PermissionsTable.getLevel(uid);
-    assertTrue(lvl == -1);
+    assertTrue(lvl == RBCommand.PERM_STANDARD);
     
     boolean result = PermissionsTable.initUser(uid);
     assertTrue(result);
@@ -78,6 +82,13 @@ public class TestPermissionsTable {
     result = PermissionsTable.updateUser(uid, 7);
     lvl = PermissionsTable.getLevel(uid);
     assertTrue(lvl == 7);
+    assertTrue(PermissionsTable.hasUser(uid));
+    
+    // Going back to the default level drops the entry
+    result = PermissionsTable.updateUser(uid, RBCommand.PERM_STANDARD);
+    assertTrue(result);
+    assertFalse(PermissionsTable.hasUser(uid));
+    assertTrue(PermissionsTable.getLevel(uid) == RBCommand.PERM_STANDARD);
     
   }
   
@@ -94,19 +105,22 @@ public class TestPermissionsTable {
     result = PermissionsTable.initUser(uid);
     assertTrue(result);
     
-    result = PermissionsTable.hasUser(uid);
-    assertTrue(result);
-    
     result = PermissionsTable.updateUser(uid, 5);
     int lvl = PermissionsTable.getLevel(uid);
     assertTrue(lvl == 5);
     
+    result = PermissionsTable.hasUser(uid);
+    assertTrue(result);
+    
     result = PermissionsTable.removeUser(uid);
     assertTrue(result);
     
     result = PermissionsTable.hasUser(uid);
     assertFalse(result);
     
+    lvl = PermissionsTable.getLevel(uid);
+    assertTrue(lvl == RBCommand.PERM_STANDARD);
+    
   }
   
 }
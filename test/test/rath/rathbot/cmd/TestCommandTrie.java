@@ -0,0 +1,94 @@
+
+package test.rath.rathbot.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rath.rathbot.cmd.CommandTrie;
+import com.rath.rathbot.cmd.RBCommand;
+import com.rath.rathbot.cmd.admin.UIDCmd;
+import com.rath.rathbot.cmd.msg.PingCmd;
+import com.rath.rathbot.cmd.msg.faq.FAQCmd;
+import com.rath.rathbot.cmd.msg.faq.FAQEditCmd;
+import com.rath.rathbot.cmd.msg.faq.FAQListCmd;
+import com.rath.rathbot.cmd.msg.react.ReactCmd;
+import com.rath.rathbot.cmd.msg.react.ReactListCmd;
+
+public class TestCommandTrie {
+  
+  /**
+   * Builds a dispatch tree from a few of the bot's commands.
+   * 
+   * @return the built CommandTrie.
+   */
+  private static final CommandTrie buildTrie() {
+    
+    final List<RBCommand> commands = new ArrayList<RBCommand>();
+    commands.add(new FAQCmd());
+    commands.add(new ReactCmd());
+    commands.add(new PingCmd());
+    commands.add(new UIDCmd());
+    return CommandTrie.build(commands);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testResolveTopLevel() {
+    
+    final CommandTrie trie = buildTrie();
+    
+    CommandTrie.Node node = trie.resolve(new String[] { "rb!", "ping" });
+    assertTrue(node.getCommand() instanceof PingCmd);
+    assertEquals(CommandTrie.ROOT_TOKEN_INDEX, node.getDepth());
+    
+    // Top-level names ignore case and surrounding whitespace
+    node = trie.resolve(new String[] { "rb!", "\tPiNg\n" });
+    assertTrue(node.getCommand() instanceof PingCmd);
+    
+    // Arguments that aren't subcommands don't change the match
+    node = trie.resolve(new String[] { "rb!", "faq", "someFaq" });
+    assertTrue(node.getCommand() instanceof FAQCmd);
+    assertEquals(CommandTrie.ROOT_TOKEN_INDEX, node.getDepth());
+    
+    assertNull(trie.resolve(new String[] { "rb!" }));
+    assertNull(trie.resolve(new String[] { "rb!", "nope" }));
+    assertNull(trie.resolve(new String[] { "rb!", "pin" }));
+    assertNull(trie.resolve(new String[] { "rb!", "pingg" }));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testResolveSubcommands() {
+    
+    final CommandTrie trie = buildTrie();
+    
+    CommandTrie.Node node = trie.resolve(new String[] { "rb!", "faq", "list" });
+    assertTrue(node.getCommand() instanceof FAQListCmd);
+    assertEquals(CommandTrie.ROOT_TOKEN_INDEX + 1, node.getDepth());
+    assertTrue(node.getParent().getCommand() instanceof FAQCmd);
+    assertSame(node.getParent(), node.getAncestor(CommandTrie.ROOT_TOKEN_INDEX));
+    assertSame(node, node.getAncestor(node.getDepth()));
+    
+    node = trie.resolve(new String[] { "rb!", "FAQ", "EDIT", "a", "b" });
+    assertTrue(node.getCommand() instanceof FAQEditCmd);
+    
+    // The same subcommand name under different commands resolves to different commands
+    node = trie.resolve(new String[] { "rb!", "react", "list" });
+    assertTrue(node.getCommand() instanceof ReactListCmd);
+    
+    // Subcommands are only matched under their own command
+    node = trie.resolve(new String[] { "rb!", "ping", "list" });
+    assertTrue(node.getCommand() instanceof PingCmd);
+    
+    // Subcommand resolution is stable, so the same instances are returned every time
+    assertSame(trie.resolve(new String[] { "rb!", "faq", "list" }).getCommand(),
+        trie.resolve(new String[] { "rb!", "faq", "List" }).getCommand());
+  }
+}
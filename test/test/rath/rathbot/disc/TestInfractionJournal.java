@@ -0,0 +1,249 @@
+
+package test.rath.rathbot.disc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.InfractionData;
+import com.rath.rathbot.disc.InfractionJournal;
+import com.rath.rathbot.util.LongObjectHashMap;
+
+public class TestInfractionJournal {
+  
+  /**
+   * Creates an empty directory for a test's files.
+   * 
+   * @return the directory.
+   * @throws IOException if it couldn't be created.
+   */
+  private static final File newTempDir() throws IOException {
+    final File dir = Files.createTempDirectory("rb-journal-test").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testReplay() throws IOException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile);
+    assertTrue(journal.load().isEmpty());
+    journal.start();
+    
+    journal.append(InfractionJournal.OP_RESET, 1L, 0L, 0, null);
+    journal.append(InfractionJournal.OP_WARN, 1L, 100L, 0, "spam");
+    journal.append(InfractionJournal.OP_MUTE, 1L, 200L, 600, null);
+    journal.append(InfractionJournal.OP_SET_MUTED, 1L, 0L, 0, null);
+    journal.append(InfractionJournal.OP_RESET, 2L, 0L, 0, null);
+    journal.append(InfractionJournal.OP_KICK, 2L, 300L, 0, "rude");
+    final long last = journal.append(InfractionJournal.OP_BAN, 2L, 400L, 0, "ruder");
+    assertTrue(journal.awaitDurable(last));
+    journal.close();
+    
+    journal = new InfractionJournal(journalFile, snapshotFile);
+    final LongObjectHashMap<InfractionData> map = journal.load();
+    assertEquals(2, map.size());
+    
+    final InfractionData one = map.get(1L);
+    assertEquals(1, one.getWarnCount());
+    assertEquals(1, one.getMuteCount());
+    assertEquals(600, one.getMuteDuration());
+    assertFalse(one.isMuted());
+    assertEquals("spam", one.getHistory().get(0).getReason());
+    assertEquals("No reason given.", one.getHistory().get(1).getReason());
+    
+    final InfractionData two = map.get(2L);
+    assertEquals(1, two.getKickCount());
+    assertEquals(1, two.getBanCount());
+    assertTrue(two.isBanned());
+    assertEquals(400L, two.getHistory().get(1).getTimestamp());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTornTail() throws IOException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile);
+    journal.load();
+    journal.start();
+    journal.append(InfractionJournal.OP_RESET, 5L, 0L, 0, null);
+    final long last = journal.append(InfractionJournal.OP_WARN, 5L, 1L, 0, "a reason long enough to tear");
+    assertTrue(journal.awaitDurable(last));
+    journal.close();
+    
+    // Cut the last record short, as if the bot died while writing it
+    final long fullLength = journalFile.length();
+    try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+      raf.setLength(fullLength - 5);
+    }
+    
+    journal = new InfractionJournal(journalFile, snapshotFile);
+    LongObjectHashMap<InfractionData> map = journal.load();
+    assertTrue(map.containsKey(5L));
+    assertEquals(0, map.get(5L).getWarnCount());
+    
+    // New records go after the last intact one
+    journal.start();
+    assertTrue(journal.awaitDurable(journal.append(InfractionJournal.OP_KICK, 5L, 2L, 0, null)));
+    journal.close();
+    
+    map = new InfractionJournal(journalFile, snapshotFile).load();
+    assertEquals(0, map.get(5L).getWarnCount());
+    assertEquals(1, map.get(5L).getKickCount());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSnapshots() throws IOException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile, 4);
+    final LongObjectHashMap<InfractionData> live = journal.load();
+    journal.start();
+    
+    // Keep a live table in step with the journal, snapshotting whenever one is due
+    live.put(9L, new InfractionData());
+    journal.append(InfractionJournal.OP_RESET, 9L, 0L, 0, null);
+    long seq = 0L;
+    for (int i = 0; i < 10; i++) {
+      live.get(9L).warn(i, "warn " + i);
+      seq = journal.append(InfractionJournal.OP_WARN, 9L, i, 0, "warn " + i);
+      if (journal.isSnapshotDue()) {
+        seq = journal.snapshot(live);
+      }
+    }
+    assertTrue(journal.awaitDurable(seq));
+    journal.close();
+    
+    // Only the records since the last snapshot are left in the journal
+    assertTrue(snapshotFile.length() > 0);
+    assertTrue(journalFile.length() > 0);
+    
+    final LongObjectHashMap<InfractionData> map = new InfractionJournal(journalFile, snapshotFile).load();
+    assertEquals(10, map.get(9L).getWarnCount());
+    assertEquals("warn 9", map.get(9L).getHistory().get(9).getReason());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTimedBans() throws IOException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile);
+    final LongObjectHashMap<InfractionData> live = journal.load();
+    journal.start();
+    
+    // One timed ban goes into the snapshot, the other stays in the journal
+    live.put(6L, new InfractionData());
+    live.get(6L).ban(500L, 3600, "timed");
+    journal.append(InfractionJournal.OP_BAN, 6L, 500L, 3600, "timed");
+    journal.snapshot(live);
+    assertTrue(journal.awaitDurable(journal.append(InfractionJournal.OP_BAN, 7L, 800L, 60, "short")));
+    journal.close();
+    
+    final LongObjectHashMap<InfractionData> map = new InfractionJournal(journalFile, snapshotFile).load();
+    assertEquals(3600, map.get(6L).getBanDuration());
+    assertEquals(4100L, map.get(6L).getBanExpiry());
+    assertEquals(860L, map.get(7L).getBanExpiry());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLegacySnapshot() throws IOException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    // Older versions saved just the map
+    final TreeMap<Long, InfractionData> old = new TreeMap<Long, InfractionData>();
+    old.put(3L, new InfractionData());
+    old.get(3L).ban(10L, 0, "old ban");
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(snapshotFile))) {
+      oos.writeObject(old);
+    }
+    
+    final InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile);
+    LongObjectHashMap<InfractionData> map = journal.load();
+    assertEquals(1, map.get(3L).getBanCount());
+    
+    journal.start();
+    assertTrue(journal.awaitDurable(journal.append(InfractionJournal.OP_SET_BANNED, 3L, 0L, 0, null)));
+    journal.close();
+    
+    map = new InfractionJournal(journalFile, snapshotFile).load();
+    assertFalse(map.get(3L).isBanned());
+    assertEquals(1, map.get(3L).getBanCount());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testConcurrentAppends() throws IOException, InterruptedException {
+    
+    final File dir = newTempDir();
+    final File journalFile = new File(dir, "infractions.dat.journal");
+    final File snapshotFile = new File(dir, "infractions.dat");
+    
+    final InfractionJournal journal = new InfractionJournal(journalFile, snapshotFile);
+    journal.load();
+    journal.start();
+    
+    final int threadCount = 8;
+    final int perThread = 200;
+    final boolean[] allDurable = { true };
+    final Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final long user = t;
+      threads[t] = new Thread(new Runnable() {
+        
+        @Override
+        public void run() {
+          for (int i = 0; i < perThread; i++) {
+            if (!journal.awaitDurable(journal.append(InfractionJournal.OP_WARN, user, i, 0, null))) {
+              synchronized (allDurable) {
+                allDurable[0] = false;
+              }
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    journal.close();
+    assertTrue(allDurable[0]);
+    
+    final LongObjectHashMap<InfractionData> map = new InfractionJournal(journalFile, snapshotFile).load();
+    assertEquals(threadCount, map.size());
+    for (int t = 0; t < threadCount; t++) {
+      assertEquals(perThread, map.get((long) t).getWarnCount());
+    }
+  }
+}
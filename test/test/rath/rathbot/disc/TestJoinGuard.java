@@ -0,0 +1,75 @@
+package test.rath.rathbot.disc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.JoinGuard;
+import com.rath.rathbot.disc.ModerationQueue;
+import com.rath.rathbot.disc.PunishmentType;
+
+import test.rath.rathbot.disc.TestModerationQueue.RecordingIssuer;
+
+public class TestJoinGuard {
+  
+  /** One hour, in milliseconds. */
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  
+  /** One day, in milliseconds. */
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  
+  /** How long a lockdown lasts with the default config. */
+  private static final long LOCKDOWN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLockdown() {
+    
+    final RecordingIssuer rec = new RecordingIssuer();
+    ModerationQueue.setIssuer(rec);
+    try {
+      TestModerationQueue.drain();
+      JoinGuard.init();
+      JoinGuard.setLockdown(false);
+      
+      // Five new accounts and an old one don't start a lockdown, with the default of six
+      final long start = 1000L * DAY;
+      for (int i = 0; i < 5; i++) {
+        JoinGuard.onJoin(TestModerationQueue.newUser(2000 + i, start - HOUR), 0L, start + i * 1000L);
+      }
+      JoinGuard.onJoin(TestModerationQueue.newUser(2100, start - 400L * DAY), 0L, start + 5000L);
+      assertFalse(JoinGuard.isLockdown(start + 5000L));
+      assertEquals(0, ModerationQueue.getPendingCount());
+      
+      // The sixth does, and the new accounts that joined just before it are caught too
+      JoinGuard.onJoin(TestModerationQueue.newUser(2005, start - HOUR), 0L, start + 6000L);
+      assertTrue(JoinGuard.isLockdown(start + 6000L));
+      assertEquals(6, ModerationQueue.getPendingCount());
+      
+      // During it, accounts under the minimum age are flagged and older ones are let in
+      JoinGuard.onJoin(TestModerationQueue.newUser(2200, start - 3L * DAY), 0L, start + 7000L);
+      JoinGuard.onJoin(TestModerationQueue.newUser(2201, start - 30L * DAY), 0L, start + 8000L);
+      assertEquals(7, ModerationQueue.getPendingCount());
+      
+      // The thresholds were still crossed on the last join, so the lockdown runs from it
+      final long last = start + 8000L;
+      assertTrue(JoinGuard.isLockdown(last + LOCKDOWN_MILLIS - 1L));
+      assertFalse(JoinGuard.isLockdown(last + LOCKDOWN_MILLIS));
+      
+      // After it ends, a young account gets in
+      JoinGuard.onJoin(TestModerationQueue.newUser(2300, start - HOUR), 0L, last + LOCKDOWN_MILLIS + 1L);
+      assertFalse(JoinGuard.isLockdown(last + LOCKDOWN_MILLIS + 1L));
+      assertEquals(7, ModerationQueue.getPendingCount());
+      
+      assertEquals(7, ModerationQueue.issueBatch());
+      assertEquals(1, rec.types.size());
+      assertEquals(PunishmentType.KICK, rec.types.get(0));
+    } finally {
+      ModerationQueue.setIssuer(null);
+    }
+  }
+}
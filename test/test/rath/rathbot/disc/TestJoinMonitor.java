@@ -0,0 +1,69 @@
+
+package test.rath.rathbot.disc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.JoinMonitor;
+
+public class TestJoinMonitor {
+  
+  /** One hour, in milliseconds. */
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  
+  /** One day, in milliseconds. */
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testBrackets() {
+    
+    assertEquals(0, JoinMonitor.bracketOf(0L));
+    assertEquals(0, JoinMonitor.bracketOf(HOUR - 1));
+    assertEquals(1, JoinMonitor.bracketOf(HOUR));
+    assertEquals(2, JoinMonitor.bracketOf(DAY));
+    assertEquals(JoinMonitor.AGE_BRACKET_COUNT - 1, JoinMonitor.bracketOf(1000L * DAY));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testHistogram() {
+    
+    final JoinMonitor mon = new JoinMonitor(60000L, 6);
+    mon.record(0L, 10L * 60000L);
+    mon.record(1000L, 5L * HOUR);
+    mon.record(2000L, 3L * DAY);
+    mon.record(3000L, 400L * DAY);
+    
+    assertEquals(4, mon.getJoinCount(3000L));
+    assertEquals(2, mon.countYoungerThan(3000L, JoinMonitor.bracketOf(DAY - 1)));
+    
+    final int[] hist = mon.getHistogram(3000L);
+    assertEquals(1, hist[0]);
+    assertEquals(1, hist[1]);
+    assertEquals(1, hist[2]);
+    assertEquals(1, hist[JoinMonitor.AGE_BRACKET_COUNT - 1]);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testWindowSlides() {
+    
+    final JoinMonitor mon = new JoinMonitor(60000L, 6);
+    for (int i = 0; i < 30; i++) {
+      mon.record(i * 1000L, HOUR);
+    }
+    assertEquals(30, mon.getJoinCount(30000L));
+    
+    // The first ten joins have aged out of the window by now
+    assertEquals(20, mon.getJoinCount(65000L));
+    
+    // And all of them have after a quiet spell
+    assertEquals(0, mon.getJoinCount(600000L));
+    mon.record(600000L, HOUR);
+    assertEquals(1, mon.getJoinCount(600000L));
+  }
+}
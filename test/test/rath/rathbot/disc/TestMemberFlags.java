@@ -0,0 +1,59 @@
+
+package test.rath.rathbot.disc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.MemberFlags;
+
+public class TestMemberFlags {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSetAndClear() {
+    
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, new long[0]);
+    MemberFlags.setAll(MemberFlags.FLAG_SPAM_EXEMPT, new long[0]);
+    assertEquals(0, MemberFlags.size());
+    
+    MemberFlags.set(30L, MemberFlags.FLAG_MUTED, true);
+    MemberFlags.set(10L, MemberFlags.FLAG_MUTED, true);
+    MemberFlags.set(20L, MemberFlags.FLAG_SPAM_EXEMPT, true);
+    MemberFlags.set(10L, MemberFlags.FLAG_SPAM_EXEMPT, true);
+    assertEquals(3, MemberFlags.size());
+    assertEquals(MemberFlags.FLAG_MUTED | MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(10L));
+    assertTrue(MemberFlags.has(20L, MemberFlags.FLAG_SPAM_EXEMPT));
+    assertFalse(MemberFlags.has(20L, MemberFlags.FLAG_MUTED));
+    assertEquals(0, MemberFlags.get(15L));
+    
+    // Members leave the table once their last flag is cleared
+    MemberFlags.set(10L, MemberFlags.FLAG_MUTED, false);
+    assertEquals(MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(10L));
+    MemberFlags.set(30L, MemberFlags.FLAG_MUTED, false);
+    assertEquals(2, MemberFlags.size());
+    assertEquals(0, MemberFlags.get(30L));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSetAll() {
+    
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, new long[0]);
+    MemberFlags.setAll(MemberFlags.FLAG_SPAM_EXEMPT, new long[] { 5L, 1L });
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, new long[] { 9L, 5L, 3L, 9L });
+    assertEquals(4, MemberFlags.size());
+    assertEquals(MemberFlags.FLAG_MUTED | MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(5L));
+    assertEquals(MemberFlags.FLAG_MUTED, MemberFlags.get(9L));
+    assertEquals(MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(1L));
+    
+    // Replacing one flag keeps the other
+    MemberFlags.setAll(MemberFlags.FLAG_MUTED, new long[] { 1L });
+    assertEquals(2, MemberFlags.size());
+    assertEquals(MemberFlags.FLAG_MUTED | MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(1L));
+    assertEquals(MemberFlags.FLAG_SPAM_EXEMPT, MemberFlags.get(5L));
+    assertEquals(0, MemberFlags.get(9L));
+  }
+}
@@ -0,0 +1,165 @@
+package test.rath.rathbot.disc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.ModerationQueue;
+import com.rath.rathbot.disc.PunishmentType;
+
+import sx.blah.discord.handle.obj.IUser;
+
+public class TestModerationQueue {
+  
+  /**
+   * Records the batches handed off, one entry per call.
+   */
+  static final class RecordingIssuer implements ModerationQueue.Issuer {
+    
+    /** The punishment of each call. */
+    final List<PunishmentType> types = new ArrayList<PunishmentType>();
+    
+    /** The members of each call. */
+    final List<List<IUser>> users = new ArrayList<List<IUser>>();
+    
+    @Override
+    public void issue(final PunishmentType type, final List<IUser> u, final long time, final String reason) {
+      this.types.add(type);
+      this.users.add(new ArrayList<IUser>(u));
+    }
+  }
+  
+  /**
+   * Makes a user with only an ID and creation date.
+   * 
+   * @param uid the user's ID.
+   * @param created when the account was made, in epoch milliseconds.
+   * @return the user.
+   */
+  static final IUser newUser(final long uid, final long created) {
+    return (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+        new InvocationHandler() {
+          
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+              case "getLongID":
+                return Long.valueOf(uid);
+              case "getCreationDate":
+                return Instant.ofEpochMilli(created);
+              case "getName":
+                return "user" + uid;
+              case "hashCode":
+                return Integer.valueOf(Long.hashCode(uid));
+              case "equals":
+                return Boolean.valueOf(proxy == args[0]);
+              default:
+                return null;
+            }
+          }
+        });
+  }
+  
+  /**
+   * Issues everything left in the queue from earlier tests.
+   */
+  static final void drain() {
+    while (ModerationQueue.issueBatch() > 0) {
+      // Keep going
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testBatching() {
+    
+    final RecordingIssuer rec = new RecordingIssuer();
+    ModerationQueue.setIssuer(rec);
+    try {
+      drain();
+      rec.types.clear();
+      rec.users.clear();
+      
+      for (int i = 0; i < 30; i++) {
+        assertTrue(ModerationQueue.submit(newUser(1000 + i, 0L), PunishmentType.KICK, "raid"));
+      }
+      
+      // A member is only queued once, but a ban replaces a waiting kick
+      assertFalse(ModerationQueue.submit(newUser(1003, 0L), PunishmentType.KICK, "raid"));
+      assertTrue(ModerationQueue.submit(newUser(1005, 0L), PunishmentType.BAN, "raid"));
+      assertFalse(ModerationQueue.submit(newUser(1005, 0L), PunishmentType.KICK, "raid"));
+      assertFalse(ModerationQueue.submit(newUser(1005, 0L), PunishmentType.BAN, "raid"));
+      assertEquals(30, ModerationQueue.getPendingCount());
+      
+      // The first batch is full and all kicks
+      assertEquals(25, ModerationQueue.issueBatch());
+      assertEquals(1, rec.types.size());
+      assertEquals(PunishmentType.KICK, rec.types.get(0));
+      assertEquals(25, rec.users.get(0).size());
+      assertEquals(1000L, rec.users.get(0).get(0).getLongID());
+      
+      // The rest are split into one call per punishment
+      assertEquals(5, ModerationQueue.issueBatch());
+      assertEquals(3, rec.types.size());
+      assertEquals(PunishmentType.KICK, rec.types.get(1));
+      assertEquals(4, rec.users.get(1).size());
+      assertEquals(PunishmentType.BAN, rec.types.get(2));
+      assertEquals(1005L, rec.users.get(2).get(0).getLongID());
+      
+      assertEquals(0, ModerationQueue.issueBatch());
+      assertEquals(3, rec.types.size());
+      
+      // Issued members can be queued again
+      assertTrue(ModerationQueue.submit(newUser(1000, 0L), PunishmentType.KICK, "raid"));
+      drain();
+    } finally {
+      ModerationQueue.setIssuer(null);
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testBound() {
+    
+    final RecordingIssuer rec = new RecordingIssuer();
+    ModerationQueue.setIssuer(rec);
+    try {
+      drain();
+      final long dropped = ModerationQueue.getDroppedCount();
+      int queued = 0;
+      for (int i = 0; i < 6000; i++) {
+        if (ModerationQueue.submit(newUser(100000 + i, 0L), PunishmentType.BAN, "raid")) {
+          queued++;
+        }
+      }
+      assertEquals(5000, queued);
+      assertEquals(5000, ModerationQueue.getPendingCount());
+      assertEquals(dropped + 1000, ModerationQueue.getDroppedCount());
+      drain();
+      assertEquals(0, ModerationQueue.getPendingCount());
+    } finally {
+      ModerationQueue.setIssuer(null);
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testOnlyRemovals() {
+    try {
+      ModerationQueue.submit(newUser(1, 0L), PunishmentType.WARN, "raid");
+      fail("Queued a warn.");
+    } catch (@SuppressWarnings("unused") IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
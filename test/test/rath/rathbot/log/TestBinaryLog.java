@@ -0,0 +1,111 @@
+package test.rath.rathbot.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rath.rathbot.log.BinaryLogReader;
+import com.rath.rathbot.log.BinaryLogWriter;
+import com.rath.rathbot.log.LoggedMessage;
+
+public class TestBinaryLog {
+  
+  /** The number of messages each test writes. Enough for the segment to need several index entries. */
+  private static final int MESSAGE_COUNT = 18000;
+  
+  /**
+   * Creates an empty directory for a test's files.
+   * 
+   * @return the directory.
+   * @throws IOException if it couldn't be created.
+   */
+  private static final File newTempDir() throws IOException {
+    final File dir = Files.createTempDirectory("rb-binlog-test").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+  
+  /**
+   * Writes messages one second apart, alternating between two channels and cycling through three authors.
+   * 
+   * @param writer the writer.
+   * @throws IOException if a message couldn't be written.
+   */
+  private static final void writeMessages(final BinaryLogWriter writer) throws IOException {
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      writer.append(10L + (i % 2), 100L + (i % 3), i, i * 1000L, "message " + i + " \u00e9");
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTimeRangeReads() throws IOException {
+    
+    final File file = new File(newTempDir(), "messages.rbl");
+    final BinaryLogWriter writer = new BinaryLogWriter(file);
+    writeMessages(writer);
+    writer.flush(false);
+    
+    // A segment still being written to has its index rebuilt
+    BinaryLogReader reader = BinaryLogReader.open(file);
+    assertFalse(reader.isSealed());
+    assertTrue(reader.getIndexSize() > 2);
+    assertEquals((MESSAGE_COUNT - 1) * 1000L, reader.getMaxTimestamp());
+    
+    List<LoggedMessage> found = reader.read(5000000L, 5009000L);
+    assertEquals(10, found.size());
+    assertEquals(5000L, found.get(0).getMessageID());
+    assertEquals("message 5000 \u00e9", found.get(0).getContent());
+    
+    // A rolled segment's index is read from its footer, and reads the same
+    writer.seal(false);
+    reader = BinaryLogReader.open(file);
+    assertTrue(reader.isSealed());
+    assertEquals(10, reader.read(5000000L, 5009000L).size());
+    
+    // Filters by channel and author
+    found = reader.read(0L, Long.MAX_VALUE, 11L, 101L);
+    assertEquals(MESSAGE_COUNT / 6, found.size());
+    for (final LoggedMessage m : found) {
+      assertEquals(11L, m.getChannelID());
+      assertEquals(101L, m.getAuthorID());
+    }
+    assertTrue(reader.read(MESSAGE_COUNT * 1000L, Long.MAX_VALUE).isEmpty());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testResumeAfterCrash() throws IOException {
+    
+    final File file = new File(newTempDir(), "messages.rbl");
+    BinaryLogWriter writer = new BinaryLogWriter(file);
+    writeMessages(writer);
+    writer.close();
+    
+    // Cut the last record in half, as a crash mid-write would
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 5);
+    }
+    assertEquals(MESSAGE_COUNT - 1, BinaryLogReader.open(file).read(0L, Long.MAX_VALUE).size());
+    
+    // The writer drops the partial record and carries on after the last whole one
+    writer = new BinaryLogWriter(file);
+    writer.append(10L, 100L, 99999L, MESSAGE_COUNT * 1000L, "after the crash");
+    writer.seal(false);
+    
+    final BinaryLogReader reader = BinaryLogReader.open(file);
+    assertTrue(reader.isSealed());
+    final List<LoggedMessage> found = reader.read((MESSAGE_COUNT - 2) * 1000L, Long.MAX_VALUE);
+    assertEquals(2, found.size());
+    assertEquals(MESSAGE_COUNT - 2, found.get(0).getMessageID());
+    assertEquals("after the crash", found.get(1).getContent());
+  }
+}
@@ -0,0 +1,179 @@
+package test.rath.rathbot.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.rath.rathbot.log.LogArchiver;
+
+public class TestLogArchiver {
+  
+  /** One day, in milliseconds. */
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  
+  /** The time every roll in these tests happens at. */
+  private static final long ROLL_TIME = Instant.parse("2024-03-05T06:07:08Z").toEpochMilli();
+  
+  /**
+   * Creates an empty directory for a test's files.
+   * 
+   * @return the directory.
+   * @throws IOException if it couldn't be created.
+   */
+  private static final File newTempDir() throws IOException {
+    final File dir = Files.createTempDirectory("rb-archiver-test").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+  
+  /**
+   * Writes a file.
+   * 
+   * @param dir the directory to write it in.
+   * @param name the file's name.
+   * @param content the file's contents.
+   * @param modified the file's last modified time, in epoch milliseconds.
+   * @return the file.
+   * @throws IOException if it couldn't be written.
+   */
+  private static final File writeFile(final File dir, final String name, final String content, final long modified)
+      throws IOException {
+    final File f = new File(dir, name);
+    Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    assertTrue(f.setLastModified(modified));
+    f.deleteOnExit();
+    return f;
+  }
+  
+  /**
+   * Reads a gzipped file back.
+   * 
+   * @param file the file.
+   * @return its uncompressed contents.
+   * @throws IOException if it couldn't be read.
+   */
+  private static final String readGzip(final File file) throws IOException {
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testRollNames() throws IOException {
+    
+    final File dir = newTempDir();
+    final LogArchiver archiver = new LogArchiver(dir, ".txt", 0L, 0L);
+    try {
+      final File log = new File(dir, "log_general.txt");
+      
+      writeFile(dir, log.getName(), "first", ROLL_TIME);
+      final File first = archiver.roll(log, ROLL_TIME);
+      assertNotNull(first);
+      assertEquals("log_general.20240305-060708.txt", first.getName());
+      assertFalse(log.exists());
+      
+      // A second roll in the same second gets a counter
+      writeFile(dir, log.getName(), "second", ROLL_TIME);
+      assertEquals("log_general.20240305-060708-1.txt", archiver.roll(log, ROLL_TIME).getName());
+      
+      // So does one that would collide with a segment already compressed
+      writeFile(dir, "log_general.20240305-060708-2.txt.gz", "", ROLL_TIME);
+      writeFile(dir, log.getName(), "third", ROLL_TIME);
+      assertEquals("log_general.20240305-060708-3.txt", archiver.roll(log, ROLL_TIME).getName());
+      
+      // The log being written to isn't a segment
+      writeFile(dir, log.getName(), "fourth", ROLL_TIME);
+      assertEquals(4, archiver.listSegments().length);
+    } finally {
+      archiver.shutdown();
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testCompress() throws IOException {
+    
+    final File dir = newTempDir();
+    final LogArchiver archiver = new LogArchiver(dir, ".txt", 0L, 0L);
+    final long modified = ROLL_TIME - 3L * DAY;
+    final File log = writeFile(dir, "log_general.txt", "hello\nworld\n", modified);
+    final File rolled = archiver.roll(log, ROLL_TIME);
+    final File binary = writeFile(dir, "messages.20240305-060708.rbl", "binary", modified);
+    archiver.archive(rolled);
+    archiver.archive(binary);
+    archiver.shutdown();
+    
+    // The segment is replaced by its compressed copy, which keeps its age
+    final File gz = new File(dir, rolled.getName() + ".gz");
+    gz.deleteOnExit();
+    assertFalse(rolled.exists());
+    assertTrue(gz.exists());
+    assertEquals(modified, gz.lastModified());
+    assertEquals("hello\nworld\n", readGzip(gz));
+    assertFalse(new File(dir, gz.getName() + ".tmp").exists());
+    
+    // Segments with another suffix are left as they are
+    assertTrue(binary.exists());
+    assertFalse(new File(dir, binary.getName() + ".gz").exists());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLeftoverCompressed() throws IOException {
+    
+    // A segment a crash left uncompressed is compressed when the archiver starts
+    final File dir = newTempDir();
+    final File left = writeFile(dir, "log_general.20240305-060708.txt", "left over", ROLL_TIME);
+    new LogArchiver(dir, ".txt", 0L, 0L).shutdown();
+    
+    final File gz = new File(dir, left.getName() + ".gz");
+    gz.deleteOnExit();
+    assertFalse(left.exists());
+    assertEquals("left over", readGzip(gz));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testRetention() throws IOException {
+    
+    final File dir = newTempDir();
+    final long now = System.currentTimeMillis();
+    final String kilobyte = new String(new char[1000]).replace('\0', 'x');
+    final File expired = writeFile(dir, "log_general.20200101-000000.txt.gz", kilobyte, now - 200L * DAY);
+    final File oldest = writeFile(dir, "log_general.20240101-000000.txt.gz", kilobyte, now - 3L * DAY);
+    final File older = writeFile(dir, "log_general.20240102-000000.txt.gz", kilobyte, now - 2L * DAY);
+    final File newest = writeFile(dir, "log_general.20240103-000000.txt.gz", kilobyte, now - DAY);
+    final File current = writeFile(dir, "log_general.txt", kilobyte, now - 300L * DAY);
+    
+    // Past the age limit goes first; then the oldest go until everything fits the cap
+    new LogArchiver(dir, ".txt", 30L * DAY, 3500L).shutdown();
+    assertFalse(expired.exists());
+    assertFalse(oldest.exists());
+    assertTrue(older.exists());
+    assertTrue(newest.exists());
+    
+    // The log being written to is counted, but never deleted
+    assertTrue(current.exists());
+  }
+}
@@ -0,0 +1,95 @@
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.rath.rathbot.disc.PunishmentType;
+import com.rath.rathbot.msg.Escalation;
+import com.rath.rathbot.msg.EscalationPolicy;
+import com.rath.rathbot.msg.SpamTrigger;
+
+public class TestEscalationPolicy {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testDefaultLadder() {
+    
+    final EscalationPolicy policy = EscalationPolicy.parse(EscalationPolicy.DEFAULT_RULES);
+    final SpamTrigger rate = SpamTrigger.MESSAGE_RATE;
+    
+    assertEquals(PunishmentType.WARN, policy.decide(rate, 1L, 2L, 0, 0, 0).getType());
+    assertEquals(PunishmentType.WARN, policy.decide(rate, 1L, 2L, 4, 0, 0).getType());
+    
+    // Mutes get longer with each one, up to the end of the list
+    Escalation e = policy.decide(rate, 1L, 2L, 5, 0, 0);
+    assertEquals(PunishmentType.MUTE, e.getType());
+    assertEquals(60, e.getDuration());
+    assertEquals(1800, policy.decide(rate, 1L, 2L, 9, 2, 0).getDuration());
+    assertEquals(86400, policy.decide(rate, 1L, 2L, 5, 4, 0).getDuration());
+    
+    assertEquals(PunishmentType.KICK, policy.decide(rate, 1L, 2L, 0, 5, 0).getType());
+    e = policy.decide(rate, 1L, 2L, 100, 100, 3);
+    assertEquals(PunishmentType.BAN, e.getType());
+    assertEquals(0, e.getDuration());
+    
+    // Negative counts, from a table that isn't loaded, are treated as 0
+    assertEquals(PunishmentType.WARN, policy.decide(rate, 1L, 2L, -1, -1, -1).getType());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testScopesAndTriggers() {
+    
+    final EscalationPolicy policy = EscalationPolicy.parse(Arrays.asList(
+        "# Raid tuning",
+        "default gibberish - warn",
+        "default * warns>=3 mute 10m",
+        "default * - warn",
+        "",
+        "guild:100 * warns>=1,kicks>=1 ban 1w",
+        "channel:7 filtered_content - kick"));
+    
+    // Default scope, by trigger
+    assertEquals(PunishmentType.WARN, policy.decide(SpamTrigger.GIBBERISH, 1L, 2L, 10, 0, 0).getType());
+    assertEquals(600, policy.decide(SpamTrigger.MESSAGE_RATE, 1L, 2L, 3, 0, 0).getDuration());
+    
+    // A guild's rules come first, and fall through to the defaults where they don't match
+    final Escalation ban = policy.decide(SpamTrigger.MESSAGE_RATE, 100L, 2L, 1, 0, 1);
+    assertEquals(PunishmentType.BAN, ban.getType());
+    assertEquals(7 * 86400, ban.getDuration());
+    assertEquals(PunishmentType.MUTE, policy.decide(SpamTrigger.MESSAGE_RATE, 100L, 2L, 3, 0, 0).getType());
+    
+    // A channel's rules come before its guild's
+    assertEquals(PunishmentType.KICK, policy.decide(SpamTrigger.FILTERED_CONTENT, 100L, 7L, 1, 0, 1).getType());
+    assertEquals(PunishmentType.BAN, policy.decide(SpamTrigger.REPEAT_MESSAGES, 100L, 7L, 1, 0, 1).getType());
+    
+    assertEquals(5, policy.getRuleCount());
+    assertEquals(2, policy.getOverrideCount());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testErrors() {
+    
+    // Rules with no defaults fall back to the built-in ladder
+    final EscalationPolicy policy = EscalationPolicy.parse(Arrays.asList("channel:7 * - kick"));
+    assertEquals(PunishmentType.MUTE, policy.decide(SpamTrigger.MESSAGE_RATE, 1L, 2L, 5, 0, 0).getType());
+    
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * -")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("everywhere * - warn")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("guild:abc * - warn")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default shouting - warn")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * warns>5 mute")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * strikes>=5 mute")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * warns>=" + (EscalationPolicy.MAX_THRESHOLD + 1)
+        + " mute")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * - smite")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * - kick 1h")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * - ban 1d,1w")));
+    assertNull(EscalationPolicy.parse(Arrays.asList("default * - mute soon")));
+  }
+}
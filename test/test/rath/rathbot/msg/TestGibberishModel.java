@@ -0,0 +1,97 @@
+
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.rath.rathbot.log.MessageLogger;
+import com.rath.rathbot.msg.GibberishModel;
+import com.rath.rathbot.msg.GibberishTrainer;
+import com.rath.rathbot.util.TextNormalizer;
+
+public class TestGibberishModel {
+  
+  /** Ordinary chat to train on. */
+  private static final String[] CHAT = { "hey is anyone around to play tonight",
+      "i think the new update broke something with the inventory screen",
+      "does anybody know when the next event is supposed to start",
+      "that was honestly the funniest thing i have seen all week", "good morning everyone hope you all slept well",
+      "can someone help me figure out why my game keeps crashing on startup",
+      "we should probably move this conversation over to the other channel",
+      "thanks for the help earlier, it worked perfectly after the restart",
+      "the weather here has been really nice for the past couple of days",
+      "i will be back in a few minutes, going to grab something to eat",
+      "what time is the meeting tomorrow and where are we supposed to go",
+      "please remember to read the rules before posting in this channel",
+      "just finished the last chapter and the ending was really surprising",
+      "anyone want to team up for the raid later this evening",
+      "my internet has been acting up all day so sorry if i disconnect",
+      "that sounds like a great idea, let me know if you need anything else" };
+  
+  /**
+   * Trains a model on the sample chat.
+   * 
+   * @param threshold the threshold to give the model.
+   * @return the model.
+   */
+  private static final GibberishModel trainModel(final float threshold) {
+    final GibberishTrainer trainer = new GibberishTrainer();
+    for (final String line : CHAT) {
+      trainer.addText(TextNormalizer.normalize(line));
+    }
+    return trainer.build(threshold);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testScores() {
+    
+    final GibberishModel model = trainModel(-3.5f);
+    
+    // Too short to judge
+    assertTrue(Float.isNaN(model.score("asdfghjkl")));
+    assertFalse(model.isGibberish("asdfghjkl"));
+    
+    // Unseen but ordinary sentences score well above keyboard mashing
+    final float chat = model.score("is anyone else having trouble with the update tonight");
+    final float mash = model.score("asdkjhqwe zxlkqjwe pqowieur lkjasdf");
+    assertTrue(chat > mash + 1.0f);
+    assertFalse(model.isGibberish("is anyone else having trouble with the update tonight"));
+    assertTrue(model.isGibberish("asdkjhqwe zxlkqjwe pqowieur lkjasdf"));
+    
+    // Punctuation and spacing don't change the score
+    assertEquals(chat, model.score("is anyone else having trouble... with the update tonight?!"), 1e-4f);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSaveLoad() throws IOException {
+    
+    final GibberishModel model = trainModel(-2.75f);
+    final File file = File.createTempFile("gibberish", ".bin");
+    try {
+      model.save(file);
+      final GibberishModel loaded = GibberishModel.load(file);
+      assertNotNull(loaded);
+      assertEquals(-2.75f, loaded.getThreshold(), 0.0f);
+      final String text = "what time is the meeting tomorrow afternoon";
+      assertEquals(model.score(text), loaded.score(text), 0.0f);
+    } finally {
+      file.delete();
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLoggedContent() {
+    assertEquals("hello: world", MessageLogger.getLoggedContent("rath @ 2018-03-01T12:34:56.789Z: hello: world"));
+    assertEquals("just a continuation line", MessageLogger.getLoggedContent("just a continuation line"));
+  }
+}
@@ -0,0 +1,104 @@
+
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.rath.rathbot.msg.MessageTracker;
+import com.rath.rathbot.util.SimHash;
+
+public class TestMessageTracker {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testWrapAround() {
+    
+    final MessageTracker tracker = new MessageTracker(5);
+    assertEquals(0, tracker.size());
+    
+    for (int i = 0; i < 12; i++) {
+      tracker.add(1000L * i, i, 0L);
+    }
+    
+    // Only the newest five are kept, newest first
+    assertEquals(5, tracker.size());
+    assertEquals(5, tracker.capacity());
+    for (int age = 0; age < 5; age++) {
+      assertEquals(1000L * (11 - age), tracker.getTime(age));
+      assertEquals(11 - age, tracker.getFingerprint(age));
+    }
+    
+    tracker.clear();
+    assertEquals(0, tracker.size());
+    assertEquals(0, tracker.getDuplicateRun());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testAgeOutOfRange() {
+    
+    final MessageTracker tracker = new MessageTracker(5);
+    tracker.add(1L, 1L, 0L);
+    try {
+      tracker.getTime(1);
+      fail("Read past the newest message.");
+    } catch (@SuppressWarnings("unused") IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testDuplicateRun() {
+    
+    final MessageTracker tracker = new MessageTracker(3);
+    final long spam = MessageTracker.fingerprint("buy now");
+    final long other = MessageTracker.fingerprint("hello");
+    
+    tracker.add(0L, other, 0L);
+    assertEquals(1, tracker.getDuplicateRun());
+    
+    // The run keeps counting past the capacity
+    for (int i = 1; i <= 7; i++) {
+      tracker.add(i, spam, 0L);
+      assertEquals(i, tracker.getDuplicateRun());
+    }
+    
+    tracker.add(8L, other, 0L);
+    assertEquals(1, tracker.getDuplicateRun());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testNearDuplicates() {
+    
+    final MessageTracker tracker = new MessageTracker(10);
+    assertEquals(0, tracker.countNearDuplicates(8, 7));
+    
+    tracker.add(0L, 0L, SimHash.of("what beatmap is this"));
+    for (int i = 1; i <= 8; i++) {
+      final String spam = "buy cheap gold now at example dot com " + i;
+      tracker.add(i, MessageTracker.fingerprint(spam), SimHash.of(spam));
+    }
+    
+    // None of them are exact repeats, but all are near repeats of the newest
+    assertEquals(1, tracker.getDuplicateRun());
+    assertEquals(7, tracker.countNearDuplicates(8, 7));
+    assertEquals(8, tracker.countNearDuplicates(8, 20));
+    assertEquals(1, tracker.countNearDuplicates(-1, 20));
+    assertEquals(SimHash.of("buy cheap gold now at example dot com 8"), tracker.getSimHash(0));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testFingerprint() {
+    
+    assertEquals(MessageTracker.fingerprint("same"), MessageTracker.fingerprint(new StringBuilder("sa").append("me")));
+    assertTrue(MessageTracker.fingerprint("same") != MessageTracker.fingerprint("Same"));
+    assertTrue(MessageTracker.fingerprint("") != MessageTracker.fingerprint("\u0000"));
+    assertTrue(MessageTracker.fingerprint("\u0100") != MessageTracker.fingerprint("\u0001"));
+  }
+}
@@ -0,0 +1,121 @@
+
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.rath.rathbot.msg.MessageTracker;
+import com.rath.rathbot.msg.RaidDetector;
+import com.rath.rathbot.util.SimHash;
+
+public class TestRaidDetector {
+  
+  /** The guild most messages are sent in. */
+  private static final long GUILD = 1000L;
+  
+  /**
+   * Builds a detector with a one-minute window in six buckets.
+   * 
+   * @return the RaidDetector.
+   */
+  private static final RaidDetector newDetector() {
+    return new RaidDetector(60000L, 6, 8192, 4, 1 << 18);
+  }
+  
+  /**
+   * Counts a message.
+   * 
+   * @param det the detector.
+   * @param guild the guild ID.
+   * @param author the author ID.
+   * @param text the message content.
+   * @param now the time in milliseconds.
+   * @return the estimated number of authors.
+   */
+  private static final int post(final RaidDetector det, final long guild, final long author, final String text,
+      final long now) {
+    return det.observe(guild, author, MessageTracker.fingerprint(text), SimHash.of(text), now);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testManyAuthors() {
+    
+    final RaidDetector det = newDetector();
+    final String link = "free nitro at http://discord-gift.example/claim";
+    
+    // Each new account posts the link once
+    for (int i = 1; i <= 200; i++) {
+      assertEquals(i, post(det, GUILD, 5000L + i, link, i * 100L));
+    }
+    
+    // The same content in another guild is counted on its own
+    assertEquals(1, post(det, GUILD + 1, 5001L, link, 20000L));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testOneAuthor() {
+    
+    final RaidDetector det = newDetector();
+    for (int i = 0; i < 50; i++) {
+      assertEquals(1, post(det, GUILD, 42L, "buy my mixtape please everyone", i * 100L));
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testNearIdentical() {
+    
+    // Raiders vary each copy a little to dodge exact matching
+    final RaidDetector det = newDetector();
+    int max = 0;
+    for (int i = 0; i < 20; i++) {
+      final String text = "join my server for free stuff http://spam.example/invite " + (char) ('a' + i);
+      max = Math.max(max, post(det, GUILD, 7000L + i, text, i * 100L));
+    }
+    assertTrue("Near-identical content should be counted together: " + max, max >= 15);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testUnrelated() {
+    
+    // Ordinary chat from many people shouldn't add up
+    final String[] words = { "the", "map", "was", "really", "hard", "i", "think", "that", "jump", "stream", "aim",
+        "pp", "score", "nice", "play", "farm", "rank", "new", "skin", "combo", "miss", "tablet", "mouse", "today" };
+    final Random rand = new Random(12345L);
+    final RaidDetector det = newDetector();
+    int max = 0;
+    for (int i = 0; i < 2000; i++) {
+      final StringBuilder sb = new StringBuilder();
+      for (int w = 4 + rand.nextInt(8); w > 0; w--) {
+        sb.append(words[rand.nextInt(words.length)]).append(' ');
+      }
+      max = Math.max(max, post(det, GUILD, 9000L + i, sb.toString(), i * 10L));
+    }
+    assertTrue("Unrelated messages were counted together: " + max, max <= 3);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testWindowExpiry() {
+    
+    final RaidDetector det = newDetector();
+    final String text = "everyone look at this http://spam.example";
+    for (int i = 0; i < 10; i++) {
+      post(det, GUILD, 100L + i, text, 0L);
+    }
+    assertEquals(11, post(det, GUILD, 200L, text, 30000L));
+    
+    // The first ten age out of the window, but the one from 30s ago is still in it
+    assertEquals(2, post(det, GUILD, 201L, text, 75000L));
+    
+    // After a long quiet spell everything is forgotten
+    assertEquals(1, post(det, GUILD, 202L, text, 500000L));
+  }
+}
@@ -0,0 +1,93 @@
+
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.rath.rathbot.msg.MessageTracker;
+import com.rath.rathbot.msg.SpamRuleSet;
+import com.rath.rathbot.msg.SpamThreshold;
+
+public class TestSpamRuleSet {
+  
+  /** Built-in rules used when a rules file has no defaults. */
+  private static final SpamThreshold[] FALLBACK = { new SpamThreshold(5, 3) };
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testScopes() {
+    
+    final SpamRuleSet rules = SpamRuleSet.parse(Arrays.asList(
+        "# Rate rules",
+        "default 4 2000",
+        "default 30 60000",
+        "",
+        "guild:100 10 5000",
+        "channel:7 3 500",
+        "channel:8 off"), FALLBACK);
+    
+    // The most specific scope wins
+    assertEquals(2, rules.rulesFor(1L, 2L).length);
+    assertEquals(10, rules.rulesFor(100L, 2L)[0].getCount());
+    assertEquals(500L, rules.rulesFor(100L, 7L)[0].getTimeoutMillis());
+    assertEquals(0, rules.rulesFor(100L, 8L).length);
+    
+    assertEquals(30, rules.getMaxCount());
+    assertEquals(3, rules.getOverrideCount());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testFallbackAndErrors() {
+    
+    final SpamRuleSet rules = SpamRuleSet.parse(Arrays.asList("channel:7 3 500"), FALLBACK);
+    assertEquals(5, rules.rulesFor(0L, 1L)[0].getCount());
+    assertEquals(3000L, rules.rulesFor(0L, 1L)[0].getTimeoutMillis());
+    
+    assertNull(SpamRuleSet.parse(Arrays.asList("default 4"), FALLBACK));
+    assertNull(SpamRuleSet.parse(Arrays.asList("everywhere 4 1000"), FALLBACK));
+    assertNull(SpamRuleSet.parse(Arrays.asList("guild:abc 4 1000"), FALLBACK));
+    assertNull(SpamRuleSet.parse(Arrays.asList("default 0 1000"), FALLBACK));
+    assertNull(SpamRuleSet.parse(Arrays.asList("default 4 -5"), FALLBACK));
+    assertNull(SpamRuleSet.parse(Arrays.asList("default " + (SpamRuleSet.MAX_RULE_COUNT + 1) + " 1000"), FALLBACK));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTriggers() {
+    
+    final SpamThreshold burst = SpamThreshold.ofMillis(3, 1000L);
+    final SpamThreshold sustained = SpamThreshold.ofMillis(5, 10000L);
+    final SpamThreshold[] rules = { burst, sustained };
+    final MessageTracker tracker = new MessageTracker(5);
+    
+    // Two messages can't break a three-message rule
+    tracker.add(0L, 1L, 0L);
+    tracker.add(100L, 2L, 0L);
+    assertNull(SpamRuleSet.findTriggered(rules, tracker));
+    
+    // Three in under a second breaks the burst rule, with millisecond precision
+    tracker.add(999L, 3L, 0L);
+    assertSame(burst, SpamRuleSet.findTriggered(rules, tracker));
+    
+    tracker.clear();
+    tracker.add(0L, 1L, 0L);
+    tracker.add(500L, 2L, 0L);
+    tracker.add(1000L, 3L, 0L);
+    assertFalse(burst.isTriggered(tracker));
+    
+    // Five spread over less than ten seconds breaks the sustained rule only
+    tracker.add(3000L, 4L, 0L);
+    tracker.add(9000L, 5L, 0L);
+    assertFalse(burst.isTriggered(tracker));
+    assertTrue(sustained.isTriggered(tracker));
+    assertSame(sustained, SpamRuleSet.findTriggered(rules, tracker));
+  }
+}
@@ -0,0 +1,83 @@
+
+package test.rath.rathbot.msg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.rath.rathbot.msg.MessageTracker;
+import com.rath.rathbot.msg.TrackerTable;
+
+public class TestTrackerTable {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testAcquire() {
+    
+    final TrackerTable table = new TrackerTable(10, 1000L, 4);
+    final MessageTracker tracker = table.acquire(1L, 0L);
+    tracker.add(0L, 5L, 0L);
+    
+    // The same user always gets the same tracker back
+    assertSame(tracker, table.acquire(1L, 10L));
+    assertSame(tracker, table.get(1L));
+    assertEquals(4, tracker.capacity());
+    assertEquals(1, table.size());
+    assertNull(table.get(2L));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testCapacityEviction() {
+    
+    final TrackerTable table = new TrackerTable(3, 1000L, 4);
+    table.acquire(1L, 0L);
+    table.acquire(2L, 1L);
+    table.acquire(3L, 2L);
+    
+    // Touching user 1 makes user 2 the least recently used
+    table.acquire(1L, 3L);
+    table.acquire(4L, 4L);
+    
+    assertEquals(3, table.size());
+    assertNull(table.get(2L));
+    assertNotNull(table.get(1L));
+    assertNotNull(table.get(3L));
+    assertNotNull(table.get(4L));
+    assertEquals(1L, table.getCapacityEvictions());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testIdleSweep() {
+    
+    final TrackerTable table = new TrackerTable(100, 1000L, 4);
+    for (int i = 0; i < 10; i++) {
+      table.acquire(i, i * 100L);
+    }
+    
+    // Users last seen at 0 through 500 have been idle for 1000ms or more
+    assertEquals(6, table.sweep(1500L));
+    assertEquals(4, table.size());
+    assertNull(table.get(5L));
+    assertNotNull(table.get(6L));
+    assertEquals(6L, table.getIdleEvictions());
+    
+    // A user who keeps posting isn't swept
+    table.acquire(6L, 2000L);
+    assertEquals(3, table.sweep(2600L));
+    assertNotNull(table.get(6L));
+    assertEquals(1, table.size());
+    
+    assertEquals(1, table.sweep(3000L));
+    assertEquals(0, table.size());
+    assertEquals(0L, table.estimatedBytes());
+    
+    // The table still works once emptied
+    table.acquire(42L, 3000L);
+    assertEquals(MessageTracker.estimatedBytes(4) + 16, table.estimatedBytes());
+  }
+}
@@ -0,0 +1,98 @@
+
+package test.rath.rathbot.util;
+
+import java.util.regex.Pattern;
+
+import com.rath.rathbot.util.CommandTokenizer;
+
+/**
+ * Compares the tokenizer with the regex split it replaced. Run as a standalone program; it is not a unit test.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class CommandTokenizerBenchmark {
+  
+  /** The regex the tokenizer replaces. */
+  private static final Pattern SPLIT_PATTERN = Pattern.compile("\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?");
+  
+  /** How many times each input is split per timed round. */
+  private static final int ITERATIONS = 2000;
+  
+  /** How many untimed rounds run first to warm up the JIT. */
+  private static final int WARMUP_ROUNDS = 10;
+  
+  /**
+   * Runs the benchmark.
+   * 
+   * @param args unused.
+   */
+  public static void main(String[] args) {
+    
+    final StringBuilder words = new StringBuilder("rb! ");
+    while (words.length() < 2000) {
+      words.append("word ");
+    }
+    
+    final StringBuilder quoted = new StringBuilder("rb! faq add \"");
+    while (quoted.length() < 1998) {
+      quoted.append("a \"b\" ");
+    }
+    quoted.append('"');
+    
+    final String[] names = { "short command", "2000 chars, no quotes", "2000 chars, many quotes" };
+    final String[] inputs = { "rb! faq add \"some question\" \"some answer\"", words.toString(), quoted.toString() };
+    
+    for (int i = 0; i < inputs.length; i++) {
+      
+      for (int w = 0; w < WARMUP_ROUNDS; w++) {
+        timeRegex(inputs[i]);
+        timeTokenizer(inputs[i]);
+      }
+      
+      final long regexNanos = timeRegex(inputs[i]);
+      final long tokenizerNanos = timeTokenizer(inputs[i]);
+      System.out.printf("%-24s regex %10.1f us/op, tokenizer %8.2f us/op, %6.1fx faster%n", names[i],
+          regexNanos / 1000.0 / ITERATIONS, tokenizerNanos / 1000.0 / ITERATIONS, (double) regexNanos / tokenizerNanos);
+    }
+  }
+  
+  /**
+   * Times the regex split.
+   * 
+   * @param input the input to split.
+   * @return the elapsed time in nanoseconds.
+   */
+  private static final long timeRegex(final String input) {
+    
+    int sink = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sink += SPLIT_PATTERN.split(input).length;
+    }
+    final long elapsed = System.nanoTime() - start;
+    if (sink == 42) {
+      System.out.print("");
+    }
+    return elapsed;
+  }
+  
+  /**
+   * Times the tokenizer.
+   * 
+   * @param input the input to split.
+   * @return the elapsed time in nanoseconds.
+   */
+  private static final long timeTokenizer(final String input) {
+    
+    int sink = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sink += CommandTokenizer.tokenize(input).length;
+    }
+    final long elapsed = System.nanoTime() - start;
+    if (sink == 42) {
+      System.out.print("");
+    }
+    return elapsed;
+  }
+}
@@ -0,0 +1,192 @@
+
+package test.rath.rathbot.util;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.rath.rathbot.util.LongByteHashMap;
+import com.rath.rathbot.util.LongObjectHashMap;
+
+/**
+ * Compares the primitive long-keyed maps with the boxed TreeMaps they replaced, for memory per member and lookup time.
+ * Run as a standalone program; it is not a unit test. Memory figures come from heap usage before and after building
+ * each map, so run with a fixed heap (e.g. -Xms1g -Xmx1g) for stable numbers.
+ * 
+ * @author Tim Backus tbackus127@gmail.com
+ */
+public class PrimitiveMapBenchmark {
+  
+  /** The number of members in each map. */
+  private static final int MEMBERS = 100000;
+  
+  /** The number of lookups per timed round. */
+  private static final int LOOKUPS = 1000000;
+  
+  /** How many untimed rounds run first to warm up the JIT. */
+  private static final int WARMUP_ROUNDS = 10;
+  
+  /** Keeps lookup results alive so the JIT can't drop the lookups. */
+  private static long sink = 0L;
+  
+  /**
+   * Runs the benchmark.
+   * 
+   * @param args unused.
+   */
+  public static void main(String[] args) {
+    
+    // Snowflake-like IDs: a millisecond timestamp in the high bits, worker and sequence in the low 22
+    final Random rand = new Random(1L);
+    final long[] ids = new long[MEMBERS];
+    long time = 200000000000L;
+    for (int i = 0; i < MEMBERS; i++) {
+      time += 1 + rand.nextInt(100000);
+      ids[i] = (time << 22) | rand.nextInt(1 << 22);
+    }
+    final long[] probes = new long[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      probes[i] = ids[rand.nextInt(MEMBERS)];
+    }
+    final Object value = new Object();
+    
+    long before = usedMemory();
+    final TreeMap<Long, Integer> permTree = new TreeMap<Long, Integer>();
+    for (final long id : ids) {
+      permTree.put(id, 3);
+    }
+    final long permTreeBytes = usedMemory() - before;
+    
+    before = usedMemory();
+    final LongByteHashMap permMap = new LongByteHashMap();
+    for (final long id : ids) {
+      permMap.put(id, (byte) 3);
+    }
+    final long permMapBytes = usedMemory() - before;
+    
+    before = usedMemory();
+    final TreeMap<Long, Object> objTree = new TreeMap<Long, Object>();
+    for (final long id : ids) {
+      objTree.put(id, value);
+    }
+    final long objTreeBytes = usedMemory() - before;
+    
+    before = usedMemory();
+    final LongObjectHashMap<Object> objMap = new LongObjectHashMap<Object>();
+    for (final long id : ids) {
+      objMap.put(id, value);
+    }
+    final long objMapBytes = usedMemory() - before;
+    
+    for (int w = 0; w < WARMUP_ROUNDS; w++) {
+      timePermTree(permTree, probes);
+      timePermMap(permMap, probes);
+      timeObjTree(objTree, probes);
+      timeObjMap(objMap, probes);
+    }
+    
+    print("TreeMap<Long, Integer>", permTreeBytes, timePermTree(permTree, probes));
+    print("LongByteHashMap", permMapBytes, timePermMap(permMap, probes));
+    print("TreeMap<Long, Object>", objTreeBytes, timeObjTree(objTree, probes));
+    print("LongObjectHashMap", objMapBytes, timeObjMap(objMap, probes));
+    System.out.println(sink == 42L ? "" : "Done.");
+  }
+  
+  /**
+   * Prints one map's results.
+   * 
+   * @param name the map's name.
+   * @param bytes the heap the map used.
+   * @param nanos the time taken for all lookups.
+   */
+  private static final void print(final String name, final long bytes, final long nanos) {
+    System.out.printf("%-24s %6.1f bytes/member, %6.1f ns/lookup%n", name, (double) bytes / MEMBERS,
+        (double) nanos / LOOKUPS);
+  }
+  
+  /**
+   * Times lookups in a boxed permissions table.
+   * 
+   * @param map the table.
+   * @param probes the keys to look up.
+   * @return the time taken, in nanoseconds.
+   */
+  private static final long timePermTree(final TreeMap<Long, Integer> map, final long[] probes) {
+    
+    final long start = System.nanoTime();
+    long sum = 0L;
+    for (final long id : probes) {
+      final Integer lvl = map.get(id);
+      sum += (lvl == null) ? 0 : lvl.intValue();
+    }
+    sink += sum;
+    return System.nanoTime() - start;
+  }
+  
+  /**
+   * Times lookups in a primitive permissions table.
+   * 
+   * @param map the table.
+   * @param probes the keys to look up.
+   * @return the time taken, in nanoseconds.
+   */
+  private static final long timePermMap(final LongByteHashMap map, final long[] probes) {
+    
+    final long start = System.nanoTime();
+    long sum = 0L;
+    for (final long id : probes) {
+      sum += map.get(id, (byte) 0);
+    }
+    sink += sum;
+    return System.nanoTime() - start;
+  }
+  
+  /**
+   * Times lookups in a boxed object table.
+   * 
+   * @param map the table.
+   * @param probes the keys to look up.
+   * @return the time taken, in nanoseconds.
+   */
+  private static final long timeObjTree(final TreeMap<Long, Object> map, final long[] probes) {
+    
+    final long start = System.nanoTime();
+    long sum = 0L;
+    for (final long id : probes) {
+      sum += (map.get(id) == null) ? 0 : 1;
+    }
+    sink += sum;
+    return System.nanoTime() - start;
+  }
+  
+  /**
+   * Times lookups in a primitive-keyed object table.
+   * 
+   * @param map the table.
+   * @param probes the keys to look up.
+   * @return the time taken, in nanoseconds.
+   */
+  private static final long timeObjMap(final LongObjectHashMap<Object> map, final long[] probes) {
+    
+    final long start = System.nanoTime();
+    long sum = 0L;
+    for (final long id : probes) {
+      sum += (map.get(id) == null) ? 0 : 1;
+    }
+    sink += sum;
+    return System.nanoTime() - start;
+  }
+  
+  /**
+   * Gets the heap in use after a few garbage collections.
+   * 
+   * @return the used heap, in bytes.
+   */
+  private static final long usedMemory() {
+    
+    final Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
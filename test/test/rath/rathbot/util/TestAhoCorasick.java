@@ -0,0 +1,82 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.rath.rathbot.msg.WordFilter;
+import com.rath.rathbot.util.AhoCorasick;
+import com.rath.rathbot.util.TextNormalizer;
+
+public class TestAhoCorasick {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSubstrings() {
+    
+    // The classic example, where patterns overlap and are suffixes of each other
+    final AhoCorasick ac = new AhoCorasick(new String[] { "he", "she", "his", "hers" },
+        new boolean[] { false, false, false, false });
+    assertEquals(1, ac.find("ushers"));
+    assertEquals(0, ac.find("ahem"));
+    assertEquals(2, ac.find("this"));
+    assertEquals(-1, ac.find("hi s"));
+    assertEquals(-1, ac.find(""));
+    
+    // Case and whitespace are folded
+    assertEquals(1, ac.find("uSHe"));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testWholeWords() {
+    
+    final AhoCorasick ac = new AhoCorasick(new String[] { "ass", "free nitro", "discord.gg/" },
+        new boolean[] { true, true, false });
+    assertEquals(-1, ac.find("first class passes"));
+    assertEquals(0, ac.find("what an ass!"));
+    assertEquals(0, ac.find("Ass"));
+    assertEquals(1, ac.find("get FREE\tNITRO here"));
+    assertEquals(-1, ac.find("get free nitros here"));
+    assertEquals(2, ac.find("join https://discord.gg/abc123"));
+    assertEquals(2, ac.find("xdiscord.gg/abc"));
+    
+    // A whole-word pattern inside a longer word doesn't hide a later match
+    final AhoCorasick shorter = new AhoCorasick(new String[] { "cat", "at" }, new boolean[] { true, true });
+    assertEquals(1, shorter.find("scat at"));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testWordList() {
+    
+    final AhoCorasick ac = WordFilter.parse(Arrays.asList(
+        "# Banned words",
+        "word badword",
+        "",
+        "match discord.gg/",
+        "word two words"));
+    assertEquals(3, ac.getPatternCount());
+    assertEquals("discord.gg/", ac.getPattern(ac.find("see discord.gg/x")));
+    assertEquals("two words", ac.getPattern(ac.find("these two\twords")));
+    assertEquals(-1, ac.find("badwords are fine"));
+    
+    // Entries are normalized the same way messages are
+    final AhoCorasick folded = WordFilter.parse(Arrays.asList(
+        "word caf\u00e9",
+        "word \u0441\u0443\u043a\u0430",
+        "match \ufb01sh"));
+    assertEquals(3, folded.getPatternCount());
+    assertEquals(0, folded.find(TextNormalizer.normalize("the CAF\u00c9 is open")));
+    assertEquals(1, folded.find(TextNormalizer.normalize("\u0421\u0423\u041a\u0410!")));
+    assertEquals(2, folded.find(TextNormalizer.normalize("goldfish")));
+    
+    assertNull(WordFilter.parse(Arrays.asList("badword")));
+    assertNull(WordFilter.parse(Arrays.asList("regex ba+d")));
+    assertNull(WordFilter.parse(Arrays.asList("word ")));
+  }
+}
@@ -0,0 +1,106 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.CommandTokenizer;
+
+public class TestCommandTokenizer {
+  
+  /** The regex the tokenizer replaces. Its output is the reference for these tests. */
+  private static final String SPLIT_REGEX = "\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?";
+  
+  /** Characters the random inputs are built from, weighted toward the ones the split rules care about. */
+  private static final char[] ALPHABET = { 'a', 'b', 'r', '!', ' ', ' ', ' ', '"', '"', '\n', '\r', '\u2028' };
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testKnownInputs() {
+    
+    assertArrayEquals(new String[] { "rb!", "faq", "add" }, CommandTokenizer.tokenize("rb! faq add"));
+    assertArrayEquals(new String[] { "rb!", "faq", "some thing", "x" },
+        CommandTokenizer.tokenize("rb! faq \"some thing\" x"));
+    assertArrayEquals(new String[] { "rb!", "say", "hello world" },
+        CommandTokenizer.tokenize("rb! say \"hello world\""));
+    assertArrayEquals(new String[] { "np", "a game" }, CommandTokenizer.tokenize("np \"a game\""));
+    assertArrayEquals(new String[] { "rb!" }, CommandTokenizer.tokenize("rb!"));
+    assertArrayEquals(new String[] { "" }, CommandTokenizer.tokenize(""));
+    assertEquals(0, CommandTokenizer.tokenize(" ").length);
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testTokenBounds() {
+    
+    final String input = "rb! faq \"some thing\"";
+    final int count = CommandTokenizer.tokenBounds(input, null);
+    assertEquals(3, count);
+    
+    // Too small an array still reports the full count
+    final int[] small = new int[2];
+    assertEquals(3, CommandTokenizer.tokenBounds(input, small));
+    assertArrayEquals(new int[] { 0, 3 }, small);
+    
+    final int[] bounds = new int[count * 2];
+    CommandTokenizer.tokenBounds(input, bounds);
+    assertEquals("rb!", input.substring(bounds[0], bounds[1]));
+    assertEquals("faq", input.substring(bounds[2], bounds[3]));
+    assertEquals("some thing", input.substring(bounds[4], bounds[5]));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testMatchesRegexOnRandomInput() {
+    
+    final Random rand = new Random(0x5EEDL);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      sb.setLength(0);
+      final int len = rand.nextInt(12);
+      for (int j = 0; j < len; j++) {
+        sb.append(ALPHABET[rand.nextInt(ALPHABET.length)]);
+      }
+      assertSameAsRegex(sb.toString());
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testMatchesRegexOnLongInput() {
+    
+    // Discord messages are capped at 2000 characters
+    final Random rand = new Random(0xB16L);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      sb.setLength(0);
+      sb.append("rb! ");
+      while (sb.length() < 2000) {
+        sb.append(ALPHABET[rand.nextInt(ALPHABET.length)]);
+      }
+      assertSameAsRegex(sb.toString());
+    }
+    
+    sb.setLength(0);
+    sb.append("rb! \"");
+    while (sb.length() < 2000) {
+      sb.append("a ");
+    }
+    assertSameAsRegex(sb.toString());
+    assertSameAsRegex(sb.toString() + "\"");
+    assertSameAsRegex(sb.toString() + "\r\n");
+  }
+  
+  /**
+   * Asserts that the tokenizer splits the input the same way the regex does.
+   * 
+   * @param input the input to split.
+   */
+  private static final void assertSameAsRegex(final String input) {
+    assertArrayEquals("Input: \"" + input + "\"", input.split(SPLIT_REGEX), CommandTokenizer.tokenize(input));
+  }
+}
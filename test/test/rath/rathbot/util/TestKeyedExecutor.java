@@ -0,0 +1,191 @@
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.KeyedExecutor;
+
+public class TestKeyedExecutor {
+  
+  /**
+   * Makes a task that waits for a latch, after saying it started.
+   * 
+   * @param started counted down when the task starts.
+   * @param release the latch to wait for.
+   * @return the task.
+   */
+  private static final Runnable blocker(final CountDownLatch started, final CountDownLatch release) {
+    return new Runnable() {
+      
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (@SuppressWarnings("unused") InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSameKeyInOrder() throws InterruptedException {
+    
+    final int keys = 8;
+    final int perKey = 1000;
+    final KeyedExecutor exec = new KeyedExecutor("rb-test", 4, keys * perKey);
+    final List<List<Integer>> seen = new ArrayList<List<Integer>>();
+    for (int k = 0; k < keys; k++) {
+      seen.add(new ArrayList<Integer>());
+    }
+    
+    for (int i = 0; i < perKey; i++) {
+      for (int k = 0; k < keys; k++) {
+        final List<Integer> list = seen.get(k);
+        final int seq = i;
+        assertTrue(exec.execute(k, new Runnable() {
+          
+          @Override
+          public void run() {
+            synchronized (list) {
+              list.add(Integer.valueOf(seq));
+            }
+          }
+        }));
+      }
+    }
+    assertTrue(exec.shutdown(10000L));
+    
+    for (final List<Integer> list : seen) {
+      synchronized (list) {
+        assertEquals(perKey, list.size());
+        for (int i = 0; i < perKey; i++) {
+          assertEquals(i, list.get(i).intValue());
+        }
+      }
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testKeysRunConcurrently() throws InterruptedException {
+    
+    final KeyedExecutor exec = new KeyedExecutor("rb-test", 2, 16);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      assertTrue(exec.execute(0L, blocker(started, release)));
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      
+      // A later task for the blocked key waits its turn
+      final AtomicInteger sameKey = new AtomicInteger();
+      assertTrue(exec.execute(0L, new Runnable() {
+        
+        @Override
+        public void run() {
+          sameKey.incrementAndGet();
+        }
+      }));
+      
+      // Other keys spread over the lanes, so some of them run while the first key is held up
+      final CountDownLatch otherRan = new CountDownLatch(1);
+      for (long key = 1L; key <= 8L; key++) {
+        assertTrue(exec.execute(key, new Runnable() {
+          
+          @Override
+          public void run() {
+            otherRan.countDown();
+          }
+        }));
+      }
+      assertTrue(otherRan.await(10L, TimeUnit.SECONDS));
+      assertEquals(0, sameKey.get());
+      
+      release.countDown();
+      assertTrue(exec.shutdown(10000L));
+      assertEquals(1, sameKey.get());
+    } finally {
+      release.countDown();
+      exec.shutdown(10000L);
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testFullLaneDrops() throws InterruptedException {
+    
+    final KeyedExecutor exec = new KeyedExecutor("rb-test", 1, 2);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger();
+    final Runnable count = new Runnable() {
+      
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    };
+    try {
+      assertTrue(exec.execute(1L, blocker(started, release)));
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      
+      // The running task doesn't take up queue room, but two waiting ones fill it
+      assertTrue(exec.execute(1L, count));
+      assertTrue(exec.execute(2L, count));
+      assertFalse(exec.execute(3L, count));
+      assertEquals(2, exec.getQueuedCount());
+      assertEquals(1L, exec.getRejectedCount());
+    } finally {
+      release.countDown();
+    }
+    assertTrue(exec.shutdown(10000L));
+    assertEquals(2, ran.get());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testShutdownDrains() throws InterruptedException {
+    
+    final KeyedExecutor exec = new KeyedExecutor("rb-test", 2, 100);
+    final AtomicInteger ran = new AtomicInteger();
+    for (int i = 0; i < 100; i++) {
+      assertTrue(exec.execute(i % 3, new Runnable() {
+        
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(1L);
+          } catch (@SuppressWarnings("unused") InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+          ran.incrementAndGet();
+        }
+      }));
+    }
+    
+    // Everything queued before the shutdown still runs; nothing after it is taken
+    assertTrue(exec.shutdown(10000L));
+    assertEquals(100, ran.get());
+    assertEquals(0, exec.getQueuedCount());
+    assertFalse(exec.execute(0L, new Runnable() {
+      
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    }));
+    assertEquals(1L, exec.getRejectedCount());
+    assertEquals(100, ran.get());
+  }
+}
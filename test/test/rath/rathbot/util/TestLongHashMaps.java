@@ -0,0 +1,124 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.LongByteHashMap;
+import com.rath.rathbot.util.LongObjectHashMap;
+
+public class TestLongHashMaps {
+  
+  /**
+   * Picks a random key from a small range, so puts, removes, and lookups often hit the same keys. Includes 0 and
+   * negative keys.
+   * 
+   * @param rand the random number generator.
+   * @return the key.
+   */
+  private static final long randomKey(final Random rand) {
+    return rand.nextInt(512) - 64;
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testByteMapAgainstHashMap() {
+    
+    final Random rand = new Random(42L);
+    final LongByteHashMap map = new LongByteHashMap();
+    final HashMap<Long, Byte> expected = new HashMap<Long, Byte>();
+    
+    for (int i = 0; i < 100000; i++) {
+      final long key = randomKey(rand);
+      final int op = rand.nextInt(3);
+      if (op == 0) {
+        final byte value = (byte) rand.nextInt(256);
+        assertEquals(!expected.containsKey(key), map.put(key, value));
+        expected.put(key, value);
+      } else if (op == 1) {
+        assertEquals(expected.remove(key) != null, map.remove(key));
+      } else {
+        final Byte value = expected.get(key);
+        assertEquals(value == null ? (byte) -1 : value.byteValue(), map.get(key, (byte) -1));
+        assertEquals(value != null, map.containsKey(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    
+    // Every surviving entry is still reachable
+    for (final Map.Entry<Long, Byte> entry : expected.entrySet()) {
+      assertEquals(entry.getValue().byteValue(), map.get(entry.getKey(), (byte) -1));
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testObjectMapAgainstHashMap() {
+    
+    final Random rand = new Random(7L);
+    final LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+    final HashMap<Long, String> expected = new HashMap<Long, String>();
+    
+    for (int i = 0; i < 100000; i++) {
+      final long key = randomKey(rand);
+      final int op = rand.nextInt(3);
+      if (op == 0) {
+        final String value = "v" + rand.nextInt(1000);
+        assertEquals(expected.put(key, value), map.put(key, value));
+      } else if (op == 1) {
+        assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        assertEquals(expected.get(key), map.get(key));
+        assertEquals(expected.containsKey(key), map.containsKey(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testKeysAndClear() {
+    
+    final LongByteHashMap map = new LongByteHashMap(2);
+    assertTrue(map.isEmpty());
+    
+    // Snowflake-like keys that share their low bits
+    final long base = 272845621543813120L;
+    for (int i = 99; i >= 0; i--) {
+      map.put(base + ((long) i << 22), (byte) i);
+    }
+    map.put(0L, (byte) 5);
+    map.put(-3L, (byte) 6);
+    
+    final long[] keys = map.keys();
+    assertEquals(102, keys.length);
+    assertEquals(-3L, keys[0]);
+    assertEquals(0L, keys[1]);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(base + ((long) i << 22), keys[i + 2]);
+      assertEquals((byte) i, map.get(keys[i + 2], (byte) -1));
+    }
+    
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(0L));
+    assertArrayEquals(new long[0], map.keys());
+    
+    final LongObjectHashMap<String> objMap = new LongObjectHashMap<String>();
+    objMap.put(0L, "zero");
+    objMap.put(base, "base");
+    assertArrayEquals(new long[] { 0L, base }, objMap.keys());
+    objMap.clear();
+    assertNull(objMap.get(0L));
+    assertNull(objMap.get(base));
+  }
+}
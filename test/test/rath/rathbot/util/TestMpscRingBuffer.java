@@ -0,0 +1,103 @@
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.MpscRingBuffer;
+
+public class TestMpscRingBuffer {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testFifoAndFull() {
+    
+    final MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(3);
+    assertEquals(4, ring.capacity());
+    assertTrue(ring.isEmpty());
+    assertNull(ring.poll());
+    
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(i));
+    }
+    assertFalse(ring.offer(4));
+    assertEquals(4, ring.size());
+    
+    // Freed slots are reused on the next lap, still in order
+    assertEquals(Integer.valueOf(0), ring.poll());
+    assertEquals(Integer.valueOf(1), ring.poll());
+    assertTrue(ring.offer(4));
+    assertTrue(ring.offer(5));
+    final Integer[] batch = new Integer[8];
+    assertEquals(4, ring.drainTo(batch));
+    for (int i = 0; i < 4; i++) {
+      assertEquals(Integer.valueOf(i + 2), batch[i]);
+    }
+    assertTrue(ring.isEmpty());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testSmallestCapacity() {
+    
+    // One slot can't tell full from free, so it's rounded up to two
+    final MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(1);
+    assertEquals(2, ring.capacity());
+    assertTrue(ring.offer(1));
+    assertTrue(ring.offer(2));
+    assertFalse(ring.offer(3));
+    assertEquals(Integer.valueOf(1), ring.poll());
+    assertEquals(Integer.valueOf(2), ring.poll());
+    assertNull(ring.poll());
+    assertTrue(ring.offer(3));
+    assertEquals(Integer.valueOf(3), ring.poll());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testManyProducers() throws InterruptedException {
+    
+    final int producers = 4;
+    final int perProducer = 100000;
+    final MpscRingBuffer<Long> ring = new MpscRingBuffer<Long>(1024);
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final long id = p;
+      threads[p] = new Thread(new Runnable() {
+        
+        @Override
+        public void run() {
+          for (long i = 0; i < perProducer; i++) {
+            while (!ring.offer((id << 32) | i)) {
+              Thread.yield();
+            }
+          }
+        }
+      });
+      threads[p].start();
+    }
+    
+    // Every item arrives exactly once, and each producer's items arrive in the order it added them
+    final long[] next = new long[producers];
+    int taken = 0;
+    while (taken < producers * perProducer) {
+      final Long item = ring.poll();
+      if (item == null) {
+        Thread.yield();
+        continue;
+      }
+      final int p = (int) (item.longValue() >>> 32);
+      assertEquals(next[p], item.longValue() & 0xFFFFFFFFL);
+      next[p]++;
+      taken++;
+    }
+    
+    for (final Thread t : threads) {
+      t.join();
+    }
+    assertTrue(ring.isEmpty());
+  }
+}
@@ -0,0 +1,46 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.SimHash;
+
+public class TestSimHash {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testNormalization() {
+    
+    final long hash = SimHash.of("Buy cheap gold now");
+    assertEquals(hash, SimHash.of("buy CHEAP gold now"));
+    assertEquals(hash, SimHash.of("  buy   cheap\tgold\nnow "));
+    assertEquals(0L, SimHash.of(""));
+    assertEquals(0L, SimHash.of(" \t\n"));
+    
+    // Short texts still get distinct signatures
+    assertTrue(SimHash.of("a") != SimHash.of("b"));
+    assertTrue(SimHash.of("gg") != SimHash.of("g"));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testDistance() {
+    
+    final String spam = "FREE NITRO CLICK HERE discord.gift/abc123 limited offer";
+    final long hash = SimHash.of(spam);
+    
+    // Small edits change few bits
+    assertTrue(SimHash.distance(hash, SimHash.of(spam + "!")) <= 8);
+    assertTrue(SimHash.distance(hash, SimHash.of("x" + spam)) <= 8);
+    assertTrue(SimHash.distance(hash, SimHash.of(spam.replace("CLICK", "CL1CK"))) <= 8);
+    
+    // Unrelated text changes many
+    assertTrue(SimHash.distance(hash, SimHash.of("what beatmap is this song from, anyone know?")) > 16);
+    
+    assertEquals(0, SimHash.distance(hash, hash));
+    assertEquals(64, SimHash.distance(0L, -1L));
+  }
+}
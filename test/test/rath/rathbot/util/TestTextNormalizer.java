@@ -0,0 +1,59 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.TextNormalizer;
+
+public class TestTextNormalizer {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testInvisibles() {
+    
+    // Zero-width spaces, joiners, soft hyphens, and direction marks disappear
+    assertEquals("free nitro", TextNormalizer.normalize("fr\u200Bee\u200D n\u00ADi\u200Etro\uFEFF"));
+    
+    // Whitespace of any kind collapses, and the ends are trimmed
+    assertEquals("a b c", TextNormalizer.normalize(" \tA\u00A0\u2003 b\n\nc  "));
+    assertEquals("", TextNormalizer.normalize("\u200B \u200B"));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLookalikes() {
+    
+    // Cyrillic and Greek letters posing as Latin ones
+    assertEquals("paypal", TextNormalizer.normalize("\u0440\u0430y\u0440\u0430l"));
+    assertEquals("nitro", TextNormalizer.normalize("\u039D\u0399\u03A4R\u039F"));
+    
+    // Fullwidth, circled, small capital, and mathematical bold letters
+    assertEquals("free", TextNormalizer.normalize("\uFF26\uFF32\uFF25\uFF25"));
+    assertEquals("free", TextNormalizer.normalize("\u24D5\u24E1\u24D4\u24D4"));
+    assertEquals("free", TextNormalizer.normalize("\uA730\u0280\u1D07\u1D07"));
+    assertEquals("free", TextNormalizer.normalize("\uD835\uDC1F\uD835\uDC2B\uD835\uDC1E\uD835\uDC1E"));
+    
+    // Ligatures expand
+    assertEquals("fine", TextNormalizer.normalize("\uFB01ne"));
+    
+    // Emoji are left alone
+    assertEquals("gg \uD83D\uDE00", TextNormalizer.normalize("GG \uD83D\uDE00"));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testCombiningMarks() {
+    
+    // Accents and zalgo on Latin letters are removed, whether precomposed or not
+    assertEquals("cafe", TextNormalizer.normalize("caf\u00E9"));
+    assertEquals("cafe", TextNormalizer.normalize("cafe\u0301"));
+    assertEquals("hi", TextNormalizer.normalize("h\u0336\u0334\u0335\u0321\u0322i\u0489\u0489\u0489"));
+    
+    // Other scripts keep the marks they need, but not a flood of them
+    assertEquals("\u0928\u092E\u0938\u094D\u0924\u0947",
+        TextNormalizer.normalize("\u0928\u092E\u0938\u094D\u0924\u0947"));
+    assertEquals("\u05D0\u05B8\u05B8", TextNormalizer.normalize("\u05D0\u05B8\u05B8\u05B8\u05B8\u05B8"));
+  }
+}
@@ -0,0 +1,87 @@
+
+package test.rath.rathbot.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rath.rathbot.util.TimingWheel;
+
+public class TestTimingWheel {
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testFiresOnTime() {
+    
+    final TimingWheel wheel = new TimingWheel(1000L, 4, 0L);
+    wheel.schedule(1L, 5000L);
+    wheel.schedule(2L, 3500L);
+    wheel.schedule(3L, 70000L);
+    assertEquals(3, wheel.size());
+    
+    // Deadlines between ticks fire on the next tick, never early
+    assertArrayEquals(new long[0], wheel.advance(3000L));
+    assertArrayEquals(new long[] { 2L }, wheel.advance(4000L));
+    assertArrayEquals(new long[] { 1L }, wheel.advance(5000L));
+    
+    // Past the first level, the timer is moved down and still fires on its tick
+    assertArrayEquals(new long[0], wheel.advance(69999L));
+    assertArrayEquals(new long[] { 3L }, wheel.advance(70000L));
+    assertEquals(0, wheel.size());
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testCancelAndReplace() {
+    
+    final TimingWheel wheel = new TimingWheel(1000L, 4, 0L);
+    wheel.schedule(1L, 10000L);
+    wheel.schedule(2L, 10000L);
+    wheel.schedule(3L, 10000L);
+    assertTrue(wheel.cancel(2L));
+    assertFalse(wheel.cancel(2L));
+    assertFalse(wheel.isPending(2L));
+    
+    // Scheduling a key again moves its timer
+    wheel.schedule(3L, 20000L);
+    assertArrayEquals(new long[] { 1L }, wheel.advance(15000L));
+    assertTrue(wheel.isPending(3L));
+    assertArrayEquals(new long[] { 3L }, wheel.advance(20000L));
+    
+    // A deadline that has already passed fires on the next tick
+    wheel.schedule(4L, 0L);
+    assertArrayEquals(new long[] { 4L }, wheel.advance(21000L));
+  }
+  
+  @Test
+  @SuppressWarnings("static-method")
+  public void testLongDeadlines() {
+    
+    final long day = TimeUnit.DAYS.toMillis(1);
+    final TimingWheel wheel = new TimingWheel(1000L, 3, 0L);
+    
+    // Three levels of one-second ticks reach about three days, so the year-long timer waits at the top
+    for (int i = 1; i <= 1000; i++) {
+      wheel.schedule(i, i * 7919L * 1000L % (5 * day) + 1000L);
+    }
+    wheel.schedule(5000L, 365 * day);
+    
+    int fired = 0;
+    for (long now = 0; now <= 5 * day; now += 3600000L) {
+      for (final long key : wheel.advance(now)) {
+        assertTrue(key * 7919L * 1000L % (5 * day) + 1000L <= now);
+        assertTrue(key * 7919L * 1000L % (5 * day) + 1000L > now - 3600000L);
+        fired++;
+      }
+    }
+    assertEquals(1000, fired);
+    assertTrue(wheel.isPending(5000L));
+    assertArrayEquals(new long[0], wheel.advance(365 * day - 1000L));
+    assertArrayEquals(new long[] { 5000L }, wheel.advance(365 * day));
+  }
+}